@@ -0,0 +1,57 @@
+package com.reactive.nexo;
+
+import com.reactive.nexo.ingest.CsvFileImporter;
+import com.reactive.nexo.ingest.CsvImportSummary;
+import com.reactive.nexo.ingest.ImportCheckpoint;
+import org.springframework.boot.DefaultApplicationArguments;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Importación de un archivo CSV desde la línea de comandos, sin levantar el servidor HTTP:
+ * <pre>
+ *   CsvImportApplication &lt;archivo.csv&gt; [--checkpoint=&lt;ruta&gt;] [--delimiter=;]
+ * </pre>
+ * Arranca con el perfil {@code import} (no recrea las tablas ni carga datos de ejemplo). Si el proceso se
+ * interrumpe, al ejecutarlo de nuevo con el mismo checkpoint continúa desde el último lote confirmado.
+ */
+public class CsvImportApplication {
+
+    public static void main(String[] args) {
+        DefaultApplicationArguments arguments = new DefaultApplicationArguments(args);
+        if (arguments.getNonOptionArgs().size() != 1) {
+            System.err.println("Uso: CsvImportApplication <archivo.csv> [--checkpoint=<ruta>] [--delimiter=;]");
+            System.exit(2);
+        }
+        Path file = Paths.get(arguments.getNonOptionArgs().get(0)).toAbsolutePath();
+        Path checkpoint = Paths.get(option(arguments, "checkpoint", file + ".checkpoint"));
+        String delimiter = option(arguments, "delimiter", ",");
+
+        SpringApplication application = new SpringApplication(ReactiveSpringBootApplication.class);
+        application.setWebApplicationType(WebApplicationType.NONE);
+        application.setAdditionalProfiles("import");
+        ConfigurableApplicationContext context = application.run(args);
+        int exitCode;
+        try {
+            CsvImportSummary summary = context.getBean(CsvFileImporter.class)
+                    .importFile(file, new ImportCheckpoint(checkpoint), delimiter.charAt(0))
+                    .block();
+            exitCode = summary == null ? 1 : 0;
+        } catch (RuntimeException e) {
+            System.err.println("Importación interrumpida: " + e.getMessage() + " (checkpoint: " + checkpoint + ")");
+            exitCode = 1;
+        }
+        int code = exitCode;
+        System.exit(SpringApplication.exit(context, () -> code));
+    }
+
+    private static String option(DefaultApplicationArguments arguments, String name, String defaultValue) {
+        List<String> values = arguments.getOptionValues(name);
+        return values == null || values.isEmpty() ? defaultValue : values.get(0);
+    }
+}
@@ -0,0 +1,241 @@
+package com.reactive.nexo.admission;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.r2dbc.spi.R2dbcTimeoutException;
+import io.r2dbc.spi.R2dbcTransientResourceException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Concurrency limit that adapts to latency (AIMD).
+ * <p>
+ * At most {@link #getLimit()} permits are out at a time. Each released permit is a latency sample: a sample above
+ * the target latency, or work that failed with a timeout, a transient R2DBC resource error or a rejection by another
+ * limiter, multiplies the limit by the backoff ratio; a fast sample taken while at least half the limit was in use
+ * adds {@code 1/limit}, i.e. about one permit per limit's worth of completions. The limit stays within [min, max].
+ * When no permit is free a caller waits in a FIFO queue of at most {@code maxQueue} entries for at most
+ * {@code maxWait}; when the queue is full, or the wait times out, it gets an {@link AdmissionRejectedException}.
+ * <p>
+ * Metrics, tagged with {@code class}: {@code nexo.admission.limit}, {@code nexo.admission.in-flight},
+ * {@code nexo.admission.queued} and {@code nexo.admission.rejected} (by {@code reason}).
+ */
+public class AdaptiveLimiter {
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long targetLatencyNanos;
+    private final double backoffRatio;
+    private final int maxQueue;
+    private final Duration maxWait;
+    private final Duration retryAfter;
+    private final Counter rejectedQueueFull;
+    private final Counter rejectedTimeout;
+
+    // guarded by this
+    private double limit;
+    private int inFlight;
+    private final Deque<Waiter> waiters = new ArrayDeque<>();
+
+    public AdaptiveLimiter(String name, AdmissionProperties.Limit settings, Duration retryAfter, MeterRegistry meterRegistry) {
+        this.name = name;
+        this.minLimit = Math.max(1, settings.getMinLimit());
+        this.maxLimit = Math.max(minLimit, settings.getMaxLimit());
+        this.limit = Math.min(maxLimit, Math.max(minLimit, settings.getInitialLimit()));
+        this.targetLatencyNanos = settings.getTargetLatency().toNanos();
+        this.backoffRatio = Math.min(0.99, Math.max(0.1, settings.getBackoffRatio()));
+        this.maxQueue = Math.max(0, settings.getMaxQueue());
+        this.maxWait = settings.getMaxWait();
+        this.retryAfter = retryAfter;
+        Gauge.builder("nexo.admission.limit", this, AdaptiveLimiter::getLimit).tag("class", name).register(meterRegistry);
+        Gauge.builder("nexo.admission.in-flight", this, AdaptiveLimiter::getInFlight).tag("class", name).register(meterRegistry);
+        Gauge.builder("nexo.admission.queued", this, AdaptiveLimiter::getQueued).tag("class", name).register(meterRegistry);
+        this.rejectedQueueFull = meterRegistry.counter("nexo.admission.rejected", "class", name, "reason", "queue_full");
+        this.rejectedTimeout = meterRegistry.counter("nexo.admission.rejected", "class", name, "reason", "timeout");
+    }
+
+    /**
+     * A permit, possibly after waiting in the queue; fails with {@link AdmissionRejectedException}.
+     * The permit must be released exactly once (further releases are ignored).
+     */
+    public Mono<Permit> acquire() {
+        return Mono.create(sink -> {
+            Permit granted = null;
+            Waiter waiter = null;
+            synchronized (this) {
+                if (inFlight < (int) limit && waiters.isEmpty()) {
+                    granted = grant();
+                } else if (waiters.size() < maxQueue) {
+                    waiter = new Waiter(sink);
+                    waiters.addLast(waiter);
+                }
+            }
+            if (granted != null) {
+                sink.success(granted);
+            } else if (waiter == null) {
+                rejectedQueueFull.increment();
+                sink.error(new AdmissionRejectedException(name, retryAfter));
+            } else {
+                Waiter queued = waiter;
+                queued.timeout = Schedulers.parallel().schedule(() -> expire(queued), maxWait.toNanos(), TimeUnit.NANOSECONDS);
+                sink.onCancel(() -> cancel(queued));
+            }
+        });
+    }
+
+    /**
+     * Runs {@code work} under a permit released when it terminates or is cancelled.
+     */
+    public <T> Mono<T> run(Supplier<Mono<T>> work) {
+        return Mono.usingWhen(acquire(), permit -> work.get(),
+                permit -> Mono.fromRunnable(() -> permit.release(false)),
+                (permit, e) -> Mono.fromRunnable(() -> permit.release(isOverload(e))),
+                permit -> Mono.fromRunnable(() -> permit.release(false)));
+    }
+
+    public <T> Flux<T> runMany(Supplier<Flux<T>> work) {
+        return Flux.usingWhen(acquire(), permit -> work.get(),
+                permit -> Mono.fromRunnable(() -> permit.release(false)),
+                (permit, e) -> Mono.fromRunnable(() -> permit.release(isOverload(e))),
+                permit -> Mono.fromRunnable(() -> permit.release(false)));
+    }
+
+    /**
+     * Failures that mean "too much load" rather than a bad request.
+     */
+    public static boolean isOverload(Throwable e) {
+        return e instanceof TimeoutException || e instanceof R2dbcTimeoutException
+                || e instanceof R2dbcTransientResourceException || e instanceof AdmissionRejectedException;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getQueued() {
+        return waiters.size();
+    }
+
+    public long getRejected() {
+        return (long) (rejectedQueueFull.count() + rejectedTimeout.count());
+    }
+
+    // caller holds the lock
+    private Permit grant() {
+        inFlight++;
+        return new Permit(inFlight);
+    }
+
+    private void release(Permit permit, boolean dropped, boolean sample) {
+        long latency = System.nanoTime() - permit.grantedAt;
+        List<Waiter> ready = new ArrayList<>();
+        synchronized (this) {
+            inFlight--;
+            if (sample) {
+                if (dropped || latency > targetLatencyNanos) {
+                    limit = Math.max(minLimit, limit * backoffRatio);
+                } else if (permit.inFlightAtGrant * 2 >= limit) {
+                    limit = Math.min(maxLimit, limit + 1.0 / limit);
+                }
+            }
+            while (inFlight < (int) limit && !waiters.isEmpty()) {
+                Waiter waiter = waiters.pollFirst();
+                waiter.permit = grant();
+                ready.add(waiter);
+            }
+        }
+        // emitted outside the lock: the subscriber may run the whole request synchronously
+        for (Waiter waiter : ready) {
+            waiter.disposeTimeout();
+            waiter.sink.success(waiter.permit);
+        }
+    }
+
+    private void expire(Waiter waiter) {
+        boolean removed;
+        synchronized (this) {
+            removed = waiters.remove(waiter);
+        }
+        if (removed) {
+            rejectedTimeout.increment();
+            waiter.sink.error(new AdmissionRejectedException(name, retryAfter));
+        }
+    }
+
+    private void cancel(Waiter waiter) {
+        boolean removed;
+        synchronized (this) {
+            removed = waiters.remove(waiter);
+        }
+        if (removed) {
+            waiter.disposeTimeout();
+        } else if (waiter.permit != null) {
+            // granted while being cancelled: nobody will use it
+            waiter.permit.releaseOnce(false, false);
+        }
+    }
+
+    public final class Permit {
+        private final long grantedAt = System.nanoTime();
+        private final int inFlightAtGrant;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(int inFlightAtGrant) {
+            this.inFlightAtGrant = inFlightAtGrant;
+        }
+
+        /**
+         * Returns the permit; {@code dropped} marks the work as failed because of overload.
+         */
+        public void release(boolean dropped) {
+            releaseOnce(dropped, true);
+        }
+
+        private void releaseOnce(boolean dropped, boolean sample) {
+            if (released.compareAndSet(false, true)) {
+                AdaptiveLimiter.this.release(this, dropped, sample);
+            }
+        }
+    }
+
+    private static final class Waiter {
+        final MonoSink<Permit> sink;
+        volatile Disposable timeout;
+        volatile Permit permit;
+
+        Waiter(MonoSink<Permit> sink) {
+            this.sink = sink;
+        }
+
+        // the timeout is scheduled after the waiter is queued and may not be set yet; firing late is harmless
+        void disposeTimeout() {
+            Disposable scheduled = timeout;
+            if (scheduled != null) {
+                scheduled.dispose();
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.reactive.nexo.admission;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+/**
+ * Admission control for {@code /api/v1/users}: every request takes a permit of its endpoint class before it
+ * reaches the controller and returns it when the response completes (or the client goes away).
+ * <p>
+ * Classes: {@code bulk} (import, export), {@code query} (listings, delta sync, searches, attribute scans),
+ * {@code write} (other POST/PUT/PATCH/DELETE) and {@code read} (single profile reads). A request that cannot get
+ * a permit is answered at once with 503 and {@code Retry-After}, before any database work; so is a request whose
+ * work was rejected by the service-level {@code db} limit. Other paths (actuator, OpenAPI) and the SSE change stream
+ * are not limited.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 10)
+@Slf4j
+public class AdmissionControlFilter implements WebFilter {
+
+    static final String API = "/api/v1/users";
+
+    private final AdmissionLimits admissionLimits;
+
+    public AdmissionControlFilter(AdmissionLimits admissionLimits) {
+        this.admissionLimits = admissionLimits;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        String endpointClass = admissionLimits.isEnabled() ? classify(exchange.getRequest().getMethod(),
+                exchange.getRequest().getPath().pathWithinApplication().value()) : null;
+        if (endpointClass == null) {
+            return chain.filter(exchange);
+        }
+        return admissionLimits.get(endpointClass).acquire()
+                .onErrorResume(AdmissionRejectedException.class, e -> reject(exchange, e).then(Mono.empty()))
+                .flatMap(permit -> chain.filter(exchange)
+                        .doOnError(e -> permit.release(AdaptiveLimiter.isOverload(e)))
+                        // first release wins: completion, cancellation or the error above
+                        .doFinally(signal -> permit.release(false)))
+                // the service-level db limit rejected the work: same answer as a rejection here
+                .onErrorResume(AdmissionRejectedException.class, e -> exchange.getResponse().isCommitted()
+                        ? Mono.error(e) : reject(exchange, e));
+    }
+
+    /**
+     * Endpoint class of a request, or null when it is not limited.
+     */
+    public static String classify(HttpMethod method, String path) {
+        if (!path.startsWith(API) || (path.length() > API.length() && path.charAt(API.length()) != '/')) {
+            return null;
+        }
+        String rest = path.substring(API.length());
+        if (HttpMethod.GET.equals(method)) {
+            if (rest.equals("/events")) {
+                // long-lived change streams would pin a permit and skew the latency samples; bounded by
+                // nexo.events.max-subscribers instead
+                return null;
+            }
+            if (rest.equals("/export")) {
+                return AdmissionLimits.BULK;
+            }
+            if (rest.isEmpty() || rest.equals("/") || rest.equals("/changes") || rest.startsWith("/by/")
+                    || rest.startsWith("/attributes")) {
+                return AdmissionLimits.QUERY;
+            }
+            return AdmissionLimits.READ;
+        }
+        if (HttpMethod.POST.equals(method)) {
+            if (rest.equals("/import")) {
+                return AdmissionLimits.BULK;
+            }
+            if (rest.startsWith("/search")) {
+                return AdmissionLimits.QUERY;
+            }
+            return AdmissionLimits.WRITE;
+        }
+        if (HttpMethod.PUT.equals(method) || HttpMethod.PATCH.equals(method) || HttpMethod.DELETE.equals(method)) {
+            return AdmissionLimits.WRITE;
+        }
+        return null;
+    }
+
+    private Mono<Void> reject(ServerWebExchange exchange, AdmissionRejectedException e) {
+        log.debug("Admission: rejected {} {} ({} limit)", exchange.getRequest().getMethod(),
+                exchange.getRequest().getPath(), e.getLimiter());
+        ServerHttpResponse response = exchange.getResponse();
+        response.setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+        response.getHeaders().set(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()));
+        return response.setComplete();
+    }
+}
@@ -0,0 +1,39 @@
+package com.reactive.nexo.admission;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * {@code /actuator/admission}: current limit, in-flight work, queue depth and rejections of every limiter.
+ */
+@Component
+@Endpoint(id = "admission")
+public class AdmissionEndpoint {
+
+    private final AdmissionLimits admissionLimits;
+
+    public AdmissionEndpoint(AdmissionLimits admissionLimits) {
+        this.admissionLimits = admissionLimits;
+    }
+
+    @ReadOperation
+    public Map<String, Object> limits() {
+        Map<String, Object> classes = new LinkedHashMap<>();
+        for (AdaptiveLimiter limiter : admissionLimits.all()) {
+            Map<String, Object> state = new LinkedHashMap<>();
+            state.put("limit", limiter.getLimit());
+            state.put("inFlight", limiter.getInFlight());
+            state.put("queued", limiter.getQueued());
+            state.put("rejected", limiter.getRejected());
+            classes.put(limiter.getName(), state);
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("enabled", admissionLimits.isEnabled());
+        body.put("classes", classes);
+        return body;
+    }
+}
@@ -0,0 +1,65 @@
+package com.reactive.nexo.admission;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * The {@link AdaptiveLimiter}s of the application, by class.
+ * <p>
+ * {@code read}, {@code query}, {@code write} and {@code bulk} are endpoint classes enforced by
+ * {@link AdmissionControlFilter}; {@link #DB} is the service-level limit that {@code UserService} takes around
+ * its heavy queries (listings, bulk fetches, searches, attribute scans), one bound in front of the connection pool
+ * whatever endpoint started them. Waiters for {@link #DB} do not hold a connection: those methods do not open a
+ * transaction. With {@code nexo.admission.enabled=false} nothing is limited.
+ */
+@Component
+public class AdmissionLimits {
+
+    public static final String READ = "read";
+    public static final String QUERY = "query";
+    public static final String WRITE = "write";
+    public static final String BULK = "bulk";
+    public static final String DB = "db";
+
+    private final boolean enabled;
+    private final Map<String, AdaptiveLimiter> limiters = new LinkedHashMap<>();
+
+    public AdmissionLimits(AdmissionProperties properties, MeterRegistry meterRegistry) {
+        this.enabled = properties.isEnabled();
+        for (String name : new String[]{READ, QUERY, WRITE, BULK, DB}) {
+            AdmissionProperties.Limit settings = properties.getLimits().getOrDefault(name, new AdmissionProperties.Limit());
+            limiters.put(name, new AdaptiveLimiter(name, settings, properties.getRetryAfter(), meterRegistry));
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public AdaptiveLimiter get(String name) {
+        return limiters.get(name);
+    }
+
+    public Collection<AdaptiveLimiter> all() {
+        return Collections.unmodifiableCollection(limiters.values());
+    }
+
+    /**
+     * Runs {@code work} under the service-level {@link #DB} limit.
+     */
+    public <T> Mono<T> db(Supplier<Mono<T>> work) {
+        return enabled ? limiters.get(DB).run(work) : Mono.defer(work);
+    }
+
+    public <T> Flux<T> dbMany(Supplier<Flux<T>> work) {
+        return enabled ? limiters.get(DB).runMany(work) : Flux.defer(work);
+    }
+}
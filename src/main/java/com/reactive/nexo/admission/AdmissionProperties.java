@@ -0,0 +1,35 @@
+package com.reactive.nexo.admission;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * {@code nexo.admission.*}: one {@link Limit} per endpoint class ({@code read}, {@code query}, {@code write},
+ * {@code bulk}) plus the service-level {@code db} limit. A class without configuration uses the defaults below.
+ */
+@Data
+@ConfigurationProperties(prefix = "nexo.admission")
+public class AdmissionProperties {
+
+    private boolean enabled = true;
+    // sent as Retry-After (whole seconds) with every 503
+    private Duration retryAfter = Duration.ofSeconds(1);
+    private Map<String, Limit> limits = new LinkedHashMap<>();
+
+    @Data
+    public static class Limit {
+        private int initialLimit = 20;
+        private int minLimit = 4;
+        private int maxLimit = 200;
+        // a completion slower than this shrinks the limit
+        private Duration targetLatency = Duration.ofMillis(250);
+        private double backoffRatio = 0.9;
+        // requests allowed to wait for a permit, and for how long, before being rejected
+        private int maxQueue = 0;
+        private Duration maxWait = Duration.ofMillis(50);
+    }
+}
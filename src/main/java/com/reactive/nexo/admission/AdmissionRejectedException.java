@@ -0,0 +1,37 @@
+package com.reactive.nexo.admission;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+
+/**
+ * Work rejected by an {@link AdaptiveLimiter}: 503 with {@code Retry-After}.
+ */
+public class AdmissionRejectedException extends ResponseStatusException {
+
+    private final String limiter;
+    private final long retryAfterSeconds;
+
+    public AdmissionRejectedException(String limiter, Duration retryAfter) {
+        super(HttpStatus.SERVICE_UNAVAILABLE, "Overloaded: " + limiter + " limit reached");
+        this.limiter = limiter;
+        this.retryAfterSeconds = Math.max(1, (retryAfter.toMillis() + 999) / 1000);
+    }
+
+    public String getLimiter() {
+        return limiter;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    @Override
+    public HttpHeaders getHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+        return headers;
+    }
+}
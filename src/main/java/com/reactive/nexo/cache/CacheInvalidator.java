@@ -0,0 +1,153 @@
+package com.reactive.nexo.cache;
+
+import com.reactive.nexo.event.AttributeDefinitionChangedEvent;
+import com.reactive.nexo.event.UserChangeEvent;
+import com.reactive.nexo.index.AttributeValueIndex;
+import com.reactive.nexo.routing.RecentWrites;
+import com.reactive.nexo.service.AttributeCatalog;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.UUID;
+
+/**
+ * Keeps the node-local caches (profiles, attribute value index, attribute catalog) consistent across nodes.
+ * <p>
+ * This node's own writes already update its caches through the after-commit events; they are forwarded to the
+ * other nodes over the {@link InvalidationBus}: changed user ids are batched for up to {@code nexo.invalidation.window}
+ * (at most {@code nexo.invalidation.batch-size} ids per message), changed attribute definitions are sent one by one.
+ * Messages from other nodes drop exactly the named entries; {@link Invalidation#all} drops everything.
+ * <p>
+ * Metrics: {@code nexo.invalidation.sent} and {@code nexo.invalidation.received}.
+ */
+@Component
+@Slf4j
+public class CacheInvalidator {
+
+    private final InvalidationBus bus;
+    private final UserProfileCache profileCache;
+    private final AttributeValueIndex attributeValueIndex;
+    private final AttributeCatalog attributeCatalog;
+    private final RecentWrites recentWrites;
+    private final String nodeId;
+    private final int batchSize;
+    private final Duration window;
+    private final Counter sent;
+    private final Counter received;
+    private final Sinks.Many<Integer> changedUsers = Sinks.many().unicast().onBackpressureBuffer();
+    private Disposable sending;
+    private Disposable receiving;
+
+    public CacheInvalidator(InvalidationBus bus,
+                            UserProfileCache profileCache,
+                            AttributeValueIndex attributeValueIndex,
+                            AttributeCatalog attributeCatalog,
+                            RecentWrites recentWrites,
+                            MeterRegistry meterRegistry,
+                            @Value("${nexo.invalidation.node-id:}") String nodeId,
+                            @Value("${nexo.invalidation.batch-size:200}") int batchSize,
+                            @Value("${nexo.invalidation.window:10ms}") Duration window) {
+        this.bus = bus;
+        this.profileCache = profileCache;
+        this.attributeValueIndex = attributeValueIndex;
+        this.attributeCatalog = attributeCatalog;
+        this.recentWrites = recentWrites;
+        this.nodeId = nodeId.isBlank() ? UUID.randomUUID().toString().substring(0, 8) : nodeId;
+        this.batchSize = Math.max(1, batchSize);
+        this.window = window;
+        this.sent = meterRegistry.counter("nexo.invalidation.sent");
+        this.received = meterRegistry.counter("nexo.invalidation.received");
+    }
+
+    @PostConstruct
+    public void start() {
+        receiving = bus.messages()
+                .filter(invalidation -> !nodeId.equals(invalidation.getOrigin()))
+                .subscribe(this::apply, e -> log.error("Invalidation bus subscription ended", e));
+        sending = changedUsers.asFlux()
+                .bufferTimeout(batchSize, window)
+                .concatMap(ids -> send(Invalidation.users(nodeId, new ArrayList<>(new LinkedHashSet<>(ids)))))
+                .subscribe();
+    }
+
+    /**
+     * Sends the ids still buffered, then stops listening.
+     */
+    @PreDestroy
+    public void stop() {
+        synchronized (changedUsers) {
+            changedUsers.tryEmitComplete();
+        }
+        if (receiving != null) {
+            receiving.dispose();
+        }
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @EventListener
+    public void onUserChange(UserChangeEvent event) {
+        if (event.getUserId() == null) {
+            return;
+        }
+        // listeners run on the committing threads; the sink needs serialized emissions
+        synchronized (changedUsers) {
+            changedUsers.tryEmitNext(event.getUserId());
+        }
+    }
+
+    @EventListener
+    public void onAttributeDefinitionChanged(AttributeDefinitionChangedEvent event) {
+        send(Invalidation.attribute(nodeId, event.getName())).subscribe();
+    }
+
+    /**
+     * Applies a message from another node to the local caches.
+     */
+    public void apply(Invalidation invalidation) {
+        received.increment();
+        if (invalidation.isAll()) {
+            log.info("Invalidation: dropping all cached profiles and definitions");
+            profileCache.invalidateAll();
+            attributeCatalog.invalidateAll();
+            if (attributeValueIndex.isEnabled()) {
+                attributeValueIndex.rebuild().subscribe();
+            }
+            return;
+        }
+        if (invalidation.getAttribute() != null) {
+            attributeCatalog.invalidate(invalidation.getAttribute());
+            return;
+        }
+        // before the reloads below: they must read these users from the primary
+        recentWrites.recordUsers(invalidation.getUserIds());
+        for (Integer userId : invalidation.getUserIds()) {
+            profileCache.invalidate(userId);
+            attributeValueIndex.refreshUser(userId);
+        }
+    }
+
+    private Mono<Void> send(Invalidation invalidation) {
+        return bus.publish(invalidation)
+                .doOnSuccess(v -> sent.increment())
+                // the writes are committed already; other nodes catch up when their entries expire
+                .onErrorResume(e -> {
+                    log.warn("Invalidation not sent: {}", invalidation.encode(), e);
+                    return Mono.empty();
+                });
+    }
+}
@@ -0,0 +1,84 @@
+package com.reactive.nexo.cache;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Cache invalidation sent between nodes: the users whose profiles changed, one attribute definition that changed,
+ * or (no user ids, no attribute) everything. {@code origin} is the sending node, which ignores its own messages;
+ * it is null for messages a bus raises locally.
+ * <p>
+ * On the wire it is compact text, {@code origin;u;1,2,3}, {@code origin;a;name} or {@code origin;*}, well below
+ * the 8000 byte NOTIFY payload limit for the batch sizes used by {@link CacheInvalidator}.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class Invalidation {
+
+    private String origin;
+    private List<Integer> userIds;
+    private String attribute;
+
+    public static Invalidation users(String origin, List<Integer> userIds) {
+        return new Invalidation(origin, userIds, null);
+    }
+
+    public static Invalidation attribute(String origin, String attribute) {
+        return new Invalidation(origin, Collections.emptyList(), attribute);
+    }
+
+    public static Invalidation all(String origin) {
+        return new Invalidation(origin, Collections.emptyList(), null);
+    }
+
+    public boolean isAll() {
+        return userIds.isEmpty() && attribute == null;
+    }
+
+    public String encode() {
+        if (attribute != null) {
+            return origin + ";a;" + attribute;
+        }
+        if (userIds.isEmpty()) {
+            return origin + ";*";
+        }
+        StringBuilder text = new StringBuilder(origin).append(";u;");
+        for (int i = 0; i < userIds.size(); i++) {
+            if (i > 0) {
+                text.append(',');
+            }
+            text.append(userIds.get(i));
+        }
+        return text.toString();
+    }
+
+    /**
+     * Parses {@link #encode()} output; throws IllegalArgumentException on anything else.
+     */
+    public static Invalidation decode(String text) {
+        String[] parts = text.split(";", 3);
+        if (parts.length == 2 && parts[1].equals("*")) {
+            return all(parts[0]);
+        }
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Invalid invalidation message: " + text);
+        }
+        if (parts[1].equals("a")) {
+            return attribute(parts[0], parts[2]);
+        }
+        if (!parts[1].equals("u")) {
+            throw new IllegalArgumentException("Invalid invalidation message: " + text);
+        }
+        List<Integer> ids = new ArrayList<>();
+        for (String id : parts[2].split(",")) {
+            ids.add(Integer.valueOf(id));
+        }
+        return users(parts[0], ids);
+    }
+}
@@ -0,0 +1,23 @@
+package com.reactive.nexo.cache;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Broadcast channel for {@link Invalidation}s between the nodes of the service.
+ * <p>
+ * Delivery is best effort and at most once; an implementation that may have lost messages (e.g. after
+ * reconnecting) emits {@link Invalidation#all} so receivers drop everything.
+ */
+public interface InvalidationBus {
+
+    /**
+     * Sends to every node, the sender included.
+     */
+    Mono<Void> publish(Invalidation invalidation);
+
+    /**
+     * Messages from every node, the node's own included. Hot: only messages sent while subscribed are seen.
+     */
+    Flux<Invalidation> messages();
+}
@@ -0,0 +1,29 @@
+package com.reactive.nexo.cache;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+
+/**
+ * In-process {@link InvalidationBus}: every message is delivered to the subscribers of this instance. Enough for a
+ * single node, and for tests that share one instance between several {@link CacheInvalidator}s standing in for nodes.
+ */
+public class LoopbackInvalidationBus implements InvalidationBus {
+
+    private final Sinks.Many<Invalidation> sink = Sinks.many().multicast().directBestEffort();
+
+    @Override
+    public Mono<Void> publish(Invalidation invalidation) {
+        return Mono.fromRunnable(() -> {
+            // concurrent publishers: retry the emission instead of failing with FAIL_NON_SERIALIZED
+            sink.emitNext(invalidation, Sinks.EmitFailureHandler.busyLooping(Duration.ofMillis(100)));
+        });
+    }
+
+    @Override
+    public Flux<Invalidation> messages() {
+        return sink.asFlux();
+    }
+}
@@ -0,0 +1,104 @@
+package com.reactive.nexo.cache;
+
+import io.r2dbc.postgresql.api.Notification;
+import io.r2dbc.postgresql.api.PostgresqlConnection;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.Wrapped;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.r2dbc.core.DatabaseClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * {@link InvalidationBus} over Postgres LISTEN/NOTIFY on one channel.
+ * <p>
+ * Messages are sent with {@code pg_notify} on a pooled connection. Receiving uses one dedicated connection, opened
+ * outside the pool so it does not take a slot from the queries, which LISTENs while {@link #messages()} is subscribed.
+ * It comes from the driver factory under every wrapper (replica routing, sharding, pools), i.e. the primary or
+ * shard 0, which is also where the notifications are sent.
+ * When that connection fails it is reopened with backoff; notifications sent in between are lost, so every reconnect
+ * starts with {@link Invalidation#all}.
+ */
+@Slf4j
+public class PostgresInvalidationBus implements InvalidationBus {
+
+    private final ConnectionFactory connectionFactory;
+    private final DatabaseClient databaseClient;
+    private final String channel;
+    private final Flux<Invalidation> messages;
+
+    public PostgresInvalidationBus(ConnectionFactory connectionFactory, DatabaseClient databaseClient, String channel) {
+        // the driver's factory: the listening connection lives as long as the application
+        this.connectionFactory = driverFactory(connectionFactory);
+        this.databaseClient = databaseClient;
+        if (!channel.matches("[a-z_][a-z0-9_]*")) {
+            throw new IllegalArgumentException("Invalid NOTIFY channel: " + channel);
+        }
+        this.channel = channel;
+        AtomicBoolean connectedBefore = new AtomicBoolean();
+        this.messages = Flux.defer(() -> listen(connectedBefore.getAndSet(true)))
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1)).maxBackoff(Duration.ofSeconds(30))
+                        .doBeforeRetry(signal -> log.warn("Invalidation listener connection lost, reconnecting", signal.failure())))
+                .publish()
+                .refCount();
+    }
+
+    @Override
+    public Mono<Void> publish(Invalidation invalidation) {
+        return databaseClient.sql("SELECT pg_notify(:channel, :payload)")
+                .bind("channel", channel)
+                .bind("payload", invalidation.encode())
+                .fetch().rowsUpdated()
+                .then();
+    }
+
+    @Override
+    public Flux<Invalidation> messages() {
+        return messages;
+    }
+
+    private Flux<Invalidation> listen(boolean reconnect) {
+        return Flux.usingWhen(connectionFactory.create(),
+                connection -> Flux.from(connection.createStatement("LISTEN " + channel).execute())
+                        .flatMap(result -> result.getRowsUpdated())
+                        // listening again: whatever was sent while disconnected is gone
+                        .thenMany(Flux.concat(reconnect ? Mono.just(Invalidation.all(null)) : Mono.<Invalidation>empty(),
+                                postgres(connection).getNotifications().concatMap(this::decode)))
+                        // the notification stream completes when the connection closes: reconnect
+                        .concatWith(Mono.error(new IllegalStateException("Invalidation listener connection closed"))),
+                Connection::close);
+    }
+
+    private static ConnectionFactory driverFactory(ConnectionFactory connectionFactory) {
+        ConnectionFactory target = connectionFactory;
+        while (target instanceof Wrapped<?> wrapped && wrapped.unwrap() instanceof ConnectionFactory inner && inner != target) {
+            target = inner;
+        }
+        return target;
+    }
+
+    private static PostgresqlConnection postgres(Connection connection) {
+        Object target = connection;
+        while (!(target instanceof PostgresqlConnection) && target instanceof Wrapped<?> wrapped && wrapped.unwrap() != target) {
+            target = wrapped.unwrap();
+        }
+        if (!(target instanceof PostgresqlConnection postgres)) {
+            throw new IllegalStateException("LISTEN needs a Postgres connection, got " + connection.getClass().getName());
+        }
+        return postgres;
+    }
+
+    private Mono<Invalidation> decode(Notification notification) {
+        try {
+            return Mono.just(Invalidation.decode(notification.getParameter()));
+        } catch (RuntimeException e) {
+            log.warn("Ignoring invalid invalidation message '{}'", notification.getParameter());
+            return Mono.empty();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.reactive.nexo.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent loads of the same key: while a load is in flight, callers asking for that key wait on
+ * it instead of starting their own, and all of them get its result (value, empty or error).
+ * <p>
+ * Nothing is kept after the load completes, so this is not a cache: a call that arrives after completion starts
+ * a new load. The load is subscribed once, detached from the callers, and runs to completion even if the caller
+ * that started it cancels. {@link #forget} detaches a load from its key, e.g. when a write commits while it runs: the
+ * callers already waiting keep it, later ones start a new load. Metrics, tagged with {@code name}: {@code nexo.singleflight.loads},
+ * {@code nexo.singleflight.coalesced} and the {@code nexo.singleflight.in-flight} gauge.
+ */
+public class SingleFlight<K, V> {
+
+    private final Map<K, Mono<V>> inFlight = new ConcurrentHashMap<>();
+    private final Counter loads;
+    private final Counter coalesced;
+
+    public SingleFlight(String name, MeterRegistry meterRegistry) {
+        this.loads = meterRegistry.counter("nexo.singleflight.loads", "name", name);
+        this.coalesced = meterRegistry.counter("nexo.singleflight.coalesced", "name", name);
+        meterRegistry.gaugeMapSize("nexo.singleflight.in-flight", Tags.of("name", name), inFlight);
+    }
+
+    public Mono<V> execute(K key, Supplier<Mono<V>> loader) {
+        return Mono.defer(() -> {
+            Mono<V> existing = inFlight.get(key);
+            if (existing != null) {
+                coalesced.increment();
+                return existing;
+            }
+            Sinks.One<V> result = Sinks.one();
+            Mono<V> shared = result.asMono();
+            existing = inFlight.putIfAbsent(key, shared);
+            if (existing != null) {
+                coalesced.increment();
+                return existing;
+            }
+            loads.increment();
+            // the key is released before the result is emitted so that a later call starts a new load
+            // a loader throwing instead of returning an error must still release the key
+            Mono.defer(loader).subscribe(value -> {
+                inFlight.remove(key, shared);
+                result.tryEmitValue(value);
+            }, e -> {
+                inFlight.remove(key, shared);
+                result.tryEmitError(e);
+            }, () -> {
+                inFlight.remove(key, shared);
+                result.tryEmitEmpty();
+            });
+            return shared;
+        });
+    }
+
+    /**
+     * Stops sharing the load in flight for the key, if any, with callers arriving from now on.
+     */
+    public void forget(K key) {
+        inFlight.remove(key);
+    }
+
+    public void forgetAll() {
+        inFlight.clear();
+    }
+
+    public int inFlight() {
+        return inFlight.size();
+    }
+}
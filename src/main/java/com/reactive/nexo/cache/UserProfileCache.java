@@ -0,0 +1,114 @@
+package com.reactive.nexo.cache;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.reactive.nexo.dto.UserWithAttributesDTO;
+import com.reactive.nexo.event.UserChangeEvent;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Size and TTL bounded cache of assembled profiles.
+ * <p>
+ * Profiles are cached by user id; identification type/number only maps to the user id, so a write has a
+ * single profile entry to drop. Both caches are Caffeine {@link AsyncCache}s: concurrent misses for the same
+ * key share one in-flight load, which an invalidation drops as well. Empty loads (unknown user) are not cached. Entries
+ * are invalidated from {@link UserChangeEvent}s, which are published after the write commits.
+ * <p>
+ * With the cache disabled concurrent loads of a key are still shared, through a {@link SingleFlight} per lookup
+ * ({@code profile.id} and {@code profile.identification}) that the same invalidations detach from the key.
+ */
+@Component
+public class UserProfileCache {
+
+    private final boolean enabled;
+    private final AsyncCache<Integer, UserWithAttributesDTO> profiles;
+    private final AsyncCache<String, Integer> identifications;
+    private final SingleFlight<Integer, UserWithAttributesDTO> profileReads;
+    private final SingleFlight<String, UserWithAttributesDTO> identificationReads;
+
+    public UserProfileCache(MeterRegistry meterRegistry,
+                            @Value("${nexo.cache.profiles.enabled:true}") boolean enabled,
+                            @Value("${nexo.cache.profiles.max-size:10000}") long maxSize,
+                            @Value("${nexo.cache.profiles.ttl:5m}") Duration ttl) {
+        this.enabled = enabled;
+        this.profiles = CaffeineCacheMetrics.monitor(meterRegistry,
+                Caffeine.newBuilder().maximumSize(maxSize).expireAfterWrite(ttl).recordStats()
+                        .<Integer, UserWithAttributesDTO>buildAsync(),
+                "userProfiles");
+        this.identifications = CaffeineCacheMetrics.monitor(meterRegistry,
+                Caffeine.newBuilder().maximumSize(maxSize).expireAfterWrite(ttl).recordStats()
+                        .<String, Integer>buildAsync(),
+                "userIdentifications");
+        this.profileReads = new SingleFlight<>("profile.id", meterRegistry);
+        this.identificationReads = new SingleFlight<>("profile.identification", meterRegistry);
+    }
+
+    public Mono<UserWithAttributesDTO> getById(Integer userId, Function<Integer, Mono<UserWithAttributesDTO>> loader) {
+        if (userId == null) {
+            return loader.apply(userId);
+        }
+        if (!enabled) {
+            return profileReads.execute(userId, () -> loader.apply(userId));
+        }
+        // suppressCancel: a cancelled caller must not cancel the load other callers are waiting on
+        return Mono.fromFuture(profiles.get(userId, (key, executor) -> loader.apply(key).toFuture()), true);
+    }
+
+    /**
+     * Resolves the user id through the identification cache, then the profile through {@link #getById}.
+     * A stale mapping (identification changed or user deleted) is dropped and resolved again with {@code loader}.
+     */
+    public Mono<UserWithAttributesDTO> getByIdentification(String identificationType, String identificationNumber,
+                                                           Supplier<Mono<UserWithAttributesDTO>> loader,
+                                                           Function<Integer, Mono<UserWithAttributesDTO>> idLoader) {
+        String key = identificationType + ':' + identificationNumber;
+        if (!enabled) {
+            return identificationReads.execute(key, loader);
+        }
+        return Mono.fromFuture(identifications.get(key, (k, executor) -> loader.get()
+                        .map(UserWithAttributesDTO::getId)
+                        .toFuture()), true)
+                .flatMap(userId -> getById(userId, idLoader)
+                        .filter(profile -> identificationType.equals(profile.getIdentification_type())
+                                && identificationNumber.equals(profile.getIdentification_number()))
+                        .switchIfEmpty(Mono.defer(() -> {
+                            identifications.synchronous().invalidate(key);
+                            return loader.get();
+                        })));
+    }
+
+    @EventListener
+    public void onUserChange(UserChangeEvent event) {
+        if (event.getUserId() != null) {
+            invalidate(event.getUserId());
+        }
+    }
+
+    /**
+     * Drops one user's profile, including a load in flight; a stale identification mapping is detected and dropped
+     * on its next use. Uncached identification loads are all detached: which one is this user's is not known.
+     */
+    public void invalidate(Integer userId) {
+        if (enabled) {
+            profiles.synchronous().invalidate(userId);
+        }
+        profileReads.forget(userId);
+        identificationReads.forgetAll();
+    }
+
+    public void invalidateAll() {
+        profiles.synchronous().invalidateAll();
+        identifications.synchronous().invalidateAll();
+        profileReads.forgetAll();
+        identificationReads.forgetAll();
+    }
+}
@@ -1,45 +1,338 @@
 package com.reactive.nexo.client;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.reactive.nexo.cache.SingleFlight;
+import com.reactive.nexo.dto.CreateUserRequest;
+import com.reactive.nexo.dto.ProfileEtag;
+import com.reactive.nexo.dto.UserWithAttributesDTO;
 import com.reactive.nexo.model.User;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.channel.ChannelOption;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Disposable;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+import reactor.util.retry.Retry;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Reactive client of the users API for the other services of the platform.
+ * <p>
+ * One pooled Reactor Netty connection provider ({@code nexo.client.max-connections}) backs every call.
+ * {@link #getUser} calls made within {@code nexo.client.batch.window} are sent together, up to
+ * {@code nexo.client.batch.max-size} ids, as one {@code POST /search/id?attributes=true}; identical reads already in
+ * flight (same id or same identification) share one response through a {@link SingleFlight}. With
+ * {@code nexo.client.cache.enabled} profiles are kept locally with their entity tag: an entry younger than
+ * {@code nexo.client.cache.fresh-for} is served as is, an older one is revalidated with {@code If-None-Match}
+ * and reused on 304. Idempotent reads are retried with backoff on connection errors, 5xx and 429; writes are not.
+ * <p>
+ * Metrics: {@code nexo.client.requests} (timer by operation and outcome, retries included),
+ * {@code nexo.client.retries}, {@code nexo.client.batch.size} and {@code nexo.client.cache} (by result); shared
+ * reads are counted by {@code nexo.singleflight.coalesced} with names {@code client.user} and
+ * {@code client.identification}.
+ */
 @Component
 @Slf4j
 public class UserClient {
-    private WebClient client = WebClient.create("http://localhost:8080");
-    public Mono<User> getUser(String userId){
-       return client.get()
-                .uri("/users/{userId}", userId)
+
+    private static final String API = "/api/v1/users";
+    private static final Duration RETRY_BACKOFF = Duration.ofMillis(100);
+    private static final ParameterizedTypeReference<List<UserWithAttributesDTO>> PROFILES =
+            new ParameterizedTypeReference<List<UserWithAttributesDTO>>() {};
+
+    private final WebClient client;
+    private final ConnectionProvider connectionProvider;
+    private final MeterRegistry meterRegistry;
+    private final int maxBatchSize;
+    private final int retries;
+    // null when the local cache is disabled
+    private final Cache<Integer, CachedProfile> cache;
+    private final long freshForNanos;
+    private final SingleFlight<Integer, UserWithAttributesDTO> userReads;
+    private final SingleFlight<String, UserWithAttributesDTO> identificationReads;
+    private final Sinks.Many<PendingGet> pending = Sinks.many().unicast().onBackpressureBuffer();
+    private final Disposable batcher;
+    private final DistributionSummary batchSizes;
+
+    public UserClient(WebClient.Builder webClientBuilder,
+                      MeterRegistry meterRegistry,
+                      @Value("${nexo.client.base-url:http://localhost:8080}") String baseUrl,
+                      @Value("${nexo.client.max-connections:50}") int maxConnections,
+                      @Value("${nexo.client.connect-timeout:2s}") Duration connectTimeout,
+                      @Value("${nexo.client.response-timeout:5s}") Duration responseTimeout,
+                      @Value("${nexo.client.retries:2}") int retries,
+                      @Value("${nexo.client.batch.window:5ms}") Duration batchWindow,
+                      @Value("${nexo.client.batch.max-size:200}") int maxBatchSize,
+                      @Value("${nexo.client.cache.enabled:false}") boolean cacheEnabled,
+                      @Value("${nexo.client.cache.max-size:10000}") long cacheMaxSize,
+                      @Value("${nexo.client.cache.fresh-for:0s}") Duration freshFor) {
+        this.meterRegistry = meterRegistry;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.retries = Math.max(0, retries);
+        this.connectionProvider = ConnectionProvider.builder("nexo-user-client")
+                .maxConnections(Math.max(1, maxConnections))
+                .pendingAcquireTimeout(responseTimeout)
+                .maxIdleTime(Duration.ofSeconds(30))
+                .build();
+        HttpClient httpClient = HttpClient.create(connectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) connectTimeout.toMillis())
+                .responseTimeout(responseTimeout)
+                .compress(true);
+        this.client = webClientBuilder.clone()
+                .baseUrl(baseUrl + API)
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                // a full batch of profiles is well above the default 256 KiB
+                .codecs(codecs -> codecs.defaultCodecs().maxInMemorySize(16 * 1024 * 1024))
+                .build();
+        this.cache = cacheEnabled
+                ? Caffeine.newBuilder().maximumSize(cacheMaxSize).<Integer, CachedProfile>build()
+                : null;
+        this.freshForNanos = freshFor.toNanos();
+        this.userReads = new SingleFlight<>("client.user", meterRegistry);
+        this.identificationReads = new SingleFlight<>("client.identification", meterRegistry);
+        this.batchSizes = DistributionSummary.builder("nexo.client.batch.size").register(meterRegistry);
+        this.batcher = pending.asFlux()
+                .bufferTimeout(this.maxBatchSize, batchWindow, true)
+                .flatMap(this::fetchBatch, Math.max(1, maxConnections))
+                .subscribe();
+    }
+
+    /**
+     * Profile of a user, or empty when it does not exist. Batched with concurrent calls and served from the
+     * local cache when enabled.
+     */
+    public Mono<UserWithAttributesDTO> getUser(Integer userId) {
+        return userReads.execute(userId, () -> loadUser(userId));
+    }
+
+    /**
+     * Profile by identification, or empty when it does not exist.
+     */
+    public Mono<UserWithAttributesDTO> getUserByIdentification(String identificationType, String identificationNumber) {
+        String key = identificationType + ':' + identificationNumber;
+        return identificationReads.execute(key, () -> timed("identification", retrying("identification",
+                client.get()
+                        .uri("/by-identification/{type}/{number}", identificationType, identificationNumber)
+                        .retrieve()
+                        .bodyToMono(UserWithAttributesDTO.class))
+                .onErrorResume(WebClientResponseException.NotFound.class, e -> Mono.empty())
+                .doOnNext(profile -> store(profile, null))));
+    }
+
+    /**
+     * Profiles of the given ids in request order, in chunks of {@code nexo.client.batch.max-size}; unknown ids
+     * are left out.
+     */
+    public Flux<UserWithAttributesDTO> getUsers(Collection<Integer> userIds) {
+        return Flux.fromIterable(new LinkedHashSet<>(userIds))
+                .buffer(maxBatchSize)
+                .concatMap(ids -> timed("batch", retrying("batch", searchById(ids))))
+                .flatMapIterable(profiles -> profiles)
+                .doOnNext(profile -> store(profile, null));
+    }
+
+    /**
+     * Every user with its attributes in id order, streamed from {@code /export}; {@code afterId} resumes an
+     * interrupted stream after the last id received.
+     */
+    public Flux<UserWithAttributesDTO> streamUsers(int afterId) {
+        return client.get()
+                .uri(uri -> uri.path("/export").queryParam("afterId", afterId).build())
+                .accept(MediaType.APPLICATION_NDJSON)
                 .retrieve()
-                .bodyToMono(User.class).log(" User fetched ");
+                .bodyToFlux(UserWithAttributesDTO.class);
     }
 
-    public Mono<User> getUserByIdentificationNumber(String identificationNumber){
-       return client.get()
-                .uri("/users-by-identification/{identificationNumber}", identificationNumber)
+    /**
+     * Creates a user with its attributes. Not retried: a timeout does not tell whether the user was created.
+     */
+    public Mono<User> createUser(CreateUserRequest request) {
+        return timed("create", client.post()
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(request)
                 .retrieve()
-                .bodyToMono(User.class).log(" User fetched ");
+                .bodyToMono(User.class));
     }
 
-    public Flux<User> getAllUsers(){
-        return client.get()
-                .uri("/users")
+    @PreDestroy
+    public void close() {
+        batcher.dispose();
+        connectionProvider.dispose();
+    }
+
+    private Mono<UserWithAttributesDTO> loadUser(Integer userId) {
+        CachedProfile cached = cache == null ? null : cache.getIfPresent(userId);
+        if (cached == null) {
+            cacheResult("miss");
+            return enqueue(userId);
+        }
+        if (System.nanoTime() - cached.fetchedAt < freshForNanos) {
+            cacheResult("hit");
+            return Mono.just(cached.profile);
+        }
+        return timed("get", retrying("get", client.get()
+                .uri("/{userId}", userId)
+                .header(HttpHeaders.IF_NONE_MATCH, cached.etag)
+                .exchangeToMono(response -> {
+                    if (response.statusCode().value() == HttpStatus.NOT_MODIFIED.value()) {
+                        cacheResult("not_modified");
+                        cache.put(userId, new CachedProfile(cached.profile, cached.etag));
+                        return response.releaseBody().thenReturn(cached.profile);
+                    }
+                    if (response.statusCode().value() == HttpStatus.NOT_FOUND.value()) {
+                        cache.invalidate(userId);
+                        return response.releaseBody().then(Mono.<UserWithAttributesDTO>empty());
+                    }
+                    if (response.statusCode().is2xxSuccessful()) {
+                        cacheResult("modified");
+                        String etag = response.headers().asHttpHeaders().getETag();
+                        return response.bodyToMono(UserWithAttributesDTO.class)
+                                .doOnNext(profile -> store(profile, etag));
+                    }
+                    return response.createError();
+                })));
+    }
+
+    private Mono<UserWithAttributesDTO> enqueue(Integer userId) {
+        return Mono.defer(() -> {
+            Sinks.One<UserWithAttributesDTO> result = Sinks.one();
+            // callers on several threads: spin briefly instead of failing on a concurrent emission
+            pending.emitNext(new PendingGet(userId, result), Sinks.EmitFailureHandler.busyLooping(Duration.ofSeconds(1)));
+            return result.asMono();
+        });
+    }
+
+    /**
+     * One bulk request for the waiting calls; never fails, a failure is handed to every waiter of the batch.
+     */
+    private Mono<Void> fetchBatch(List<PendingGet> batch) {
+        List<Integer> ids = new ArrayList<>(new LinkedHashSet<>(batch.stream().map(get -> get.userId).collect(Collectors.toList())));
+        batchSizes.record(ids.size());
+        return timed("batch", retrying("batch", searchById(ids)))
+                .doOnNext(profiles -> {
+                    Map<Integer, UserWithAttributesDTO> found = new HashMap<>();
+                    for (UserWithAttributesDTO profile : profiles) {
+                        store(profile, null);
+                        found.put(profile.getId(), profile);
+                    }
+                    for (PendingGet get : batch) {
+                        UserWithAttributesDTO profile = found.get(get.userId);
+                        if (profile == null) {
+                            get.result.tryEmitEmpty();
+                        } else {
+                            get.result.tryEmitValue(profile);
+                        }
+                    }
+                })
+                .doOnError(e -> batch.forEach(get -> get.result.tryEmitError(e)))
+                .onErrorResume(e -> Mono.empty())
+                .then();
+    }
+
+    private Mono<List<UserWithAttributesDTO>> searchById(List<Integer> ids) {
+        return client.post()
+                .uri(uri -> uri.path("/search/id").queryParam("attributes", true).build())
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(ids)
                 .retrieve()
-                .bodyToFlux(User.class)
-                .log("Users Fetched : ");
+                .bodyToMono(PROFILES);
     }
 
-    public Mono<User> createUser(User user){
-        Mono<User> userMono = Mono.just(user);
-        return client.post().uri("/users").contentType(MediaType.APPLICATION_JSON)
-                .body(userMono,User.class).retrieve().bodyToMono(User.class).log("Created User : ");
+    private void store(UserWithAttributesDTO profile, String etag) {
+        if (cache != null && profile.getId() != null) {
+            cache.put(profile.getId(), new CachedProfile(profile, etag != null ? etag : ProfileEtag.of(profile)));
+        }
+    }
 
+    private void cacheResult(String result) {
+        if (cache != null) {
+            meterRegistry.counter("nexo.client.cache", "result", result).increment();
+        }
     }
 
+    private <T> Mono<T> retrying(String operation, Mono<T> call) {
+        return call.retryWhen(Retry.backoff(retries, RETRY_BACKOFF)
+                .filter(UserClient::isTransient)
+                .doBeforeRetry(signal -> {
+                    meterRegistry.counter("nexo.client.retries", "operation", operation).increment();
+                    log.debug("UserClient: retrying {} after {}", operation, signal.failure().toString());
+                })
+                .onRetryExhaustedThrow((spec, signal) -> signal.failure()));
+    }
+
+    private static boolean isTransient(Throwable e) {
+        if (e instanceof WebClientRequestException) {
+            return true;
+        }
+        if (e instanceof WebClientResponseException) {
+            WebClientResponseException response = (WebClientResponseException) e;
+            return response.getStatusCode().is5xxServerError()
+                    || response.getStatusCode().value() == HttpStatus.TOO_MANY_REQUESTS.value();
+        }
+        return false;
+    }
 
+    private <T> Mono<T> timed(String operation, Mono<T> call) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return call
+                    .doOnSuccess(value -> record(operation, value == null ? "empty" : "success", start))
+                    .doOnError(e -> record(operation, "error", start))
+                    .doOnCancel(() -> record(operation, "cancelled", start));
+        });
+    }
+
+    private void record(String operation, String outcome, long start) {
+        Timer.builder("nexo.client.requests")
+                .tags("operation", operation, "outcome", outcome)
+                .register(meterRegistry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private static final class PendingGet {
+        final Integer userId;
+        final Sinks.One<UserWithAttributesDTO> result;
+
+        PendingGet(Integer userId, Sinks.One<UserWithAttributesDTO> result) {
+            this.userId = userId;
+            this.result = result;
+        }
+    }
+
+    private static final class CachedProfile {
+        final UserWithAttributesDTO profile;
+        final String etag;
+        final long fetchedAt = System.nanoTime();
+
+        CachedProfile(UserWithAttributesDTO profile, String etag) {
+            this.profile = profile;
+            this.etag = etag;
+        }
+    }
 }
@@ -0,0 +1,11 @@
+package com.reactive.nexo.config;
+
+import com.reactive.nexo.admission.AdmissionProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+// límites de concurrencia por clase de endpoint y de servicio (nexo.admission.*)
+@Configuration
+@EnableConfigurationProperties(AdmissionProperties.class)
+public class AdmissionConfiguration {
+}
@@ -0,0 +1,27 @@
+package com.reactive.nexo.config;
+
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.ConnectionPoolConfiguration;
+import io.r2dbc.spi.ConnectionFactory;
+import org.springframework.boot.r2dbc.ConnectionFactoryBuilder;
+
+import java.time.Duration;
+
+// pools para las bases que no crea Spring Boot (réplicas, shards)
+final class ConnectionPools {
+
+    private ConnectionPools() {
+    }
+
+    static ConnectionPool pool(String name, String url, String username, String password, int maxSize, Duration maxAcquireTime) {
+        ConnectionFactory connectionFactory = ConnectionFactoryBuilder.withUrl(url).username(username).password(password).build();
+        ConnectionPoolConfiguration.Builder configuration = ConnectionPoolConfiguration.builder(connectionFactory)
+                .name(name)
+                .maxSize(maxSize)
+                .initialSize(0);
+        if (maxAcquireTime != null) {
+            configuration.maxAcquireTime(maxAcquireTime);
+        }
+        return new ConnectionPool(configuration.build());
+    }
+}
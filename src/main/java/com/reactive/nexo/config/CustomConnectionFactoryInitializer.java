@@ -1,6 +1,8 @@
 package com.reactive.nexo.config;
 
+import com.reactive.nexo.sharding.ShardedConnectionFactory;
 import io.r2dbc.spi.ConnectionFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.io.ClassPathResource;
@@ -11,12 +13,17 @@ import org.springframework.r2dbc.connection.init.ResourceDatabasePopulator;
 @Configuration
 public class CustomConnectionFactoryInitializer {
     @Bean
-    public ConnectionFactoryInitializer initializer(ConnectionFactory connectionFactory) {
+    public ConnectionFactoryInitializer initializer(ConnectionFactory connectionFactory,
+                                                   @Value("${spring.sql.init.mode:always}") String initMode) {
         ConnectionFactoryInitializer initializer = new ConnectionFactoryInitializer();
         initializer.setConnectionFactory(connectionFactory);
+        // schema.sql recrea las tablas; con spring.sql.init.mode=never (p. ej. perfil import) no se ejecuta
+        initializer.setEnabled(!"never".equalsIgnoreCase(initMode));
         CompositeDatabasePopulator populator = new CompositeDatabasePopulator();
         populator.addPopulators(new ResourceDatabasePopulator(new ClassPathResource("schema.sql")));
-        initializer.setDatabasePopulator(populator);
+        // con sharding el esquema se crea en cada shard y los ids de usuario se intercalan entre ellos
+        initializer.setDatabasePopulator(connectionFactory instanceof ShardedConnectionFactory sharded
+                ? sharded.eachShard(populator) : populator);
         return initializer;
     }
 }
@@ -0,0 +1,34 @@
+package com.reactive.nexo.config;
+
+import com.reactive.nexo.cache.InvalidationBus;
+import com.reactive.nexo.cache.LoopbackInvalidationBus;
+import com.reactive.nexo.cache.PostgresInvalidationBus;
+import com.reactive.nexo.sharding.ShardedConnectionFactory;
+import io.r2dbc.spi.ConnectionFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.r2dbc.core.DatabaseClient;
+
+@Configuration
+public class InvalidationConfiguration {
+
+    // varias réplicas: las invalidaciones viajan por LISTEN/NOTIFY de Postgres
+    @Bean
+    @ConditionalOnProperty(name = "nexo.invalidation.bus", havingValue = "postgres")
+    public InvalidationBus postgresInvalidationBus(ConnectionFactory connectionFactory, DatabaseClient databaseClient,
+                                                   @Value("${nexo.invalidation.channel:nexo_invalidation}") String channel) {
+        // con sharding NOTIFY y LISTEN van al shard 0: un DatabaseClient sobre la fábrica repartida exigiría clave de shard
+        DatabaseClient notifier = connectionFactory instanceof ShardedConnectionFactory sharded
+                ? DatabaseClient.create(sharded.unwrap()) : databaseClient;
+        return new PostgresInvalidationBus(connectionFactory, notifier, channel);
+    }
+
+    // un solo nodo (y pruebas): las invalidaciones no salen del proceso
+    @Bean
+    @ConditionalOnProperty(name = "nexo.invalidation.bus", havingValue = "loopback", matchIfMissing = true)
+    public InvalidationBus loopbackInvalidationBus() {
+        return new LoopbackInvalidationBus();
+    }
+}
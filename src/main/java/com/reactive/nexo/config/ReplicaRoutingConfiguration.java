@@ -0,0 +1,40 @@
+package com.reactive.nexo.config;
+
+import com.reactive.nexo.routing.RecentWrites;
+import com.reactive.nexo.routing.ReplicaRoutingConnectionFactory;
+import com.reactive.nexo.routing.ReplicaRoutingProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.r2dbc.spi.ConnectionFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.r2dbc.R2dbcProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// con réplicas configuradas reemplaza el ConnectionFactory de Spring Boot: escrituras al primario, lecturas a réplicas
+@Configuration
+@EnableConfigurationProperties({ReplicaRoutingProperties.class, R2dbcProperties.class})
+@ConditionalOnProperty(name = "nexo.routing.replicas[0].url")
+// con sharding no aplica: ShardingConfiguration rechaza la combinación
+@ConditionalOnExpression("'${nexo.sharding.shards[0].url:}' == ''")
+public class ReplicaRoutingConfiguration {
+
+    @Bean
+    public ConnectionFactory connectionFactory(R2dbcProperties r2dbc, ReplicaRoutingProperties routing,
+                                               RecentWrites recentWrites, MeterRegistry meterRegistry) {
+        ConnectionFactory primary = ConnectionPools.pool("primary", r2dbc.getUrl(), r2dbc.getUsername(), r2dbc.getPassword(),
+                r2dbc.getPool().getMaxSize(), r2dbc.getPool().getMaxAcquireTime());
+        List<ConnectionFactory> replicas = new ArrayList<>();
+        for (ReplicaRoutingProperties.Replica replica : routing.getReplicas()) {
+            replicas.add(ConnectionPools.pool("replica-" + replicas.size(), replica.getUrl(),
+                    replica.getUsername() != null ? replica.getUsername() : r2dbc.getUsername(),
+                    replica.getPassword() != null ? replica.getPassword() : r2dbc.getPassword(),
+                    r2dbc.getPool().getMaxSize(), routing.getAcquireTimeout()));
+        }
+        return new ReplicaRoutingConnectionFactory(primary, replicas, recentWrites, routing.getReplicaRetry(), meterRegistry);
+    }
+}
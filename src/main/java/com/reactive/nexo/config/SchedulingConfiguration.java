@@ -0,0 +1,10 @@
+package com.reactive.nexo.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+// tareas periódicas (p. ej. SnapshotExporter); cada una se desactiva con cron "-"
+@Configuration
+@EnableScheduling
+public class SchedulingConfiguration {
+}
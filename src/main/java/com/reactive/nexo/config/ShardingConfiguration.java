@@ -0,0 +1,50 @@
+package com.reactive.nexo.config;
+
+
+import com.reactive.nexo.sharding.ShardedConnectionFactory;
+import com.reactive.nexo.sharding.ShardingProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.r2dbc.spi.ConnectionFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.r2dbc.R2dbcProperties;
+import org.springframework.boot.autoconfigure.sql.init.SqlR2dbcScriptDatabaseInitializer;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.sql.init.DatabaseInitializationMode;
+import org.springframework.boot.sql.init.DatabaseInitializationSettings;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// con shards configurados reemplaza el ConnectionFactory de Spring Boot: cada consulta va al shard de su usuario
+@Configuration
+@EnableConfigurationProperties({ShardingProperties.class, R2dbcProperties.class})
+@ConditionalOnProperty(name = "nexo.sharding.shards[0].url")
+public class ShardingConfiguration {
+
+    @Bean
+    public ConnectionFactory connectionFactory(R2dbcProperties r2dbc, ShardingProperties sharding, MeterRegistry meterRegistry,
+                                               @Value("${nexo.routing.replicas[0].url:}") String replica) {
+        if (!replica.isBlank()) {
+            throw new IllegalStateException("nexo.sharding.shards and nexo.routing.replicas cannot be combined");
+        }
+        List<ConnectionFactory> shards = new ArrayList<>();
+        for (ShardingProperties.Shard shard : sharding.getShards()) {
+            shards.add(ConnectionPools.pool("shard-" + shards.size(), shard.getUrl(),
+                    shard.getUsername() != null ? shard.getUsername() : r2dbc.getUsername(),
+                    shard.getPassword() != null ? shard.getPassword() : r2dbc.getPassword(),
+                    r2dbc.getPool().getMaxSize(), r2dbc.getPool().getMaxAcquireTime()));
+        }
+        return new ShardedConnectionFactory(shards, meterRegistry);
+    }
+
+    // el inicializador de Spring Boot solo conoce una base: lo desactiva, CustomConnectionFactoryInitializer crea el esquema en cada shard
+    @Bean
+    public SqlR2dbcScriptDatabaseInitializer shardedScriptDatabaseInitializer(ConnectionFactory connectionFactory) {
+        DatabaseInitializationSettings settings = new DatabaseInitializationSettings();
+        settings.setMode(DatabaseInitializationMode.NEVER);
+        return new SqlR2dbcScriptDatabaseInitializer(connectionFactory, settings);
+    }
+}
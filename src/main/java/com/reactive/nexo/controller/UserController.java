@@ -1,9 +1,18 @@
 package com.reactive.nexo.controller;
 
 import com.reactive.nexo.model.User;
+import com.reactive.nexo.service.BulkImportService;
 import com.reactive.nexo.service.UserService;
 import com.reactive.nexo.dto.UserWithAttributesDTO;
 import com.reactive.nexo.dto.PagedResponse;
+import com.reactive.nexo.dto.BulkFetchResponse;
+import com.reactive.nexo.dto.ChangesResponse;
+import com.reactive.nexo.dto.UserSearchRequest;
+import com.reactive.nexo.dto.CreateUserRequest;
+import com.reactive.nexo.dto.ImportBatchResult;
+import com.reactive.nexo.dto.ProfileEtag;
+import com.reactive.nexo.event.UserChangeNotification;
+import com.reactive.nexo.event.UserChangeStream;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
@@ -11,13 +20,18 @@ import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -28,9 +42,26 @@ import java.util.Arrays;
 @Slf4j
 @Tag(name = "Users", description = "API para gestión de usuarios")
 public class UserController {
+    // filas escritas por PUT/PATCH (0 cuando el request no cambia nada)
+    static final String ROWS_TOUCHED_HEADER = "X-Rows-Touched";
+    // atributos del PATCH que quedaron en la cola write-behind
+    static final String QUEUED_HEADER = "X-Attributes-Queued";
+    // ids de /search/id que no existen, separados por comas (el cuerpo sigue siendo el arreglo de usuarios)
+    static final String MISSING_IDS_HEADER = "X-Missing-Ids";
+
 @Autowired
 private UserService userService;
 
+    @Autowired
+    private BulkImportService bulkImportService;
+
+    @Autowired
+    private UserChangeStream changeStream;
+
+    // comentario SSE periódico para que proxies y balanceadores no cierren un stream sin cambios
+    @Value("${nexo.events.heartbeat:15s}")
+    private Duration eventsHeartbeat;
+
     @PostMapping
     @ResponseStatus(HttpStatus.CREATED)
     public Mono<User> create(@RequestBody com.reactive.nexo.dto.CreateUserRequest request){
@@ -38,11 +69,97 @@ private UserService userService;
         return userService.createUserWithAttributes(request);
     }
 
+    @Operation(
+        summary = "Importación masiva de usuarios",
+        description = "Recibe un stream NDJSON (un CreateUserRequest por línea) y lo inserta por lotes con sentencias multi-fila. " +
+                     "Responde un resultado NDJSON por lote con los registros rechazados (identificación repetida o inválidos); " +
+                     "un registro rechazado no aborta su lote."
+    )
+    @PostMapping(value = "/import", consumes = MediaType.APPLICATION_NDJSON_VALUE, produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<ImportBatchResult> importUsers(@RequestBody Flux<CreateUserRequest> requests){
+        return bulkImportService.importUsers(requests);
+    }
+
+    @Operation(
+        summary = "Exportación de usuarios con atributos",
+        description = "Stream NDJSON de todos los usuarios con sus atributos, en orden de id, leído de una sola consulta con cursor. " +
+                     "Con attributes se proyectan solo esos atributos; afterId reanuda una exportación interrumpida desde el último id recibido."
+    )
+    @GetMapping(value = "/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<UserWithAttributesDTO> exportUsers(
+            @Parameter(description = "Exportar solo usuarios con id mayor a este")
+            @RequestParam(defaultValue = "0") int afterId,
+            @Parameter(description = "Atributos a incluir separados por coma (por defecto todos)")
+            @RequestParam(required = false) String attributes){
+        Set<String> attributeSet = null;
+        if(attributes != null && !attributes.trim().isEmpty()){
+            attributeSet = Arrays.stream(attributes.split(","))
+                    .map(String::trim)
+                    .filter(s -> !s.isEmpty())
+                    .collect(Collectors.toSet());
+        }
+        return userService.exportUsers(afterId, attributeSet);
+    }
+
+    @Operation(
+        summary = "Stream de cambios (SSE)",
+        description = "Eventos CREATED, UPDATED, DELETED y ATTRIBUTE_CHANGED confirmados desde la suscripción, con los datos del usuario " +
+                     "y los atributos modificados (lista vacía = atributo eliminado). El id del evento es la secuencia; missed > 0 indica " +
+                     "cambios descartados porque el cliente no leía a tiempo."
+    )
+    @GetMapping(value = "/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<UserChangeNotification>> streamChanges(){
+        Sinks.Empty<Void> done = Sinks.empty();
+        Flux<ServerSentEvent<UserChangeNotification>> events = changeStream.subscribe()
+                .map(n -> ServerSentEvent.builder(n)
+                        .id(String.valueOf(n.getSequence()))
+                        .event(n.getChange().getType().name())
+                        .build())
+                .doFinally(signal -> done.tryEmitEmpty());
+        Flux<ServerSentEvent<UserChangeNotification>> heartbeats = Flux.interval(eventsHeartbeat)
+                .map(tick -> ServerSentEvent.<UserChangeNotification>builder().comment("keepalive").build())
+                .takeUntilOther(done.asMono());
+        return events.mergeWith(heartbeats);
+    }
+
+    @Operation(
+        summary = "Stream de cambios (NDJSON)",
+        description = "Los mismos eventos que el stream SSE, uno por línea, con Accept: application/x-ndjson."
+    )
+    @GetMapping(value = "/events", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<UserChangeNotification> streamChangesNdjson(){
+        return changeStream.subscribe();
+    }
+
+    @Operation(
+        summary = "Sincronización incremental",
+        description = "Usuarios creados o modificados (estado actual con atributos) y eliminados después del token since, en orden " +
+                     "de escritura. Sin since se recorre todo desde el principio. Guarde next y vuelva a llamar: con hasMore=true de " +
+                     "inmediato, si no en la próxima sincronización. Un usuario puede repetirse si volvió a cambiar."
+    )
+    @GetMapping("/changes")
+    public Mono<ChangesResponse> getChanges(
+            @Parameter(description = "Token next de la respuesta anterior (vacío = desde el principio)")
+            @RequestParam(required = false) String since,
+            @Parameter(description = "Cambios por página (máximo 5000)")
+            @RequestParam(defaultValue = "500") int limit){
+        return userService.getChanges(since, limit);
+    }
+
+    @Operation(
+        summary = "Listar usuarios paginados",
+        description = "Paginación por offset (page/size) o por cursor: envíe cursor vacío para la primera página y luego el token 'next' " +
+                     "de cada respuesta. En modo cursor el conteo total no se calcula salvo que se pida con count=true."
+    )
     @GetMapping
     public Mono<ResponseEntity<PagedResponse<UserWithAttributesDTO>>> getAllUsers(
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "10") int size,
-            @RequestParam(required = false) String attributes){
+            @RequestParam(required = false) String attributes,
+            @Parameter(description = "Token de paginación por cursor (vacío para la primera página)")
+            @RequestParam(required = false) String cursor,
+            @Parameter(description = "Incluir totalElements/totalPages (por defecto true en modo offset y false en modo cursor)")
+            @RequestParam(required = false) Boolean count){
         
         Set<String> attributeSet = null;
         if(attributes != null && !attributes.trim().isEmpty()){
@@ -53,28 +170,35 @@ private UserService userService;
                     .collect(Collectors.toSet());
         }
         
-        return userService.getAllUsersWithPagination(page, size, attributeSet)
+        if(cursor != null){
+            return userService.getAllUsersWithCursor(cursor, size, Boolean.TRUE.equals(count), attributeSet)
+                    .map(ResponseEntity::ok);
+        }
+        return userService.getAllUsersWithPagination(page, size, count == null || count, attributeSet)
                 .map(ResponseEntity::ok);
     }
 
     @GetMapping("/{userId}")
     public Mono<ResponseEntity<UserWithAttributesDTO>> getUserById(@PathVariable Integer userId){
         Mono<UserWithAttributesDTO> user = userService.getUserWithAttributes(userId);
-        return user.map( u -> ResponseEntity.ok(u))
+        // con ETag, WebFlux responde 304 sin cuerpo cuando coincide con If-None-Match
+        return user.map( u -> ResponseEntity.ok().eTag(ProfileEtag.of(u)).body(u))
                 .defaultIfEmpty(ResponseEntity.notFound().build());
     }
 
     @GetMapping("/by-identification/{identificationType}/{identificationNumber}")
     public Mono<ResponseEntity<UserWithAttributesDTO>> getUserByIdentificationNumber(@PathVariable String identificationType, @PathVariable String identificationNumber){
         Mono<UserWithAttributesDTO> user = userService.getUserWithAttributesByIdentification(identificationType.toUpperCase(), identificationNumber);
-        return user.map( u -> ResponseEntity.ok(u))
+        return user.map( u -> ResponseEntity.ok().eTag(ProfileEtag.of(u)).body(u))
                 .defaultIfEmpty(ResponseEntity.notFound().build());
     }
 
     @PutMapping("/{userId}")
     public Mono<ResponseEntity<User>> updateUserById(@PathVariable Integer userId, @RequestBody com.reactive.nexo.dto.CreateUserRequest request){
         return userService.updateUserWithAttributes(userId, request)
-                .map(updatedUser -> ResponseEntity.ok(updatedUser))
+                .map(result -> ResponseEntity.ok()
+                        .header(ROWS_TOUCHED_HEADER, String.valueOf(result.getRowsTouched()))
+                        .body(result.getUser()))
                 .defaultIfEmpty(ResponseEntity.badRequest().build());
     }
 
@@ -84,6 +208,7 @@ private UserService userService;
     )
     @ApiResponses(value = {
         @ApiResponse(responseCode = "200", description = "Usuario actualizado exitosamente"),
+        @ApiResponse(responseCode = "202", description = "Solo atributos write-behind: encolados, se escriben en el próximo flush"),
         @ApiResponse(responseCode = "404", description = "Usuario no encontrado"),
         @ApiResponse(responseCode = "409", description = "Conflicto - identificación ya existe para otro usuario"),
         @ApiResponse(responseCode = "500", description = "Error interno del servidor")
@@ -98,9 +223,19 @@ private UserService userService;
         log.info("Iniciando actualización parcial del usuario con ID: {}", userId);
         
         return userService.partialUpdateUser(userId, request)
-                .map(updatedUser -> {
-                    log.info("Usuario actualizado exitosamente: {}", updatedUser.getId());
-                    return ResponseEntity.ok(updatedUser);
+                .map(result -> {
+                    log.info("Usuario actualizado exitosamente: {} ({} filas, {} encolados)", result.getUser().getId(),
+                            result.getRowsTouched(), result.getQueued());
+                    if (result.getQueued() > 0) {
+                        // 202 cuando todo lo pedido quedó en la cola
+                        return ResponseEntity.status(result.getRowsTouched() == 0 ? HttpStatus.ACCEPTED : HttpStatus.OK)
+                                .header(ROWS_TOUCHED_HEADER, String.valueOf(result.getRowsTouched()))
+                                .header(QUEUED_HEADER, String.valueOf(result.getQueued()))
+                                .body(result.getUser());
+                    }
+                    return ResponseEntity.ok()
+                            .header(ROWS_TOUCHED_HEADER, String.valueOf(result.getRowsTouched()))
+                            .body(result.getUser());
                 })
                 .onErrorResume(err -> {
                     if (err instanceof ResponseStatusException) {
@@ -120,11 +255,37 @@ private UserService userService;
                 .defaultIfEmpty(ResponseEntity.notFound().build());
     }
 
+    @Operation(
+        summary = "Búsqueda masiva por ids",
+        description = "Devuelve los usuarios en el orden de la petición; los ids inexistentes se informan en la cabecera X-Missing-Ids. " +
+                     "Con attributes=true cada usuario incluye todos sus atributos y valores."
+    )
     @PostMapping("/search/id")
-    public Flux<User> fetchUsersByIds(@RequestBody List<Integer> ids) {
-        return userService.fetchUsers(ids);
+    public Mono<ResponseEntity<List<?>>> fetchUsersByIds(
+            @RequestBody List<Integer> ids,
+            @Parameter(description = "Incluir atributos y valores de cada usuario")
+            @RequestParam(defaultValue = "false") boolean attributes) {
+        Mono<? extends BulkFetchResponse<?>> result = attributes ? userService.fetchUsersWithAttributes(ids) : userService.fetchUsers(ids);
+        return result.map(response -> ResponseEntity.ok()
+                .header(MISSING_IDS_HEADER, response.getMissing().stream().map(String::valueOf).collect(Collectors.joining(",")))
+                .body(response.getContent()));
     }
     
+    @Operation(
+        summary = "Búsqueda compuesta por atributos dinámicos",
+        description = "Recibe un árbol de predicados (attribute/relation/value combinados con and/or) que se resuelve en una sola " +
+                     "consulta SQL. Pagina por cursor con limit/cursor y permite proyectar atributos en cada resultado."
+    )
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Búsqueda exitosa"),
+        @ApiResponse(responseCode = "400", description = "Filtro o cursor inválido")
+    })
+    @PostMapping("/search")
+    public Mono<ResponseEntity<PagedResponse<UserWithAttributesDTO>>> searchUsers(@RequestBody UserSearchRequest request) {
+        return userService.searchUsers(request)
+                .map(ResponseEntity::ok);
+    }
+
     @Operation(
         summary = "Buscar usuarios por atributo dinámico y valor",
         description = "Permite buscar usuarios filtrando por atributos dinámicos creados en attribute_user/value_attribute_user " +
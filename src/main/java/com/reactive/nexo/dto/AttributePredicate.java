@@ -0,0 +1,23 @@
+package com.reactive.nexo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Node of a search predicate tree over dynamic attributes.
+ * A leaf sets attribute/relation/value; a composite node sets either {@code and} or {@code or}.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class AttributePredicate {
+    private String attribute;
+    // eq, lt, gt
+    private String relation;
+    private String value;
+    private List<AttributePredicate> and;
+    private List<AttributePredicate> or;
+}
@@ -0,0 +1,17 @@
+package com.reactive.nexo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BulkFetchResponse<T> {
+    // found rows, in the order of the requested ids
+    private List<T> content;
+    // requested ids that do not exist
+    private List<Integer> missing;
+}
@@ -0,0 +1,22 @@
+package com.reactive.nexo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * A page of the delta sync: users written since the token (current state, with attributes) and users deleted since.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ChangesResponse {
+    private List<UserWithAttributesDTO> content;
+    private List<Integer> deleted;
+    // token for the next call; the same token when nothing changed
+    private String next;
+    // true when more changes are already available: call again right away with next
+    private boolean hasMore;
+}
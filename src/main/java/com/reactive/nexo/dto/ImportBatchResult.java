@@ -0,0 +1,23 @@
+package com.reactive.nexo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ImportBatchResult {
+    // 0-based batch number within the import stream
+    private int batch;
+    // records read for this batch
+    private int received;
+    // users actually inserted
+    private int inserted;
+    // records skipped (conflicts and invalid records); the rest of the batch is still inserted
+    private List<ImportRecordError> rejected;
+    // a transaction of the batch rolled back: its records are reported as ERROR and nothing of them was written
+    private boolean failed;
+}
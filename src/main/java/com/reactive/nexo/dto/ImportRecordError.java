@@ -0,0 +1,18 @@
+package com.reactive.nexo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ImportRecordError {
+    // 0-based position of the record in the NDJSON stream
+    private long line;
+    private String identification_type;
+    private String identification_number;
+    // CONFLICT (identification already exists), INVALID or ERROR (the whole batch failed)
+    private String reason;
+    private String message;
+}
@@ -3,6 +3,7 @@ package com.reactive.nexo.dto;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import java.util.List;
@@ -10,12 +11,18 @@ import java.util.List;
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class PagedResponse<T> {
     private List<T> content;
-    private int page;
+    // null in cursor mode
+    private Integer page;
     private int size;
-    private long totalElements;
-    private long totalPages;
+    // null when the total count was not requested
+    private Long totalElements;
+    private Long totalPages;
     @JsonProperty("isLast")
     private boolean last;
+    // keyset (cursor) mode: cursor used for this page and token for the next one (null on the last page)
+    private String cursor;
+    private String next;
 }
@@ -0,0 +1,20 @@
+package com.reactive.nexo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A users row with its profile document from user_profile (JSON text), or a null document when it has none yet.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ProfileDocumentRow {
+    private Integer id;
+    private String names;
+    private String lastnames;
+    private String identificationType;
+    private String identificationNumber;
+    private String document;
+}
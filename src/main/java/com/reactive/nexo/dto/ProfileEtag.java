@@ -0,0 +1,44 @@
+package com.reactive.nexo.dto;
+
+import org.springframework.util.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Weak entity tag of an assembled profile, shared by the controller and {@code UserClient}.
+ * <p>
+ * The tag is a digest of the user columns and of the attributes sorted by name (values sorted too), so every
+ * endpoint that assembles the same profile produces the same tag regardless of row order; a client can tag a
+ * profile received from the bulk endpoint and revalidate it later with {@code If-None-Match}.
+ */
+public final class ProfileEtag {
+
+    private ProfileEtag() {
+    }
+
+    public static String of(UserWithAttributesDTO profile) {
+        StringBuilder canonical = new StringBuilder(128)
+                .append(profile.getId()).append('\u0000')
+                .append(profile.getNames()).append('\u0000')
+                .append(profile.getLastnames()).append('\u0000')
+                .append(profile.getIdentification_type()).append('\u0000')
+                .append(profile.getIdentification_number());
+        if (profile.getAttributes() != null) {
+            List<AttributeWithValuesDTO> attributes = new ArrayList<>(profile.getAttributes());
+            attributes.sort(Comparator.comparing(AttributeWithValuesDTO::getAttribute_name,
+                    Comparator.nullsFirst(Comparator.naturalOrder())));
+            for (AttributeWithValuesDTO attribute : attributes) {
+                canonical.append('\u0001').append(attribute.getAttribute_name());
+                if (attribute.getValues() != null) {
+                    List<String> values = new ArrayList<>(attribute.getValues());
+                    values.sort(Comparator.nullsFirst(Comparator.naturalOrder()));
+                    values.forEach(value -> canonical.append('\u0000').append(value));
+                }
+            }
+        }
+        return "W/\"" + DigestUtils.md5DigestAsHex(canonical.toString().getBytes(StandardCharsets.UTF_8)) + "\"";
+    }
+}
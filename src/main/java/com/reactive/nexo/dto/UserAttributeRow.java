@@ -0,0 +1,30 @@
+package com.reactive.nexo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.relational.core.mapping.Column;
+
+/**
+ * Flat row of the users / attribute_user / value_attribute_user join.
+ * One row per value; attribute and value columns are null when the user
+ * has no attributes (or the attribute has no values).
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class UserAttributeRow {
+    private Integer id;
+    private String names;
+    private String lastnames;
+    @Column("identification_type")
+    private String identificationType;
+    @Column("identification_number")
+    private String identificationNumber;
+    @Column("attribute_id")
+    private Integer attributeId;
+    @Column("name_attribute")
+    private String nameAttribute;
+    @Column("value_attribute")
+    private String valueAttribute;
+}
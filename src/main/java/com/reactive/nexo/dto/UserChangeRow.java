@@ -0,0 +1,17 @@
+package com.reactive.nexo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One entry of the change log: a user written (or deleted) by transaction {@code changeXid}.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class UserChangeRow {
+    private Integer userId;
+    private long changeXid;
+    private boolean deleted;
+}
@@ -0,0 +1,19 @@
+package com.reactive.nexo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class UserSearchRequest {
+    private AttributePredicate filter;
+    private Integer limit;
+    // token "next" de la página anterior
+    private String cursor;
+    // atributos a incluir en cada resultado (proyección); vacío = ninguno
+    private List<String> attributes;
+}
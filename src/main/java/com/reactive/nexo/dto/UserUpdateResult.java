@@ -0,0 +1,17 @@
+package com.reactive.nexo.dto;
+
+import com.reactive.nexo.model.User;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class UserUpdateResult {
+    private User user;
+    // rows inserted, updated or deleted by the write; 0 for a no-op update
+    private long rowsTouched;
+    // attribute updates left in the write-behind queue, written by its next flush
+    private int queued;
+}
@@ -0,0 +1,15 @@
+package com.reactive.nexo.event;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * An attribute_definition row changed (today: marked multiple), published after the write commits.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class AttributeDefinitionChangedEvent {
+    private String name;
+}
@@ -0,0 +1,30 @@
+package com.reactive.nexo.event;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Mutation of a user or of its attributes, published after the write commits. Carries the user's fields after the
+ * write and the attributes it touched, so listeners and change stream consumers do not have to read the user back.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class UserChangeEvent {
+
+    public enum Type { CREATED, UPDATED, DELETED, ATTRIBUTE_CHANGED }
+
+    private Type type;
+    private Integer userId;
+    private String names;
+    private String lastnames;
+    private String identificationType;
+    private String identificationNumber;
+    // attributes touched by the write: name -> current values (empty list = attribute removed); for CREATED
+    // all of them, null when unknown or when no attribute changed
+    private Map<String, List<String>> attributes;
+}
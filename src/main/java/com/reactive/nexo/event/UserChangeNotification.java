@@ -0,0 +1,25 @@
+package com.reactive.nexo.event;
+
+import com.fasterxml.jackson.annotation.JsonUnwrapped;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * A {@link UserChangeEvent} as delivered to one change stream subscriber.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class UserChangeNotification {
+
+    // increases by one per change published by this instance; also the SSE event id
+    private long sequence;
+    private Instant occurredAt;
+    // changes dropped for this subscriber right before this one (buffer full); > 0 means re-read what you need
+    private long missed;
+    @JsonUnwrapped
+    private UserChangeEvent change;
+}
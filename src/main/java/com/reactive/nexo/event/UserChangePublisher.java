@@ -0,0 +1,48 @@
+package com.reactive.nexo.event;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.NoTransactionException;
+import org.springframework.transaction.reactive.TransactionSynchronization;
+import org.springframework.transaction.reactive.TransactionSynchronizationManager;
+import reactor.core.publisher.Mono;
+
+/**
+ * Publishes {@link UserChangeEvent}s as Spring application events once the surrounding
+ * reactive transaction has committed, so listeners never observe rolled back writes.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class UserChangePublisher {
+
+    private final ApplicationEventPublisher eventPublisher;
+
+    public Mono<Void> publish(UserChangeEvent event) {
+        return TransactionSynchronizationManager.forCurrentTransaction()
+                .flatMap(synchronizationManager -> {
+                    if (!synchronizationManager.isSynchronizationActive()) {
+                        return fire(event);
+                    }
+                    synchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                        @Override
+                        public Mono<Void> afterCommit() {
+                            return fire(event);
+                        }
+                    });
+                    return Mono.<Void>empty();
+                })
+                .onErrorResume(NoTransactionException.class, e -> fire(event));
+    }
+
+    private Mono<Void> fire(UserChangeEvent event) {
+        return Mono.<Void>fromRunnable(() -> eventPublisher.publishEvent(event))
+                .onErrorResume(e -> {
+                    // listeners must not fail a write that is already committed
+                    log.warn("UserChangeEvent listener failed for userId={} type={}", event.getUserId(), event.getType(), e);
+                    return Mono.empty();
+                });
+    }
+}
@@ -0,0 +1,139 @@
+package com.reactive.nexo.event;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Instant;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fans committed {@link UserChangeEvent}s out to change stream subscribers ({@code GET /api/v1/users/events}).
+ * <p>
+ * Each subscriber has its own buffer of {@code nexo.events.buffer-size} notifications. Publishing only offers to
+ * those buffers, so a slow consumer never holds up the write that produced the event. When a subscriber's buffer is
+ * full the {@code nexo.events.overflow} policy applies: {@code drop} discards the notification and reports the
+ * count in the {@code missed} field of the next one delivered; {@code disconnect} ends that subscriber's stream once
+ * its buffer is drained, so the client reconnects and re-reads. At most {@code nexo.events.max-subscribers} streams
+ * are open at a time; further subscriptions get 503.
+ * <p>
+ * Metrics: {@code nexo.events.subscribers}, {@code nexo.events.published}, {@code nexo.events.dropped} and
+ * {@code nexo.events.disconnected}.
+ */
+@Component
+@Slf4j
+public class UserChangeStream {
+
+    public enum Overflow { DROP, DISCONNECT }
+
+    private final int bufferSize;
+    private final int maxSubscribers;
+    private final Overflow overflow;
+    private final Set<Subscriber> subscribers = new CopyOnWriteArraySet<>();
+    // open streams, reserved before a subscriber is added and released when its stream terminates
+    private final AtomicInteger open = new AtomicInteger();
+    private final Counter published;
+    private final Counter dropped;
+    private final Counter disconnected;
+
+    // guarded by this: sequence order is delivery order for every subscriber
+    private long sequence;
+
+    public UserChangeStream(MeterRegistry meterRegistry,
+                            @Value("${nexo.events.buffer-size:256}") int bufferSize,
+                            @Value("${nexo.events.max-subscribers:100}") int maxSubscribers,
+                            @Value("${nexo.events.overflow:drop}") String overflow) {
+        this.bufferSize = Math.max(1, bufferSize);
+        this.maxSubscribers = maxSubscribers;
+        this.overflow = Overflow.valueOf(overflow.trim().toUpperCase(Locale.ROOT));
+        Gauge.builder("nexo.events.subscribers", subscribers, Set::size).register(meterRegistry);
+        this.published = meterRegistry.counter("nexo.events.published");
+        this.dropped = meterRegistry.counter("nexo.events.dropped");
+        this.disconnected = meterRegistry.counter("nexo.events.disconnected");
+    }
+
+    /**
+     * Changes committed from the moment of subscription on. The buffer is released when the subscriber cancels.
+     */
+    public Flux<UserChangeNotification> subscribe() {
+        return Flux.defer(() -> {
+            // check and reserve in one step: concurrent subscriptions must not both pass a size check
+            if (open.incrementAndGet() > maxSubscribers) {
+                open.decrementAndGet();
+                return Flux.error(new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many change stream subscribers"));
+            }
+            Subscriber subscriber = new Subscriber(bufferSize);
+            subscribers.add(subscriber);
+            return subscriber.sink.asFlux()
+                    // one notification at a time off the publishing thread: encoding and writing happen here
+                    .publishOn(Schedulers.parallel(), 1)
+                    .doFinally(signal -> {
+                        subscribers.remove(subscriber);
+                        open.decrementAndGet();
+                    });
+        });
+    }
+
+    public int subscriberCount() {
+        return subscribers.size();
+    }
+
+    @EventListener
+    public void onUserChange(UserChangeEvent event) {
+        published.increment();
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        Instant now = Instant.now();
+        synchronized (this) {
+            sequence++;
+            for (Subscriber subscriber : subscribers) {
+                offer(subscriber, new UserChangeNotification(sequence, now, subscriber.missed, event));
+            }
+        }
+    }
+
+    // caller holds the lock, which also serializes emissions into each sink
+    private void offer(Subscriber subscriber, UserChangeNotification notification) {
+        Sinks.EmitResult result = subscriber.sink.tryEmitNext(notification);
+        if (result.isSuccess()) {
+            subscriber.missed = 0;
+            return;
+        }
+        if (result != Sinks.EmitResult.FAIL_OVERFLOW) {
+            // cancelled or already terminated: doFinally removes it
+            return;
+        }
+        dropped.increment();
+        if (overflow == Overflow.DROP) {
+            subscriber.missed++;
+            return;
+        }
+        disconnected.increment();
+        subscribers.remove(subscriber);
+        subscriber.sink.tryEmitComplete();
+        log.info("Change stream subscriber disconnected: buffer of {} notifications full", bufferSize);
+    }
+
+    private static final class Subscriber {
+        final Sinks.Many<UserChangeNotification> sink;
+        long missed;
+
+        Subscriber(int bufferSize) {
+            this.sink = Sinks.many().unicast().onBackpressureBuffer(new ArrayBlockingQueue<>(bufferSize));
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package com.reactive.nexo.index;
+
+import com.reactive.nexo.dto.AttributePredicate;
+import com.reactive.nexo.event.UserChangeEvent;
+import com.reactive.nexo.sharding.ShardKey;
+import com.reactive.nexo.sharding.Shards;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+/**
+ * Optional in-process inverted index: attribute name -> value -> {@link UserIdSet}.
+ * <p>
+ * Only the attributes listed in {@code nexo.index.attributes} are indexed. The index is built once the
+ * application is ready and kept current from {@link UserChangeEvent}s (published after commit) by
+ * re-reading the indexed attributes of the changed user. Until the first build finishes
+ * {@link #covers} returns false and callers fall back to SQL.
+ * <p>
+ * Every change to a user takes a new version; a reload only applies if no newer change to that user started after
+ * it, so concurrent reloads of one user cannot land out of order. Users replaced while a rebuild is loading are
+ * replayed on top of the fresh postings before they are swapped in.
+ */
+@Component
+@Slf4j
+public class AttributeValueIndex {
+
+    private static final String LOAD_ALL = "select au.user_id, ad.name as name_attribute, vau.value_attribute " +
+            "from attribute_definition ad INNER JOIN attribute_user au ON ad.id = au.definition_id " +
+            "INNER JOIN value_attribute_user vau ON au.id = vau.attribute_id " +
+            "WHERE ad.name IN (:names)";
+    private static final String LOAD_USER = LOAD_ALL + " AND au.user_id = :userId";
+
+    private final DatabaseClient databaseClient;
+    private final Shards shards;
+    private final boolean enabled;
+    private final Set<String> attributes;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private Map<String, Map<String, UserIdSet>> postings = new HashMap<>();
+    private volatile boolean ready;
+    private final AtomicLong sequence = new AtomicLong();
+    // userId -> version of its latest change still being applied
+    private final Map<Integer, Long> versions = new ConcurrentHashMap<>();
+    // guarded by lock: rebuilds in progress and the users replaced meanwhile (null when none runs)
+    private int rebuilds;
+    private Map<Integer, Map<String, List<String>>> changedDuringRebuild;
+
+    public AttributeValueIndex(DatabaseClient databaseClient,
+                               Shards shards,
+                               MeterRegistry meterRegistry,
+                               @Value("${nexo.index.enabled:false}") boolean enabled,
+                               @Value("${nexo.index.attributes:entidad de salud,regimen,ubicacion ciudad}") List<String> attributes) {
+        this.databaseClient = databaseClient;
+        this.shards = shards;
+        this.enabled = enabled;
+        Set<String> names = new LinkedHashSet<>();
+        for (String name : attributes) {
+            if (!name.trim().isEmpty()) {
+                names.add(name.trim());
+            }
+        }
+        this.attributes = Collections.unmodifiableSet(names);
+        Gauge.builder("nexo.index.memory", this, AttributeValueIndex::sizeInBytes)
+                .description("Approximate heap used by the attribute value index")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("nexo.index.entries", this, AttributeValueIndex::entries)
+                .description("Distinct (attribute, value) keys in the attribute value index")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * True when every leaf of the tree is an {@code eq} on an indexed attribute and the index is built.
+     */
+    public boolean covers(AttributePredicate filter) {
+        return ready && supports(filter);
+    }
+
+    /**
+     * True when every leaf of the tree is an {@code eq} on an indexed attribute, whether or not the index is built.
+     */
+    public boolean supports(AttributePredicate filter) {
+        return supports(filter, 0);
+    }
+
+    public boolean covers(String attribute) {
+        return ready && attributes.contains(attribute);
+    }
+
+    /**
+     * Users whose attribute has the given value. Returns a private copy.
+     */
+    public UserIdSet lookup(String attribute, String value) {
+        lock.readLock().lock();
+        try {
+            UserIdSet ids = postings.getOrDefault(attribute, Collections.emptyMap()).get(value);
+            return ids == null ? new UserIdSet() : ids.copy();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Evaluates an AND/OR tree of {@code eq} predicates by intersecting / uniting the postings.
+     * Callers must check {@link #covers(AttributePredicate)} first.
+     */
+    public UserIdSet evaluate(AttributePredicate filter) {
+        lock.readLock().lock();
+        try {
+            return evaluateLocked(filter);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (enabled) {
+            rebuild().subscribe();
+        }
+    }
+
+    /**
+     * Reloads the whole index from the database and swaps it in atomically, replaying the users changed while it
+     * was loading.
+     */
+    public Mono<Void> rebuild() {
+        if (attributes.isEmpty()) {
+            ready = true;
+            return Mono.empty();
+        }
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            Map<String, Map<String, UserIdSet>> fresh = new HashMap<>();
+            lock.writeLock().lock();
+            try {
+                if (rebuilds++ == 0) {
+                    changedDuringRebuild = new HashMap<>();
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            return shards.merge(() -> databaseClient.sql(LOAD_ALL)
+                            .bind("names", new ArrayList<>(attributes))
+                            .map((row, metadata) -> new Object[]{row.get("user_id", Integer.class),
+                                    row.get("name_attribute", String.class), row.get("value_attribute", String.class)})
+                            .all())
+                    .doOnNext(row -> add(fresh, (String) row[1], (String) row[2], (Integer) row[0]))
+                    .then(Mono.fromRunnable(() -> {
+                        int replayed;
+                        lock.writeLock().lock();
+                        try {
+                            replayed = changedDuringRebuild.size();
+                            changedDuringRebuild.forEach((userId, values) -> replace(fresh, userId, values));
+                            postings = fresh;
+                            endRebuild();
+                        } finally {
+                            lock.writeLock().unlock();
+                        }
+                        ready = true;
+                        log.info("Attribute value index built in {} ms: {} keys, ~{} bytes, {} users replayed",
+                                (System.nanoTime() - start) / 1_000_000, entries(), sizeInBytes(), replayed);
+                    }))
+                    .doOnError(e -> {
+                        lock.writeLock().lock();
+                        try {
+                            endRebuild();
+                        } finally {
+                            lock.writeLock().unlock();
+                        }
+                        log.error("Attribute value index build failed, equality searches stay on SQL", e);
+                    })
+                    .then();
+        });
+    }
+
+    // must hold the write lock
+    private void endRebuild() {
+        if (--rebuilds == 0) {
+            changedDuringRebuild = null;
+        }
+    }
+
+    @EventListener
+    public void onUserChange(UserChangeEvent event) {
+        if (!enabled || event.getUserId() == null) {
+            return;
+        }
+        if (event.getType() == UserChangeEvent.Type.DELETED) {
+            replaceUser(event.getUserId(), Collections.emptyMap());
+            return;
+        }
+        if (event.getType() == UserChangeEvent.Type.CREATED && event.getAttributes() != null) {
+            // a new user's event carries all of its attributes (bulk import), no need to read them back
+            replaceUser(event.getUserId(), event.getAttributes());
+            return;
+        }
+        refreshUser(event.getUserId());
+    }
+
+    /**
+     * Re-reads the indexed attributes of one user in the background, e.g. after another node changed it.
+     */
+    public void refreshUser(int userId) {
+        if (!enabled) {
+            return;
+        }
+        long version = begin(userId);
+        reloadUser(userId, version)
+                .doOnError(e -> {
+                    versions.remove(userId, version);
+                    log.warn("Attribute value index refresh failed for userId={}", userId, e);
+                })
+                .subscribe();
+    }
+
+    private Mono<Void> reloadUser(int userId, long version) {
+        if (attributes.isEmpty()) {
+            return Mono.empty();
+        }
+        return databaseClient.sql(LOAD_USER)
+                .bind("names", new ArrayList<>(attributes))
+                .bind("userId", userId)
+                .map((row, metadata) -> Map.entry(row.get("name_attribute", String.class), row.get("value_attribute", String.class)))
+                .all()
+                .collect(Collectors.groupingBy(Map.Entry::getKey, Collectors.mapping(Map.Entry::getValue, Collectors.toList())))
+                .doOnNext(values -> apply(userId, version, values))
+                .contextWrite(ShardKey.user(userId))
+                .then();
+    }
+
+    /**
+     * Replaces the indexed values of one user; attributes missing from {@code values} are cleared.
+     */
+    public void replaceUser(int userId, Map<String, List<String>> values) {
+        apply(userId, begin(userId), values);
+    }
+
+    private long begin(int userId) {
+        long version = sequence.incrementAndGet();
+        versions.put(userId, version);
+        return version;
+    }
+
+    // applies the values read or received for the given version, unless a newer change to the user started since
+    private void apply(int userId, long version, Map<String, List<String>> values) {
+        lock.writeLock().lock();
+        try {
+            if (!versions.remove(userId, version)) {
+                log.debug("Attribute value index: dropping stale values of userId={}", userId);
+                return;
+            }
+            replace(postings, userId, values);
+            if (changedDuringRebuild != null) {
+                changedDuringRebuild.put(userId, values);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void replace(Map<String, Map<String, UserIdSet>> target, int userId, Map<String, List<String>> values) {
+        for (String attribute : attributes) {
+            Map<String, UserIdSet> byValue = target.get(attribute);
+            if (byValue != null) {
+                byValue.values().forEach(ids -> ids.remove(userId));
+                byValue.values().removeIf(UserIdSet::isEmpty);
+            }
+        }
+        values.forEach((attribute, attributeValues) -> {
+            if (attributes.contains(attribute) && attributeValues != null) {
+                attributeValues.forEach(value -> add(target, attribute, value, userId));
+            }
+        });
+    }
+
+    public long sizeInBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = 0;
+            for (Map<String, UserIdSet> byValue : postings.values()) {
+                for (Map.Entry<String, UserIdSet> entry : byValue.entrySet()) {
+                    // map entry + String header/array + set
+                    bytes += 32 + 40 + entry.getKey().length() * 2L + entry.getValue().sizeInBytes();
+                }
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long entries() {
+        lock.readLock().lock();
+        try {
+            return postings.values().stream().mapToLong(Map::size).sum();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private boolean supports(AttributePredicate node, int depth) {
+        if (node == null || depth > 6) {
+            return false;
+        }
+        if (node.getAttribute() != null) {
+            String relation = node.getRelation() == null ? "eq" : node.getRelation().toLowerCase();
+            return "eq".equals(relation) && node.getValue() != null && attributes.contains(node.getAttribute())
+                    && node.getAnd() == null && node.getOr() == null;
+        }
+        List<AttributePredicate> children = node.getAnd() != null ? node.getAnd() : node.getOr();
+        if (children == null || children.isEmpty() || (node.getAnd() != null && node.getOr() != null)) {
+            return false;
+        }
+        return children.stream().allMatch(child -> supports(child, depth + 1));
+    }
+
+    private UserIdSet evaluateLocked(AttributePredicate node) {
+        if (node.getAttribute() != null) {
+            UserIdSet ids = postings.getOrDefault(node.getAttribute(), Collections.emptyMap()).get(node.getValue());
+            return ids == null ? new UserIdSet() : ids.copy();
+        }
+        boolean and = node.getAnd() != null;
+        UserIdSet result = null;
+        for (AttributePredicate child : and ? node.getAnd() : node.getOr()) {
+            UserIdSet ids = evaluateLocked(child);
+            result = result == null ? ids : (and ? result.and(ids) : result.or(ids));
+            if (and && result.isEmpty()) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    private static void add(Map<String, Map<String, UserIdSet>> target, String attribute, String value, int userId) {
+        target.computeIfAbsent(attribute, name -> new HashMap<>())
+                .computeIfAbsent(value, v -> new UserIdSet())
+                .add(userId);
+    }
+}
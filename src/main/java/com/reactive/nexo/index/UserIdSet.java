@@ -0,0 +1,399 @@
+package com.reactive.nexo.index;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Compressed set of non-negative int ids without boxing.
+ * <p>
+ * Ids are split in 65536-wide chunks by their high 16 bits. Each chunk stores its low 16 bits either
+ * as a sorted {@code char[]} (sparse chunks, 2 bytes per id) or as a 8 KiB bitmap once it holds more
+ * than {@value #ARRAY_MAX} ids, the same layout used by Roaring bitmaps. Not thread safe.
+ */
+public final class UserIdSet {
+
+    static final int ARRAY_MAX = 4096;
+    private static final int BITMAP_WORDS = 1024;
+
+    private char[] keys = new char[0];
+    private Container[] containers = new Container[0];
+    private int chunks;
+
+    public boolean add(int id) {
+        checkId(id);
+        char high = (char) (id >>> 16);
+        int index = indexOf(high);
+        if (index < 0) {
+            index = -index - 1;
+            insertChunk(index, high, new ArrayContainer());
+        }
+        Container container = containers[index];
+        int before = container.cardinality();
+        containers[index] = container.add((char) id);
+        return containers[index].cardinality() > before;
+    }
+
+    public boolean remove(int id) {
+        if (id < 0) {
+            return false;
+        }
+        int index = indexOf((char) (id >>> 16));
+        if (index < 0) {
+            return false;
+        }
+        Container container = containers[index];
+        int before = container.cardinality();
+        Container updated = container.remove((char) id);
+        if (updated.cardinality() == 0) {
+            removeChunk(index);
+        } else {
+            containers[index] = updated;
+        }
+        return updated.cardinality() < before;
+    }
+
+    public boolean contains(int id) {
+        if (id < 0) {
+            return false;
+        }
+        int index = indexOf((char) (id >>> 16));
+        return index >= 0 && containers[index].contains((char) id);
+    }
+
+    public int cardinality() {
+        int total = 0;
+        for (int i = 0; i < chunks; i++) {
+            total += containers[i].cardinality();
+        }
+        return total;
+    }
+
+    public boolean isEmpty() {
+        return chunks == 0;
+    }
+
+    /**
+     * Approximate heap footprint in bytes (arrays plus object headers).
+     */
+    public long sizeInBytes() {
+        long bytes = 16 + 16 + keys.length * 2L + 16 + containers.length * 4L;
+        for (int i = 0; i < chunks; i++) {
+            bytes += containers[i].sizeInBytes();
+        }
+        return bytes;
+    }
+
+    public UserIdSet and(UserIdSet other) {
+        UserIdSet result = new UserIdSet();
+        int i = 0;
+        int j = 0;
+        while (i < chunks && j < other.chunks) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                Container intersection = containers[i].and(other.containers[j]);
+                if (intersection.cardinality() > 0) {
+                    result.insertChunk(result.chunks, keys[i], intersection);
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    public UserIdSet or(UserIdSet other) {
+        UserIdSet result = new UserIdSet();
+        int i = 0;
+        int j = 0;
+        while (i < chunks || j < other.chunks) {
+            if (j >= other.chunks || (i < chunks && keys[i] < other.keys[j])) {
+                result.insertChunk(result.chunks, keys[i], containers[i].copy());
+                i++;
+            } else if (i >= chunks || keys[i] > other.keys[j]) {
+                result.insertChunk(result.chunks, other.keys[j], other.containers[j].copy());
+                j++;
+            } else {
+                result.insertChunk(result.chunks, keys[i], containers[i].or(other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    public UserIdSet copy() {
+        UserIdSet result = new UserIdSet();
+        for (int i = 0; i < chunks; i++) {
+            result.insertChunk(i, keys[i], containers[i].copy());
+        }
+        return result;
+    }
+
+    /**
+     * Visits the ids in ascending order.
+     */
+    public void forEach(IntConsumer consumer) {
+        for (int i = 0; i < chunks; i++) {
+            containers[i].forEach(keys[i] << 16, consumer);
+        }
+    }
+
+    public int[] toArray() {
+        int[] result = new int[cardinality()];
+        int[] position = {0};
+        forEach(id -> result[position[0]++] = id);
+        return result;
+    }
+
+    /**
+     * Up to {@code limit} ids strictly greater than {@code afterId}, ascending (keyset page).
+     */
+    public int[] page(int afterId, int limit) {
+        int[] result = new int[Math.max(0, limit)];
+        int[] position = {0};
+        int fromChunk = afterId < 0 ? 0 : afterId >>> 16;
+        for (int i = 0; i < chunks && position[0] < result.length; i++) {
+            if (keys[i] < fromChunk) {
+                continue;
+            }
+            containers[i].forEach(keys[i] << 16, id -> {
+                if (id > afterId && position[0] < result.length) {
+                    result[position[0]++] = id;
+                }
+            });
+        }
+        return Arrays.copyOf(result, position[0]);
+    }
+
+    public static UserIdSet of(int... ids) {
+        UserIdSet set = new UserIdSet();
+        for (int id : ids) {
+            set.add(id);
+        }
+        return set;
+    }
+
+    private int indexOf(char high) {
+        return Arrays.binarySearch(keys, 0, chunks, high);
+    }
+
+    private void insertChunk(int index, char high, Container container) {
+        if (chunks == keys.length) {
+            int capacity = Math.max(4, chunks * 2);
+            keys = Arrays.copyOf(keys, capacity);
+            containers = Arrays.copyOf(containers, capacity);
+        }
+        System.arraycopy(keys, index, keys, index + 1, chunks - index);
+        System.arraycopy(containers, index, containers, index + 1, chunks - index);
+        keys[index] = high;
+        containers[index] = container;
+        chunks++;
+    }
+
+    private void removeChunk(int index) {
+        System.arraycopy(keys, index + 1, keys, index, chunks - index - 1);
+        System.arraycopy(containers, index + 1, containers, index, chunks - index - 1);
+        chunks--;
+        containers[chunks] = null;
+    }
+
+    private static void checkId(int id) {
+        if (id < 0) {
+            throw new IllegalArgumentException("Negative id: " + id);
+        }
+    }
+
+    private interface Container {
+        Container add(char low);
+
+        Container remove(char low);
+
+        boolean contains(char low);
+
+        int cardinality();
+
+        long sizeInBytes();
+
+        void forEach(int base, IntConsumer consumer);
+
+        Container copy();
+
+        default Container and(Container other) {
+            Container small = cardinality() <= other.cardinality() ? this : other;
+            Container large = small == this ? other : this;
+            ArrayContainer result = new ArrayContainer();
+            Container[] out = {result};
+            small.forEach(0, low -> {
+                if (large.contains((char) low)) {
+                    out[0] = out[0].add((char) low);
+                }
+            });
+            return out[0];
+        }
+
+        default Container or(Container other) {
+            Container[] out = {copy()};
+            other.forEach(0, low -> out[0] = out[0].add((char) low));
+            return out[0];
+        }
+    }
+
+    private static final class ArrayContainer implements Container {
+        private char[] values;
+        private int cardinality;
+
+        ArrayContainer() {
+            this(new char[4], 0);
+        }
+
+        ArrayContainer(char[] values, int cardinality) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        public Container add(char low) {
+            int index = Arrays.binarySearch(values, 0, cardinality, low);
+            if (index >= 0) {
+                return this;
+            }
+            if (cardinality == ARRAY_MAX) {
+                return toBitmap().add(low);
+            }
+            index = -index - 1;
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_MAX, values.length * 2));
+            }
+            System.arraycopy(values, index, values, index + 1, cardinality - index);
+            values[index] = low;
+            cardinality++;
+            return this;
+        }
+
+        @Override
+        public Container remove(char low) {
+            int index = Arrays.binarySearch(values, 0, cardinality, low);
+            if (index >= 0) {
+                System.arraycopy(values, index + 1, values, index, cardinality - index - 1);
+                cardinality--;
+            }
+            return this;
+        }
+
+        @Override
+        public boolean contains(char low) {
+            return Arrays.binarySearch(values, 0, cardinality, low) >= 0;
+        }
+
+        @Override
+        public int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        public long sizeInBytes() {
+            return 16 + 16 + values.length * 2L;
+        }
+
+        @Override
+        public void forEach(int base, IntConsumer consumer) {
+            for (int i = 0; i < cardinality; i++) {
+                consumer.accept(base | values[i]);
+            }
+        }
+
+        @Override
+        public Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, Math.max(cardinality, 4)), cardinality);
+        }
+
+        private BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer();
+            for (int i = 0; i < cardinality; i++) {
+                bitmap.add(values[i]);
+            }
+            return bitmap;
+        }
+    }
+
+    private static final class BitmapContainer implements Container {
+        private final long[] words;
+        private int cardinality;
+
+        BitmapContainer() {
+            this(new long[BITMAP_WORDS], 0);
+        }
+
+        BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        public Container add(char low) {
+            long mask = 1L << low;
+            int word = low >>> 6;
+            if ((words[word] & mask) == 0) {
+                words[word] |= mask;
+                cardinality++;
+            }
+            return this;
+        }
+
+        @Override
+        public Container remove(char low) {
+            long mask = 1L << low;
+            int word = low >>> 6;
+            if ((words[word] & mask) != 0) {
+                words[word] &= ~mask;
+                cardinality--;
+                if (cardinality <= ARRAY_MAX / 2) {
+                    return toArray();
+                }
+            }
+            return this;
+        }
+
+        @Override
+        public boolean contains(char low) {
+            return (words[low >>> 6] & (1L << low)) != 0;
+        }
+
+        @Override
+        public int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        public long sizeInBytes() {
+            return 16 + 16 + BITMAP_WORDS * 8L;
+        }
+
+        @Override
+        public void forEach(int base, IntConsumer consumer) {
+            for (int word = 0; word < BITMAP_WORDS; word++) {
+                long bits = words[word];
+                while (bits != 0) {
+                    int bit = Long.numberOfTrailingZeros(bits);
+                    consumer.accept(base | (word << 6) | bit);
+                    bits &= bits - 1;
+                }
+            }
+        }
+
+        @Override
+        public Container copy() {
+            return new BitmapContainer(words.clone(), cardinality);
+        }
+
+        private ArrayContainer toArray() {
+            char[] values = new char[Math.max(cardinality, 4)];
+            int[] position = {0};
+            forEach(0, low -> values[position[0]++] = (char) low);
+            return new ArrayContainer(values, cardinality);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.reactive.nexo.ingest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Pull-based RFC 4180 CSV reader over a {@link FileChannel}.
+ * <p>
+ * The file is read in fixed-size chunks into one reused buffer, so memory does not depend on the file size.
+ * Fields may be quoted (with {@code ""} escapes and embedded line breaks); CRLF and LF line endings and a
+ * leading UTF-8 BOM are accepted; blank lines are skipped. Delimiters are ASCII, so records are split on raw
+ * bytes and each field is decoded as UTF-8 once complete. {@link #offset()} is the byte position right after
+ * the last record returned, suitable for restarting a later reader with {@code startOffset}. Not thread safe.
+ */
+public final class CsvChunkReader implements Closeable {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+    // guards against an unbalanced quote swallowing the rest of the file into one field
+    static final int MAX_FIELD_BYTES = 1 << 20;
+
+    private enum State { FIELD_START, UNQUOTED, QUOTED, QUOTE_IN_QUOTED }
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final byte delimiter;
+    private final long size;
+    // file position of buffer index 0
+    private long bufferStart;
+    private long offset;
+    private boolean eof;
+
+    private byte[] field = new byte[256];
+    private int fieldLength;
+
+    public CsvChunkReader(Path file, long startOffset, int chunkSize, char delimiter) throws IOException {
+        if (delimiter == '"' || delimiter == '\n' || delimiter == '\r' || delimiter > 0x7F) {
+            throw new IllegalArgumentException("Unsupported delimiter: " + delimiter);
+        }
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.size = channel.size();
+        if (startOffset < 0 || startOffset > size) {
+            channel.close();
+            throw new IllegalArgumentException("Offset " + startOffset + " outside file of " + size + " bytes");
+        }
+        this.buffer = ByteBuffer.allocate(Math.max(16, chunkSize));
+        this.buffer.limit(0);
+        this.delimiter = (byte) delimiter;
+        this.offset = startOffset;
+        this.bufferStart = startOffset;
+        channel.position(startOffset);
+        if (startOffset == 0) {
+            skipBom();
+        }
+    }
+
+    /**
+     * Next record, or null at end of file. A final record without line break is returned as well.
+     */
+    public List<String> next() throws IOException {
+        List<String> record = new ArrayList<>();
+        State state = State.FIELD_START;
+        fieldLength = 0;
+        while (true) {
+            if (!buffer.hasRemaining() && !fill()) {
+                if (state == State.FIELD_START && record.isEmpty() && fieldLength == 0) {
+                    offset = size;
+                    return null;
+                }
+                record.add(takeField());
+                offset = size;
+                return record;
+            }
+            byte b = buffer.get();
+            switch (state) {
+                case FIELD_START:
+                case UNQUOTED:
+                    if (b == '"' && state == State.FIELD_START) {
+                        state = State.QUOTED;
+                    } else if (b == delimiter) {
+                        record.add(takeField());
+                        state = State.FIELD_START;
+                    } else if (b == '\n') {
+                        if (record.isEmpty() && fieldLength == 0 && state == State.FIELD_START) {
+                            // blank line
+                            offset = position();
+                            continue;
+                        }
+                        record.add(takeField());
+                        offset = position();
+                        return record;
+                    } else if (b != '\r') {
+                        append(b);
+                        state = State.UNQUOTED;
+                    }
+                    break;
+                case QUOTED:
+                    if (b == '"') {
+                        state = State.QUOTE_IN_QUOTED;
+                    } else {
+                        append(b);
+                    }
+                    break;
+                case QUOTE_IN_QUOTED:
+                    if (b == '"') {
+                        append(b);
+                        state = State.QUOTED;
+                    } else if (b == delimiter) {
+                        record.add(takeField());
+                        state = State.FIELD_START;
+                    } else if (b == '\n') {
+                        record.add(takeField());
+                        offset = position();
+                        return record;
+                    } else if (b != '\r') {
+                        // lenient: text after the closing quote is kept
+                        append(b);
+                        state = State.UNQUOTED;
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Byte offset just after the last record returned by {@link #next()}.
+     */
+    public long offset() {
+        return offset;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private long position() {
+        return bufferStart + buffer.position();
+    }
+
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+        bufferStart += buffer.limit();
+        buffer.clear();
+        int read;
+        do {
+            read = channel.read(buffer);
+        } while (read == 0);
+        buffer.flip();
+        if (read < 0) {
+            eof = true;
+            return false;
+        }
+        return true;
+    }
+
+    private void skipBom() throws IOException {
+        if (fill() && buffer.remaining() >= 3
+                && buffer.get(0) == (byte) 0xEF && buffer.get(1) == (byte) 0xBB && buffer.get(2) == (byte) 0xBF) {
+            buffer.position(3);
+            offset = 3;
+        }
+    }
+
+    private void append(byte b) throws IOException {
+        if (fieldLength == MAX_FIELD_BYTES) {
+            throw new IOException("Field longer than " + MAX_FIELD_BYTES + " bytes near offset " + position()
+                    + " (unbalanced quote?)");
+        }
+        if (fieldLength == field.length) {
+            field = Arrays.copyOf(field, field.length * 2);
+        }
+        field[fieldLength++] = b;
+    }
+
+    private String takeField() {
+        String value = new String(field, 0, fieldLength, StandardCharsets.UTF_8);
+        fieldLength = 0;
+        return value;
+    }
+}
@@ -0,0 +1,296 @@
+package com.reactive.nexo.ingest;
+
+import com.reactive.nexo.dto.CreateUserRequest;
+import com.reactive.nexo.dto.ImportBatchResult;
+import com.reactive.nexo.dto.ImportRecordError;
+import com.reactive.nexo.service.BulkImportService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Imports a CSV file of users through {@link BulkImportService} without loading the file in memory.
+ * <p>
+ * The header names the columns: {@code names}, {@code lastnames}, {@code identification_type} and
+ * {@code identification_number} are required, every other column is a dynamic attribute (several values in one
+ * cell are separated by {@value #VALUE_SEPARATOR}; an empty cell means no attribute). Records are read by
+ * {@link CsvChunkReader}, grouped in batches of {@code nexo.import.batch-size} and written with up to
+ * {@code nexo.import.concurrency} batches in flight. Batch results are consumed in file order and each one
+ * advances the {@link ImportCheckpoint}, so a restarted import continues after the last committed batch;
+ * batches re-imported after a crash are reported as identification conflicts, never duplicated. A batch whose
+ * transaction rolled back ({@link ImportBatchResult#isFailed()}) stops the import with an error and leaves the
+ * checkpoint at the batch before it.
+ */
+@Component
+@Slf4j
+public class CsvFileImporter {
+
+    static final String VALUE_SEPARATOR = "|";
+    private static final String[] USER_COLUMNS = {"names", "lastnames", "identification_type", "identification_number"};
+
+    private final BulkImportService bulkImportService;
+    private final int concurrency;
+    private final Duration progressInterval;
+    private final int chunkSize;
+
+    public CsvFileImporter(BulkImportService bulkImportService,
+                           @Value("${nexo.import.concurrency:2}") int concurrency,
+                           @Value("${nexo.import.progress-interval:5s}") Duration progressInterval,
+                           @Value("${nexo.import.read-chunk-size:" + CsvChunkReader.DEFAULT_CHUNK_SIZE + "}") int chunkSize) {
+        this.bulkImportService = bulkImportService;
+        this.concurrency = Math.max(1, concurrency);
+        this.progressInterval = progressInterval;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Imports the file, resuming from {@code checkpoint} when it exists; the checkpoint is deleted once the
+     * whole file is imported.
+     */
+    public Mono<CsvImportSummary> importFile(Path file, ImportCheckpoint checkpoint, char delimiter) {
+        return Mono.fromCallable(() -> open(file, checkpoint, delimiter))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(source -> run(file, checkpoint, source));
+    }
+
+    private Source open(Path file, ImportCheckpoint checkpoint, char delimiter) throws IOException {
+        List<String> header;
+        long dataStart;
+        try (CsvChunkReader headerReader = new CsvChunkReader(file, 0, 64 * 1024, delimiter)) {
+            header = headerReader.next();
+            dataStart = headerReader.offset();
+        }
+        if (header == null) {
+            throw new IllegalArgumentException("Empty file: " + file);
+        }
+        Map<String, Integer> columns = new LinkedHashMap<>();
+        for (int i = 0; i < header.size(); i++) {
+            columns.put(header.get(i).trim(), i);
+        }
+        for (String column : USER_COLUMNS) {
+            if (!columns.containsKey(column)) {
+                throw new IllegalArgumentException("Missing column '" + column + "' in " + file);
+            }
+        }
+        long offset = dataStart;
+        long records = 0;
+        long[] saved = checkpoint.load(file, Files.size(file));
+        if (saved != null && saved[0] > dataStart) {
+            offset = saved[0];
+            records = saved[1];
+            log.info("Importación: reanudando {} desde el byte {} (registro {})", file, offset, records);
+        }
+        return new Source(new CsvChunkReader(file, offset, chunkSize, delimiter), columns, offset, records);
+    }
+
+    private Mono<CsvImportSummary> run(Path file, ImportCheckpoint checkpoint, Source source) {
+        CsvChunkReader reader = source.reader;
+        Progress progress = new Progress(reader.size(), source.offset);
+        AtomicLong nextRecord = new AtomicLong(source.records);
+        AtomicInteger inFlight = new AtomicInteger();
+
+        Flux<CsvRow> rows = Flux.using(() -> reader,
+                r -> Flux.<CsvRow>generate(sink -> {
+                    try {
+                        List<String> fields = r.next();
+                        if (fields == null) {
+                            sink.complete();
+                        } else {
+                            sink.next(new CsvRow(nextRecord.getAndIncrement(), r.offset(), fields));
+                        }
+                    } catch (IOException e) {
+                        sink.error(e);
+                    }
+                }),
+                r -> {
+                    try {
+                        r.close();
+                    } catch (IOException e) {
+                        log.warn("Importación: no se pudo cerrar {}", file, e);
+                    }
+                })
+                // reads (and the demand that triggers them) stay off the database event loop
+                .subscribeOn(Schedulers.boundedElastic());
+
+        return rows.buffer(bulkImportService.getBatchSize())
+                .index()
+                .flatMapSequential(batch -> {
+                    List<CsvRow> batchRows = batch.getT2();
+                    List<Tuple2<Long, CreateUserRequest>> requests = new ArrayList<>(batchRows.size());
+                    for (CsvRow row : batchRows) {
+                        requests.add(Tuples.of(row.record, toRequest(source.columns, row.fields)));
+                    }
+                    inFlight.incrementAndGet();
+                    return bulkImportService.importBatch(batch.getT1().intValue(), requests)
+                            .doFinally(signal -> inFlight.decrementAndGet())
+                            .map(result -> Tuples.of(result, batchRows.get(batchRows.size() - 1)));
+                }, concurrency, 1)
+                .publishOn(Schedulers.boundedElastic())
+                .concatMap(done -> Mono.fromCallable(() -> {
+                    ImportBatchResult result = done.getT1();
+                    CsvRow last = done.getT2();
+                    if (result.isFailed()) {
+                        throw new IllegalStateException("El lote " + result.getBatch() + " no se pudo escribir ("
+                                + failureOf(result) + "); se reanuda desde el último lote confirmado");
+                    }
+                    checkpoint.save(file, last.offset, last.record + 1);
+                    for (ImportRecordError error : result.getRejected()) {
+                        log.warn("Importación: registro {} rechazado ({} {}): {} {}", error.getLine(),
+                                error.getIdentification_type(), error.getIdentification_number(), error.getReason(), error.getMessage());
+                    }
+                    progress.update(result, last.offset, inFlight.get());
+                    return result;
+                }))
+                .then(Mono.fromCallable(() -> {
+                    checkpoint.delete();
+                    CsvImportSummary summary = progress.summary();
+                    log.info("Importación terminada: {} registros, {} insertados, {} rechazados en {} ms ({} filas/s)",
+                            summary.getRecords(), summary.getInserted(), summary.getRejected(), summary.getElapsedMillis(),
+                            String.format(Locale.ROOT, "%.0f", summary.rowsPerSecond()));
+                    return summary;
+                }));
+    }
+
+    private static String failureOf(ImportBatchResult result) {
+        return result.getRejected().stream()
+                .filter(error -> BulkImportService.ERROR.equals(error.getReason()))
+                .map(ImportRecordError::getMessage)
+                .findFirst()
+                .orElse("error desconocido");
+    }
+
+    private static CreateUserRequest toRequest(Map<String, Integer> columns, List<String> fields) {
+        CreateUserRequest request = new CreateUserRequest(cell(columns, fields, "names"), cell(columns, fields, "lastnames"),
+                cell(columns, fields, "identification_type"), cell(columns, fields, "identification_number"), new HashMap<>());
+        for (Map.Entry<String, Integer> column : columns.entrySet()) {
+            if (isUserColumn(column.getKey()) || column.getValue() >= fields.size()) {
+                continue;
+            }
+            List<String> values = new ArrayList<>();
+            int start = 0;
+            String cell = fields.get(column.getValue());
+            while (start <= cell.length()) {
+                int end = cell.indexOf(VALUE_SEPARATOR, start);
+                String value = (end < 0 ? cell.substring(start) : cell.substring(start, end)).trim();
+                if (!value.isEmpty()) {
+                    values.add(value);
+                }
+                if (end < 0) {
+                    break;
+                }
+                start = end + VALUE_SEPARATOR.length();
+            }
+            if (!values.isEmpty()) {
+                request.getAttributes().put(column.getKey(), values);
+            }
+        }
+        return request;
+    }
+
+    private static String cell(Map<String, Integer> columns, List<String> fields, String column) {
+        int index = columns.get(column);
+        if (index >= fields.size()) {
+            return null;
+        }
+        String value = fields.get(index).trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    private static boolean isUserColumn(String column) {
+        for (String userColumn : USER_COLUMNS) {
+            if (userColumn.equals(column)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class Source {
+        final CsvChunkReader reader;
+        final Map<String, Integer> columns;
+        final long offset;
+        final long records;
+
+        Source(CsvChunkReader reader, Map<String, Integer> columns, long offset, long records) {
+            this.reader = reader;
+            this.columns = columns;
+            this.offset = offset;
+            this.records = records;
+        }
+    }
+
+    private static final class CsvRow {
+        // 0-based data record number (header excluded)
+        final long record;
+        // byte offset right after the record
+        final long offset;
+        final List<String> fields;
+
+        CsvRow(long record, long offset, List<String> fields) {
+            this.record = record;
+            this.offset = offset;
+            this.fields = fields;
+        }
+    }
+
+    /**
+     * Counters of this run (records before a resumed checkpoint are not counted); logs throughput every
+     * {@code progressInterval}. Only touched from the sequential result stage.
+     */
+    private final class Progress {
+        private final long fileSize;
+        private final long startOffset;
+        private final long startNanos = System.nanoTime();
+        private long records;
+        private long inserted;
+        private long rejected;
+        private long batches;
+        private long lastLogNanos = startNanos;
+        private long lastLogRecords;
+
+        Progress(long fileSize, long startOffset) {
+            this.fileSize = fileSize;
+            this.startOffset = startOffset;
+        }
+
+        void update(ImportBatchResult result, long offset, int inFlight) {
+            records += result.getReceived();
+            inserted += result.getInserted();
+            rejected += result.getRejected().size();
+            batches++;
+            long now = System.nanoTime();
+            if (now - lastLogNanos >= progressInterval.toNanos()) {
+                double seconds = (now - lastLogNanos) / 1e9;
+                log.info("Importación: {} registros ({}%), {} filas/s, {} lotes en curso, {} insertados, {} rechazados",
+                        records, fileSize == 0 ? 100 : offset * 100 / fileSize,
+                        String.format(Locale.ROOT, "%.0f", (records - lastLogRecords) / seconds),
+                        inFlight, inserted, rejected);
+                lastLogNanos = now;
+                lastLogRecords = records;
+            }
+        }
+
+        CsvImportSummary summary() {
+            return new CsvImportSummary(records, inserted, rejected, batches, fileSize - startOffset,
+                    (System.nanoTime() - startNanos) / 1_000_000);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.reactive.nexo.ingest;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class CsvImportSummary {
+    // records read by this run (a resumed import does not count the ones before the checkpoint)
+    private long records;
+    private long inserted;
+    private long rejected;
+    private long batches;
+    private long bytes;
+    private long elapsedMillis;
+
+    public double rowsPerSecond() {
+        return elapsedMillis == 0 ? records : records * 1000.0 / elapsedMillis;
+    }
+}
@@ -0,0 +1,66 @@
+package com.reactive.nexo.ingest;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Resume point of a file import: byte offset after the last committed record and the number of data
+ * records read up to it. Saved as a properties file replaced atomically, so a crash leaves either the
+ * previous or the new checkpoint.
+ */
+public final class ImportCheckpoint {
+
+    private final Path path;
+
+    public ImportCheckpoint(Path path) {
+        this.path = path;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * {offset, records} from the last save, or null when there is no checkpoint. The checkpoint is rejected
+     * when it was written for a different file name or for a file smaller than the offset.
+     */
+    public long[] load(Path file, long fileSize) throws IOException {
+        if (!Files.exists(path)) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        String name = properties.getProperty("file");
+        long offset = Long.parseLong(properties.getProperty("offset", "0"));
+        long records = Long.parseLong(properties.getProperty("records", "0"));
+        if (!file.getFileName().toString().equals(name) || offset > fileSize) {
+            throw new IllegalStateException("Checkpoint " + path + " belongs to " + name + " (offset " + offset
+                    + "), not to " + file + "; delete it to start over");
+        }
+        return new long[]{offset, records};
+    }
+
+    public void save(Path file, long offset, long records) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("file", file.getFileName().toString());
+        properties.setProperty("offset", Long.toString(offset));
+        properties.setProperty("records", Long.toString(records));
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            properties.store(writer, null);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public void delete() throws IOException {
+        Files.deleteIfExists(path);
+    }
+}
@@ -1,5 +1,7 @@
 package com.reactive.nexo.initialize;
 
+import com.reactive.nexo.dto.CreateUserRequest;
+import com.reactive.nexo.model.AttributeDefinition;
 import com.reactive.nexo.model.AttributeUser;
 import com.reactive.nexo.model.User;
 import com.reactive.nexo.repository.AttributeUserRepository;
@@ -12,13 +14,24 @@ import org.springframework.stereotype.Component;
 import reactor.core.publisher.Flux;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 @Component
-@Profile("!test")
+@Profile("!test & !import")
 @Slf4j
 public class UserInitializer implements CommandLineRunner {
 
+    // create attributes for each saved user; names are stored once in the catalog
+    private static final List<String> ATTRIBUTE_NAMES = Arrays.asList("fecha de nacimiento", "lugar de nacimiento ciudad",
+            "lugar de nacimiento departamento", "lugar de nacimiento pais", "ubicacion ciudad",
+            "ubicacion departamento", "ubicacion pais", "entidad de salud", "ultima consulta",
+            "telefono", "email", "regimen",
+            // clinical history example attributes
+            "historia_clinica_numero", "diagnostico_principal", "alergias");
+
     @Autowired
     private UserRepository userRepository;
 
@@ -29,9 +42,23 @@ public class UserInitializer implements CommandLineRunner {
 
     @Autowired
     private com.reactive.nexo.service.ValueAttributeService valueAttributeService;
-    
+
+    @Autowired
+    private com.reactive.nexo.service.AttributeCatalog attributeCatalog;
+
+    @Autowired
+    private com.reactive.nexo.service.UserService userService;
+
+    @Autowired
+    private com.reactive.nexo.sharding.Shards shards;
+
     @Override
     public void run(String... args) {
+            if(shards.isSharded()){
+                // con sharding cada usuario se crea en su shard a través del servicio
+                shardedDataSetup();
+                return;
+            }
             initialDataSetup();
     }
 
@@ -56,53 +83,24 @@ public class UserInitializer implements CommandLineRunner {
                 .flatMap(userRepository::save)
                 .collectList()
                 .flatMap(savedUsers -> {
-                    // create attributes for each saved user
-                    List<AttributeUser> attrs = new java.util.ArrayList<>();
-                    for(com.reactive.nexo.model.User u : savedUsers){
-                        attrs.add(new AttributeUser(null,"fecha de nacimiento",false, u.getId()));
-                        attrs.add(new AttributeUser(null,"lugar de nacimiento ciudad",false,  u.getId()));
-                        attrs.add(new AttributeUser(null,"lugar de nacimiento departamento",false,  u.getId()));
-                        attrs.add(new AttributeUser(null,"lugar de nacimiento pais",false,  u.getId()));
-                        attrs.add(new AttributeUser(null,"ubicacion ciudad",false,  u.getId()));
-                        attrs.add(new AttributeUser(null,"ubicacion departamento",false,  u.getId()));
-                        attrs.add(new AttributeUser(null,"ubicacion pais",false,  u.getId()));
-                        attrs.add(new AttributeUser(null,"entidad de salud",false,  u.getId()));
-                        attrs.add(new AttributeUser(null,"ultima consulta",false,  u.getId()));
-                        attrs.add(new AttributeUser(null,"telefono",false,  u.getId()));
-                        attrs.add(new AttributeUser(null,"email",false,  u.getId()));
-                        attrs.add(new AttributeUser(null,"regimen",false,  u.getId()));
-                        // clinical history example attributes
-                        attrs.add(new AttributeUser(null,"historia_clinica_numero",false,  u.getId()));
-                        attrs.add(new AttributeUser(null,"diagnostico_principal",false,  u.getId()));
-                        attrs.add(new AttributeUser(null,"alergias",true,  u.getId()));
-                    }
-                    return attributeUserRepository.saveAll(Flux.fromIterable(attrs)).collectList();
+                    return Flux.fromIterable(ATTRIBUTE_NAMES)
+                            .concatMap(name -> attributeCatalog.define(name, name.equals("alergias")))
+                            .collectList()
+                            .flatMap(definitions -> {
+                                List<AttributeUser> attrs = new java.util.ArrayList<>();
+                                for(com.reactive.nexo.model.User u : savedUsers){
+                                    for(AttributeDefinition definition : definitions){
+                                        attrs.add(new AttributeUser(null, u.getId(), definition.getId(), definition.getName(), definition.getMultiple()));
+                                    }
+                                }
+                                return attributeUserRepository.saveAll(Flux.fromIterable(attrs)).collectList();
+                            });
                 })
                 .flatMap(savedAttrs -> {
                     // create value entries for each attribute saved
                     List<com.reactive.nexo.model.ValueAttributeUser> vals = new java.util.ArrayList<>();
                     for(com.reactive.nexo.model.AttributeUser a : savedAttrs){
-                        String attr = a.getName_attribute();
-                        String val;
-                        switch(attr){
-                            case "fecha de nacimiento": val = "1992-05-06"; break;
-                            case "lugar de nacimiento ciudad": val = "cali"; break;
-                            case "lugar de nacimiento departamento": val = "valle"; break;
-                            case "lugar de nacimiento pais": val = "colombia"; break;
-                            case "ubicacion ciudad": val = "guachene"; break;
-                            case "ubicacion departamento": val = "cauca"; break;
-                            case "ubicacion pais": val = "colombia"; break;
-                            case "entidad de salud": val = "sura"; break;
-                            case "ultima consulta": val = "2024-06-06"; break;
-                            case "telefono": val = "315-000-0000"; break;
-                            case "email": val = "jhon-doe@test.co"; break;
-                            case "regimen": val = "subcidiado"; break;
-                            case "historia_clinica_numero": val = "HC-1000" + a.getId(); break;
-                            case "diagnostico_principal": val = "Hipertension"; break;
-                            case "alergias": val = "Ninguna"; break;
-                            default: val = "";
-                        }
-                        vals.add(new com.reactive.nexo.model.ValueAttributeUser(null, a.getId(), val));
+                        vals.add(new com.reactive.nexo.model.ValueAttributeUser(null, a.getId(), valueFor(a.getName_attribute(), a.getId())));
                     }
                     // use service to enforce 'multiple' rule per attribute
                     return Flux.fromIterable(vals)
@@ -115,4 +113,41 @@ public class UserInitializer implements CommandLineRunner {
                 });
     }
 
+    private void shardedDataSetup() {
+        // el esquema se recrea en cada shard al arrancar, así que no hay nada que borrar
+        Flux.fromIterable(getData())
+                .concatMap(u -> {
+                    Map<String, List<String>> attributes = new LinkedHashMap<>();
+                    for(String name : ATTRIBUTE_NAMES){
+                        attributes.put(name, Collections.singletonList(valueFor(name, Integer.valueOf(u.getIdentification_number()))));
+                    }
+                    return userService.createUserWithAttributes(new CreateUserRequest(u.getNames(), u.getLastnames(),
+                            u.getIdentification_type(), u.getIdentification_number(), attributes));
+                })
+                .subscribe(user -> {
+                    log.info("User Inserted from CommandLineRunner " + user);
+                });
+    }
+
+    private static String valueFor(String attr, Integer id){
+        switch(attr){
+            case "fecha de nacimiento": return "1992-05-06";
+            case "lugar de nacimiento ciudad": return "cali";
+            case "lugar de nacimiento departamento": return "valle";
+            case "lugar de nacimiento pais": return "colombia";
+            case "ubicacion ciudad": return "guachene";
+            case "ubicacion departamento": return "cauca";
+            case "ubicacion pais": return "colombia";
+            case "entidad de salud": return "sura";
+            case "ultima consulta": return "2024-06-06";
+            case "telefono": return "315-000-0000";
+            case "email": return "jhon-doe@test.co";
+            case "regimen": return "subcidiado";
+            case "historia_clinica_numero": return "HC-1000" + id;
+            case "diagnostico_principal": return "Hipertension";
+            case "alergias": return "Ninguna";
+            default: return "";
+        }
+    }
+
 }
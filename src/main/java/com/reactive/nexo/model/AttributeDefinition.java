@@ -0,0 +1,18 @@
+package com.reactive.nexo.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.relational.core.mapping.Table;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Table("attribute_definition")
+public class AttributeDefinition {
+    @Id
+    private Integer id;
+    private String name;
+    private Boolean multiple;
+}
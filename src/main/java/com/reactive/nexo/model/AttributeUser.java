@@ -4,6 +4,7 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.ReadOnlyProperty;
 import org.springframework.data.relational.core.mapping.Column;
 import org.springframework.data.relational.core.mapping.Table;
 
@@ -14,8 +15,17 @@ import org.springframework.data.relational.core.mapping.Table;
 public class AttributeUser {
     @Id
     private Integer id;
-    private String name_attribute;
-    private Boolean multiple;
     @Column("user_id")
     private Integer userId;
+    @Column("definition_id")
+    private Integer definitionId;
+    // name and multiple live in attribute_definition; filled by the repository joins, never written
+    @ReadOnlyProperty
+    private String name_attribute;
+    @ReadOnlyProperty
+    private Boolean multiple;
+
+    public AttributeUser(Integer id, Integer userId, Integer definitionId) {
+        this(id, userId, definitionId, null, null);
+    }
 }
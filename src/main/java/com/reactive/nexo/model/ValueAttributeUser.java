@@ -7,6 +7,10 @@ import org.springframework.data.annotation.Id;
 import org.springframework.data.relational.core.mapping.Column;
 import org.springframework.data.relational.core.mapping.Table;
 
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
@@ -18,4 +22,15 @@ public class ValueAttributeUser {
     private Integer attributeId;
     @Column("value_attribute")
     private String valueAttribute;
+    // typed copies of value_attribute (null when the text is not of that type), used by range searches
+    @Column("value_number")
+    private BigDecimal valueNumber;
+    @Column("value_date")
+    private LocalDate valueDate;
+    @Column("value_timestamp")
+    private LocalDateTime valueTimestamp;
+
+    public ValueAttributeUser(Integer id, Integer attributeId, String valueAttribute) {
+        this(id, attributeId, valueAttribute, null, null, null);
+    }
 }
@@ -0,0 +1,32 @@
+package com.reactive.nexo.profile;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Outcome of a rebuild or consistency check of the profile documents.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ProfileCheckResult {
+    private long users;
+    // users without a document
+    private long missing;
+    // users whose document differs from their EAV rows
+    private long stale;
+    // documents of users that no longer exist
+    private long orphaned;
+    // documents rewritten or deleted by this run
+    private long repaired;
+    // first inconsistent user ids found, for inspection
+    private List<Integer> sample;
+    private long elapsedMillis;
+
+    public boolean isConsistent() {
+        return missing == 0 && stale == 0 && orphaned == 0;
+    }
+}
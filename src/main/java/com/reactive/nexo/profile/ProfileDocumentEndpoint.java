@@ -0,0 +1,33 @@
+package com.reactive.nexo.profile;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+/**
+ * {@code /actuator/profiledocuments}: GET compares the profile documents with the EAV tables without writing;
+ * POST rebuilds all of them, or with {@code {"action": "repair"}} rewrites only the inconsistent ones.
+ */
+@Component
+@Endpoint(id = "profiledocuments")
+public class ProfileDocumentEndpoint {
+
+    private final ProfileDocumentJob profileDocumentJob;
+
+    public ProfileDocumentEndpoint(ProfileDocumentJob profileDocumentJob) {
+        this.profileDocumentJob = profileDocumentJob;
+    }
+
+    @ReadOperation
+    public Mono<ProfileCheckResult> check() {
+        return profileDocumentJob.check(false);
+    }
+
+    @WriteOperation
+    public Mono<ProfileCheckResult> run(@Nullable String action) {
+        return "repair".equals(action) ? profileDocumentJob.check(true) : profileDocumentJob.rebuild();
+    }
+}
@@ -0,0 +1,161 @@
+package com.reactive.nexo.profile;
+
+import com.reactive.nexo.repository.UserProfileRepository;
+import com.reactive.nexo.sharding.ShardKey;
+import com.reactive.nexo.sharding.Shards;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * Backfill and consistency check of the profile documents ({@link ProfileDocuments}) against the EAV tables.
+ * <p>
+ * Both walk the users in id order, {@code nexo.profile-document.batch-size} ids per statement and one shard after
+ * the other, so memory does not depend on the number of users. {@link #rebuild} upserts every document and deletes
+ * the ones of users that no longer exist; {@link #check} only compares, and with {@code repair} rewrites what differs.
+ * The rebuild runs once the application is ready when {@code nexo.profile-document.backfill-on-startup} is set, and
+ * the check on {@code nexo.profile-document.check-cron}. At most one run at a time.
+ */
+@Component
+@Slf4j
+public class ProfileDocumentJob {
+
+    private static final int SAMPLE_SIZE = 20;
+
+    private final UserProfileRepository userProfileRepository;
+    private final ProfileDocuments profileDocuments;
+    private final Shards shards;
+    private final int batchSize;
+    private final boolean backfillOnStartup;
+    private final boolean repairOnCheck;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    public ProfileDocumentJob(UserProfileRepository userProfileRepository,
+                              ProfileDocuments profileDocuments,
+                              Shards shards,
+                              @Value("${nexo.profile-document.batch-size:500}") int batchSize,
+                              @Value("${nexo.profile-document.backfill-on-startup:true}") boolean backfillOnStartup,
+                              @Value("${nexo.profile-document.repair:true}") boolean repairOnCheck) {
+        this.userProfileRepository = userProfileRepository;
+        this.profileDocuments = profileDocuments;
+        this.shards = shards;
+        this.batchSize = Math.max(1, batchSize);
+        this.backfillOnStartup = backfillOnStartup;
+        this.repairOnCheck = repairOnCheck;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (profileDocuments.isEnabled() && backfillOnStartup) {
+            // failures are already logged by run
+            rebuild().onErrorResume(e -> Mono.empty()).subscribe();
+        }
+    }
+
+    @Scheduled(cron = "${nexo.profile-document.check-cron:-}")
+    public void scheduledCheck() {
+        if (profileDocuments.isEnabled()) {
+            check(repairOnCheck).block();
+        }
+    }
+
+    /**
+     * Recomputes the document of every user and deletes orphaned ones.
+     */
+    public Mono<ProfileCheckResult> rebuild() {
+        return run("rebuild", true, true);
+    }
+
+    /**
+     * Compares every document with the EAV rows of its user; with {@code repair} also rewrites the stale and missing
+     * ones and deletes the orphans.
+     */
+    public Mono<ProfileCheckResult> check(boolean repair) {
+        return run(repair ? "check and repair" : "check", false, repair);
+    }
+
+    private Mono<ProfileCheckResult> run(String name, boolean rewriteAll, boolean repair) {
+        return Mono.defer(() -> {
+            if (!profileDocuments.isEnabled()) {
+                return Mono.error(new IllegalStateException("Profile documents are disabled (nexo.profile-document.enabled)"));
+            }
+            if (!running.compareAndSet(false, true)) {
+                return Mono.error(new IllegalStateException("A profile document job is already running"));
+            }
+            long start = System.nanoTime();
+            return Flux.range(0, shards.getCount())
+                    .concatMap(shard -> runShard(rewriteAll, repair).contextWrite(ShardKey.shard(shard)))
+                    .reduce(ProfileDocumentJob::combine)
+                    .map(result -> {
+                        result.setElapsedMillis((System.nanoTime() - start) / 1_000_000);
+                        return result;
+                    })
+                    .doOnSuccess(result -> log.info("Profile documents {}: {} users, {} missing, {} stale, {} orphaned, {} repaired in {} ms",
+                            name, result.getUsers(), result.getMissing(), result.getStale(), result.getOrphaned(),
+                            result.getRepaired(), result.getElapsedMillis()))
+                    .doOnError(e -> log.error("Profile documents {} failed", name, e))
+                    // released before the result reaches the caller, so a follow-up run right after it is accepted
+                    .doOnTerminate(() -> running.set(false))
+                    .doOnCancel(() -> running.set(false));
+        });
+    }
+
+    private Mono<ProfileCheckResult> runShard(boolean rewriteAll, boolean repair) {
+        ProfileCheckResult result = new ProfileCheckResult(0, 0, 0, 0, 0, new ArrayList<>(), 0);
+        return batches()
+                .concatMap(ids -> userProfileRepository.findStale(ids)
+                        .collectList()
+                        .flatMap(stale -> {
+                            result.setUsers(result.getUsers() + ids.size());
+                            for (Tuple2<Integer, Boolean> user : stale) {
+                                if (user.getT2()) {
+                                    result.setMissing(result.getMissing() + 1);
+                                } else {
+                                    result.setStale(result.getStale() + 1);
+                                }
+                                if (result.getSample().size() < SAMPLE_SIZE) {
+                                    result.getSample().add(user.getT1());
+                                }
+                            }
+                            List<Integer> rewrite = rewriteAll ? ids
+                                    : !repair ? List.of() : stale.stream().map(Tuple2::getT1).collect(Collectors.toList());
+                            return userProfileRepository.refresh(rewrite);
+                        })
+                        .doOnNext(rows -> result.setRepaired(result.getRepaired() + rows)))
+                .then(repair ? userProfileRepository.deleteOrphans() : userProfileRepository.countOrphans())
+                .map(orphans -> {
+                    result.setOrphaned(orphans);
+                    if (repair) {
+                        result.setRepaired(result.getRepaired() + orphans);
+                    }
+                    return result;
+                });
+    }
+
+    // user ids of the current shard in batches, keyset on users.id
+    private Flux<List<Integer>> batches() {
+        return userProfileRepository.findUserIdsAfter(0, batchSize)
+                .collectList()
+                .expand(ids -> ids.size() < batchSize ? Mono.empty()
+                        : userProfileRepository.findUserIdsAfter(ids.get(ids.size() - 1), batchSize).collectList())
+                .filter(ids -> !ids.isEmpty());
+    }
+
+    private static ProfileCheckResult combine(ProfileCheckResult a, ProfileCheckResult b) {
+        List<Integer> sample = new ArrayList<>(a.getSample());
+        b.getSample().stream().limit(Math.max(0, SAMPLE_SIZE - sample.size())).forEach(sample::add);
+        return new ProfileCheckResult(a.getUsers() + b.getUsers(), a.getMissing() + b.getMissing(), a.getStale() + b.getStale(),
+                a.getOrphaned() + b.getOrphaned(), a.getRepaired() + b.getRepaired(), sample, 0);
+    }
+}
@@ -0,0 +1,116 @@
+package com.reactive.nexo.profile;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.reactive.nexo.dto.AttributeWithValuesDTO;
+import com.reactive.nexo.dto.ProfileDocumentRow;
+import com.reactive.nexo.dto.UserWithAttributesDTO;
+import com.reactive.nexo.repository.UserProfileRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Optional materialized profile ({@code nexo.profile-document.enabled}): the attributes of each user kept as one
+ * JSONB document in {@code user_profile}, so a profile read is a single-row lookup instead of the EAV join.
+ * <p>
+ * Writes go through {@link #refresh} and {@link #remove} inside the writing transaction, so a document never
+ * commits apart from the EAV rows it was computed from. Reads return empty for users without a document (e.g. before
+ * the backfill of {@link ProfileDocumentJob}); callers fall back to the EAV tables for those.
+ * <p>
+ * Metric: {@code nexo.profile.documents} ({@code result=hit|miss}).
+ */
+@Component
+public class ProfileDocuments {
+
+    private static final TypeReference<List<AttributeWithValuesDTO>> ATTRIBUTES = new TypeReference<>() {};
+
+    private final UserProfileRepository userProfileRepository;
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final Counter hits;
+    private final Counter misses;
+
+    public ProfileDocuments(UserProfileRepository userProfileRepository,
+                            ObjectMapper objectMapper,
+                            MeterRegistry meterRegistry,
+                            @Value("${nexo.profile-document.enabled:false}") boolean enabled) {
+        this.userProfileRepository = userProfileRepository;
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.hits = meterRegistry.counter("nexo.profile.documents", "result", "hit");
+        this.misses = meterRegistry.counter("nexo.profile.documents", "result", "miss");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Recomputes the documents of the users from the EAV rows visible to the current transaction.
+     */
+    public Mono<Void> refresh(Collection<Integer> userIds) {
+        if (!enabled || userIds.isEmpty()) {
+            return Mono.empty();
+        }
+        return userProfileRepository.refresh(userIds).then();
+    }
+
+    public Mono<Void> remove(Integer userId) {
+        if (!enabled) {
+            return Mono.empty();
+        }
+        return userProfileRepository.delete(userId).then();
+    }
+
+    /**
+     * The full profile from the user's document; empty when the user or its document does not exist.
+     */
+    public Mono<UserWithAttributesDTO> findById(Integer userId) {
+        return toProfile(userProfileRepository.findById(userId));
+    }
+
+    public Mono<UserWithAttributesDTO> findByIdentification(String identificationType, String identificationNumber) {
+        return toProfile(userProfileRepository.findByIdentification(identificationType, identificationNumber));
+    }
+
+    /**
+     * Attributes of each user that has a document, by user id.
+     */
+    public Mono<Map<Integer, List<AttributeWithValuesDTO>>> attributesOf(Collection<Integer> userIds) {
+        return userProfileRepository.findDocuments(userIds)
+                .collectMap(Tuple2::getT1, document -> parse(document.getT2()))
+                .doOnNext(found -> {
+                    hits.increment(found.size());
+                    misses.increment(userIds.size() - found.size());
+                });
+    }
+
+    private Mono<UserWithAttributesDTO> toProfile(Mono<ProfileDocumentRow> row) {
+        return row.filter(found -> count(found.getDocument() != null))
+                .map(found -> new UserWithAttributesDTO(found.getId(), found.getNames(), found.getLastnames(),
+                        found.getIdentificationType(), found.getIdentificationNumber(), parse(found.getDocument())));
+    }
+
+    private boolean count(boolean hit) {
+        (hit ? hits : misses).increment();
+        return hit;
+    }
+
+    private List<AttributeWithValuesDTO> parse(String document) {
+        try {
+            return objectMapper.readValue(document, ATTRIBUTES);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException("Unreadable profile document", e);
+        }
+    }
+}
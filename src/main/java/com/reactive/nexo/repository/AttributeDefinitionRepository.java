@@ -0,0 +1,22 @@
+package com.reactive.nexo.repository;
+
+import com.reactive.nexo.model.AttributeDefinition;
+import org.springframework.data.r2dbc.repository.Modifying;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import reactor.core.publisher.Mono;
+
+public interface AttributeDefinitionRepository extends ReactiveCrudRepository<AttributeDefinition,Integer> {
+    @Query("select id,name,multiple from attribute_definition where name = $1")
+    Mono<AttributeDefinition> findByName(String name);
+
+    // Alta del nombre si no existe; vacío cuando ya estaba (sin bloquear la fila existente)
+    @Query("INSERT INTO attribute_definition (name, multiple) VALUES ($1, $2) " +
+           "ON CONFLICT (name) DO NOTHING RETURNING id, name, multiple")
+    Mono<AttributeDefinition> insertIfAbsent(String name, Boolean multiple);
+
+    // multiple solo pasa de false a true
+    @Modifying
+    @Query("UPDATE attribute_definition SET multiple = TRUE WHERE id = $1 AND multiple = FALSE")
+    Mono<Integer> markMultiple(Integer id);
+}
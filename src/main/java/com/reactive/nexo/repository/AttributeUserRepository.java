@@ -3,18 +3,47 @@ package com.reactive.nexo.repository;
 import com.reactive.nexo.model.AttributeUser;
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
 import reactor.core.publisher.Flux;
+import org.springframework.data.r2dbc.repository.Modifying;
 import org.springframework.data.r2dbc.repository.Query;
 import reactor.core.publisher.Mono;
 
-public interface AttributeUserRepository extends ReactiveCrudRepository<AttributeUser,Integer> {
+import java.util.Collection;
+
+public interface AttributeUserRepository extends ReactiveCrudRepository<AttributeUser,Integer>, AttributeUserRepositoryCustom {
+    // name_attribute y multiple vienen del catálogo attribute_definition
+    String SELECT_WITH_DEFINITION = "select au.id, au.user_id, au.definition_id, ad.name as name_attribute, ad.multiple " +
+            "from attribute_user au INNER JOIN attribute_definition ad ON ad.id = au.definition_id ";
+
     // A user can have multiple attributes, so return a Flux
+    @Query(SELECT_WITH_DEFINITION + "where au.user_id = $1 order by au.id")
     Flux<AttributeUser> findByUserId(Integer userId);
 
-    @Query("select id,user_id,name_attribute,multiple from attribute_user where user_id = $1 and name_attribute = $2 limit 1")
-    Mono<AttributeUser> findByUserIdAndName(Integer userId, String nameAttribute);
+    @Query(SELECT_WITH_DEFINITION + "where au.id = $1")
+    Mono<AttributeUser> findWithDefinitionById(Integer id);
+
+    @Query(SELECT_WITH_DEFINITION + "where au.user_id = $1 and au.definition_id = $2")
+    Mono<AttributeUser> findByUserIdAndDefinitionId(Integer userId, Integer definitionId);
+
+    // Atributos de varios usuarios filtrados por definición en una sola consulta (paginación)
+    @Query(SELECT_WITH_DEFINITION + "where au.user_id IN (:userIds) and au.definition_id IN (:definitionIds) order by au.user_id, au.id")
+    Flux<AttributeUser> findByUserIdInAndDefinitionIdIn(Collection<Integer> userIds, Collection<Integer> definitionIds);
+
+    // Todos los atributos de varios usuarios (búsqueda masiva por ids)
+    @Query(SELECT_WITH_DEFINITION + "where au.user_id IN (:userIds) order by au.user_id, au.id")
+    Flux<AttributeUser> findByUserIdIn(Collection<Integer> userIds);
+
+    // Varios atributos nuevos de un usuario en un solo INSERT
+    @Modifying
+    @Query("INSERT INTO attribute_user (user_id, definition_id) SELECT $1, d FROM unnest($2) AS d " +
+           "ON CONFLICT (user_id, definition_id) DO NOTHING")
+    Mono<Long> insertAllIfAbsent(Integer userId, Integer[] definitionIds);
+
+    @Modifying
+    @Query("DELETE FROM attribute_user WHERE id IN (:ids)")
+    Mono<Long> deleteByIdIn(Collection<Integer> ids);
 
-    @Query("INSERT INTO attribute_user (user_id, name_attribute, multiple) VALUES ($1, $2, $3) " +
-           "ON CONFLICT (user_id, name_attribute) DO UPDATE SET multiple = EXCLUDED.multiple " +
-           "RETURNING id")
-    Mono<Integer> upsertByUserIdAndName(Integer userId, String nameAttribute, Boolean multiple);
+    @Modifying
+    @Query("INSERT INTO attribute_user (user_id, definition_id) VALUES ($1, $2) " +
+           "ON CONFLICT (user_id, definition_id) DO NOTHING")
+    Mono<Integer> insertIfAbsent(Integer userId, Integer definitionId);
 }
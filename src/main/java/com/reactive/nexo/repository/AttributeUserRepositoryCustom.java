@@ -0,0 +1,14 @@
+package com.reactive.nexo.repository;
+
+import com.reactive.nexo.model.AttributeUser;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+
+public interface AttributeUserRepositoryCustom {
+    /**
+     * Inserts the (user_id, definition_id) pairs with multi-row INSERT statements (chunked to stay below
+     * the bind limit). Emits the inserted rows with their generated ids; name_attribute and multiple stay null.
+     */
+    Flux<AttributeUser> insertAll(List<AttributeUser> attributes);
+}
@@ -0,0 +1,48 @@
+package com.reactive.nexo.repository;
+
+import com.reactive.nexo.model.AttributeUser;
+import lombok.RequiredArgsConstructor;
+import org.springframework.r2dbc.core.DatabaseClient;
+import reactor.core.publisher.Flux;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@RequiredArgsConstructor
+public class AttributeUserRepositoryCustomImpl implements AttributeUserRepositoryCustom {
+
+    // 2 binds per row
+    static final int INSERT_CHUNK = 1000;
+
+    private final DatabaseClient databaseClient;
+
+    @Override
+    public Flux<AttributeUser> insertAll(List<AttributeUser> attributes) {
+        if (attributes.isEmpty()) {
+            return Flux.empty();
+        }
+        return Flux.fromIterable(attributes)
+                .buffer(INSERT_CHUNK)
+                .concatMap(this::insertChunk);
+    }
+
+    private Flux<AttributeUser> insertChunk(List<AttributeUser> chunk) {
+        StringBuilder sql = new StringBuilder("INSERT INTO attribute_user (user_id, definition_id) VALUES ");
+        for (int i = 0; i < chunk.size(); i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append("(:u").append(i).append(", :d").append(i).append(')');
+        }
+        sql.append(" RETURNING id, user_id, definition_id");
+        Map<String, Object> binds = new HashMap<>(chunk.size() * 3);
+        for (int i = 0; i < chunk.size(); i++) {
+            binds.put("u" + i, chunk.get(i).getUserId());
+            binds.put("d" + i, chunk.get(i).getDefinitionId());
+        }
+        return databaseClient.sql(sql.toString()).bindValues(binds).map((row, metadata) -> new AttributeUser(row.get("id", Integer.class),
+                        row.get("user_id", Integer.class), row.get("definition_id", Integer.class)))
+                .all();
+    }
+}
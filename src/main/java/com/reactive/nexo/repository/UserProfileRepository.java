@@ -0,0 +1,163 @@
+package com.reactive.nexo.repository;
+
+import com.reactive.nexo.dto.ProfileDocumentRow;
+import io.r2dbc.spi.Row;
+import lombok.RequiredArgsConstructor;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Denormalized profile documents in {@code user_profile}: one row per user holding its attributes and values as a
+ * JSONB array of {@code {"attribute_name", "values"}} objects, in the order of the EAV profile query (attribute row,
+ * then value row). Documents are always computed in SQL from the EAV tables, so a refresh issued inside the writing
+ * transaction stores exactly what that transaction wrote. A refresh first locks the users rows, so concurrent writers
+ * of one user compute its document one after the other, each from the rows the previous one committed.
+ */
+@Repository
+@RequiredArgsConstructor
+public class UserProfileRepository {
+
+    // attributes and values of the users in :ids, one JSONB array per user
+    private static final String DOCUMENTS = "SELECT a.user_id, " +
+            "jsonb_agg(jsonb_build_object('attribute_name', a.name, 'values', a.vals) ORDER BY a.id) AS document " +
+            "FROM (SELECT au.id, au.user_id, ad.name, " +
+            "COALESCE(jsonb_agg(vau.value_attribute ORDER BY vau.id) FILTER (WHERE vau.id IS NOT NULL), '[]'::jsonb) AS vals " +
+            "FROM attribute_user au " +
+            "INNER JOIN attribute_definition ad ON ad.id = au.definition_id " +
+            "LEFT JOIN value_attribute_user vau ON vau.attribute_id = au.id " +
+            "WHERE au.user_id IN (:ids) GROUP BY au.id, au.user_id, ad.name) a " +
+            "GROUP BY a.user_id";
+
+    private static final String WITH_USER = "select u.id, u.names, u.lastnames, u.identification_type, u.identification_number, " +
+            "p.document::text as document from users u LEFT JOIN user_profile p ON p.user_id = u.id ";
+
+    private final DatabaseClient databaseClient;
+
+    /**
+     * Recomputes and upserts the documents of the given users; ids without a users row are skipped.
+     * <p>
+     * The rows are locked in id order before the document is computed: under READ COMMITTED the upsert then starts
+     * with a snapshot that includes whatever an earlier writer of the same user committed, instead of overwriting its
+     * document with one computed before that commit. Joins the writing transaction, or runs in its own.
+     */
+    @Transactional
+    public Mono<Long> refresh(Collection<Integer> userIds) {
+        if (userIds.isEmpty()) {
+            return Mono.just(0L);
+        }
+        List<Integer> ids = new ArrayList<>(userIds);
+        return databaseClient.sql("SELECT id FROM users WHERE id IN (:ids) ORDER BY id FOR UPDATE")
+                .bind("ids", ids)
+                .fetch()
+                .all()
+                .then(upsert(ids));
+    }
+
+    private Mono<Long> upsert(List<Integer> ids) {
+        return databaseClient.sql("INSERT INTO user_profile (user_id, document, updated_at) " +
+                        "SELECT u.id, COALESCE(d.document, '[]'::jsonb), now() FROM users u " +
+                        "LEFT JOIN (" + DOCUMENTS + ") d ON d.user_id = u.id " +
+                        "WHERE u.id IN (:ids) " +
+                        "ON CONFLICT (user_id) DO UPDATE SET document = EXCLUDED.document, updated_at = EXCLUDED.updated_at")
+                .bind("ids", ids)
+                .fetch()
+                .rowsUpdated();
+    }
+
+    public Mono<Long> delete(Integer userId) {
+        return databaseClient.sql("DELETE FROM user_profile WHERE user_id = :userId")
+                .bind("userId", userId)
+                .fetch()
+                .rowsUpdated();
+    }
+
+    /**
+     * The user with its stored document; {@code document} is null when the user has none yet.
+     */
+    public Mono<ProfileDocumentRow> findById(Integer userId) {
+        return databaseClient.sql(WITH_USER + "WHERE u.id = :userId")
+                .bind("userId", userId)
+                .map((row, metadata) -> toRow(row))
+                .one();
+    }
+
+    public Mono<ProfileDocumentRow> findByIdentification(String identificationType, String identificationNumber) {
+        return databaseClient.sql(WITH_USER + "WHERE u.identification_type = :type AND u.identification_number = :number")
+                .bind("type", identificationType)
+                .bind("number", identificationNumber)
+                .map((row, metadata) -> toRow(row))
+                .one();
+    }
+
+    /**
+     * Stored documents of the given users as (user id, JSON text); users without a document are left out.
+     */
+    public Flux<Tuple2<Integer, String>> findDocuments(Collection<Integer> userIds) {
+        if (userIds.isEmpty()) {
+            return Flux.empty();
+        }
+        return databaseClient.sql("select user_id, document::text as document from user_profile WHERE user_id IN (:ids)")
+                .bind("ids", new ArrayList<>(userIds))
+                .map((row, metadata) -> Tuples.of(row.get("user_id", Integer.class), row.get("document", String.class)))
+                .all();
+    }
+
+    /**
+     * Up to {@code limit} user ids greater than {@code afterId}, in order: the batches of the rebuild and the check.
+     */
+    public Flux<Integer> findUserIdsAfter(int afterId, int limit) {
+        return databaseClient.sql("select id from users WHERE id > :afterId ORDER BY id LIMIT :limit")
+                .bind("afterId", afterId)
+                .bind("limit", limit)
+                .map((row, metadata) -> row.get("id", Integer.class))
+                .all();
+    }
+
+    /**
+     * Users among {@code userIds} whose stored document differs from the one computed from the EAV tables, as
+     * (user id, missing) where missing means there is no document at all.
+     */
+    public Flux<Tuple2<Integer, Boolean>> findStale(Collection<Integer> userIds) {
+        if (userIds.isEmpty()) {
+            return Flux.empty();
+        }
+        return databaseClient.sql("select u.id, p.user_id IS NULL AS missing FROM users u " +
+                        "LEFT JOIN user_profile p ON p.user_id = u.id " +
+                        "LEFT JOIN (" + DOCUMENTS + ") d ON d.user_id = u.id " +
+                        "WHERE u.id IN (:ids) AND p.document IS DISTINCT FROM COALESCE(d.document, '[]'::jsonb) " +
+                        "ORDER BY u.id")
+                .bind("ids", new ArrayList<>(userIds))
+                .map((row, metadata) -> Tuples.of(row.get("id", Integer.class), Boolean.TRUE.equals(row.get("missing", Boolean.class))))
+                .all();
+    }
+
+    /**
+     * Documents left behind by users that no longer exist.
+     */
+    public Mono<Long> countOrphans() {
+        return databaseClient.sql("select count(*) from user_profile p WHERE NOT EXISTS (select 1 from users u WHERE u.id = p.user_id)")
+                .map((row, metadata) -> row.get(0, Long.class))
+                .one();
+    }
+
+    public Mono<Long> deleteOrphans() {
+        return databaseClient.sql("DELETE FROM user_profile p WHERE NOT EXISTS (select 1 from users u WHERE u.id = p.user_id)")
+                .fetch()
+                .rowsUpdated();
+    }
+
+    private static ProfileDocumentRow toRow(Row row) {
+        return new ProfileDocumentRow(row.get("id", Integer.class), row.get("names", String.class),
+                row.get("lastnames", String.class), row.get("identification_type", String.class),
+                row.get("identification_number", String.class), row.get("document", String.class));
+    }
+}
@@ -1,53 +1,134 @@
 package com.reactive.nexo.repository;
 
+import com.reactive.nexo.dto.UserAttributeRow;
 import com.reactive.nexo.model.User;
 import org.springframework.data.r2dbc.repository.Query;
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-public interface UserRepository extends ReactiveCrudRepository<User,Integer> {
-    @Query("select id,identification_number,identification_type,names,lastnames from users where identification_number like $1")
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+public interface UserRepository extends ReactiveCrudRepository<User,Integer>, UserRepositoryCustom {
+    // Rangos de fecha y fecha-hora: un "2024-01-01" y un "2024-01-01T08:00" se comparan contra ambas columnas temporales
+    String TEMPORAL_AS_DATE = "COALESCE(vau.value_date, CAST(vau.value_timestamp AS DATE))";
+    String TEMPORAL_AS_TIMESTAMP = "COALESCE(vau.value_timestamp, CAST(vau.value_date AS TIMESTAMP))";
+
+    @Query("select id,identification_number,identification_type,names,lastnames from users where identification_number like $1 order by id")
     Flux<User> findByIdentificationNumber(String identificationNumber);
     @Query("select id,identification_number,identification_type,names,lastnames from users where identification_type = $1 and identification_number = $2 limit 1")
     Mono<User> findByIdentificationTypeAndNumber(String identificationType, String identificationNumber);
     @Query("select id,identification_number,identification_type,names,lastnames from users order by id asc limit $1 offset $2")
     Flux<User> findAllWithPagination(int limit, int offset);
+    // Paginación por cursor (keyset) sobre la PK
+    @Query("select id,identification_number,identification_type,names,lastnames from users where id > $1 order by id asc limit $2")
+    Flux<User> findPageAfterId(int afterId, int limit);
+    // bloquea la fila hasta el fin de la transacción (PUT frente al flush del write-behind)
+    @Query("select id,identification_number,identification_type,names,lastnames from users where id = $1 for update")
+    Mono<User> findByIdForUpdate(Integer id);
     @Query("select count(*) from users")
     Mono<Long> countAll();
-    
+
+    // Perfil completo (usuario + atributos + valores) en una sola consulta, ordenado para plegarlo en un paso
+    @Query("select u.id, u.names, u.lastnames, u.identification_type, u.identification_number, " +
+           "au.id as attribute_id, ad.name as name_attribute, vau.value_attribute " +
+           "from users u " +
+           "LEFT JOIN attribute_user au ON u.id = au.user_id " +
+           "LEFT JOIN attribute_definition ad ON ad.id = au.definition_id " +
+           "LEFT JOIN value_attribute_user vau ON au.id = vau.attribute_id " +
+           "WHERE u.id = $1 ORDER BY au.id, vau.id")
+    Flux<UserAttributeRow> findProfileRowsById(Integer userId);
+
+    @Query("select u.id, u.names, u.lastnames, u.identification_type, u.identification_number, " +
+           "au.id as attribute_id, ad.name as name_attribute, vau.value_attribute " +
+           "from users u " +
+           "LEFT JOIN attribute_user au ON u.id = au.user_id " +
+           "LEFT JOIN attribute_definition ad ON ad.id = au.definition_id " +
+           "LEFT JOIN value_attribute_user vau ON au.id = vau.attribute_id " +
+           "WHERE u.identification_type = $1 AND u.identification_number = $2 ORDER BY au.id, vau.id")
+    Flux<UserAttributeRow> findProfileRowsByIdentification(String identificationType, String identificationNumber);
+
+    // Búsquedas por atributos dinámicos: el nombre se resuelve antes contra el catálogo (AttributeCatalog);
+    // ordenadas por id para poder mezclar los resultados de varios shards
+
     // Búsqueda por atributos dinámicos con relación EQUAL
     @Query("select DISTINCT u.id, u.identification_number, u.identification_type, u.names, u.lastnames " +
            "from users u " +
            "INNER JOIN attribute_user au ON u.id = au.user_id " +
            "INNER JOIN value_attribute_user vau ON au.id = vau.attribute_id " +
-           "WHERE au.name_attribute = $1 AND vau.value_attribute = $2")
-    Flux<User> findByAttributeEquals(String attributeName, String attributeValue);
+           "WHERE au.definition_id = $1 AND vau.value_attribute = $2 ORDER BY u.id")
+    Flux<User> findByAttributeEquals(Integer definitionId, String attributeValue);
     
     // Búsqueda por atributos dinámicos con relación LESS THAN
     @Query("select DISTINCT u.id, u.identification_number, u.identification_type, u.names, u.lastnames " +
            "from users u " +
            "INNER JOIN attribute_user au ON u.id = au.user_id " +
            "INNER JOIN value_attribute_user vau ON au.id = vau.attribute_id " +
-           "WHERE au.name_attribute = $1 AND vau.value_attribute < $2")
-    Flux<User> findByAttributeLessThan(String attributeName, String attributeValue);
+           "WHERE au.definition_id = $1 AND vau.value_attribute < $2 ORDER BY u.id")
+    Flux<User> findByAttributeLessThan(Integer definitionId, String attributeValue);
     
     // Búsqueda por atributos dinámicos con relación GREATER THAN
     @Query("select DISTINCT u.id, u.identification_number, u.identification_type, u.names, u.lastnames " +
            "from users u " +
            "INNER JOIN attribute_user au ON u.id = au.user_id " +
            "INNER JOIN value_attribute_user vau ON au.id = vau.attribute_id " +
-           "WHERE au.name_attribute = $1 AND vau.value_attribute > $2")
-    Flux<User> findByAttributeGreaterThan(String attributeName, String attributeValue);
+           "WHERE au.definition_id = $1 AND vau.value_attribute > $2 ORDER BY u.id")
+    Flux<User> findByAttributeGreaterThan(Integer definitionId, String attributeValue);
+    
+    // Búsquedas por rango sobre las columnas tipadas de value_attribute_user (indexadas)
+    @Query("select DISTINCT u.id, u.identification_number, u.identification_type, u.names, u.lastnames " +
+           "from users u " +
+           "INNER JOIN attribute_user au ON u.id = au.user_id " +
+           "INNER JOIN value_attribute_user vau ON au.id = vau.attribute_id " +
+           "WHERE au.definition_id = $1 AND vau.value_number < $2 ORDER BY u.id")
+    Flux<User> findByAttributeNumberLessThan(Integer definitionId, BigDecimal attributeValue);
+
+    @Query("select DISTINCT u.id, u.identification_number, u.identification_type, u.names, u.lastnames " +
+           "from users u " +
+           "INNER JOIN attribute_user au ON u.id = au.user_id " +
+           "INNER JOIN value_attribute_user vau ON au.id = vau.attribute_id " +
+           "WHERE au.definition_id = $1 AND vau.value_number > $2 ORDER BY u.id")
+    Flux<User> findByAttributeNumberGreaterThan(Integer definitionId, BigDecimal attributeValue);
+
+    @Query("select DISTINCT u.id, u.identification_number, u.identification_type, u.names, u.lastnames " +
+           "from users u " +
+           "INNER JOIN attribute_user au ON u.id = au.user_id " +
+           "INNER JOIN value_attribute_user vau ON au.id = vau.attribute_id " +
+           "WHERE au.definition_id = $1 AND " + TEMPORAL_AS_DATE + " < $2 ORDER BY u.id")
+    Flux<User> findByAttributeDateLessThan(Integer definitionId, LocalDate attributeValue);
+
+    @Query("select DISTINCT u.id, u.identification_number, u.identification_type, u.names, u.lastnames " +
+           "from users u " +
+           "INNER JOIN attribute_user au ON u.id = au.user_id " +
+           "INNER JOIN value_attribute_user vau ON au.id = vau.attribute_id " +
+           "WHERE au.definition_id = $1 AND " + TEMPORAL_AS_DATE + " > $2 ORDER BY u.id")
+    Flux<User> findByAttributeDateGreaterThan(Integer definitionId, LocalDate attributeValue);
+
+    @Query("select DISTINCT u.id, u.identification_number, u.identification_type, u.names, u.lastnames " +
+           "from users u " +
+           "INNER JOIN attribute_user au ON u.id = au.user_id " +
+           "INNER JOIN value_attribute_user vau ON au.id = vau.attribute_id " +
+           "WHERE au.definition_id = $1 AND " + TEMPORAL_AS_TIMESTAMP + " < $2 ORDER BY u.id")
+    Flux<User> findByAttributeTimestampLessThan(Integer definitionId, LocalDateTime attributeValue);
+
+    @Query("select DISTINCT u.id, u.identification_number, u.identification_type, u.names, u.lastnames " +
+           "from users u " +
+           "INNER JOIN attribute_user au ON u.id = au.user_id " +
+           "INNER JOIN value_attribute_user vau ON au.id = vau.attribute_id " +
+           "WHERE au.definition_id = $1 AND " + TEMPORAL_AS_TIMESTAMP + " > $2 ORDER BY u.id")
+    Flux<User> findByAttributeTimestampGreaterThan(Integer definitionId, LocalDateTime attributeValue);
     
     // Consulta para obtener todos los nombres de atributos disponibles
-    @Query("select DISTINCT au.name_attribute from attribute_user au ORDER BY au.name_attribute")
+    @Query("select ad.name from attribute_definition ad " +
+           "where exists (select 1 from attribute_user au where au.definition_id = ad.id) ORDER BY ad.name")
     Flux<String> findAllAttributeNames();
     
     // Consulta para obtener todos los valores de un atributo específico
     @Query("select DISTINCT vau.value_attribute " +
            "from attribute_user au " +
            "INNER JOIN value_attribute_user vau ON au.id = vau.attribute_id " +
-           "WHERE au.name_attribute = $1 ORDER BY vau.value_attribute")
-    Flux<String> findAllValuesForAttribute(String attributeName);
+           "WHERE au.definition_id = $1 ORDER BY vau.value_attribute")
+    Flux<String> findAllValuesForAttribute(Integer definitionId);
 }
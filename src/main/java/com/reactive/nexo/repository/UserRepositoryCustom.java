@@ -0,0 +1,58 @@
+package com.reactive.nexo.repository;
+
+import com.reactive.nexo.dto.AttributePredicate;
+import com.reactive.nexo.dto.UserAttributeRow;
+import com.reactive.nexo.dto.UserChangeRow;
+import com.reactive.nexo.model.User;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+public interface UserRepositoryCustom {
+    /**
+     * Users matching the predicate tree, compiled into a single statement, with id &gt; afterId
+     * in id order. Attribute names are matched through {@code definitionIds} (name -&gt; attribute_definition.id);
+     * names missing from the map match nothing. Invalid trees are rejected with IllegalArgumentException.
+     */
+    Flux<User> search(AttributePredicate filter, Map<String, Integer> definitionIds, int afterId, int limit);
+
+    /**
+     * Inserts the users with one multi-row INSERT; rows that collide on uq_users_identification are skipped.
+     * Emits only the inserted users, with their generated ids.
+     */
+    Flux<User> insertAllSkippingConflicts(List<User> users);
+
+    /**
+     * Profile rows (one per value) of every user with id &gt; afterId, ordered by user, attribute and value,
+     * read from a single statement through a server-side cursor of {@code fetchSize} rows. With a non-null
+     * {@code definitionIds} only those attributes are joined; users without them still get one row.
+     */
+    Flux<UserAttributeRow> streamProfileRows(int afterId, Collection<Integer> definitionIds, int fetchSize);
+
+    /**
+     * Stamps the users with the current transaction id ({@code change_xid}), so the delta sync reports them again.
+     * Inserts get it from the column default; every other write to a user or its attributes calls this.
+     */
+    Mono<Long> markChanged(Collection<Integer> userIds);
+
+    /**
+     * Locks the users rows ({@code FOR UPDATE}, in id order) until the current transaction ends; emits the ids that
+     * exist.
+     */
+    Flux<Integer> lockUsers(Collection<Integer> userIds);
+
+    /**
+     * Records the deletion of a user in {@code user_tombstone} with the current transaction id.
+     */
+    Mono<Long> markDeleted(Integer userId);
+
+    /**
+     * Up to {@code limit} live and deleted users with (change_xid, user id) after the given position, in that order.
+     * Only transactions older than every transaction still running are read, so a change can never be committed
+     * later behind a position already returned.
+     */
+    Flux<UserChangeRow> findChangesAfter(long xid, int afterUserId, int limit);
+}
@@ -0,0 +1,243 @@
+package com.reactive.nexo.repository;
+
+import com.reactive.nexo.dto.AttributePredicate;
+import com.reactive.nexo.dto.UserAttributeRow;
+import com.reactive.nexo.dto.UserChangeRow;
+import com.reactive.nexo.model.User;
+import com.reactive.nexo.service.TypedValues;
+import io.r2dbc.spi.Row;
+import lombok.RequiredArgsConstructor;
+import org.springframework.r2dbc.core.DatabaseClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@RequiredArgsConstructor
+public class UserRepositoryCustomImpl implements UserRepositoryCustom {
+
+    static final int MAX_PREDICATES = 32;
+    static final int MAX_DEPTH = 6;
+
+    private final DatabaseClient databaseClient;
+
+    @Override
+    public Flux<User> insertAllSkippingConflicts(List<User> users) {
+        if (users.isEmpty()) {
+            return Flux.empty();
+        }
+        StringBuilder sql = new StringBuilder("INSERT INTO users (names, lastnames, identification_type, identification_number) VALUES ");
+        for (int i = 0; i < users.size(); i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append("(:n").append(i).append(", :l").append(i).append(", :t").append(i).append(", :i").append(i).append(')');
+        }
+        sql.append(" ON CONFLICT ON CONSTRAINT uq_users_identification DO NOTHING " +
+                "RETURNING id, identification_number, identification_type, names, lastnames");
+        Map<String, Object> binds = new HashMap<>(users.size() * 6);
+        for (int i = 0; i < users.size(); i++) {
+            User user = users.get(i);
+            binds.put("n" + i, user.getNames());
+            binds.put("l" + i, user.getLastnames());
+            binds.put("t" + i, user.getIdentification_type());
+            binds.put("i" + i, user.getIdentification_number());
+        }
+        return databaseClient.sql(sql.toString()).bindValues(binds).map((row, metadata) -> toUser(row)).all();
+    }
+
+    @Override
+    public Flux<Integer> lockUsers(Collection<Integer> userIds) {
+        if (userIds.isEmpty()) {
+            return Flux.empty();
+        }
+        return databaseClient.sql("SELECT id FROM users WHERE id IN (:ids) ORDER BY id FOR UPDATE")
+                .bind("ids", new ArrayList<>(userIds))
+                .map((row, metadata) -> row.get("id", Integer.class))
+                .all();
+    }
+
+    @Override
+    public Mono<Long> markChanged(Collection<Integer> userIds) {
+        if (userIds.isEmpty()) {
+            return Mono.just(0L);
+        }
+        return databaseClient.sql("UPDATE users SET change_xid = pg_current_xact_id() WHERE id IN (:ids)")
+                .bind("ids", new ArrayList<>(userIds))
+                .fetch().rowsUpdated();
+    }
+
+    @Override
+    public Mono<Long> markDeleted(Integer userId) {
+        return databaseClient.sql("INSERT INTO user_tombstone (user_id) VALUES (:userId) ON CONFLICT (user_id) " +
+                        "DO UPDATE SET change_xid = pg_current_xact_id(), deleted_at = now()")
+                .bind("userId", userId)
+                .fetch().rowsUpdated();
+    }
+
+    @Override
+    public Flux<UserChangeRow> findChangesAfter(long xid, int afterUserId, int limit) {
+        // xmin of the current snapshot: every transaction below it has finished, so nothing can still appear there
+        String range = "(change_xid, %s) > (CAST(:xid AS text)::xid8, :afterUserId) " +
+                "AND change_xid < (SELECT pg_snapshot_xmin(pg_current_snapshot())) ORDER BY change_xid, %s LIMIT :limit";
+        String sql = "SELECT user_id, change_xid::text AS change_xid, deleted FROM (" +
+                "(SELECT id AS user_id, change_xid, false AS deleted FROM users WHERE " + String.format(range, "id", "id") + ") " +
+                "UNION ALL " +
+                "(SELECT user_id, change_xid, true AS deleted FROM user_tombstone WHERE " + String.format(range, "user_id", "user_id") + ")" +
+                ") changes ORDER BY change_xid, user_id LIMIT :limit";
+        return databaseClient.sql(sql)
+                .bind("xid", String.valueOf(xid))
+                .bind("afterUserId", afterUserId)
+                .bind("limit", limit)
+                .map((row, metadata) -> new UserChangeRow(row.get("user_id", Integer.class),
+                        Long.parseLong(row.get("change_xid", String.class)), Boolean.TRUE.equals(row.get("deleted", Boolean.class))))
+                .all();
+    }
+
+    @Override
+    public Flux<UserAttributeRow> streamProfileRows(int afterId, Collection<Integer> definitionIds, int fetchSize) {
+        String projection = definitionIds == null ? "" : " AND au.definition_id IN (:definitionIds)";
+        String sql = "select u.id, u.names, u.lastnames, u.identification_type, u.identification_number, " +
+                "au.id as attribute_id, ad.name as name_attribute, vau.value_attribute " +
+                "from users u " +
+                "LEFT JOIN attribute_user au ON u.id = au.user_id" + projection + " " +
+                "LEFT JOIN attribute_definition ad ON ad.id = au.definition_id " +
+                "LEFT JOIN value_attribute_user vau ON au.id = vau.attribute_id " +
+                "WHERE u.id > :afterId ORDER BY u.id, au.id, vau.id";
+        DatabaseClient.GenericExecuteSpec spec = databaseClient.sql(sql).bind("afterId", afterId);
+        if (definitionIds != null) {
+            // an empty IN list is not valid SQL; -1 matches no definition
+            spec = spec.bind("definitionIds", definitionIds.isEmpty() ? List.of(-1) : new ArrayList<>(definitionIds));
+        }
+        // with a fetch size the driver keeps the portal open and pulls rows only as downstream demands them
+        return spec.filter((statement, next) -> next.execute(statement.fetchSize(fetchSize)))
+                .map((row, metadata) -> new UserAttributeRow(row.get("id", Integer.class), row.get("names", String.class),
+                        row.get("lastnames", String.class), row.get("identification_type", String.class),
+                        row.get("identification_number", String.class), row.get("attribute_id", Integer.class),
+                        row.get("name_attribute", String.class), row.get("value_attribute", String.class)))
+                .all();
+    }
+
+    @Override
+    public Flux<User> search(AttributePredicate filter, Map<String, Integer> definitionIds, int afterId, int limit) {
+        Map<String, Object> binds = new LinkedHashMap<>();
+        String where;
+        try {
+            where = compile(filter, definitionIds, binds, 0);
+        } catch (IllegalArgumentException e) {
+            return Flux.error(e);
+        }
+        binds.put("afterId", afterId);
+        binds.put("limit", limit);
+        String sql = "select u.id, u.identification_number, u.identification_type, u.names, u.lastnames " +
+                "from users u WHERE u.id > :afterId AND " + where + " ORDER BY u.id LIMIT :limit";
+
+        DatabaseClient.GenericExecuteSpec spec = databaseClient.sql(sql);
+        for (Map.Entry<String, Object> bind : binds.entrySet()) {
+            spec = spec.bind(bind.getKey(), bind.getValue());
+        }
+        return spec.map((row, metadata) -> toUser(row)).all();
+    }
+
+    private String compile(AttributePredicate node, Map<String, Integer> definitionIds, Map<String, Object> binds, int depth) {
+        if (node == null) {
+            throw new IllegalArgumentException("Filtro vacío");
+        }
+        if (depth > MAX_DEPTH) {
+            throw new IllegalArgumentException("Filtro demasiado anidado (máximo " + MAX_DEPTH + " niveles)");
+        }
+        boolean hasAnd = node.getAnd() != null && !node.getAnd().isEmpty();
+        boolean hasOr = node.getOr() != null && !node.getOr().isEmpty();
+        boolean isLeaf = node.getAttribute() != null;
+        if ((hasAnd ? 1 : 0) + (hasOr ? 1 : 0) + (isLeaf ? 1 : 0) != 1) {
+            throw new IllegalArgumentException("Cada nodo debe tener exactamente uno de: attribute, and, or");
+        }
+        if (hasAnd) {
+            return join(node.getAnd(), " AND ", definitionIds, binds, depth);
+        }
+        if (hasOr) {
+            return join(node.getOr(), " OR ", definitionIds, binds, depth);
+        }
+        return leaf(node, definitionIds, binds);
+    }
+
+    private String join(List<AttributePredicate> children, String operator, Map<String, Integer> definitionIds,
+                        Map<String, Object> binds, int depth) {
+        StringBuilder sql = new StringBuilder("(");
+        for (int i = 0; i < children.size(); i++) {
+            if (i > 0) {
+                sql.append(operator);
+            }
+            sql.append(compile(children.get(i), definitionIds, binds, depth + 1));
+        }
+        return sql.append(')').toString();
+    }
+
+    private String leaf(AttributePredicate node, Map<String, Integer> definitionIds, Map<String, Object> binds) {
+        if (binds.size() / 2 >= MAX_PREDICATES) {
+            throw new IllegalArgumentException("Demasiados predicados (máximo " + MAX_PREDICATES + ")");
+        }
+        if (node.getValue() == null) {
+            throw new IllegalArgumentException("Predicado sin valor para el atributo " + node.getAttribute());
+        }
+        String relation = node.getRelation() == null ? "eq" : node.getRelation().toLowerCase();
+        String definitionParam = "p" + binds.size();
+        // ids are positive: an attribute missing from the catalog matches no row
+        binds.put(definitionParam, definitionIds.getOrDefault(node.getAttribute(), -1));
+        String valueParam = "p" + binds.size();
+
+        String condition;
+        switch (relation) {
+            case "eq":
+                binds.put(valueParam, node.getValue());
+                condition = "vau.value_attribute = :" + valueParam;
+                break;
+            case "lt":
+                condition = range(node.getValue(), "<", valueParam, binds);
+                break;
+            case "gt":
+                condition = range(node.getValue(), ">", valueParam, binds);
+                break;
+            default:
+                throw new IllegalArgumentException("Relación no válida. Use: eq, lt, gt");
+        }
+        return "EXISTS (select 1 from attribute_user au " +
+                "INNER JOIN value_attribute_user vau ON au.id = vau.attribute_id " +
+                "WHERE au.user_id = u.id AND au.definition_id = :" + definitionParam + " AND " + condition + ")";
+    }
+
+    // same typed-column choice as UserService.findUsersByAttribute; date and timestamp bounds also
+    // match values stored in the other temporal column (see TEMPORAL_AS_DATE / TEMPORAL_AS_TIMESTAMP)
+    private String range(String value, String operator, String param, Map<String, Object> binds) {
+        LocalDateTime timestamp = TypedValues.parseTimestamp(value);
+        if (timestamp != null) {
+            binds.put(param, timestamp);
+            return UserRepository.TEMPORAL_AS_TIMESTAMP + " " + operator + " :" + param;
+        }
+        LocalDate date = TypedValues.parseDate(value);
+        if (date != null) {
+            binds.put(param, date);
+            return UserRepository.TEMPORAL_AS_DATE + " " + operator + " :" + param;
+        }
+        BigDecimal number = TypedValues.parseNumber(value);
+        if (number != null) {
+            binds.put(param, number);
+            return "vau.value_number " + operator + " :" + param;
+        }
+        binds.put(param, value);
+        return "vau.value_attribute " + operator + " :" + param;
+    }
+
+    private static User toUser(Row row) {
+        return new User(row.get("id", Integer.class), row.get("names", String.class), row.get("lastnames", String.class),
+                row.get("identification_type", String.class), row.get("identification_number", String.class));
+    }
+}
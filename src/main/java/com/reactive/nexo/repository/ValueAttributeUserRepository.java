@@ -4,6 +4,10 @@ import com.reactive.nexo.model.ValueAttributeUser;
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
 import reactor.core.publisher.Flux;
 
-public interface ValueAttributeUserRepository extends ReactiveCrudRepository<ValueAttributeUser,Integer> {
+import java.util.Collection;
+
+public interface ValueAttributeUserRepository extends ReactiveCrudRepository<ValueAttributeUser,Integer>, ValueAttributeUserRepositoryCustom {
     Flux<ValueAttributeUser> findByAttributeId(Integer attributeId);
+
+    Flux<ValueAttributeUser> findByAttributeIdInOrderById(Collection<Integer> attributeIds);
 }
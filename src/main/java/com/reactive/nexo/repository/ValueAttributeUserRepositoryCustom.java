@@ -0,0 +1,20 @@
+package com.reactive.nexo.repository;
+
+import com.reactive.nexo.model.ValueAttributeUser;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface ValueAttributeUserRepositoryCustom {
+    /**
+     * Deletes every value of the given attributes with one statement. Returns the rows deleted.
+     */
+    Mono<Long> deleteByAttributeIdIn(Collection<Integer> attributeIds);
+
+    /**
+     * Inserts the values with multi-row INSERT statements (chunked to stay below the bind limit).
+     * Returns the rows inserted.
+     */
+    Mono<Long> insertAll(List<ValueAttributeUser> values);
+}
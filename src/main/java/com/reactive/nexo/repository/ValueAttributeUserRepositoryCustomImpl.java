@@ -0,0 +1,75 @@
+package com.reactive.nexo.repository;
+
+import com.reactive.nexo.model.ValueAttributeUser;
+import lombok.RequiredArgsConstructor;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.r2dbc.core.Parameter;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@RequiredArgsConstructor
+public class ValueAttributeUserRepositoryCustomImpl implements ValueAttributeUserRepositoryCustom {
+
+    // 5 binds per row; keeps each statement far below the 65535 bind parameters PostgreSQL accepts
+    static final int INSERT_CHUNK = 1000;
+
+    private final DatabaseClient databaseClient;
+
+    @Override
+    public Mono<Long> deleteByAttributeIdIn(Collection<Integer> attributeIds) {
+        if (attributeIds.isEmpty()) {
+            return Mono.just(0L);
+        }
+        return databaseClient.sql("DELETE FROM value_attribute_user WHERE attribute_id IN (:attributeIds)")
+                .bind("attributeIds", new ArrayList<>(attributeIds))
+                .fetch()
+                .rowsUpdated();
+    }
+
+    @Override
+    public Mono<Long> insertAll(List<ValueAttributeUser> values) {
+        if (values.isEmpty()) {
+            return Mono.just(0L);
+        }
+        return Flux.fromIterable(values)
+                .buffer(INSERT_CHUNK)
+                .concatMap(this::insertChunk)
+                .reduce(0L, Long::sum);
+    }
+
+    private Mono<Long> insertChunk(List<ValueAttributeUser> chunk) {
+        StringBuilder sql = new StringBuilder("INSERT INTO value_attribute_user " +
+                "(attribute_id, value_attribute, value_number, value_date, value_timestamp) VALUES ");
+        for (int i = 0; i < chunk.size(); i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append("(:a").append(i).append(", :v").append(i).append(", :n").append(i)
+                    .append(", :d").append(i).append(", :t").append(i).append(')');
+        }
+        // one bindValues call: each bind() copies the whole bind map, quadratic on wide statements
+        Map<String, Object> binds = new HashMap<>(chunk.size() * 7);
+        for (int i = 0; i < chunk.size(); i++) {
+            ValueAttributeUser value = chunk.get(i);
+            binds.put("a" + i, value.getAttributeId());
+            binds.put("v" + i, value.getValueAttribute());
+            binds.put("n" + i, nullable(value.getValueNumber(), BigDecimal.class));
+            binds.put("d" + i, nullable(value.getValueDate(), LocalDate.class));
+            binds.put("t" + i, nullable(value.getValueTimestamp(), LocalDateTime.class));
+        }
+        return databaseClient.sql(sql.toString()).bindValues(binds).fetch().rowsUpdated();
+    }
+
+    private static Object nullable(Object value, Class<?> type) {
+        return value == null ? Parameter.empty(type) : value;
+    }
+}
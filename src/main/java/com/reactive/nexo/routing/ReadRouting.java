@@ -0,0 +1,58 @@
+package com.reactive.nexo.routing;
+
+import reactor.util.context.Context;
+import reactor.util.context.ContextView;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.function.Function;
+
+/**
+ * Reactor context marker for reads that may go to a replica, with the users they are about so that
+ * {@link RecentWrites} can keep reads of just-written users on the primary.
+ * <p>
+ * Reads inside a read-only transaction context ({@code @Transactional(propagation = SUPPORTS, readOnly = true)})
+ * are replica reads already; the marker is for reads subscribed outside that context (cache and single-flight loads)
+ * and to name the users read. Apply it with {@code contextWrite} on the query itself.
+ */
+public final class ReadRouting {
+
+    static final String KEY = ReadRouting.class.getName();
+
+    private final Collection<Integer> userIds;
+    private final Collection<String> identifications;
+
+    private ReadRouting(Collection<Integer> userIds, Collection<String> identifications) {
+        this.userIds = userIds;
+        this.identifications = identifications;
+    }
+
+    /**
+     * Replica read of the given users.
+     */
+    public static Function<Context, Context> users(Collection<Integer> userIds) {
+        ReadRouting routing = new ReadRouting(userIds, Collections.emptyList());
+        return context -> context.put(KEY, routing);
+    }
+
+    /**
+     * Replica read of the user with this identification.
+     */
+    public static Function<Context, Context> identification(String identificationType, String identificationNumber) {
+        ReadRouting routing = new ReadRouting(Collections.emptyList(),
+                Collections.singletonList(RecentWrites.identificationKey(identificationType, identificationNumber)));
+        return context -> context.put(KEY, routing);
+    }
+
+    static ReadRouting from(ContextView context) {
+        return context.getOrDefault(KEY, null);
+    }
+
+    Collection<Integer> getUserIds() {
+        return userIds;
+    }
+
+    Collection<String> getIdentifications() {
+        return identifications;
+    }
+}
@@ -0,0 +1,61 @@
+package com.reactive.nexo.routing;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.reactive.nexo.event.UserChangeEvent;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collection;
+
+/**
+ * Users written in the last {@code nexo.routing.read-your-writes} (by id and by identification), whose reads
+ * stay on the primary until the replicas have caught up. Fed from this node's committed writes and, through the
+ * invalidation bus, from the other nodes'. A zero window disables it.
+ */
+@Component
+public class RecentWrites {
+
+    private final Cache<Object, Boolean> written;
+
+    public RecentWrites(@Value("${nexo.routing.read-your-writes:2s}") Duration window) {
+        this.written = window.isZero() ? null : Caffeine.newBuilder().expireAfterWrite(window).maximumSize(100_000).build();
+    }
+
+    static String identificationKey(String identificationType, String identificationNumber) {
+        return identificationType + ':' + identificationNumber;
+    }
+
+    @EventListener
+    public void onUserChange(UserChangeEvent event) {
+        if (written == null) {
+            return;
+        }
+        if (event.getUserId() != null) {
+            written.put(event.getUserId(), Boolean.TRUE);
+        }
+        if (event.getIdentificationType() != null && event.getIdentificationNumber() != null) {
+            written.put(identificationKey(event.getIdentificationType(), event.getIdentificationNumber()), Boolean.TRUE);
+        }
+    }
+
+    public void recordUsers(Collection<Integer> userIds) {
+        if (written != null) {
+            userIds.forEach(id -> written.put(id, Boolean.TRUE));
+        }
+    }
+
+    public boolean anyRecent(Collection<?> keys) {
+        if (written == null) {
+            return false;
+        }
+        for (Object key : keys) {
+            if (written.getIfPresent(key) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,137 @@
+package com.reactive.nexo.routing;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryMetadata;
+import io.r2dbc.spi.Wrapped;
+import lombok.extern.slf4j.Slf4j;
+import org.reactivestreams.Publisher;
+import org.springframework.transaction.NoTransactionException;
+import org.springframework.transaction.reactive.TransactionSynchronizationManager;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends replica reads to the replica pools and everything else to the primary.
+ * <p>
+ * A connection is a replica read when it is requested in a read-only transaction context (service methods with
+ * {@code @Transactional(propagation = SUPPORTS, readOnly = true)}) or under a {@link ReadRouting} marker, unless the
+ * marker names a user written within the read-your-writes window ({@link RecentWrites}). Real transactions take their
+ * connection before the read-only flag is visible, so they always use the primary. Replicas are taken round-robin; a
+ * replica that fails to hand out a connection is skipped for {@code replicaRetry} and the read moves on to the next
+ * one, and to the primary when none is left.
+ * <p>
+ * Metrics: {@code nexo.routing.connections} (by {@code target}) and {@code nexo.routing.fallbacks}.
+ */
+@Slf4j
+public class ReplicaRoutingConnectionFactory implements ConnectionFactory, Wrapped<ConnectionFactory>, AutoCloseable {
+
+    private final ConnectionFactory primary;
+    private final List<Replica> replicas = new ArrayList<>();
+    private final RecentWrites recentWrites;
+    private final long replicaRetryNanos;
+    private final AtomicInteger next = new AtomicInteger();
+    private final Counter primaryConnections;
+    private final Counter replicaConnections;
+    private final Counter fallbacks;
+
+    public ReplicaRoutingConnectionFactory(ConnectionFactory primary, List<ConnectionFactory> replicas, RecentWrites recentWrites,
+                                           Duration replicaRetry, MeterRegistry meterRegistry) {
+        this.primary = primary;
+        for (int i = 0; i < replicas.size(); i++) {
+            this.replicas.add(new Replica("replica-" + i, replicas.get(i)));
+        }
+        this.recentWrites = recentWrites;
+        this.replicaRetryNanos = replicaRetry.toNanos();
+        this.primaryConnections = meterRegistry.counter("nexo.routing.connections", "target", "primary");
+        this.replicaConnections = meterRegistry.counter("nexo.routing.connections", "target", "replica");
+        this.fallbacks = meterRegistry.counter("nexo.routing.fallbacks");
+    }
+
+    @Override
+    public Publisher<? extends Connection> create() {
+        return isReplicaRead().flatMap(replicaRead -> replicaRead && !replicas.isEmpty()
+                ? fromReplica(Math.floorMod(next.getAndIncrement(), replicas.size()), 0)
+                : fromPrimary());
+    }
+
+    @Override
+    public ConnectionFactoryMetadata getMetadata() {
+        return primary.getMetadata();
+    }
+
+    @Override
+    public ConnectionFactory unwrap() {
+        return primary;
+    }
+
+    @Override
+    public void close() {
+        dispose(primary);
+        replicas.forEach(replica -> dispose(replica.connectionFactory));
+    }
+
+    private Mono<Boolean> isReplicaRead() {
+        return Mono.deferContextual(context -> {
+            ReadRouting routing = ReadRouting.from(context);
+            if (routing != null) {
+                return Mono.just(!recentWrites.anyRecent(routing.getUserIds()) && !recentWrites.anyRecent(routing.getIdentifications()));
+            }
+            return TransactionSynchronizationManager.forCurrentTransaction()
+                    .map(manager -> manager.isSynchronizationActive() && manager.isCurrentTransactionReadOnly())
+                    .onErrorResume(NoTransactionException.class, e -> Mono.just(false));
+        });
+    }
+
+    private Mono<Connection> fromPrimary() {
+        return Mono.<Connection>from(primary.create()).doOnNext(connection -> primaryConnections.increment());
+    }
+
+    private Mono<Connection> fromReplica(int index, int tried) {
+        if (tried == replicas.size()) {
+            fallbacks.increment();
+            return fromPrimary();
+        }
+        Replica replica = replicas.get(index);
+        int following = (index + 1) % replicas.size();
+        if (replica.isDown()) {
+            return fromReplica(following, tried + 1);
+        }
+        return Mono.<Connection>from(replica.connectionFactory.create())
+                .doOnNext(connection -> replicaConnections.increment())
+                .onErrorResume(e -> {
+                    log.warn("Routing: {} unavailable for {} ms, reading elsewhere: {}", replica.name,
+                            replicaRetryNanos / 1_000_000, e.toString());
+                    replica.downUntil = System.nanoTime() + replicaRetryNanos;
+                    return fromReplica(following, tried + 1);
+                });
+    }
+
+    private static void dispose(ConnectionFactory connectionFactory) {
+        if (connectionFactory instanceof Disposable disposable) {
+            disposable.dispose();
+        }
+    }
+
+    private static final class Replica {
+        final String name;
+        final ConnectionFactory connectionFactory;
+        volatile long downUntil;
+
+        Replica(String name, ConnectionFactory connectionFactory) {
+            this.name = name;
+            this.connectionFactory = connectionFactory;
+        }
+
+        boolean isDown() {
+            return downUntil != 0 && System.nanoTime() - downUntil < 0;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.reactive.nexo.routing;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@code nexo.routing.*}: read replicas of the {@code spring.r2dbc} primary. Each replica gets a pool of
+ * {@code spring.r2dbc.pool.max-size} connections; username and password default to the primary's.
+ */
+@Data
+@ConfigurationProperties(prefix = "nexo.routing")
+public class ReplicaRoutingProperties {
+
+    private List<Replica> replicas = new ArrayList<>();
+    // a replica that failed is skipped for this long
+    private Duration replicaRetry = Duration.ofSeconds(10);
+    // waiting longer than this for a replica connection counts as a failure
+    private Duration acquireTimeout = Duration.ofSeconds(2);
+
+    @Data
+    public static class Replica {
+        private String url;
+        private String username;
+        private String password;
+    }
+}
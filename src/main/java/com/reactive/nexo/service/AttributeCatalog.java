@@ -0,0 +1,168 @@
+package com.reactive.nexo.service;
+
+import com.reactive.nexo.event.AttributeDefinitionChangedEvent;
+import com.reactive.nexo.model.AttributeDefinition;
+import com.reactive.nexo.repository.AttributeDefinitionRepository;
+import com.reactive.nexo.sharding.Shards;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.NoTransactionException;
+import org.springframework.transaction.reactive.TransactionSynchronization;
+import org.springframework.transaction.reactive.TransactionSynchronizationManager;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cached dictionary of attribute_definition: attribute name -> integer id and multiple flag.
+ * <p>
+ * Definitions are never deleted and {@code multiple} only goes from false to true, so cached entries
+ * stay valid on this node; a definition read or created inside a transaction is cached only after it commits.
+ * Marking a definition multiple publishes an {@link AttributeDefinitionChangedEvent} after commit so other nodes
+ * drop their copy ({@link #invalidate}).
+ * <p>
+ * With sharding every shard holds a copy of the catalog with the same ids, since attribute rows reference it.
+ * Shard 0 is authoritative: names are created there and copied to the other shards right away, outside the
+ * caller's transaction, so a definition exists on every shard before any attribute row can point at it.
+ */
+@Component
+@RequiredArgsConstructor
+public class AttributeCatalog {
+
+    private final AttributeDefinitionRepository attributeDefinitionRepository;
+    private final ApplicationEventPublisher eventPublisher;
+    private final Shards shards;
+    private final Map<String, AttributeDefinition> byName = new ConcurrentHashMap<>();
+
+    /**
+     * Existing definition for the name; empty when the name is not in the catalog.
+     */
+    public Mono<AttributeDefinition> find(String name) {
+        AttributeDefinition cached = byName.get(name);
+        if (cached != null) {
+            return Mono.just(cached);
+        }
+        Mono<AttributeDefinition> lookup = shards.isSharded()
+                ? findOnHome(name)
+                : attributeDefinitionRepository.findByName(name);
+        return lookup.flatMap(this::remember);
+    }
+
+    /**
+     * Definition ids for the given names; names missing from the catalog are left out of the map.
+     */
+    public Mono<Map<String, Integer>> resolveIds(Collection<String> names) {
+        return Flux.fromIterable(new LinkedHashSet<>(names))
+                .concatMap(this::find)
+                .collectMap(AttributeDefinition::getName, AttributeDefinition::getId);
+    }
+
+    /**
+     * Returns the definition for the name, creating it if needed and marking it multiple when requested.
+     */
+    public Mono<AttributeDefinition> define(String name, boolean multiple) {
+        AttributeDefinition cached = byName.get(name);
+        if (cached != null && (!multiple || Boolean.TRUE.equals(cached.getMultiple()))) {
+            return Mono.just(cached);
+        }
+        if (shards.isSharded()) {
+            return defineOnShards(name, multiple).flatMap(this::remember);
+        }
+        return attributeDefinitionRepository.insertIfAbsent(name, multiple)
+                .switchIfEmpty(Mono.defer(() -> attributeDefinitionRepository.findByName(name)))
+                .flatMap(definition -> {
+                    if (!multiple || Boolean.TRUE.equals(definition.getMultiple())) {
+                        return Mono.just(definition);
+                    }
+                    AttributeDefinition marked = new AttributeDefinition(definition.getId(), definition.getName(), true);
+                    return attributeDefinitionRepository.markMultiple(definition.getId())
+                            .then(afterCommit(() -> eventPublisher.publishEvent(new AttributeDefinitionChangedEvent(name))))
+                            .thenReturn(marked);
+                })
+                .flatMap(this::remember);
+    }
+
+    /**
+     * Drops the cached definition of one name, e.g. after another node changed it.
+     */
+    public void invalidate(String name) {
+        byName.remove(name);
+    }
+
+    /**
+     * Drops every cached definition, e.g. after the tables are recreated.
+     */
+    public void invalidateAll() {
+        byName.clear();
+    }
+
+    private Mono<AttributeDefinition> defineOnShards(String name, boolean multiple) {
+        return home().sql("INSERT INTO attribute_definition (name, multiple) VALUES ($1, $2) ON CONFLICT (name) DO NOTHING")
+                .bind(0, name)
+                .bind(1, multiple)
+                .then()
+                .then(Mono.defer(() -> multiple
+                        ? home().sql("UPDATE attribute_definition SET multiple = TRUE WHERE name = $1 AND multiple = FALSE")
+                                .bind(0, name)
+                                .fetch().rowsUpdated()
+                        : Mono.just(0L)))
+                .flatMap(marked -> findOnHome(name)
+                        .flatMap(definition -> replicate(definition).thenReturn(definition))
+                        .flatMap(definition -> marked == 0 ? Mono.just(definition)
+                                : afterCommit(() -> eventPublisher.publishEvent(new AttributeDefinitionChangedEvent(name)))
+                                        .thenReturn(definition)));
+    }
+
+    // copies the home definition to the other shards; multiple never goes back to false
+    private Mono<Void> replicate(AttributeDefinition definition) {
+        return Flux.fromIterable(shards.getClients().subList(1, shards.getCount()))
+                .concatMap(client -> client.sql("INSERT INTO attribute_definition (id, name, multiple) VALUES ($1, $2, $3) "
+                                + "ON CONFLICT (id) DO UPDATE SET multiple = attribute_definition.multiple OR EXCLUDED.multiple")
+                        .bind(0, definition.getId())
+                        .bind(1, definition.getName())
+                        .bind(2, Boolean.TRUE.equals(definition.getMultiple()))
+                        .then())
+                .then();
+    }
+
+    private Mono<AttributeDefinition> findOnHome(String name) {
+        return home().sql("select id,name,multiple from attribute_definition where name = $1")
+                .bind(0, name)
+                .map((row, metadata) -> new AttributeDefinition(row.get("id", Integer.class), row.get("name", String.class),
+                        row.get("multiple", Boolean.class)))
+                .one();
+    }
+
+    private DatabaseClient home() {
+        return shards.getClients().get(0);
+    }
+
+    private Mono<AttributeDefinition> remember(AttributeDefinition definition) {
+        return afterCommit(() -> byName.put(definition.getName(), definition)).thenReturn(definition);
+    }
+
+    // runs the action once the current transaction commits, or right away outside a transaction
+    private Mono<Void> afterCommit(Runnable action) {
+        return TransactionSynchronizationManager.forCurrentTransaction()
+                .doOnNext(synchronizationManager -> {
+                    if (!synchronizationManager.isSynchronizationActive()) {
+                        action.run();
+                        return;
+                    }
+                    synchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                        @Override
+                        public Mono<Void> afterCommit() {
+                            return Mono.fromRunnable(action);
+                        }
+                    });
+                })
+                .onErrorResume(NoTransactionException.class, e -> Mono.fromRunnable(action))
+                .then();
+    }
+}
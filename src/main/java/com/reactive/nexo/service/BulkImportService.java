@@ -0,0 +1,285 @@
+package com.reactive.nexo.service;
+
+import com.reactive.nexo.dto.CreateUserRequest;
+import com.reactive.nexo.dto.ImportBatchResult;
+import com.reactive.nexo.dto.ImportRecordError;
+import com.reactive.nexo.event.UserChangeEvent;
+import com.reactive.nexo.event.UserChangePublisher;
+import com.reactive.nexo.model.AttributeDefinition;
+import com.reactive.nexo.model.AttributeUser;
+import com.reactive.nexo.model.User;
+import com.reactive.nexo.model.ValueAttributeUser;
+import com.reactive.nexo.profile.ProfileDocuments;
+import com.reactive.nexo.repository.AttributeUserRepository;
+import com.reactive.nexo.repository.UserRepository;
+import com.reactive.nexo.repository.ValueAttributeUserRepository;
+import com.reactive.nexo.sharding.ShardKey;
+import com.reactive.nexo.sharding.Shards;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * Importación masiva de usuarios desde un stream NDJSON.
+ * <p>
+ * Los registros se agrupan en lotes de {@code nexo.import.batch-size}; cada lote es una transacción con un
+ * INSERT multi-fila por tabla (users, attribute_user, value_attribute_user). Las identificaciones repetidas
+ * (uq_users_identification) se omiten con ON CONFLICT DO NOTHING y se reportan por registro sin abortar el lote.
+ * Solo se pide el siguiente lote al cliente cuando el anterior terminó, así la memoria no depende del tamaño
+ * de la entrada. Con sharding el lote se divide en una transacción por shard.
+ */
+@Service
+@Slf4j
+public class BulkImportService {
+
+    // 4 binds por usuario en un solo INSERT
+    static final int MAX_BATCH_SIZE = 5000;
+    // longitudes de las columnas en schema.sql; un valor más largo haría fallar el INSERT de todo el lote
+    private static final int MAX_NAME_LENGTH = 100;
+    private static final int MAX_TYPE_LENGTH = 2;
+    private static final int MAX_NUMBER_LENGTH = 15;
+    private static final int MAX_VALUE_LENGTH = 100;
+
+    public static final String CONFLICT = "CONFLICT";
+    public static final String INVALID = "INVALID";
+    public static final String ERROR = "ERROR";
+
+    private final UserRepository userRepository;
+    private final AttributeUserRepository attributeUserRepository;
+    private final ValueAttributeUserRepository valueAttributeUserRepository;
+    private final AttributeCatalog attributeCatalog;
+    private final UserChangePublisher changePublisher;
+    private final TransactionalOperator transactionalOperator;
+    private final Shards shards;
+    private final ProfileDocuments profileDocuments;
+    private final int batchSize;
+
+    public BulkImportService(UserRepository userRepository,
+                             AttributeUserRepository attributeUserRepository,
+                             ValueAttributeUserRepository valueAttributeUserRepository,
+                             AttributeCatalog attributeCatalog,
+                             UserChangePublisher changePublisher,
+                             TransactionalOperator transactionalOperator,
+                             Shards shards,
+                             ProfileDocuments profileDocuments,
+                             @Value("${nexo.import.batch-size:500}") int batchSize) {
+        this.userRepository = userRepository;
+        this.attributeUserRepository = attributeUserRepository;
+        this.valueAttributeUserRepository = valueAttributeUserRepository;
+        this.attributeCatalog = attributeCatalog;
+        this.changePublisher = changePublisher;
+        this.transactionalOperator = transactionalOperator;
+        this.shards = shards;
+        this.profileDocuments = profileDocuments;
+        this.batchSize = Math.max(1, Math.min(batchSize, MAX_BATCH_SIZE));
+    }
+
+    /**
+     * Importa los usuarios del stream y emite un resultado por lote, en orden.
+     */
+    public Flux<ImportBatchResult> importUsers(Flux<CreateUserRequest> requests) {
+        return requests.index()
+                .buffer(batchSize)
+                .index()
+                // prefetch 1: el lote siguiente se lee mientras se escribe el actual, nunca más
+                .concatMap(batch -> importBatch(batch.getT1().intValue(), batch.getT2()), 1);
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Importa un lote en su propia transacción (una por shard). Cada registro va con su número de línea, que se usa en los
+     * rechazos; el lote nunca falla: un error inesperado se informa como ERROR para todos sus registros y marca el
+     * resultado como {@code failed}, para que quien reanuda por lotes (el importador de archivos) no lo dé por escrito.
+     */
+    public Mono<ImportBatchResult> importBatch(int batchNumber, List<Tuple2<Long, CreateUserRequest>> records) {
+        List<ImportRecordError> rejected = new ArrayList<>();
+        // identificación -> registro; también descarta los repetidos dentro del mismo lote
+        Map<String, Tuple2<Long, CreateUserRequest>> accepted = new LinkedHashMap<>();
+        for (Tuple2<Long, CreateUserRequest> record : records) {
+            CreateUserRequest request = record.getT2();
+            String problem = validate(request);
+            if (problem != null) {
+                rejected.add(error(record, INVALID, problem));
+            } else if (accepted.putIfAbsent(key(request.getIdentification_type(), request.getIdentification_number()), record) != null) {
+                rejected.add(error(record, CONFLICT, "Identificación repetida en el lote"));
+            }
+        }
+        if (accepted.isEmpty()) {
+            return Mono.just(new ImportBatchResult(batchNumber, records.size(), 0, rejected, false));
+        }
+        // con sharding cada shard del lote es su propia transacción; sin sharding hay un solo grupo
+        Map<Integer, Map<String, Tuple2<Long, CreateUserRequest>>> byShard = new TreeMap<>();
+        accepted.forEach((key, record) -> byShard.computeIfAbsent(shards.shardOfIdentification(
+                        record.getT2().getIdentification_type(), record.getT2().getIdentification_number()), shard -> new LinkedHashMap<>())
+                .put(key, record));
+        AtomicBoolean failed = new AtomicBoolean();
+        return Flux.fromIterable(byShard.entrySet())
+                .concatMap(group -> importShard(batchNumber, group.getKey(), group.getValue(), rejected, failed))
+                .reduce(0, Integer::sum)
+                .map(created -> {
+                    rejected.sort((a, b) -> Long.compare(a.getLine(), b.getLine()));
+                    return new ImportBatchResult(batchNumber, records.size(), created, rejected, failed.get());
+                });
+    }
+
+    /**
+     * Inserta los registros aceptados de un shard en una transacción y devuelve cuántos usuarios creó. Los
+     * conflictos se agregan a {@code rejected}; si la transacción falla, todos sus registros se informan como ERROR.
+     */
+    private Mono<Integer> importShard(int batchNumber, int shard, Map<String, Tuple2<Long, CreateUserRequest>> accepted,
+                                      List<ImportRecordError> rejected, AtomicBoolean failed) {
+        List<User> users = new ArrayList<>(accepted.size());
+        for (Tuple2<Long, CreateUserRequest> record : accepted.values()) {
+            CreateUserRequest request = record.getT2();
+            users.add(new User(null, request.getNames(), request.getLastnames(),
+                    request.getIdentification_type(), request.getIdentification_number()));
+        }
+        List<ImportRecordError> conflicts = new ArrayList<>();
+        return userRepository.insertAllSkippingConflicts(users)
+                .collectList()
+                .flatMap(inserted -> {
+                    Map<String, User> byKey = new HashMap<>();
+                    inserted.forEach(u -> byKey.put(key(u.getIdentification_type(), u.getIdentification_number()), u));
+                    Map<User, CreateUserRequest> created = new LinkedHashMap<>();
+                    accepted.forEach((key, record) -> {
+                        User user = byKey.get(key);
+                        if (user == null) {
+                            conflicts.add(error(record, CONFLICT, "Ya existe un usuario con esa identificación"));
+                        } else {
+                            created.put(user, record.getT2());
+                        }
+                    });
+                    return insertAttributes(created)
+                            .then(profileDocuments.refresh(created.keySet().stream().map(User::getId).collect(Collectors.toList())))
+                            .thenReturn(created);
+                })
+                .as(transactionalOperator::transactional)
+                .contextWrite(ShardKey.shard(shard))
+                .map(created -> {
+                    rejected.addAll(conflicts);
+                    return created.size();
+                })
+                .onErrorResume(e -> {
+                    // el grupo se revierte completo; se informa y se sigue con el siguiente
+                    log.error("Importación: falló el lote {} (shard {})", batchNumber, shard, e);
+                    failed.set(true);
+                    accepted.values().forEach(record -> rejected.add(error(record, ERROR, e.getMessage())));
+                    return Mono.just(0);
+                });
+    }
+
+    /**
+     * Un INSERT multi-fila para attribute_user y otro para value_attribute_user con los atributos de todo el lote.
+     */
+    private Mono<Void> insertAttributes(Map<User, CreateUserRequest> created) {
+        // nombre -> multiple (true si algún usuario del lote trae más de un valor)
+        Map<String, Boolean> names = new LinkedHashMap<>();
+        created.values().forEach(request -> {
+            if (request.getAttributes() != null) {
+                request.getAttributes().forEach((name, values) ->
+                        names.merge(name, values != null && values.size() > 1, Boolean::logicalOr));
+            }
+        });
+        return Flux.fromIterable(names.entrySet())
+                .concatMap(e -> attributeCatalog.define(e.getKey(), e.getValue()))
+                .collectMap(AttributeDefinition::getName, AttributeDefinition::getId)
+                .flatMap(definitionIds -> {
+                    List<AttributeUser> rows = new ArrayList<>();
+                    // (user_id, definition_id) -> valores
+                    Map<String, List<String>> valuesByPair = new HashMap<>();
+                    created.forEach((user, request) -> {
+                        if (request.getAttributes() == null) {
+                            return;
+                        }
+                        request.getAttributes().forEach((name, values) -> {
+                            Integer definitionId = definitionIds.get(name);
+                            rows.add(new AttributeUser(null, user.getId(), definitionId));
+                            valuesByPair.put(user.getId() + ":" + definitionId, values == null ? Collections.emptyList() : values);
+                        });
+                    });
+                    return attributeUserRepository.insertAll(rows)
+                            .collectList()
+                            .flatMap(attributes -> {
+                                List<ValueAttributeUser> values = new ArrayList<>();
+                                for (AttributeUser attribute : attributes) {
+                                    for (String v : valuesByPair.get(attribute.getUserId() + ":" + attribute.getDefinitionId())) {
+                                        ValueAttributeUser value = new ValueAttributeUser(null, attribute.getId(), v);
+                                        TypedValues.fill(value);
+                                        values.add(value);
+                                    }
+                                }
+                                return valueAttributeUserRepository.insertAll(values);
+                            });
+                })
+                .then(Flux.fromIterable(created.entrySet())
+                        // los eventos llevan los atributos para que el índice no tenga que releer al usuario
+                        .concatMap(e -> changePublisher.publish(new UserChangeEvent(UserChangeEvent.Type.CREATED,
+                                e.getKey().getId(), e.getKey().getNames(), e.getKey().getLastnames(),
+                                e.getKey().getIdentification_type(), e.getKey().getIdentification_number(),
+                                e.getValue().getAttributes() == null ? Collections.emptyMap() : e.getValue().getAttributes())))
+                        .then());
+    }
+
+    private static String validate(CreateUserRequest request) {
+        if (request == null) {
+            return "Registro vacío";
+        }
+        if (blank(request.getNames()) || blank(request.getLastnames())
+                || blank(request.getIdentification_type()) || blank(request.getIdentification_number())) {
+            return "names, lastnames, identification_type e identification_number son obligatorios";
+        }
+        if (request.getNames().length() > MAX_NAME_LENGTH || request.getLastnames().length() > MAX_NAME_LENGTH
+                || request.getIdentification_type().length() > MAX_TYPE_LENGTH
+                || request.getIdentification_number().length() > MAX_NUMBER_LENGTH) {
+            return "Campo del usuario demasiado largo";
+        }
+        if (request.getAttributes() != null) {
+            for (Map.Entry<String, List<String>> attribute : request.getAttributes().entrySet()) {
+                if (blank(attribute.getKey()) || attribute.getKey().length() > MAX_NAME_LENGTH) {
+                    return "Nombre de atributo inválido: " + attribute.getKey();
+                }
+                if (attribute.getValue() != null) {
+                    for (String value : attribute.getValue()) {
+                        if (value == null || value.length() > MAX_VALUE_LENGTH) {
+                            return "Valor inválido para el atributo " + attribute.getKey();
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean blank(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+
+    private static String key(String identificationType, String identificationNumber) {
+        return identificationType + ":" + identificationNumber;
+    }
+
+    private static ImportRecordError error(Tuple2<Long, CreateUserRequest> record, String reason, String message) {
+        CreateUserRequest request = record.getT2();
+        return new ImportRecordError(record.getT1(),
+                request == null ? null : request.getIdentification_type(),
+                request == null ? null : request.getIdentification_number(),
+                reason, message);
+    }
+}
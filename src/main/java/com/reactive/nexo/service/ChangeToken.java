@@ -0,0 +1,87 @@
+package com.reactive.nexo.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Opaque delta sync token: the (transaction id, user id) position of the last change returned,
+ * base64url encoded like {@link PageCursor}. With sharding the token holds one position per shard, in shard order.
+ */
+public final class ChangeToken {
+
+    private static final String PREFIX = "c1:";
+
+    private final long xid;
+    private final int userId;
+
+    private ChangeToken(long xid, int userId) {
+        this.xid = xid;
+        this.userId = userId;
+    }
+
+    public static ChangeToken of(long xid, int userId){
+        return new ChangeToken(xid, userId);
+    }
+
+    public static String encode(long xid, int userId){
+        return encode(Collections.singletonList(of(xid, userId)));
+    }
+
+    public static String encode(List<ChangeToken> positions){
+        String raw = positions.stream().map(position -> position.xid + ":" + position.userId).collect(Collectors.joining(";"));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString((PREFIX + raw).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes a token produced by {@link #encode(long, int)}. A null or blank token means "from the start".
+     */
+    public static ChangeToken decode(String token){
+        return decode(token, 1).get(0);
+    }
+
+    /**
+     * Decodes a token with one position per shard; a token from a different number of shards is rejected like
+     * any other invalid token.
+     */
+    public static List<ChangeToken> decode(String token, int shards){
+        if(token == null || token.isBlank()){
+            return Collections.nCopies(shards, new ChangeToken(0L, 0));
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            if(!raw.startsWith(PREFIX)){
+                throw new IllegalArgumentException(raw);
+            }
+            String[] positions = raw.substring(PREFIX.length()).split(";");
+            if(positions.length != shards){
+                throw new IllegalArgumentException(raw);
+            }
+            List<ChangeToken> decoded = new ArrayList<>(shards);
+            for(String position : positions){
+                String[] parts = position.split(":");
+                if(parts.length != 2){
+                    throw new IllegalArgumentException(raw);
+                }
+                decoded.add(new ChangeToken(Long.parseLong(parts[0]), Integer.parseInt(parts[1])));
+            }
+            return decoded;
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid change token");
+        }
+    }
+
+    public long getXid(){
+        return xid;
+    }
+
+    public int getUserId(){
+        return userId;
+    }
+}
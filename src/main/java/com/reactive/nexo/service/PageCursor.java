@@ -0,0 +1,47 @@
+package com.reactive.nexo.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Opaque keyset cursor: the last key of the previous page, base64url encoded so
+ * clients treat it as a token rather than an id they can compute.
+ */
+public final class PageCursor {
+
+    private static final String PREFIX = "v1:";
+
+    private PageCursor() {
+    }
+
+    public static String encode(long lastKey){
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((PREFIX + lastKey).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes a cursor produced by {@link #encode(long)}. A null or blank cursor means "from the start" (0).
+     * Keys outside {@code [0, Integer.MAX_VALUE]} are rejected like any other invalid token.
+     */
+    public static int decode(String cursor){
+        if(cursor == null || cursor.isBlank()){
+            return 0;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            if(!raw.startsWith(PREFIX)){
+                throw new IllegalArgumentException(raw);
+            }
+            long key = Long.parseLong(raw.substring(PREFIX.length()));
+            if(key < 0 || key > Integer.MAX_VALUE){
+                throw new IllegalArgumentException(raw);
+            }
+            return (int) key;
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor");
+        }
+    }
+}
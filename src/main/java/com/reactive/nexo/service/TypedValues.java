@@ -0,0 +1,64 @@
+package com.reactive.nexo.service;
+
+import com.reactive.nexo.model.ValueAttributeUser;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.regex.Pattern;
+
+/**
+ * Detects typed representations (number, date, timestamp) of attribute values so range
+ * comparisons can use the typed columns of value_attribute_user instead of VARCHAR order.
+ */
+public final class TypedValues {
+
+    private static final Pattern NUMBER = Pattern.compile("-?\\d{1,18}(\\.\\d{1,6})?");
+    private static final Pattern DATE = Pattern.compile("\\d{4}-\\d{2}-\\d{2}");
+
+    private TypedValues() {
+    }
+
+    public static BigDecimal parseNumber(String value){
+        if(value == null || !NUMBER.matcher(value.trim()).matches()){
+            return null;
+        }
+        return new BigDecimal(value.trim());
+    }
+
+    public static LocalDate parseDate(String value){
+        if(value == null || !DATE.matcher(value.trim()).matches()){
+            return null;
+        }
+        try {
+            return LocalDate.parse(value.trim(), DateTimeFormatter.ISO_LOCAL_DATE);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    public static LocalDateTime parseTimestamp(String value){
+        if(value == null || value.indexOf('T') < 0){
+            return null;
+        }
+        try {
+            return LocalDateTime.parse(value.trim(), DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Fills the typed columns of a value from its text; values that are not a number,
+     * date or timestamp keep all typed columns null.
+     */
+    public static ValueAttributeUser fill(ValueAttributeUser value){
+        String text = value.getValueAttribute();
+        value.setValueNumber(parseNumber(text));
+        value.setValueDate(parseDate(text));
+        value.setValueTimestamp(parseTimestamp(text));
+        return value;
+    }
+}
@@ -1,28 +1,63 @@
 package com.reactive.nexo.service;
 
 //import com.reactive.nexo.dto.UserDepartmentDTO;
+import com.reactive.nexo.admission.AdmissionLimits;
+import com.reactive.nexo.cache.UserProfileCache;
+import com.reactive.nexo.model.AttributeDefinition;
 import com.reactive.nexo.model.AttributeUser;
 import com.reactive.nexo.model.User;
 import com.reactive.nexo.model.ValueAttributeUser;
 import com.reactive.nexo.repository.AttributeUserRepository;
 import com.reactive.nexo.repository.UserRepository;
 import com.reactive.nexo.repository.ValueAttributeUserRepository;
+import com.reactive.nexo.dto.AttributePredicate;
 import com.reactive.nexo.dto.AttributeWithValuesDTO;
+import com.reactive.nexo.dto.BulkFetchResponse;
+import com.reactive.nexo.dto.ChangesResponse;
+import com.reactive.nexo.dto.UserAttributeRow;
+import com.reactive.nexo.dto.UserChangeRow;
+import com.reactive.nexo.dto.UserSearchRequest;
+import com.reactive.nexo.dto.UserUpdateResult;
 import com.reactive.nexo.dto.UserWithAttributesDTO;
+import com.reactive.nexo.event.UserChangeEvent;
+import com.reactive.nexo.event.UserChangePublisher;
+import com.reactive.nexo.index.AttributeValueIndex;
+import com.reactive.nexo.profile.ProfileDocuments;
+import com.reactive.nexo.routing.ReadRouting;
+import com.reactive.nexo.sharding.ShardKey;
+import com.reactive.nexo.sharding.Shards;
+import com.reactive.nexo.writebehind.WriteBehindQueue;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.server.ResponseStatusException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Schedulers;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
 
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.function.BiFunction;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.stream.Collectors;
 import java.util.Set;
 import io.r2dbc.spi.R2dbcDataIntegrityViolationException;
@@ -33,6 +68,11 @@ import com.reactive.nexo.dto.PagedResponse;
 @Transactional
 public class UserService {
 
+    private static final int MAX_SEARCH_LIMIT = 1000;
+    // tope de size en el listado; también evita el desborde de size + 1 y de page * size
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int MAX_CHANGES_LIMIT = 5000;
+
     @Autowired
     private UserRepository userRepository;
 
@@ -45,78 +85,349 @@ public class UserService {
     @Autowired
     private com.reactive.nexo.service.ValueAttributeService valueAttributeService;
 
+    @Autowired
+    private UserChangePublisher changePublisher;
+
+    @Autowired
+    private AttributeValueIndex attributeValueIndex;
+
+    @Autowired
+    private UserProfileCache profileCache;
+
+    @Autowired
+    private AttributeCatalog attributeCatalog;
+
+    // límite de servicio frente al pool R2DBC para las consultas pesadas
+    @Autowired
+    private AdmissionLimits admissionLimits;
+
+    // con sharding: las consultas de un usuario van a su shard, las demás a todos (scatter-gather)
+    @Autowired
+    private Shards shards;
+
+    // perfil desnormalizado opcional (user_profile): se reescribe en cada escritura y sirve las lecturas de perfil
+    @Autowired
+    private ProfileDocuments profileDocuments;
+
+    // atributos de alta frecuencia (nexo.write-behind.attributes): el PATCH los encola y se escriben por lotes
+    @Autowired
+    private WriteBehindQueue writeBehindQueue;
+
+    // ids por consulta "where id in (...)" en las búsquedas masivas
+    @Value("${nexo.users.fetch-chunk-size:500}")
+    private int fetchChunkSize = 500;
+
+    // filas por lectura del cursor de la exportación
+    @Value("${nexo.export.fetch-size:1000}")
+    private int exportFetchSize = 1000;
+
     public Mono<User> createUser(User user){
         // enforce uniqueness of (identification_type, identification_number)
         return userRepository.findByIdentificationTypeAndNumber(user.getIdentification_type(), user.getIdentification_number())
                 .flatMap(existing -> Mono.<User>error(new ResponseStatusException(HttpStatus.CONFLICT, "User with same identification already exists")))
-                .switchIfEmpty(userRepository.save(user));
+                .switchIfEmpty(userRepository.save(user))
+                .contextWrite(ShardKey.identification(user.getIdentification_type(), user.getIdentification_number()));
     }
 
+    @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
     public Flux<User> getAllUsers(){
-        return userRepository.findAll();
+        return shards.merge(userRepository::findAll);
+    }
+
+    /**
+     * Exportación completa en orden de id: una sola consulta leída con cursor y plegada usuario por usuario,
+     * así la memoria usada no depende del número de usuarios. Con {@code attributes} solo se incluyen esos
+     * atributos; {@code afterId} permite reanudar desde el último id recibido.
+     */
+    @Transactional(readOnly = true)
+    public Flux<UserWithAttributesDTO> exportUsers(int afterId, Set<String> attributes){
+        Mono<Optional<Collection<Integer>>> definitionIds = attributes == null
+                ? Mono.just(Optional.empty())
+                : attributeCatalog.resolveIds(attributes).map(ids -> Optional.of(ids.values()));
+        return definitionIds.flatMapMany(ids -> assembleProfiles(shards.mergeOrdered(Comparator.comparing(UserAttributeRow::getId),
+                () -> userRepository.streamProfileRows(Math.max(0, afterId), ids.orElse(null), Math.max(1, exportFetchSize)))));
+    }
+
+    @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+    public Mono<PagedResponse<UserWithAttributesDTO>> getAllUsersWithPagination(int page, int size, boolean includeTotal, Set<String> attributes){
+        return admissionLimits.db(() -> pageByOffset(page, size, includeTotal, attributes));
     }
 
-    public Mono<PagedResponse<UserWithAttributesDTO>> getAllUsersWithPagination(int page, int size, Set<String> attributes){
+    private Mono<PagedResponse<UserWithAttributesDTO>> pageByOffset(int page, int size, boolean includeTotal, Set<String> attributes){
         int finalPage = page < 0 ? 0 : page;
-        int finalSize = size <= 0 ? 10 : size;
-        final int offset = finalPage * finalSize;
+        int finalSize = pageSize(size);
+        long requestedOffset = (long) finalPage * finalSize;
+        if (requestedOffset > Integer.MAX_VALUE - finalSize - 1) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "page fuera de rango"));
+        }
+        final int offset = (int) requestedOffset;
         final Set<String> finalAttributes = attributes;
+
+        if(!includeTotal){
+            // sin count(*): se pide un registro extra para saber si hay más páginas
+            return shards.mergeOrderedPage(Comparator.comparing(User::getId), offset, finalSize + 1, userRepository::findAllWithPagination)
+                    .collectList()
+                    .flatMap(users -> {
+                        boolean hasMore = users.size() > finalSize;
+                        List<User> pageUsers = hasMore ? users.subList(0, finalSize) : users;
+                        return withAttributes(pageUsers, finalAttributes)
+                                .map(content -> new PagedResponse<>(content, finalPage, finalSize, null, null, !hasMore, null, null));
+                    });
+        }
         
-        return userRepository.countAll()
+        return shards.sum(userRepository::countAll)
                 .flatMap(totalElements -> 
-                    userRepository.findAllWithPagination(finalSize, offset)
-                        .flatMap(user -> 
-                            finalAttributes == null || finalAttributes.isEmpty() 
-                                ? Mono.just(new UserWithAttributesDTO(user.getId(), user.getNames(), user.getLastnames(), user.getIdentification_type(), user.getIdentification_number(), Collections.emptyList()))
-                                : getUserWithFilteredAttributes(user.getId(), finalAttributes)
-                        )
+                    shards.mergeOrderedPage(Comparator.comparing(User::getId), offset, finalSize, userRepository::findAllWithPagination)
                         .collectList()
+                        .flatMap(users -> withAttributes(users, finalAttributes))
                         .map(content -> {
                             long totalPages = (totalElements + finalSize - 1) / finalSize;
                             boolean isLast = finalPage >= totalPages - 1;
-                            return new PagedResponse<>(content, finalPage, finalSize, totalElements, totalPages, isLast);
+                            return new PagedResponse<>(content, finalPage, finalSize, totalElements, totalPages, isLast, null, null);
                         })
                 );
     }
 
-    private Mono<UserWithAttributesDTO> getUserWithFilteredAttributes(Integer userId, Set<String> attributeNames){
-        return userRepository.findById(userId)
-            .flatMap(user ->
-                attributeUserRepository.findByUserId(userId)
-                    .filter(attribute -> attributeNames.contains(attribute.getName_attribute()))
-                    .flatMap(attribute ->
-                        valueAttributeUserRepository.findByAttributeId(attribute.getId())
-                            .map(ValueAttributeUser::getValueAttribute)
-                            .collectList()
-                            .map(values -> new AttributeWithValuesDTO(attribute.getName_attribute(), values))
-                    )
-                    .collectList()
-                    .map(attrs -> new UserWithAttributesDTO(user.getId(), user.getNames(), user.getLastnames(), user.getIdentification_type(), user.getIdentification_number(), attrs))
-            );
+    /**
+     * Paginación por cursor (keyset): {@code where id > ?} sobre la PK en lugar de offset.
+     * El token {@code next} codifica el último id de la página; el conteo total es opcional.
+     */
+    @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+    public Mono<PagedResponse<UserWithAttributesDTO>> getAllUsersWithCursor(String cursor, int size, boolean includeTotal, Set<String> attributes){
+        return admissionLimits.db(() -> pageByCursor(cursor, size, includeTotal, attributes));
     }
 
-    public Mono<User> findById(Integer userId){
-        return userRepository.findById(userId);
+    private Mono<PagedResponse<UserWithAttributesDTO>> pageByCursor(String cursor, int size, boolean includeTotal, Set<String> attributes){
+        int finalSize = pageSize(size);
+        int afterId = PageCursor.decode(cursor);
+        Mono<Optional<Long>> total = includeTotal
+                ? shards.sum(userRepository::countAll).map(Optional::of)
+                : Mono.just(Optional.empty());
+
+        return shards.mergeOrdered(Comparator.comparing(User::getId), () -> userRepository.findPageAfterId(afterId, finalSize + 1))
+                .take(finalSize + 1)
+                .collectList()
+                .flatMap(users -> {
+                    boolean hasNext = users.size() > finalSize;
+                    List<User> pageUsers = hasNext ? users.subList(0, finalSize) : users;
+                    String next = hasNext ? PageCursor.encode(pageUsers.get(pageUsers.size() - 1).getId()) : null;
+                    return withAttributes(pageUsers, attributes)
+                            .zipWith(total, (content, totalElements) -> new PagedResponse<>(content, null, finalSize,
+                                    totalElements.orElse(null),
+                                    totalElements.map(t -> (t + finalSize - 1) / finalSize).orElse(null),
+                                    !hasNext, cursor, next));
+                });
     }
 
-    public Mono<UserWithAttributesDTO> getUserWithAttributes(Integer userId){
-    return userRepository.findById(userId)
-        .flatMap(user ->
-            attributeUserRepository.findByUserId(userId)
-                .flatMap(attribute ->
-                    valueAttributeUserRepository.findByAttributeId(attribute.getId())
-                        .map(ValueAttributeUser::getValueAttribute)
+    private static int pageSize(int size) {
+        return size <= 0 ? 10 : Math.min(size, MAX_PAGE_SIZE);
+    }
+
+    /**
+     * Sincronización incremental: usuarios escritos (con todos sus atributos) y eliminados después del token, en orden
+     * de transacción. Solo se leen transacciones más antiguas que toda transacción en curso, así una escritura que
+     * confirma tarde nunca queda detrás de un token ya entregado; sin cambios se devuelve el mismo token.
+     * Con sharding el token guarda una posición por shard y el límite se reparte entre los shards por turnos.
+     * El log y los perfiles se leen en una misma transacción REPEATABLE READ (en el primario, nunca en réplicas):
+     * ambos ven la misma instantánea, así un perfil nunca es más viejo que el token que se entrega con él.
+     */
+    @Transactional(readOnly = true, isolation = Isolation.REPEATABLE_READ)
+    public Mono<ChangesResponse> getChanges(String since, int limit){
+        return admissionLimits.db(() -> readChanges(since, limit));
+    }
+
+    private Mono<ChangesResponse> readChanges(String since, int limit){
+        List<ChangeToken> from = ChangeToken.decode(since, shards.getCount());
+        int finalLimit = Math.min(MAX_CHANGES_LIMIT, limit <= 0 ? 500 : limit);
+        return Flux.range(0, from.size())
+                .concatMap(shard -> userRepository.findChangesAfter(from.get(shard).getXid(), from.get(shard).getUserId(), finalLimit)
                         .collectList()
-                        .map(values -> new AttributeWithValuesDTO(attribute.getName_attribute(), values))
-                )
+                        .contextWrite(ShardKey.shard(shard)))
                 .collectList()
-                .map(attrs -> new UserWithAttributesDTO(user.getId(), user.getNames(), user.getLastnames(), user.getIdentification_type(), user.getIdentification_number(), attrs))
-        );
+                .flatMap(legs -> {
+                    int[] taken = takeRoundRobin(legs, finalLimit);
+                    List<UserChangeRow> changes = new ArrayList<>();
+                    List<ChangeToken> next = new ArrayList<>(legs.size());
+                    boolean hasMore = false;
+                    for(int shard = 0; shard < legs.size(); shard++){
+                        List<UserChangeRow> leg = legs.get(shard);
+                        changes.addAll(leg.subList(0, taken[shard]));
+                        UserChangeRow last = taken[shard] == 0 ? null : leg.get(taken[shard] - 1);
+                        next.add(last == null ? from.get(shard) : ChangeToken.of(last.getChangeXid(), last.getUserId()));
+                        hasMore |= taken[shard] < leg.size() || leg.size() == finalLimit;
+                    }
+                    if(changes.isEmpty()){
+                        return Mono.just(new ChangesResponse(Collections.emptyList(), Collections.emptyList(),
+                                ChangeToken.encode(from), false));
+                    }
+                    List<Integer> deleted = new ArrayList<>();
+                    List<Integer> written = new ArrayList<>();
+                    changes.forEach(change -> (change.isDeleted() ? deleted : written).add(change.getUserId()));
+                    boolean more = hasMore;
+                    // un usuario eliminado entre la lectura del log y la de perfiles se informa en la próxima llamada
+                    return fetchProfilesByIds(written)
+                            .map(profiles -> new ChangesResponse(profiles.getContent(), deleted, ChangeToken.encode(next), more));
+                });
+    }
+
+    // cuántas filas de cada lista entran en el límite tomando una de cada una por turnos
+    private static int[] takeRoundRobin(List<? extends List<?>> legs, int limit){
+        int[] taken = new int[legs.size()];
+        int total = 0;
+        boolean progress = true;
+        while(total < limit && progress){
+            progress = false;
+            for(int i = 0; i < legs.size() && total < limit; i++){
+                if(taken[i] < legs.get(i).size()){
+                    taken[i]++;
+                    total++;
+                    progress = true;
+                }
+            }
+        }
+        return taken;
+    }
+
+    /**
+     * Completa una página de usuarios con los atributos pedidos usando un número fijo de consultas
+     * (attribute_user por user_id IN y value_attribute_user por attribute_id IN), conservando el orden de la página.
+     * Con el perfil desnormalizado activo basta una lectura de user_profile; solo los usuarios sin documento
+     * (todavía sin backfill) se completan desde las tablas EAV.
+     */
+    private Mono<List<UserWithAttributesDTO>> withAttributes(List<User> users, Set<String> attributeNames){
+        if(users.isEmpty() || attributeNames == null || attributeNames.isEmpty()){
+            return Mono.just(users.stream()
+                    .map(user -> toDto(user, Collections.emptyList()))
+                    .collect(Collectors.toList()));
+        }
+        if(profileDocuments.isEnabled()){
+            return shards.perShard(users, User::getId, group -> profileDocuments.attributesOf(ids(group))
+                    .flatMap(documents -> withTableAttributes(group.stream()
+                                    .filter(user -> !documents.containsKey(user.getId()))
+                                    .collect(Collectors.toList()), attributeNames)
+                            .map(fromTables -> {
+                                Map<Integer, UserWithAttributesDTO> missing = new HashMap<>();
+                                fromTables.forEach(dto -> missing.put(dto.getId(), dto));
+                                return group.stream()
+                                        .map(user -> documents.containsKey(user.getId())
+                                                ? toDto(user, documents.get(user.getId()).stream()
+                                                        .filter(attribute -> attributeNames.contains(attribute.getAttribute_name()))
+                                                        .collect(Collectors.toList()))
+                                                : missing.get(user.getId()))
+                                        .collect(Collectors.toList());
+                            })));
+        }
+        return withTableAttributes(users, attributeNames);
+    }
+
+    private Mono<List<UserWithAttributesDTO>> withTableAttributes(List<User> users, Set<String> attributeNames){
+        if(users.isEmpty()){
+            return Mono.just(Collections.emptyList());
+        }
+        return attributeCatalog.resolveIds(attributeNames)
+                .flatMap(definitionIds -> shards.perShard(users, User::getId, group -> attachAttributes(group, definitionIds.isEmpty()
+                        ? Flux.empty()
+                        : attributeUserRepository.findByUserIdInAndDefinitionIdIn(ids(group), definitionIds.values()))));
+    }
+
+    /**
+     * Igual que {@link #withAttributes} pero con todos los atributos de cada usuario.
+     */
+    private Mono<List<UserWithAttributesDTO>> withAllAttributes(List<User> users){
+        if(users.isEmpty()){
+            return Mono.just(Collections.emptyList());
+        }
+        return shards.perShard(users, User::getId, group -> attachAttributes(group, attributeUserRepository.findByUserIdIn(ids(group))));
+    }
+
+    private static List<Integer> ids(List<User> users){
+        return users.stream().map(User::getId).collect(Collectors.toList());
+    }
+
+    // los ids de attribute_user son locales a cada shard: los usuarios de una llamada viven en el mismo shard
+    private Mono<List<UserWithAttributesDTO>> attachAttributes(List<User> users, Flux<AttributeUser> attributeRows){
+        return attributeRows
+                .collectList()
+                .flatMap(attributes -> findValuesByAttribute(attributes)
+                        .map(valuesByAttribute -> {
+                            Map<Integer, List<AttributeWithValuesDTO>> attrsByUser = new HashMap<>();
+                            for(AttributeUser attribute : attributes){
+                                List<String> values = valuesByAttribute.getOrDefault(attribute.getId(), Collections.emptyList());
+                                attrsByUser.computeIfAbsent(attribute.getUserId(), id -> new ArrayList<>())
+                                        .add(new AttributeWithValuesDTO(attribute.getName_attribute(), values));
+                            }
+                            return users.stream()
+                                    .map(user -> toDto(user, attrsByUser.getOrDefault(user.getId(), Collections.emptyList())))
+                                    .collect(Collectors.toList());
+                        }));
+    }
+
+    private Mono<Map<Integer, List<String>>> findValuesByAttribute(List<AttributeUser> attributes){
+        if(attributes.isEmpty()){
+            return Mono.just(Collections.emptyMap());
+        }
+        List<Integer> attributeIds = attributes.stream().map(AttributeUser::getId).collect(Collectors.toList());
+        return valueAttributeUserRepository.findByAttributeIdInOrderById(attributeIds)
+                .collect(Collectors.groupingBy(ValueAttributeUser::getAttributeId,
+                        Collectors.mapping(ValueAttributeUser::getValueAttribute, Collectors.toList())));
+    }
+
+    private static UserWithAttributesDTO toDto(User user, List<AttributeWithValuesDTO> attributes){
+        return new UserWithAttributesDTO(user.getId(), user.getNames(), user.getLastnames(), user.getIdentification_type(), user.getIdentification_number(), attributes);
+    }
+
+    public Mono<User> findById(Integer userId){
+        return userRepository.findById(userId).contextWrite(ShardKey.user(userId));
+    }
+
+    /**
+     * Perfil completo del usuario. Las lecturas simultáneas del mismo id comparten una sola carga (con o sin
+     * caché); no abre transacción: el perfil sale de una sola consulta.
+     */
+    @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+    public Mono<UserWithAttributesDTO> getUserWithAttributes(Integer userId){
+        if(userId == null){
+            return Mono.empty();
+        }
+        return profileCache.getById(userId, this::loadProfile);
+    }
+
+    // la carga se suscribe fuera del contexto del llamador (caché/single-flight): la marca de réplica va aquí
+    private Mono<UserWithAttributesDTO> loadProfile(Integer userId){
+        Mono<UserWithAttributesDTO> fromTables = Mono.defer(() -> assembleProfiles(userRepository.findProfileRowsById(userId)).next());
+        return (profileDocuments.isEnabled() ? profileDocuments.findById(userId).switchIfEmpty(fromTables) : fromTables)
+                .contextWrite(ReadRouting.users(Collections.singletonList(userId)))
+                .contextWrite(ShardKey.user(userId));
+    }
+
+    /**
+     * Pliega las filas del join users/attribute_user/value_attribute_user en DTOs.
+     * Las filas deben venir agrupadas por usuario y ordenadas por atributo y valor.
+     */
+    private Flux<UserWithAttributesDTO> assembleProfiles(Flux<UserAttributeRow> rows){
+        return rows.bufferUntilChanged(UserAttributeRow::getId)
+                .map(UserService::toProfile);
+    }
+
+    private static UserWithAttributesDTO toProfile(List<UserAttributeRow> rows){
+        UserAttributeRow user = rows.get(0);
+        Map<Integer, AttributeWithValuesDTO> attrs = new LinkedHashMap<>();
+        for(UserAttributeRow row : rows){
+            if(row.getAttributeId() == null){
+                continue;
+            }
+            AttributeWithValuesDTO attr = attrs.computeIfAbsent(row.getAttributeId(),
+                    id -> new AttributeWithValuesDTO(row.getNameAttribute(), new ArrayList<>()));
+            if(row.getValueAttribute() != null){
+                attr.getValues().add(row.getValueAttribute());
+            }
+        }
+        return new UserWithAttributesDTO(user.getId(), user.getNames(), user.getLastnames(), user.getIdentificationType(), user.getIdentificationNumber(), new ArrayList<>(attrs.values()));
     }
 
     public Mono<User> updateUser(Integer userId,  User user){
         return userRepository.findById(userId)
-                .flatMap(dbUser ->
+                .flatMap(dbUser -> sameShard(dbUser, user).then(
                     // check if another user already has the requested identification pair
                     userRepository.findByIdentificationTypeAndNumber(user.getIdentification_type(), user.getIdentification_number())
                         .flatMap(conflict -> {
@@ -127,40 +438,139 @@ public class UserService {
                             return Mono.<User>error(new ResponseStatusException(HttpStatus.CONFLICT, "Another user with same identification exists"));
                         })
                         .switchIfEmpty(userRepository.save(user))
-                );
+                ))
+                .flatMap(saved -> publishChange(UserChangeEvent.Type.UPDATED, saved))
+                .contextWrite(ShardKey.user(userId));
     }
 
     public Mono<User> deleteUser(Integer userId){
         return userRepository.findById(userId)
                 .flatMap(existingUser -> userRepository.delete(existingUser)
-                .then(Mono.just(existingUser)));
+                .then(publishChange(UserChangeEvent.Type.DELETED, existingUser)))
+                .contextWrite(ShardKey.user(userId));
+    }
+
+    /**
+     * Con sharding el shard del usuario sale de su identificación: un cambio de identificación que lo llevaría a
+     * otro shard se rechaza (no se mueven usuarios entre shards).
+     */
+    private Mono<Void> sameShard(User dbUser, User target){
+        if(!shards.isSharded() || target.getIdentification_type() == null || target.getIdentification_number() == null
+                || shards.shardOfIdentification(target.getIdentification_type(), target.getIdentification_number()) == shards.shardOfUser(dbUser.getId())){
+            return Mono.empty();
+        }
+        return Mono.error(new ResponseStatusException(HttpStatus.CONFLICT, "The new identification belongs to another shard"));
+    }
+
+    /**
+     * Notifica el cambio a los listeners (índice en memoria, caché, stream de cambios) cuando la transacción confirma.
+     */
+    private Mono<User> publishChange(UserChangeEvent.Type type, User user){
+        return publishChange(type, user, null);
     }
 
+    /**
+     * Igual que {@link #publishChange(UserChangeEvent.Type, User)} con los atributos tocados por la escritura
+     * (nombre -> valores actuales, lista vacía = atributo eliminado).
+     */
+    private Mono<User> publishChange(UserChangeEvent.Type type, User user, Map<String, List<String>> attributes){
+        // marca el usuario para /changes en la misma transacción; las altas lo reciben del DEFAULT de la columna
+        Mono<Long> mark = type == UserChangeEvent.Type.DELETED ? userRepository.markDeleted(user.getId())
+                : type == UserChangeEvent.Type.CREATED ? Mono.just(0L)
+                : userRepository.markChanged(Collections.singletonList(user.getId()));
+        // el documento de perfil solo guarda atributos: se rehace en las altas y cuando cambió algún atributo
+        Mono<Void> document = type == UserChangeEvent.Type.DELETED ? profileDocuments.remove(user.getId())
+                : type == UserChangeEvent.Type.CREATED || attributes != null ? profileDocuments.refresh(Collections.singletonList(user.getId()))
+                : Mono.empty();
+        return mark.then(document).then(changePublisher.publish(new UserChangeEvent(type, user.getId(), user.getNames(), user.getLastnames(),
+                        user.getIdentification_type(), user.getIdentification_number(), attributes)))
+                .thenReturn(user);
+    }
+
+    @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
     public Flux<User> findUsersByIdentificationNumber(String identificationNumber){
-        return userRepository.findByIdentificationNumber(identificationNumber);
+        return shards.mergeOrdered(Comparator.comparing(User::getId), () -> userRepository.findByIdentificationNumber(identificationNumber));
     }
 
+    @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
     public Mono<UserWithAttributesDTO> getUserWithAttributesByIdentification(String identificationType, String identificationNumber){
-    return userRepository.findByIdentificationTypeAndNumber(identificationType, identificationNumber)
-        .flatMap(user ->
-            attributeUserRepository.findByUserId(user.getId())
-                .flatMap(attribute ->
-                    valueAttributeUserRepository.findByAttributeId(attribute.getId())
-                        .map(ValueAttributeUser::getValueAttribute)
+        return profileCache.getByIdentification(identificationType, identificationNumber,
+                () -> loadProfile(identificationType, identificationNumber)
+                        .contextWrite(ReadRouting.identification(identificationType, identificationNumber))
+                        .contextWrite(ShardKey.identification(identificationType, identificationNumber)),
+                this::loadProfile);
+    }
+
+    private Mono<UserWithAttributesDTO> loadProfile(String identificationType, String identificationNumber){
+        Mono<UserWithAttributesDTO> fromTables = Mono.defer(() ->
+                assembleProfiles(userRepository.findProfileRowsByIdentification(identificationType, identificationNumber)).next());
+        return profileDocuments.isEnabled()
+                ? profileDocuments.findByIdentification(identificationType, identificationNumber).switchIfEmpty(fromTables)
+                : fromTables;
+    }
+
+    /**
+     * Búsqueda masiva por ids con consultas {@code where id in (...)} de {@code nexo.users.fetch-chunk-size} ids.
+     * El resultado respeta el orden de la petición (sin duplicados) e informa los ids inexistentes.
+     */
+    @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+    public Mono<BulkFetchResponse<User>> fetchUsers(List<Integer> userIds) {
+        return admissionLimits.db(() -> fetchUsersByIds(userIds))
+                .contextWrite(ReadRouting.users(distinctIds(userIds)));
+    }
+
+    private Mono<BulkFetchResponse<User>> fetchUsersByIds(List<Integer> userIds) {
+        List<Integer> ids = distinctIds(userIds);
+        return Flux.fromIterable(ids)
+                .buffer(Math.max(1, fetchChunkSize))
+                .concatMap(chunk -> shards.byUserIds(chunk, userRepository::findAllById))
+                .collectMap(User::getId)
+                .map(found -> inRequestOrder(ids, found));
+    }
+
+    /**
+     * Variante de {@link #fetchUsers} que devuelve cada usuario con todos sus atributos,
+     * cargados por lote (un IN sobre attribute_user y otro sobre value_attribute_user por bloque).
+     */
+    @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+    public Mono<BulkFetchResponse<UserWithAttributesDTO>> fetchUsersWithAttributes(List<Integer> userIds) {
+        return admissionLimits.db(() -> fetchProfilesByIds(userIds))
+                .contextWrite(ReadRouting.users(distinctIds(userIds)));
+    }
+
+    private Mono<BulkFetchResponse<UserWithAttributesDTO>> fetchProfilesByIds(List<Integer> userIds) {
+        List<Integer> ids = distinctIds(userIds);
+        return Flux.fromIterable(ids)
+                .buffer(Math.max(1, fetchChunkSize))
+                .concatMap(chunk -> shards.byUserIds(chunk, userRepository::findAllById)
                         .collectList()
-                        .map(values -> new AttributeWithValuesDTO(attribute.getName_attribute(), values))
-                )
-                .collectList()
-                .map(attrs -> new UserWithAttributesDTO(user.getId(), user.getNames(), user.getLastnames(), user.getIdentification_type(), user.getIdentification_number(), attrs))
-        );
+                        .flatMap(this::withAllAttributes)
+                        .flatMapIterable(dtos -> dtos))
+                .collectMap(UserWithAttributesDTO::getId)
+                .map(found -> inRequestOrder(ids, found));
     }
 
-    public Flux<User> fetchUsers(List<Integer> userIds) {
-        return Flux.fromIterable(userIds)
-                .parallel()
-                .runOn(Schedulers.boundedElastic())
-                .flatMap(i -> findById(i))
-                .ordered((u1, u2) -> u2.getId() - u1.getId());
+    private static List<Integer> distinctIds(List<Integer> userIds) {
+        if (userIds == null) {
+            return Collections.emptyList();
+        }
+        Set<Integer> ids = new LinkedHashSet<>(userIds);
+        ids.remove(null);
+        return new ArrayList<>(ids);
+    }
+
+    private static <T> BulkFetchResponse<T> inRequestOrder(List<Integer> ids, Map<Integer, T> found) {
+        List<T> content = new ArrayList<>(found.size());
+        List<Integer> missing = new ArrayList<>();
+        for (Integer id : ids) {
+            T row = found.get(id);
+            if (row == null) {
+                missing.add(id);
+            } else {
+                content.add(row);
+            }
+        }
+        return new BulkFetchResponse<>(content, missing);
     }
 
     public Mono<User> createUserWithAttributes(com.reactive.nexo.dto.CreateUserRequest request){
@@ -171,90 +581,50 @@ public class UserService {
                 return Mono.just(savedUser);
             }
             return Flux.fromIterable(attrs.entrySet())
-                    .flatMap(e -> {
+                    .concatMap(e -> {
                         String attrName = e.getKey();
                         List<String> values = e.getValue() == null ? Collections.emptyList() : e.getValue();
-                        AttributeUser attr = new AttributeUser(null, attrName, values.size() > 1, savedUser.getId());
-                        return attributeUserRepository.save(attr)
-                                .flatMap(savedAttr -> Flux.fromIterable(values)
-                                        .flatMap(v -> valueAttributeService.saveValue(new ValueAttributeUser(null, savedAttr.getId(), v)))
-                                        .then(Mono.just(savedAttr)));
+                        return attributeCatalog.define(attrName, values.size() > 1)
+                                .flatMap(definition -> attributeUserRepository.save(new AttributeUser(null, savedUser.getId(), definition.getId())))
+                                .map(savedAttr -> Map.entry(savedAttr.getId(), values));
                     })
-                    .collectList()
+                    // todos los valores en un solo INSERT multi-fila
+                    .collectMap(Map.Entry::getKey, Map.Entry::getValue)
+                    .flatMap(valueAttributeService::replaceValues)
                     .then(Mono.just(savedUser));
-        });
+        }).flatMap(savedUser -> publishChange(UserChangeEvent.Type.CREATED, savedUser,
+                request.getAttributes() == null ? Collections.emptyMap() : request.getAttributes()))
+                .contextWrite(ShardKey.identification(request.getIdentification_type(), request.getIdentification_number()));
     }
 
-    public Mono<User> updateUserWithAttributes(Integer userId, com.reactive.nexo.dto.CreateUserRequest request){
-        return userRepository.findById(userId)
-                .flatMap(dbUser ->
-                    // check identification uniqueness
-                    userRepository.findByIdentificationTypeAndNumber(request.getIdentification_type(), request.getIdentification_number())
-                        .flatMap(conflict -> {
-                log.info("updateUserWithAttributes - found user by identification: id={} for type={} number={} (updating userId={})",
-                    conflict.getId(), request.getIdentification_type(), request.getIdentification_number(), userId);
-                if(conflict.getId().equals(userId)){
-                                dbUser.setNames(request.getNames());
-                                dbUser.setLastnames(request.getLastnames());
-                                dbUser.setIdentification_type(request.getIdentification_type());
-                                dbUser.setIdentification_number(request.getIdentification_number());
-                                return userRepository.save(dbUser);
-                            }
-                            log.info("updateUserWithAttributes - conflict with other user id={}", conflict.getId());
-                            return Mono.<User>error(new ResponseStatusException(HttpStatus.CONFLICT, "Another user with same identification exists"));
-                        })
-                        .switchIfEmpty(Mono.defer(() -> {
-                            dbUser.setNames(request.getNames());
-                            dbUser.setLastnames(request.getLastnames());
-                            dbUser.setIdentification_type(request.getIdentification_type());
-                            dbUser.setIdentification_number(request.getIdentification_number());
-                            return userRepository.save(dbUser);
-                        }))
-                ).flatMap(savedUser -> {
-                    Map<String, List<String>> attrs = request.getAttributes();
-                    final Map<String, List<String>> attrsLocal = (attrs == null) ? Collections.emptyMap() : attrs;
-
-                            // upsert provided attributes using a single safe MERGE (upsert) then load the attribute id
-                            Mono<Void> upserts = Flux.fromIterable(attrsLocal.entrySet())
-                                    .concatMap(e -> {
-                                        String name = e.getKey();
-                                        List<String> values = e.getValue() == null ? Collections.emptyList() : e.getValue();
-                                        log.info("updateUserWithAttributes - upserting attribute name='{}' values={} for userId={}", name, values, savedUser.getId());
-
-                                        // Use repository MERGE to avoid duplicate insert races. After MERGE, fetch the attribute
-                                        // and then replace/insert values as required.
-                                        return attributeUserRepository.upsertByUserIdAndName(savedUser.getId(), name, values.size() > 1)
-                                                .then(attributeUserRepository.findByUserIdAndName(savedUser.getId(), name))
-                                                .flatMap(foundAttr -> {
-                                                    log.info("updateUserWithAttributes - attribute id={} ready for values update", foundAttr.getId());
-                                                    // delete existing values then insert new ones (replacement semantics for non-multiple)
-                                                    return valueAttributeUserRepository.findByAttributeId(foundAttr.getId())
-                                                            .flatMap(valueAttributeUserRepository::delete)
-                                                            .thenMany(Flux.fromIterable(values))
-                                                            .flatMap(v -> valueAttributeService.saveValue(new ValueAttributeUser(null, foundAttr.getId(), v)))
-                                                            .then();
-                                                });
-                                    })
-                                    .then();
-
-                    // delete attributes that are not present in request
-            Mono<Void> deletions = attributeUserRepository.findByUserId(savedUser.getId())
-                .filter(a -> !attrsLocal.containsKey(a.getName_attribute()))
-                            .flatMap(a -> valueAttributeUserRepository.findByAttributeId(a.getId()).flatMap(valueAttributeUserRepository::delete).then(attributeUserRepository.delete(a)))
-                            .then();
-
-                    // Run upserts first, then deletions sequentially to avoid races where
-                    // a deletion may remove a just-created attribute and cause a duplicate
-                    // insert attempt. Doing them sequentially ensures stable, idempotent
-                    // upsert behavior for each provided attribute.
-                    return upserts.then(deletions).then(Mono.just(savedUser));
-                });
+    /**
+     * Reemplazo completo (PUT) por diferencias: carga el estado actual una sola vez y escribe solo lo que cambió.
+     * Los atributos que no vienen en el request se eliminan. La fila del usuario queda bloqueada desde la lectura:
+     * un flush del write-behind que ya la tenía confirma antes y este PUT lo pisa; uno que llega después espera y
+     * descarta al usuario.
+     */
+    public Mono<UserUpdateResult> updateUserWithAttributes(Integer userId, com.reactive.nexo.dto.CreateUserRequest request){
+        return userRepository.findByIdForUpdate(userId)
+                .flatMap(dbUser -> {
+                    User target = new User(dbUser.getId(), request.getNames(), request.getLastnames(),
+                            request.getIdentification_type(), request.getIdentification_number());
+                    Map<String, List<String>> attrs = request.getAttributes() == null ? Collections.emptyMap() : request.getAttributes();
+                    // el reemplazo completo ya escribió todos los atributos: lo encolado antes no debe pisarlo
+                    return applyDiff(dbUser, target, attrs, true)
+                            .flatMap(result -> writeBehindQueue.discard(userId).thenReturn(result));
+                })
+                .contextWrite(ShardKey.user(userId));
     }
-    
+
     /**
      * Busca usuarios por nombre de atributo dinámico y valor con diferentes tipos de relación
      */
+    @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
     public Flux<User> findUsersByAttribute(String attributeName, String attributeValue, String relation) {
+        return admissionLimits.dbMany(() -> queryUsersByAttribute(attributeName, attributeValue, relation));
+    }
+
+    private Flux<User> queryUsersByAttribute(String attributeName, String attributeValue, String relation) {
         // Validar relación
         if (!relation.equals("eq") && !relation.equals("lt") && !relation.equals("gt")) {
             return Flux.error(new IllegalArgumentException("Relación no válida. Use: eq, lt, gt"));
@@ -263,115 +633,273 @@ public class UserService {
         // Buscar usuarios por atributo dinámico
         switch (relation.toLowerCase()) {
             case "eq":
-                return userRepository.findByAttributeEquals(attributeName, attributeValue);
+                if (attributeValueIndex.covers(attributeName)) {
+                    return findUsersByIds(attributeValueIndex.lookup(attributeName, attributeValue).toArray());
+                }
+                return attributeCatalog.find(attributeName)
+                        .flatMapMany(definition -> shards.mergeOrdered(Comparator.comparing(User::getId),
+                                () -> userRepository.findByAttributeEquals(definition.getId(), attributeValue)));
             case "lt":
-                return userRepository.findByAttributeLessThan(attributeName, attributeValue);
+                return attributeCatalog.find(attributeName)
+                        .flatMapMany(definition -> shards.mergeOrdered(Comparator.comparing(User::getId),
+                                () -> findByAttributeRange(definition.getId(), attributeValue, true)));
             case "gt":
-                return userRepository.findByAttributeGreaterThan(attributeName, attributeValue);
+                return attributeCatalog.find(attributeName)
+                        .flatMapMany(definition -> shards.mergeOrdered(Comparator.comparing(User::getId),
+                                () -> findByAttributeRange(definition.getId(), attributeValue, false)));
             default:
                 return Flux.error(new IllegalArgumentException("Relación no válida"));
         }
     }
+
+    /**
+     * lt/gt sobre la columna tipada que corresponde al valor buscado (timestamp, fecha o número);
+     * si el valor no tiene tipo se mantiene la comparación de texto. Los límites de fecha y de fecha-hora
+     * también alcanzan los valores guardados en la otra columna temporal.
+     */
+    private Flux<User> findByAttributeRange(Integer definitionId, String attributeValue, boolean lessThan) {
+        LocalDateTime timestamp = TypedValues.parseTimestamp(attributeValue);
+        if (timestamp != null) {
+            return lessThan ? userRepository.findByAttributeTimestampLessThan(definitionId, timestamp)
+                    : userRepository.findByAttributeTimestampGreaterThan(definitionId, timestamp);
+        }
+        LocalDate date = TypedValues.parseDate(attributeValue);
+        if (date != null) {
+            return lessThan ? userRepository.findByAttributeDateLessThan(definitionId, date)
+                    : userRepository.findByAttributeDateGreaterThan(definitionId, date);
+        }
+        BigDecimal number = TypedValues.parseNumber(attributeValue);
+        if (number != null) {
+            return lessThan ? userRepository.findByAttributeNumberLessThan(definitionId, number)
+                    : userRepository.findByAttributeNumberGreaterThan(definitionId, number);
+        }
+        return lessThan ? userRepository.findByAttributeLessThan(definitionId, attributeValue)
+                : userRepository.findByAttributeGreaterThan(definitionId, attributeValue);
+    }
     
+    /**
+     * Búsqueda compuesta: árbol de predicados AND/OR sobre atributos dinámicos compilado en una sola
+     * consulta, paginado por cursor y con proyección opcional de atributos.
+     */
+    @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+    public Mono<PagedResponse<UserWithAttributesDTO>> searchUsers(UserSearchRequest request) {
+        return admissionLimits.db(() -> runSearch(request));
+    }
+
+    private Mono<PagedResponse<UserWithAttributesDTO>> runSearch(UserSearchRequest request) {
+        if (request == null || request.getFilter() == null) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "El filtro es obligatorio"));
+        }
+        int limit = request.getLimit() == null || request.getLimit() <= 0 ? 50 : Math.min(request.getLimit(), MAX_SEARCH_LIMIT);
+        Set<String> projection = request.getAttributes() == null ? null : new HashSet<>(request.getAttributes());
+
+        return Mono.fromCallable(() -> PageCursor.decode(request.getCursor()))
+                .flatMapMany(afterId -> attributeValueIndex.covers(request.getFilter())
+                        // árbol de eq sobre atributos indexados: intersección/unión en memoria
+                        ? findUsersByIds(attributeValueIndex.evaluate(request.getFilter()).page(afterId, limit + 1))
+                        : attributeCatalog.resolveIds(attributeNames(request.getFilter(), new HashSet<>()))
+                                .flatMapMany(definitionIds -> shards.mergeOrdered(Comparator.comparing(User::getId),
+                                        () -> userRepository.search(request.getFilter(), definitionIds, afterId, limit + 1)))
+                                .take(limit + 1))
+                .onErrorMap(IllegalArgumentException.class, e -> new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage()))
+                .collectList()
+                .flatMap(users -> {
+                    boolean hasNext = users.size() > limit;
+                    List<User> pageUsers = hasNext ? users.subList(0, limit) : users;
+                    String next = hasNext ? PageCursor.encode(pageUsers.get(pageUsers.size() - 1).getId()) : null;
+                    return withAttributes(pageUsers, projection)
+                            .map(content -> new PagedResponse<>(content, null, limit, null, null, !hasNext, request.getCursor(), next));
+                });
+    }
+    
+    private static Set<String> attributeNames(AttributePredicate node, Set<String> names) {
+        if (node == null) {
+            return names;
+        }
+        if (node.getAttribute() != null) {
+            names.add(node.getAttribute());
+        }
+        for (List<AttributePredicate> children : Arrays.asList(node.getAnd(), node.getOr())) {
+            if (children != null) {
+                children.forEach(child -> attributeNames(child, names));
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Carga usuarios por id en orden ascendente (los ids del índice ya vienen ordenados).
+     */
+    private Flux<User> findUsersByIds(int[] ids) {
+        if (ids.length == 0) {
+            return Flux.empty();
+        }
+        List<Integer> boxed = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            boxed.add(id);
+        }
+        return Flux.fromIterable(boxed)
+                .buffer(Math.max(1, fetchChunkSize))
+                .concatMap(chunk -> shards.byUserIds(chunk, userRepository::findAllById)
+                        .sort((u1, u2) -> Integer.compare(u1.getId(), u2.getId())));
+    }
+
     /**
      * Obtiene todos los nombres de atributos disponibles en el sistema
      */
+    @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
     public Flux<String> getAllAttributeNames() {
-        return userRepository.findAllAttributeNames();
+        return shards.mergeOrdered(Comparator.<String>naturalOrder(), userRepository::findAllAttributeNames)
+                .distinctUntilChanged();
     }
     
     /**
      * Obtiene todos los valores disponibles para un atributo específico
      */
+    @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
     public Flux<String> getAllValuesForAttribute(String attributeName) {
-        return userRepository.findAllValuesForAttribute(attributeName);
+        return attributeCatalog.find(attributeName)
+                .flatMapMany(definition -> shards.mergeOrdered(Comparator.<String>naturalOrder(),
+                                () -> userRepository.findAllValuesForAttribute(definition.getId()))
+                        .distinctUntilChanged());
     }
 
     /**
      * Actualización parcial de un usuario (PATCH)
-     * Solo actualiza los campos que no son null en el request
+     * Solo actualiza los campos que no son null en el request y los atributos incluidos.
+     * Con write-behind activo, los atributos designados no se escriben aquí: se encolan (queued en el resultado)
+     * y el resto del request se aplica como siempre; si solo trae atributos designados no se escribe ninguna fila.
      */
-    public Mono<User> partialUpdateUser(Integer userId, com.reactive.nexo.dto.CreateUserRequest request) {
+    public Mono<UserUpdateResult> partialUpdateUser(Integer userId, com.reactive.nexo.dto.CreateUserRequest request) {
         return userRepository.findById(userId)
                 .switchIfEmpty(Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found")))
                 .flatMap(dbUser -> {
-                    // Verificar si se está actualizando identificación y si ya existe
-                    if (request.getIdentification_type() != null || request.getIdentification_number() != null) {
-                        String newType = request.getIdentification_type() != null ? request.getIdentification_type() : dbUser.getIdentification_type();
-                        String newNumber = request.getIdentification_number() != null ? request.getIdentification_number() : dbUser.getIdentification_number();
-                        
-                        return userRepository.findByIdentificationTypeAndNumber(newType, newNumber)
-                                .flatMap(conflict -> {
-                                    if (!conflict.getId().equals(userId)) {
-                                        return Mono.<User>error(new ResponseStatusException(HttpStatus.CONFLICT, "Another user with same identification exists"));
-                                    }
-                                    return applyPartialUpdates(dbUser, request);
-                                })
-                                .switchIfEmpty(applyPartialUpdates(dbUser, request));
-                    } else {
-                        return applyPartialUpdates(dbUser, request);
+                    User target = new User(dbUser.getId(),
+                            request.getNames() != null ? request.getNames() : dbUser.getNames(),
+                            request.getLastnames() != null ? request.getLastnames() : dbUser.getLastnames(),
+                            request.getIdentification_type() != null ? request.getIdentification_type() : dbUser.getIdentification_type(),
+                            request.getIdentification_number() != null ? request.getIdentification_number() : dbUser.getIdentification_number());
+                    Map<String, List<String>> attrs = request.getAttributes() == null ? Collections.emptyMap() : request.getAttributes();
+                    Map<String, List<String>> deferred = writeBehindQueue.select(attrs);
+                    if (deferred.isEmpty()) {
+                        return applyDiff(dbUser, target, attrs, false);
                     }
-                });
+                    Map<String, List<String>> direct = new LinkedHashMap<>(attrs);
+                    direct.keySet().removeAll(deferred.keySet());
+                    return applyDiff(dbUser, target, direct, false)
+                            .flatMap(result -> writeBehindQueue.enqueue(userId, deferred)
+                                    .thenReturn(new UserUpdateResult(result.getUser(), result.getRowsTouched(), deferred.size())));
+                })
+                .contextWrite(ShardKey.user(userId));
     }
 
     /**
-     * Aplica las actualizaciones parciales a un usuario
+     * Compara el usuario y sus atributos actuales con el estado pedido y escribe solo las diferencias:
+     * la fila de users si cambió algún campo, un INSERT multi-fila para los atributos nuevos, un único
+     * replaceValues para los atributos cuyos valores cambiaron y un DELETE por lote para los eliminados
+     * (solo si {@code removeMissing}). Sin diferencias no se escribe nada ni se publica evento.
      */
-    private Mono<User> applyPartialUpdates(User dbUser, com.reactive.nexo.dto.CreateUserRequest request) {
-        // Solo actualizar campos que no son null
-        if (request.getNames() != null) {
-            dbUser.setNames(request.getNames());
-        }
-        if (request.getLastnames() != null) {
-            dbUser.setLastnames(request.getLastnames());
-        }
-        if (request.getIdentification_type() != null) {
-            dbUser.setIdentification_type(request.getIdentification_type());
-        }
-        if (request.getIdentification_number() != null) {
-            dbUser.setIdentification_number(request.getIdentification_number());
-        }
+    private Mono<UserUpdateResult> applyDiff(User dbUser, User target, Map<String, List<String>> requested, boolean removeMissing) {
+        boolean identificationChanged = !Objects.equals(dbUser.getIdentification_type(), target.getIdentification_type())
+                || !Objects.equals(dbUser.getIdentification_number(), target.getIdentification_number());
+        boolean userChanged = identificationChanged
+                || !Objects.equals(dbUser.getNames(), target.getNames())
+                || !Objects.equals(dbUser.getLastnames(), target.getLastnames());
 
-        return userRepository.save(dbUser)
-                .flatMap(savedUser -> {
-                    // Actualizar atributos solo si se proporcionan
-                    Map<String, List<String>> attrs = request.getAttributes();
-                    if (attrs == null || attrs.isEmpty()) {
-                        return Mono.just(savedUser);
-                    }
+        Mono<Void> identificationCheck = !identificationChanged ? Mono.empty()
+                : sameShard(dbUser, target).then(userRepository.findByIdentificationTypeAndNumber(target.getIdentification_type(), target.getIdentification_number())
+                        .filter(conflict -> !conflict.getId().equals(dbUser.getId()))
+                        .flatMap(conflict -> {
+                            log.info("applyDiff - conflict with other user id={}", conflict.getId());
+                            return Mono.<Void>error(new ResponseStatusException(HttpStatus.CONFLICT, "Another user with same identification exists"));
+                        }));
+        Mono<Long> userWrite = userChanged ? userRepository.save(target).thenReturn(1L) : Mono.just(0L);
+        Map<String, List<String>> diff = new LinkedHashMap<>();
+
+        return identificationCheck
+                .then(attributeUserRepository.findByUserId(dbUser.getId()).collectList())
+                .flatMap(current -> findValuesByAttribute(current)
+                        .flatMap(currentValues -> {
+                            Map<String, AttributeUser> currentByName = new HashMap<>();
+                            current.forEach(attr -> currentByName.put(attr.getName_attribute(), attr));
+
+                            Map<Integer, List<String>> changed = new HashMap<>();
+                            Map<String, List<String>> added = new LinkedHashMap<>();
+                            requested.forEach((name, requestedValues) -> {
+                                List<String> values = requestedValues == null ? Collections.emptyList() : requestedValues;
+                                AttributeUser existing = currentByName.get(name);
+                                if (existing == null) {
+                                    added.put(name, values);
+                                } else if (!values.equals(currentValues.getOrDefault(existing.getId(), Collections.emptyList()))) {
+                                    changed.put(existing.getId(), values);
+                                }
+                            });
+                            List<Integer> removed = !removeMissing ? Collections.emptyList() : current.stream()
+                                    .filter(attr -> !requested.containsKey(attr.getName_attribute()))
+                                    .map(AttributeUser::getId)
+                                    .collect(Collectors.toList());
+
+                            // diferencias por nombre para el evento: valores nuevos, lista vacía si se eliminó
+                            current.forEach(attr -> {
+                                if (changed.containsKey(attr.getId())) {
+                                    diff.put(attr.getName_attribute(), changed.get(attr.getId()));
+                                } else if (removed.contains(attr.getId())) {
+                                    diff.put(attr.getName_attribute(), Collections.emptyList());
+                                }
+                            });
+                            diff.putAll(added);
 
-                    return Flux.fromIterable(attrs.entrySet())
-                            .flatMap(entry -> {
-                                String attrName = entry.getKey();
-                                List<String> values = entry.getValue() == null ? Collections.emptyList() : entry.getValue();
-                                
-                                // Buscar atributo existente o crear uno nuevo
-                                return attributeUserRepository.findByUserIdAndName(savedUser.getId(), attrName)
-                                        .flatMap(existingAttr -> {
-                                            // Actualizar atributo existente
-                                            existingAttr.setMultiple(values.size() > 1);
-                                            return attributeUserRepository.save(existingAttr)
-                                                    .flatMap(savedAttr -> {
-                                                        // Eliminar valores existentes y agregar nuevos
-                                                        return valueAttributeUserRepository.findByAttributeId(savedAttr.getId())
-                                                                .flatMap(valueAttributeUserRepository::delete)
-                                                                .then()
-                                                                .then(Flux.fromIterable(values)
-                                                                        .flatMap(v -> valueAttributeService.saveValue(new ValueAttributeUser(null, savedAttr.getId(), v)))
-                                                                        .then(Mono.just(savedAttr)));
-                                                    });
-                                        })
-                                        .switchIfEmpty(
-                                                // Crear nuevo atributo si no existe
-                                                attributeUserRepository.save(new AttributeUser(null, attrName, values.size() > 1, savedUser.getId()))
-                                                        .flatMap(newAttr -> 
-                                                                Flux.fromIterable(values)
-                                                                        .flatMap(v -> valueAttributeService.saveValue(new ValueAttributeUser(null, newAttr.getId(), v)))
-                                                                        .then(Mono.just(newAttr)))
-                                        );
-                            })
-                            .collectList()
-                            .then(Mono.just(savedUser));
+                            // multiple solo cambia si un atributo existente pasa a tener varios valores
+                            Mono<Void> markMultiple = Flux.fromIterable(current)
+                                    .filter(attr -> changed.containsKey(attr.getId()) && changed.get(attr.getId()).size() > 1
+                                            && !Boolean.TRUE.equals(attr.getMultiple()))
+                                    .concatMap(attr -> attributeCatalog.define(attr.getName_attribute(), true))
+                                    .then();
+
+                            return userWrite
+                                    .flatMap(userRows -> insertAttributes(dbUser.getId(), added)
+                                            .flatMap(inserted -> {
+                                                Map<Integer, List<String>> replacements = new HashMap<>(changed);
+                                                replacements.putAll(inserted.getT2());
+                                                return markMultiple.then(valueAttributeService.replaceValues(replacements))
+                                                        .map(valueRows -> userRows + inserted.getT1() + valueRows);
+                                            }))
+                                    .flatMap(rows -> removeAttributes(removed).map(removedRows -> rows + removedRows));
+                        }))
+                .flatMap(rows -> {
+                    User result = userChanged ? target : dbUser;
+                    if (rows == 0) {
+                        return Mono.just(new UserUpdateResult(result, 0, 0));
+                    }
+                    return publishChange(UserChangeEvent.Type.UPDATED, result, diff.isEmpty() ? null : diff)
+                            .map(user -> new UserUpdateResult(user, rows, 0));
                 });
     }
+
+    /**
+     * Inserta los atributos nuevos de un usuario con un solo INSERT multi-fila.
+     * Devuelve las filas insertadas y el mapa attribute_user.id -> valores pedidos.
+     */
+    private Mono<Tuple2<Long, Map<Integer, List<String>>>> insertAttributes(Integer userId, Map<String, List<String>> added) {
+        if (added.isEmpty()) {
+            return Mono.just(Tuples.of(0L, Collections.emptyMap()));
+        }
+        return Flux.fromIterable(added.entrySet())
+                .concatMap(e -> attributeCatalog.define(e.getKey(), e.getValue().size() > 1))
+                .collectMap(AttributeDefinition::getId, definition -> added.get(definition.getName()))
+                .flatMap(valuesByDefinition -> attributeUserRepository
+                        .insertAllIfAbsent(userId, valuesByDefinition.keySet().toArray(new Integer[0]))
+                        .flatMap(inserted -> attributeUserRepository
+                                .findByUserIdInAndDefinitionIdIn(Collections.singletonList(userId), valuesByDefinition.keySet())
+                                .collectMap(AttributeUser::getId, attr -> valuesByDefinition.get(attr.getDefinitionId()))
+                                .map(valuesByAttribute -> Tuples.of(inserted, valuesByAttribute))));
+    }
+
+    private Mono<Long> removeAttributes(List<Integer> attributeIds) {
+        if (attributeIds.isEmpty()) {
+            return Mono.just(0L);
+        }
+        return valueAttributeUserRepository.deleteByAttributeIdIn(attributeIds)
+                .flatMap(values -> attributeUserRepository.deleteByIdIn(attributeIds).map(attrs -> values + attrs));
+    }
 }
@@ -1,15 +1,32 @@
 package com.reactive.nexo.service;
 
+import com.reactive.nexo.event.UserChangeEvent;
+import com.reactive.nexo.event.UserChangePublisher;
+import com.reactive.nexo.model.AttributeDefinition;
+import com.reactive.nexo.model.AttributeUser;
 import com.reactive.nexo.model.ValueAttributeUser;
+import com.reactive.nexo.profile.ProfileDocuments;
 import com.reactive.nexo.repository.AttributeUserRepository;
+import com.reactive.nexo.repository.UserRepository;
 import com.reactive.nexo.repository.ValueAttributeUserRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
 @Service
 @Slf4j
 @RequiredArgsConstructor
@@ -17,27 +34,131 @@ public class ValueAttributeService {
 
     private final ValueAttributeUserRepository valueAttributeUserRepository;
     private final AttributeUserRepository attributeUserRepository;
+    private final UserRepository userRepository;
+    private final UserChangePublisher changePublisher;
+    private final ProfileDocuments profileDocuments;
+    private final AttributeCatalog attributeCatalog;
 
     /**
-     * Save a value for attribute. If the attribute.multiple == false and there is already a value
-     * present for the attribute, reject with 409 Conflict.
+     * Save a value for attribute. If the attribute definition's multiple == false and there is already a value
+     * present for the attribute, it is replaced. Numeric, date and timestamp values are also stored
+     * in the typed columns. Stamps the owning user for the delta sync and publishes an ATTRIBUTE_CHANGED event
+     * with the attribute's current values. Refreshes the user's profile document when those are enabled.
      */
     public Mono<ValueAttributeUser> saveValue(ValueAttributeUser value){
         Integer attributeId = value.getAttributeId();
-        return attributeUserRepository.findById(attributeId)
+        // typed columns back the lt/gt searches; filled here so every write path keeps them in sync
+        TypedValues.fill(value);
+        return attributeUserRepository.findWithDefinitionById(attributeId)
                 .switchIfEmpty(Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND, "Attribute not found")))
                 .flatMap(attr -> {
                     Boolean multiple = attr.getMultiple() == null ? Boolean.FALSE : attr.getMultiple();
+                    Mono<ValueAttributeUser> saved;
                     if(Boolean.FALSE.equals(multiple)){
                         // For non-multiple attributes, replace any existing value(s) with the new one.
                         // This makes update flows idempotent and avoids races where two flows
                         // try to insert/replace the single value concurrently.
                         log.info("saveValue: attributeId={} multiple={} - replacing existing values if any", attributeId, multiple);
-                        return valueAttributeUserRepository.findByAttributeId(attributeId)
-                                .flatMap(valueAttributeUserRepository::delete)
+                        saved = valueAttributeUserRepository.deleteByAttributeIdIn(Collections.singletonList(attributeId))
                                 .then(valueAttributeUserRepository.save(value));
+                    } else {
+                        saved = valueAttributeUserRepository.save(value);
                     }
-                    return valueAttributeUserRepository.save(value);
+                    // the event carries the attribute's values after the write; delivered after commit when
+                    // running inside a transaction
+                    Mono<List<String>> current = Boolean.FALSE.equals(multiple)
+                            ? Mono.just(Collections.singletonList(value.getValueAttribute()))
+                            : valueAttributeUserRepository.findByAttributeIdInOrderById(Collections.singletonList(attributeId))
+                                    .map(ValueAttributeUser::getValueAttribute)
+                                    .collectList();
+                    return saved.flatMap(v -> userRepository.markChanged(Collections.singletonList(attr.getUserId()))
+                            .then(profileDocuments.refresh(Collections.singletonList(attr.getUserId())))
+                            .then(current)
+                            .flatMap(values -> changePublisher.publish(new UserChangeEvent(UserChangeEvent.Type.ATTRIBUTE_CHANGED,
+                                    attr.getUserId(), null, null, null, null,
+                                    Collections.singletonMap(attr.getName_attribute(), values))))
+                            .thenReturn(v));
                 });
     }
+
+    /**
+     * Replaces all values of one attribute: one DELETE and one multi-row INSERT in the same transaction.
+     */
+    @Transactional
+    public Mono<Long> replaceValues(Integer attributeId, List<String> values){
+        return replaceValues(Collections.singletonMap(attributeId, values));
+    }
+
+    /**
+     * Replaces the values of several attributes at once: a single {@code DELETE ... WHERE attribute_id IN (...)}
+     * followed by a single multi-row INSERT, regardless of the number of attributes. Returns the rows
+     * deleted plus inserted. Unlike {@link #saveValue} no event is published; the calling user-level
+     * write publishes it.
+     */
+    @Transactional
+    public Mono<Long> replaceValues(Map<Integer, List<String>> valuesByAttribute){
+        if(valuesByAttribute.isEmpty()){
+            return Mono.just(0L);
+        }
+        List<ValueAttributeUser> rows = new ArrayList<>();
+        valuesByAttribute.forEach((attributeId, values) -> {
+            if(values != null){
+                for(String v : values){
+                    ValueAttributeUser row = new ValueAttributeUser(null, attributeId, v);
+                    TypedValues.fill(row);
+                    rows.add(row);
+                }
+            }
+        });
+        return valueAttributeUserRepository.deleteByAttributeIdIn(valuesByAttribute.keySet())
+                .flatMap(deleted -> valueAttributeUserRepository.insertAll(rows).map(inserted -> deleted + inserted));
+    }
+
+    /**
+     * Writes a batch of the write-behind queue (user id -> attribute name -> values) in the current transaction:
+     * the attribute rows still missing, then every value with one {@link #replaceValues(Map)}, one change stamp and one
+     * profile document refresh for all users, and an ATTRIBUTE_CHANGED event per user. The users rows are locked
+     * first; users deleted since the update was queued, and those {@code superseded} once the lock is held (a full
+     * replace committed or still holding the row), are skipped. Returns the value rows deleted plus inserted.
+     */
+    @Transactional
+    public Mono<Long> writeQueued(Map<Integer, Map<String, List<String>>> updates, Predicate<Integer> superseded){
+        if(updates.isEmpty()){
+            return Mono.just(0L);
+        }
+        Map<String, Boolean> multipleByName = new HashMap<>();
+        updates.values().forEach(attributes -> attributes.forEach((name, values) ->
+                multipleByName.merge(name, values.size() > 1, Boolean::logicalOr)));
+        return userRepository.lockUsers(updates.keySet())
+                .collectList()
+                // checked after the lock: a replace of these users either committed before it or has to wait for us
+                .map(locked -> locked.stream().filter(userId -> !superseded.test(userId)).collect(Collectors.toList()))
+                .filter(userIds -> !userIds.isEmpty())
+                .flatMap(userIds -> Flux.fromIterable(multipleByName.entrySet())
+                        .concatMap(e -> attributeCatalog.define(e.getKey(), e.getValue()))
+                        .collectMap(AttributeDefinition::getName, AttributeDefinition::getId)
+                        .flatMap(definitions -> Flux.fromIterable(userIds)
+                                .concatMap(userId -> attributeUserRepository.insertAllIfAbsent(userId, updates.get(userId).keySet().stream()
+                                        .map(definitions::get)
+                                        .toArray(Integer[]::new)))
+                                .then(attributeUserRepository.findByUserIdInAndDefinitionIdIn(userIds, new LinkedHashSet<>(definitions.values()))
+                                        .collectList()))
+                        .flatMap(attributes -> {
+                            Map<Integer, List<String>> replacements = new HashMap<>();
+                            for(AttributeUser attr : attributes){
+                                List<String> values = updates.get(attr.getUserId()).get(attr.getName_attribute());
+                                if(values != null){
+                                    replacements.put(attr.getId(), values);
+                                }
+                            }
+                            return replaceValues(replacements);
+                        })
+                        .flatMap(rows -> userRepository.markChanged(userIds)
+                                .then(profileDocuments.refresh(userIds))
+                                .thenMany(Flux.fromIterable(userIds))
+                                .concatMap(userId -> changePublisher.publish(new UserChangeEvent(UserChangeEvent.Type.ATTRIBUTE_CHANGED,
+                                        userId, null, null, null, null, updates.get(userId))))
+                                .then(Mono.just(rows))))
+                .defaultIfEmpty(0L);
+    }
 }
@@ -0,0 +1,88 @@
+package com.reactive.nexo.sharding;
+
+import reactor.util.context.Context;
+import reactor.util.context.ContextView;
+
+import java.nio.charset.StandardCharsets;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+/**
+ * Reactor context marker naming the shard a query belongs to, by user id, by identification or by shard index.
+ * Apply it with {@code contextWrite} around everything a service method sends to the database; the innermost
+ * marker wins.
+ * <p>
+ * A user lives on the shard chosen by the hash of its identification, and its id comes from that shard's
+ * identity column, which hands out ids in steps of the shard count starting at {@code shard + 1}; so both keys
+ * lead to the same shard without a lookup.
+ */
+public final class ShardKey {
+
+    static final String KEY = ShardKey.class.getName();
+
+    private final Integer userId;
+    private final String identificationType;
+    private final String identificationNumber;
+    private final Integer shard;
+
+    private ShardKey(Integer userId, String identificationType, String identificationNumber, Integer shard) {
+        this.userId = userId;
+        this.identificationType = identificationType;
+        this.identificationNumber = identificationNumber;
+        this.shard = shard;
+    }
+
+    /**
+     * Queries about the user with this id.
+     */
+    public static Function<Context, Context> user(Integer userId) {
+        ShardKey key = new ShardKey(userId, null, null, null);
+        return context -> context.put(KEY, key);
+    }
+
+    /**
+     * Queries about the user with this identification, including the insert that creates it.
+     */
+    public static Function<Context, Context> identification(String identificationType, String identificationNumber) {
+        ShardKey key = new ShardKey(null, identificationType, identificationNumber, null);
+        return context -> context.put(KEY, key);
+    }
+
+    /**
+     * Queries for one shard, e.g. one leg of a scatter-gather.
+     */
+    public static Function<Context, Context> shard(int shard) {
+        ShardKey key = new ShardKey(null, null, null, shard);
+        return context -> context.put(KEY, key);
+    }
+
+    public static int shardOfUser(int userId, int shards) {
+        return Math.floorMod(userId - 1, shards);
+    }
+
+    public static int shardOfIdentification(String identificationType, String identificationNumber, int shards) {
+        // CRC32 rather than String.hashCode: spread well over short numeric strings
+        CRC32 crc = new CRC32();
+        crc.update((identificationType + ':' + identificationNumber).getBytes(StandardCharsets.UTF_8));
+        return (int) (crc.getValue() % shards);
+    }
+
+    static ShardKey from(ContextView context) {
+        return context.getOrDefault(KEY, null);
+    }
+
+    int shardIndex(int shards) {
+        if (shard != null) {
+            return shard;
+        }
+        if (userId != null) {
+            return shardOfUser(userId, shards);
+        }
+        return shardOfIdentification(identificationType, identificationNumber, shards);
+    }
+
+    @Override
+    public String toString() {
+        return shard != null ? "shard " + shard : userId != null ? "user " + userId : "identification " + identificationType + ':' + identificationNumber;
+    }
+}
@@ -0,0 +1,289 @@
+package com.reactive.nexo.sharding;
+
+import io.r2dbc.spi.Batch;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionMetadata;
+import io.r2dbc.spi.IsolationLevel;
+import io.r2dbc.spi.Result;
+import io.r2dbc.spi.Statement;
+import io.r2dbc.spi.TransactionDefinition;
+import io.r2dbc.spi.ValidationDepth;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.context.ContextView;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Connection of a {@link ShardedConnectionFactory}: holds at most one real connection per shard, opened when a
+ * statement for that shard first executes. Settings and the transaction in progress are replayed on every real
+ * connection as it opens.
+ */
+class ShardedConnection implements Connection {
+
+    private static final TransactionDefinition DEFAULT_TRANSACTION = new TransactionDefinition() {
+        @Override
+        public <T> T getAttribute(io.r2dbc.spi.Option<T> option) {
+            return null;
+        }
+    };
+
+    private final ShardedConnectionFactory factory;
+    private final Map<Integer, Mono<Connection>> opened = new ConcurrentHashMap<>();
+    private final List<Function<Connection, Publisher<Void>>> settings = new CopyOnWriteArrayList<>();
+    // non-null from beginTransaction until commit or rollback
+    private volatile TransactionDefinition transaction;
+    private volatile IsolationLevel isolationLevel = IsolationLevel.READ_COMMITTED;
+
+    ShardedConnection(ShardedConnectionFactory factory) {
+        this.factory = factory;
+    }
+
+    @Override
+    public Publisher<Void> beginTransaction() {
+        return beginTransaction(DEFAULT_TRANSACTION);
+    }
+
+    @Override
+    public Publisher<Void> beginTransaction(TransactionDefinition definition) {
+        return Mono.defer(() -> {
+            transaction = definition;
+            return onOpened(connection -> begin(connection, definition));
+        });
+    }
+
+    @Override
+    public Publisher<Void> commitTransaction() {
+        return onOpened(Connection::commitTransaction).doFinally(signal -> transaction = null);
+    }
+
+    @Override
+    public Publisher<Void> rollbackTransaction() {
+        return onOpened(Connection::rollbackTransaction).doFinally(signal -> transaction = null);
+    }
+
+    @Override
+    public Publisher<Void> close() {
+        return Flux.fromIterable(opened.values())
+                .flatMap(connection -> connection.flatMap(c -> Mono.from(c.close())).onErrorResume(e -> Mono.empty()))
+                .then(Mono.fromRunnable(opened::clear));
+    }
+
+    @Override
+    public Batch createBatch() {
+        List<String> sql = new ArrayList<>();
+        return new Batch() {
+            @Override
+            public Batch add(String statement) {
+                sql.add(statement);
+                return this;
+            }
+
+            @Override
+            public Publisher<? extends Result> execute() {
+                return run(String.join("; ", sql), connection -> {
+                    Batch batch = connection.createBatch();
+                    sql.forEach(batch::add);
+                    return batch.execute();
+                });
+            }
+        };
+    }
+
+    @Override
+    public Statement createStatement(String sql) {
+        return new ShardedStatement(sql);
+    }
+
+    @Override
+    public Publisher<Void> createSavepoint(String name) {
+        return onOpened(connection -> connection.createSavepoint(name));
+    }
+
+    @Override
+    public Publisher<Void> releaseSavepoint(String name) {
+        return onOpened(connection -> connection.releaseSavepoint(name));
+    }
+
+    @Override
+    public Publisher<Void> rollbackTransactionToSavepoint(String name) {
+        return onOpened(connection -> connection.rollbackTransactionToSavepoint(name));
+    }
+
+    @Override
+    public boolean isAutoCommit() {
+        return transaction == null;
+    }
+
+    @Override
+    public Publisher<Void> setAutoCommit(boolean autoCommit) {
+        return configure(connection -> connection.setAutoCommit(autoCommit));
+    }
+
+    @Override
+    public ConnectionMetadata getMetadata() {
+        return new ConnectionMetadata() {
+            @Override
+            public String getDatabaseProductName() {
+                return factory.getMetadata().getName();
+            }
+
+            @Override
+            public String getDatabaseVersion() {
+                return "sharded";
+            }
+        };
+    }
+
+    @Override
+    public IsolationLevel getTransactionIsolationLevel() {
+        return isolationLevel;
+    }
+
+    @Override
+    public Publisher<Void> setTransactionIsolationLevel(IsolationLevel isolationLevel) {
+        this.isolationLevel = isolationLevel;
+        return configure(connection -> connection.setTransactionIsolationLevel(isolationLevel));
+    }
+
+    @Override
+    public Publisher<Void> setLockWaitTimeout(Duration timeout) {
+        return configure(connection -> connection.setLockWaitTimeout(timeout));
+    }
+
+    @Override
+    public Publisher<Void> setStatementTimeout(Duration timeout) {
+        return configure(connection -> connection.setStatementTimeout(timeout));
+    }
+
+    @Override
+    public Publisher<Boolean> validate(ValidationDepth depth) {
+        return Flux.range(0, factory.shardCount())
+                .concatMap(shard -> connection(shard).flatMap(connection -> Mono.from(connection.validate(depth))))
+                .all(valid -> valid)
+                .onErrorReturn(false);
+    }
+
+    private Flux<Result> run(String sql, Function<Connection, Publisher<? extends Result>> execution) {
+        return Flux.deferContextual(context -> connection(shardOf(context, sql))
+                .flatMapMany(connection -> Flux.<Result>from(execution.apply(connection))));
+    }
+
+    private int shardOf(ContextView context, String sql) {
+        ShardKey key = ShardKey.from(context);
+        if (key == null) {
+            throw new IllegalStateException("No shard key for statement: " + sql);
+        }
+        int shard = key.shardIndex(factory.shardCount());
+        factory.executed(shard);
+        return shard;
+    }
+
+    private Mono<Connection> connection(int shard) {
+        Mono<Connection> connection = opened.get(shard);
+        if (connection != null) {
+            return connection;
+        }
+        synchronized (opened) {
+            TransactionDefinition definition = transaction;
+            if (definition != null && !opened.isEmpty() && !opened.containsKey(shard)
+                    && !Boolean.TRUE.equals(definition.getAttribute(TransactionDefinition.READ_ONLY))) {
+                return Mono.error(new IllegalStateException("A read-write transaction cannot span shards: shard "
+                        + opened.keySet().iterator().next() + " is already in it, shard " + shard + " requested"));
+            }
+            return opened.computeIfAbsent(shard, s -> factory.open(s)
+                    .flatMap(opening -> Flux.fromIterable(settings)
+                            .concatMap(setting -> setting.apply(opening))
+                            .then(definition != null ? begin(opening, definition) : Mono.empty())
+                            .thenReturn(opening))
+                    .cache());
+        }
+    }
+
+    private static Mono<Void> begin(Connection connection, TransactionDefinition definition) {
+        return Mono.from(definition == DEFAULT_TRANSACTION ? connection.beginTransaction() : connection.beginTransaction(definition));
+    }
+
+    private Mono<Void> configure(Function<Connection, Publisher<Void>> setting) {
+        return Mono.defer(() -> {
+            settings.add(setting);
+            return onOpened(setting);
+        });
+    }
+
+    // connections already open; the ones opened later get the setting or transaction when they open
+    private Mono<Void> onOpened(Function<Connection, Publisher<Void>> action) {
+        return Flux.fromIterable(opened.values())
+                .concatMap(connection -> connection.flatMap(c -> Mono.from(action.apply(c))))
+                .then();
+    }
+
+    private final class ShardedStatement implements Statement {
+
+        private final String sql;
+        private final List<Consumer<Statement>> bindings = new ArrayList<>();
+
+        ShardedStatement(String sql) {
+            this.sql = sql;
+        }
+
+        @Override
+        public Statement add() {
+            bindings.add(Statement::add);
+            return this;
+        }
+
+        @Override
+        public Statement bind(int index, Object value) {
+            bindings.add(statement -> statement.bind(index, value));
+            return this;
+        }
+
+        @Override
+        public Statement bind(String name, Object value) {
+            bindings.add(statement -> statement.bind(name, value));
+            return this;
+        }
+
+        @Override
+        public Statement bindNull(int index, Class<?> type) {
+            bindings.add(statement -> statement.bindNull(index, type));
+            return this;
+        }
+
+        @Override
+        public Statement bindNull(String name, Class<?> type) {
+            bindings.add(statement -> statement.bindNull(name, type));
+            return this;
+        }
+
+        @Override
+        public Statement returnGeneratedValues(String... columns) {
+            bindings.add(statement -> statement.returnGeneratedValues(columns));
+            return this;
+        }
+
+        @Override
+        public Statement fetchSize(int rows) {
+            bindings.add(statement -> statement.fetchSize(rows));
+            return this;
+        }
+
+        @Override
+        public Publisher<? extends Result> execute() {
+            return run(sql, connection -> {
+                Statement statement = connection.createStatement(sql);
+                bindings.forEach(binding -> binding.accept(statement));
+                return statement.execute();
+            });
+        }
+    }
+}
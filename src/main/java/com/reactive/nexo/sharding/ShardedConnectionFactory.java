@@ -0,0 +1,101 @@
+package com.reactive.nexo.sharding;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryMetadata;
+import io.r2dbc.spi.Wrapped;
+import org.reactivestreams.Publisher;
+import org.springframework.r2dbc.connection.init.DatabasePopulator;
+import org.springframework.r2dbc.core.DatabaseClient;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One {@link ConnectionFactory} over the user shards. Its connections are lazy: each statement runs on the shard
+ * named by the {@link ShardKey} in its subscriber context, on a connection to that shard opened on first use.
+ * <p>
+ * Transactions are begun on a shard when the transaction first touches it. A read-write transaction must stay on
+ * one shard (a statement for a second shard fails with {@link IllegalStateException}: there is no two-phase
+ * commit); a read-only transaction may read several shards and commits each of them. Statements without a shard
+ * key fail the same way, so a query that was not routed never lands on an arbitrary shard.
+ * <p>
+ * Shard 0 is the home shard: {@link #unwrap()} returns it for database features that are not about users
+ * (LISTEN/NOTIFY). Metric: {@code nexo.sharding.statements} (by {@code shard}).
+ */
+public class ShardedConnectionFactory implements ConnectionFactory, Wrapped<ConnectionFactory>, AutoCloseable {
+
+    private final List<ConnectionFactory> shards;
+    private final List<Counter> statements = new ArrayList<>();
+
+    public ShardedConnectionFactory(List<ConnectionFactory> shards, MeterRegistry meterRegistry) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+        this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+        for (int i = 0; i < shards.size(); i++) {
+            statements.add(meterRegistry.counter("nexo.sharding.statements", "shard", String.valueOf(i)));
+        }
+    }
+
+    public List<ConnectionFactory> getShards() {
+        return shards;
+    }
+
+    @Override
+    public Publisher<? extends Connection> create() {
+        return Mono.fromSupplier(() -> new ShardedConnection(this));
+    }
+
+    @Override
+    public ConnectionFactoryMetadata getMetadata() {
+        return shards.get(0).getMetadata();
+    }
+
+    @Override
+    public ConnectionFactory unwrap() {
+        return shards.get(0);
+    }
+
+    @Override
+    public void close() {
+        shards.forEach(shard -> {
+            if (shard instanceof Disposable disposable) {
+                disposable.dispose();
+            }
+        });
+    }
+
+    /**
+     * Runs {@code schema} on every shard, then makes each shard's users.id identity hand out
+     * {@code shard + 1, shard + 1 + n, ...} for n shards, which is what {@link ShardKey#shardOfUser} relies on.
+     */
+    public DatabasePopulator eachShard(DatabasePopulator schema) {
+        return connectionFactory -> Flux.range(0, shards.size())
+                .concatMap(shard -> {
+                    DatabaseClient client = DatabaseClient.create(shards.get(shard));
+                    return schema.populate(shards.get(shard))
+                            .then(client.sql("ALTER TABLE users ALTER COLUMN id SET INCREMENT BY " + shards.size()).then())
+                            .then(client.sql("ALTER TABLE users ALTER COLUMN id RESTART WITH " + (shard + 1)).then());
+                })
+                .then();
+    }
+
+    Mono<Connection> open(int shard) {
+        return Mono.from(shards.get(shard).create());
+    }
+
+    int shardCount() {
+        return shards.size();
+    }
+
+    void executed(int shard) {
+        statements.get(shard).increment();
+    }
+}
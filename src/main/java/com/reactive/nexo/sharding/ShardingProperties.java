@@ -0,0 +1,27 @@
+package com.reactive.nexo.sharding;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@code nexo.sharding.*}: the databases users are spread over, in shard order. The order is part of the data
+ * layout (it decides where each identification and id lives) and must not change once users are stored. Each
+ * shard gets a pool of {@code spring.r2dbc.pool.max-size} connections; username and password default to
+ * {@code spring.r2dbc}'s.
+ */
+@Data
+@ConfigurationProperties(prefix = "nexo.sharding")
+public class ShardingProperties {
+
+    private List<Shard> shards = new ArrayList<>();
+
+    @Data
+    public static class Shard {
+        private String url;
+        private String username;
+        private String password;
+    }
+}
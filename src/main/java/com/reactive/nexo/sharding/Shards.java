@@ -0,0 +1,176 @@
+package com.reactive.nexo.sharding;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.r2dbc.spi.ConnectionFactory;
+import org.reactivestreams.Publisher;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * Scatter-gather over the user shards for the services. Each leg runs the same query under
+ * {@link ShardKey#shard}; ordered queries are combined with a k-way merge, so a page across shards costs one
+ * page per shard and no sort. Without sharding ({@code nexo.sharding.shards} unset) there is a single shard and
+ * every helper runs the query exactly as given.
+ * <p>
+ * Metric: {@code nexo.sharding.scatter}, queries sent to every shard.
+ */
+@Component
+public class Shards {
+
+    private final int count;
+    // straight to each shard, outside any transaction: the attribute catalog writes through these
+    private final List<DatabaseClient> clients;
+    private final Counter scatters;
+
+    public Shards(ConnectionFactory connectionFactory, MeterRegistry meterRegistry) {
+        if (connectionFactory instanceof ShardedConnectionFactory sharded) {
+            this.count = sharded.getShards().size();
+            List<DatabaseClient> direct = new ArrayList<>();
+            sharded.getShards().forEach(shard -> direct.add(DatabaseClient.create(shard)));
+            this.clients = Collections.unmodifiableList(direct);
+        } else {
+            this.count = 1;
+            this.clients = Collections.emptyList();
+        }
+        this.scatters = meterRegistry.counter("nexo.sharding.scatter");
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public boolean isSharded() {
+        return !clients.isEmpty();
+    }
+
+    /**
+     * Clients bound to each shard's own pool, in shard order; empty without sharding.
+     */
+    public List<DatabaseClient> getClients() {
+        return clients;
+    }
+
+    public int shardOfUser(int userId) {
+        return ShardKey.shardOfUser(userId, count);
+    }
+
+    public int shardOfIdentification(String identificationType, String identificationNumber) {
+        return ShardKey.shardOfIdentification(identificationType, identificationNumber, count);
+    }
+
+    /**
+     * The query on every shard, results in no particular order.
+     */
+    public <T> Flux<T> merge(Supplier<? extends Publisher<T>> query) {
+        if (!isSharded()) {
+            return Flux.from(query.get());
+        }
+        scatters.increment();
+        List<Publisher<T>> legs = new ArrayList<>(count);
+        for (int shard = 0; shard < count; shard++) {
+            legs.add(Flux.defer(query).contextWrite(ShardKey.shard(shard)));
+        }
+        return Flux.merge(legs);
+    }
+
+    /**
+     * The query on every shard, each leg sorted by {@code order}, merged into one sorted stream. Legs are read
+     * only as far as the merge needs, so a downstream {@code take} bounds the rows read from each shard.
+     */
+    public <T> Flux<T> mergeOrdered(Comparator<? super T> order, Supplier<? extends Publisher<T>> query) {
+        if (!isSharded()) {
+            return Flux.from(query.get());
+        }
+        scatters.increment();
+        List<Publisher<T>> legs = new ArrayList<>(count);
+        for (int shard = 0; shard < count; shard++) {
+            legs.add(Flux.defer(query).contextWrite(ShardKey.shard(shard)));
+        }
+        return Flux.mergeComparing(order, legs.toArray(new Publisher[0]));
+    }
+
+    /**
+     * Offset page over every shard: rows {@code offset .. offset + limit} of the merged order. Each shard is asked
+     * for its first {@code offset + limit} rows (query arguments: limit, offset), so deep pages cost more; prefer
+     * keyset pagination. Without sharding the query gets the offset directly.
+     */
+    public <T> Flux<T> mergeOrderedPage(Comparator<? super T> order, int offset, int limit,
+                                        PageQuery<T> query) {
+        if (!isSharded()) {
+            return Flux.from(query.page(limit, offset));
+        }
+        return mergeOrdered(order, () -> query.page(offset + limit, 0)).skip(offset).take(limit);
+    }
+
+    /**
+     * Sum of a count over every shard.
+     */
+    public Mono<Long> sum(Supplier<? extends Publisher<Long>> count) {
+        return merge(count).reduce(0L, Long::sum);
+    }
+
+    /**
+     * Runs {@code work} once per shard with the items of that shard and returns every result in the order of
+     * {@code items}; {@code work} must answer its items in the order it got them. Without sharding it gets all items.
+     */
+    public <T, R> Mono<List<R>> perShard(List<T> items, ToIntFunction<T> userId, Function<List<T>, Mono<List<R>>> work) {
+        if (!isSharded()) {
+            return work.apply(items);
+        }
+        Map<Integer, List<Integer>> positions = new TreeMap<>();
+        Map<Integer, List<T>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < items.size(); i++) {
+            int shard = shardOfUser(userId.applyAsInt(items.get(i)));
+            positions.computeIfAbsent(shard, s -> new ArrayList<>()).add(i);
+            groups.computeIfAbsent(shard, s -> new ArrayList<>()).add(items.get(i));
+        }
+        return Flux.fromIterable(positions.keySet())
+                .concatMap(shard -> work.apply(groups.get(shard))
+                        .contextWrite(ShardKey.shard(shard))
+                        .map(results -> Map.entry(shard, results)))
+                .collectMap(Map.Entry::getKey, Map.Entry::getValue)
+                .map(resultsByShard -> {
+                    List<R> ordered = new ArrayList<>(Collections.nCopies(items.size(), null));
+                    resultsByShard.forEach((shard, results) -> {
+                        List<Integer> at = positions.get(shard);
+                        for (int i = 0; i < results.size(); i++) {
+                            ordered.set(at.get(i), results.get(i));
+                        }
+                    });
+                    return ordered;
+                });
+    }
+
+    /**
+     * Runs {@code query} once per shard with the ids that live there; results in no particular order.
+     */
+    public <T> Flux<T> byUserIds(Collection<Integer> userIds, Function<List<Integer>, ? extends Publisher<T>> query) {
+        if (!isSharded()) {
+            return Flux.from(query.apply(new ArrayList<>(userIds)));
+        }
+        Map<Integer, List<Integer>> groups = new TreeMap<>();
+        userIds.forEach(id -> groups.computeIfAbsent(shardOfUser(id), s -> new ArrayList<>()).add(id));
+        return Flux.fromIterable(groups.entrySet())
+                .concatMap(group -> Flux.from(query.apply(group.getValue())).contextWrite(ShardKey.shard(group.getKey())));
+    }
+
+    @FunctionalInterface
+    public interface PageQuery<T> {
+        Publisher<T> page(int limit, int offset);
+    }
+}
@@ -0,0 +1,126 @@
+package com.reactive.nexo.snapshot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Sequential RFC 4180 CSV writer over a {@link FileChannel}.
+ * <p>
+ * Fields are UTF-8 encoded straight into one direct buffer that is handed to the channel whenever it fills,
+ * so the file is written in large sequential chunks without intermediate byte arrays. Fields containing the
+ * delimiter, quotes or line breaks are quoted; null is written as an empty field. Not thread safe.
+ */
+public final class CsvChunkWriter implements Closeable {
+
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    // lone surrogates become '?' instead of failing the whole export
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final char delimiter;
+    private long written;
+
+    public CsvChunkWriter(Path file, int bufferSize, char delimiter) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        this.buffer = ByteBuffer.allocateDirect(Math.max(64, bufferSize));
+        this.delimiter = delimiter;
+    }
+
+    public void writeRecord(String[] fields) throws IOException {
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                put((byte) delimiter);
+            }
+            writeField(fields[i]);
+        }
+        put((byte) '\n');
+    }
+
+    /**
+     * Bytes handed to the channel so far plus the ones still buffered.
+     */
+    public long bytesWritten() {
+        return written + buffer.position();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void writeField(String field) throws IOException {
+        if (field == null || field.isEmpty()) {
+            return;
+        }
+        if (!needsQuotes(field)) {
+            encode(field);
+            return;
+        }
+        put((byte) '"');
+        int start = 0;
+        for (int quote = field.indexOf('"'); quote >= 0; quote = field.indexOf('"', start)) {
+            encode(field.subSequence(start, quote + 1));
+            put((byte) '"');
+            start = quote + 1;
+        }
+        encode(field.subSequence(start, field.length()));
+        put((byte) '"');
+    }
+
+    private boolean needsQuotes(String field) {
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == delimiter || c == '"' || c == '\n' || c == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void encode(CharSequence text) throws IOException {
+        CharBuffer chars = CharBuffer.wrap(text);
+        encoder.reset();
+        CoderResult result;
+        while ((result = encoder.encode(chars, buffer, true)).isOverflow()) {
+            flush();
+        }
+        if (result.isError()) {
+            result.throwException();
+        }
+        while (encoder.flush(buffer).isOverflow()) {
+            flush();
+        }
+    }
+
+    private void put(byte b) throws IOException {
+        if (!buffer.hasRemaining()) {
+            flush();
+        }
+        buffer.put(b);
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
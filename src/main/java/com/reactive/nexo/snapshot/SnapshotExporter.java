@@ -0,0 +1,175 @@
+package com.reactive.nexo.snapshot;
+
+import com.reactive.nexo.dto.UserAttributeRow;
+import com.reactive.nexo.repository.UserRepository;
+import com.reactive.nexo.sharding.Shards;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Wide snapshot of every user for analytics: one row per user and one column per attribute name.
+ * <p>
+ * The column set is the attribute catalog ({@link UserRepository#findAllAttributeNames()}) read when the
+ * export starts; the rows come from the same single-cursor profile stream as the NDJSON export and are pivoted
+ * user by user, so memory does not depend on the number of users. Several values of one attribute are joined
+ * with {@value #VALUE_SEPARATOR}, the separator the CSV import understands. The file is written through
+ * {@link CsvChunkWriter} into a temporary file and renamed when complete, so readers never see a partial
+ * snapshot. Runs on {@code nexo.snapshot.cron} (disabled by default) or on demand via {@link #export()}.
+ */
+@Component
+@Slf4j
+public class SnapshotExporter {
+
+    static final String VALUE_SEPARATOR = "|";
+    private static final String[] USER_COLUMNS = {"id", "names", "lastnames", "identification_type", "identification_number"};
+    private static final DateTimeFormatter FILE_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    private final UserRepository userRepository;
+    private final Shards shards;
+    private final Path directory;
+    private final int fetchSize;
+    private final int bufferSize;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    public SnapshotExporter(UserRepository userRepository,
+                            Shards shards,
+                            @Value("${nexo.snapshot.directory:snapshots}") String directory,
+                            @Value("${nexo.export.fetch-size:1000}") int fetchSize,
+                            @Value("${nexo.snapshot.buffer-size:" + CsvChunkWriter.DEFAULT_BUFFER_SIZE + "}") int bufferSize) {
+        this.userRepository = userRepository;
+        this.shards = shards;
+        this.directory = Paths.get(directory);
+        this.fetchSize = Math.max(1, fetchSize);
+        this.bufferSize = bufferSize;
+    }
+
+    @Scheduled(cron = "${nexo.snapshot.cron:-}")
+    public void scheduledExport() {
+        export().block();
+    }
+
+    /**
+     * Writes a new {@code users-<timestamp>.csv} snapshot; at most one export runs at a time.
+     */
+    public Mono<SnapshotResult> export() {
+        return Mono.defer(() -> running.compareAndSet(false, true)
+                ? exportNow()
+                : Mono.error(new IllegalStateException("A snapshot export is already running")));
+    }
+
+    private Mono<SnapshotResult> exportNow() {
+        return shards.mergeOrdered(Comparator.<String>naturalOrder(), userRepository::findAllAttributeNames)
+                .distinctUntilChanged()
+                .collectList()
+                .publishOn(Schedulers.boundedElastic())
+                .flatMap(this::write)
+                .doOnSuccess(result -> log.info("Snapshot {}: {} users, {} columns, {} bytes in {} ms ({} users/s)",
+                        result.getFile(), result.getUsers(), result.getColumns(), result.getBytes(),
+                        result.getElapsedMillis(), Math.round(result.usersPerSecond())))
+                .doOnError(e -> log.error("Snapshot export failed", e))
+                .doFinally(signal -> running.set(false));
+    }
+
+    private Mono<SnapshotResult> write(List<String> attributeNames) {
+        long start = System.nanoTime();
+        Path target = directory.resolve("users-" + LocalDateTime.now().format(FILE_TIMESTAMP) + ".csv");
+        Path tmp = directory.resolve(target.getFileName() + ".tmp");
+        int width = USER_COLUMNS.length + attributeNames.size();
+        Map<String, Integer> columnOf = new HashMap<>();
+        String[] header = new String[width];
+        System.arraycopy(USER_COLUMNS, 0, header, 0, USER_COLUMNS.length);
+        for (int i = 0; i < attributeNames.size(); i++) {
+            header[USER_COLUMNS.length + i] = attributeNames.get(i);
+            columnOf.put(attributeNames.get(i), USER_COLUMNS.length + i);
+        }
+        AtomicLong unknown = new AtomicLong();
+        return Mono.using(() -> {
+                    Files.createDirectories(directory);
+                    CsvChunkWriter writer = new CsvChunkWriter(tmp, bufferSize, ',');
+                    writer.writeRecord(header);
+                    return writer;
+                },
+                writer -> shards.mergeOrdered(Comparator.comparing(UserAttributeRow::getId),
+                                () -> userRepository.streamProfileRows(0, null, fetchSize))
+                        .bufferUntilChanged(UserAttributeRow::getId)
+                        // file writes stay off the driver's event loop; the queue bounds the rows in memory
+                        .publishOn(Schedulers.boundedElastic(), 256)
+                        .doOnNext(rows -> {
+                            try {
+                                writer.writeRecord(pivot(rows, columnOf, width, unknown));
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        })
+                        .count()
+                        .map(users -> new SnapshotResult(target, users, width, writer.bytesWritten(), 0)),
+                writer -> {
+                    try {
+                        writer.close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                })
+                .map(result -> {
+                    try {
+                        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    if (unknown.get() > 0) {
+                        log.warn("Snapshot {}: {} values of attributes created during the export were left out", target, unknown.get());
+                    }
+                    result.setElapsedMillis((System.nanoTime() - start) / 1_000_000);
+                    return result;
+                })
+                .doOnError(e -> {
+                    try {
+                        Files.deleteIfExists(tmp);
+                    } catch (IOException ignored) {
+                        // best effort
+                    }
+                });
+    }
+
+    private static String[] pivot(List<UserAttributeRow> rows, Map<String, Integer> columnOf, int width, AtomicLong unknown) {
+        UserAttributeRow user = rows.get(0);
+        String[] record = new String[width];
+        record[0] = String.valueOf(user.getId());
+        record[1] = user.getNames();
+        record[2] = user.getLastnames();
+        record[3] = user.getIdentificationType();
+        record[4] = user.getIdentificationNumber();
+        for (UserAttributeRow row : rows) {
+            if (row.getNameAttribute() == null || row.getValueAttribute() == null) {
+                continue;
+            }
+            Integer column = columnOf.get(row.getNameAttribute());
+            if (column == null) {
+                unknown.incrementAndGet();
+            } else {
+                record[column] = record[column] == null ? row.getValueAttribute()
+                        : record[column] + VALUE_SEPARATOR + row.getValueAttribute();
+            }
+        }
+        return record;
+    }
+}
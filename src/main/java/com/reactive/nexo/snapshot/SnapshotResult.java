@@ -0,0 +1,23 @@
+package com.reactive.nexo.snapshot;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.nio.file.Path;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class SnapshotResult {
+    private Path file;
+    private long users;
+    // user columns plus one per attribute name
+    private int columns;
+    private long bytes;
+    private long elapsedMillis;
+
+    public double usersPerSecond() {
+        return elapsedMillis == 0 ? users : users * 1000.0 / elapsedMillis;
+    }
+}
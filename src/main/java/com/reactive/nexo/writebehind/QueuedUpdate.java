@@ -0,0 +1,30 @@
+package com.reactive.nexo.writebehind;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * One journal record of the write-behind queue: the new values of one attribute of one user, or, with a null
+ * {@code attribute}, the discard of everything still queued for the user.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class QueuedUpdate {
+    private Integer userId;
+    private String attribute;
+    private List<String> values;
+
+    public static QueuedUpdate discard(Integer userId) {
+        return new QueuedUpdate(userId, null, null);
+    }
+
+    @JsonIgnore
+    public boolean isDiscard() {
+        return attribute == null;
+    }
+}
@@ -0,0 +1,171 @@
+package com.reactive.nexo.writebehind;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Append-only local journal backing the write-behind queue, one JSON {@link QueuedUpdate} per line.
+ * <p>
+ * The journal is a sequence of segment files ({@code write-behind-<n>.log}). {@link #roll} seals the current segment
+ * when the queue takes a batch, and {@link #deleteThrough} removes the sealed segments once that batch is committed,
+ * so after a crash {@link #replay} returns exactly the updates that were acknowledged but not yet flushed. A torn last
+ * line (crash mid-append) is skipped. Updates the queue gave up on are appended to {@code write-behind-parked.log},
+ * which is never replayed. Not thread-safe: the queue serializes all calls.
+ */
+@Slf4j
+public class WriteBehindJournal implements AutoCloseable {
+
+    private static final String PREFIX = "write-behind-";
+    private static final String SUFFIX = ".log";
+    private static final String PARKED = PREFIX + "parked" + SUFFIX;
+
+    private final Path directory;
+    private final ObjectMapper objectMapper;
+    private final boolean fsync;
+    private long sequence;
+    private FileChannel current;
+
+    public WriteBehindJournal(Path directory, ObjectMapper objectMapper, boolean fsync) {
+        this.directory = directory;
+        this.objectMapper = objectMapper;
+        this.fsync = fsync;
+    }
+
+    /**
+     * Reads every segment left by a previous run, in order, and opens a new segment for appends.
+     */
+    public List<QueuedUpdate> replay() {
+        try {
+            Files.createDirectories(directory);
+            List<QueuedUpdate> updates = new ArrayList<>();
+            for (Path segment : segments()) {
+                sequence = Math.max(sequence, sequenceOf(segment));
+                for (String line : Files.readAllLines(segment, StandardCharsets.UTF_8)) {
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    try {
+                        updates.add(objectMapper.readValue(line, QueuedUpdate.class));
+                    } catch (JsonProcessingException e) {
+                        log.warn("Skipping unreadable write-behind journal line in {}", segment.getFileName());
+                    }
+                }
+            }
+            open(sequence + 1);
+            return updates;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read the write-behind journal in " + directory, e);
+        }
+    }
+
+    /**
+     * Appends the records to the current segment; durable on return when {@code fsync} is set.
+     */
+    public void append(List<QueuedUpdate> updates) {
+        try {
+            write(current, updates);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot append to the write-behind journal", e);
+        }
+    }
+
+    /**
+     * Appends updates that could not be written to the parked file, kept for manual replay.
+     */
+    public void park(List<QueuedUpdate> updates) {
+        try (FileChannel parked = FileChannel.open(directory.resolve(PARKED),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            write(parked, updates);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot append to the parked write-behind updates", e);
+        }
+    }
+
+    /**
+     * Seals the current segment and starts a new one; returns the sequence of the sealed segment.
+     */
+    public long roll() {
+        long sealed = sequence;
+        try {
+            current.close();
+            open(sealed + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot roll the write-behind journal", e);
+        }
+        return sealed;
+    }
+
+    /**
+     * Deletes the sealed segments up to {@code sealed}, whose updates are now in the database.
+     */
+    public void deleteThrough(long sealed) {
+        try {
+            for (Path segment : segments()) {
+                if (sequenceOf(segment) <= sealed) {
+                    Files.deleteIfExists(segment);
+                }
+            }
+        } catch (IOException e) {
+            // left behind segments are only replayed again, which rewrites the same values
+            log.warn("Cannot delete flushed write-behind journal segments", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (current != null) {
+                current.close();
+            }
+        } catch (IOException e) {
+            log.warn("Cannot close the write-behind journal", e);
+        }
+    }
+
+    private void write(FileChannel channel, List<QueuedUpdate> updates) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (QueuedUpdate update : updates) {
+            lines.append(objectMapper.writeValueAsString(update)).append('\n');
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        if (fsync) {
+            channel.force(false);
+        }
+    }
+
+    private void open(long next) throws IOException {
+        sequence = next;
+        current = FileChannel.open(directory.resolve(PREFIX + next + SUFFIX),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().matches(PREFIX + "\\d+\\" + SUFFIX))
+                    .sorted((a, b) -> Long.compare(sequenceOf(a), sequenceOf(b)))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static long sequenceOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+}
@@ -0,0 +1,444 @@
+package com.reactive.nexo.writebehind;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.reactive.nexo.service.ValueAttributeService;
+import com.reactive.nexo.sharding.ShardKey;
+import com.reactive.nexo.sharding.Shards;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import io.r2dbc.spi.R2dbcNonTransientResourceException;
+import io.r2dbc.spi.R2dbcTransientException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Write-behind for high-frequency attributes ({@code nexo.write-behind.attributes}), opt-in with
+ * {@code nexo.write-behind.enabled}.
+ * <p>
+ * {@link #enqueue} acknowledges an update once it is appended to the local {@link WriteBehindJournal}; pending updates
+ * are coalesced per user and attribute (last write wins) and written by
+ * {@link ValueAttributeService#writeQueued} in one transaction per shard and {@code max-batch} users, when
+ * {@code max-batch} updates are pending or every {@code flush-interval}. Only the transactions that failed are put
+ * back, unless newer updates arrived, and journaled again; the sealed journal segments are deleted once every update
+ * of the batch is committed or journaled again, so a crash replays exactly what was not written. A transaction that
+ * fails with anything but an unavailable database is retried user by user, and a user whose updates fail
+ * {@code max-attempts} flushes in a row is parked ({@link WriteBehindJournal#park}) instead of blocking every flush.
+ * <p>
+ * {@link #discard} also covers users of the batch being written: the flush locks the users rows before writing and
+ * then skips users discarded meanwhile, and a full replace locks the row before it discards, so whichever commits
+ * last is the replace. {@link #stop} flushes what is left on shutdown. Reads see a queued value once it is flushed.
+ * <p>
+ * Metrics: {@code nexo.writebehind.queue.depth}, {@code nexo.writebehind.updates} ({@code result=queued|coalesced}),
+ * {@code nexo.writebehind.flush} ({@code result=ok|error}) and {@code nexo.writebehind.parked}.
+ */
+@Component
+@Slf4j
+public class WriteBehindQueue {
+
+    private final ValueAttributeService valueAttributeService;
+    private final Shards shards;
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final Set<String> attributes;
+    private final WriteBehindJournal journal;
+    private final int maxBatch;
+    private final Duration flushInterval;
+    private final Duration shutdownTimeout;
+    private final int maxAttempts;
+    private final Counter queued;
+    private final Counter coalesced;
+    private final Counter parked;
+    // userId -> attribute -> values, guarded by itself together with the journal
+    private Map<Integer, Map<String, List<String>>> pending = new LinkedHashMap<>();
+    // users of the batch being written, and those of them discarded since it was taken
+    private final Set<Integer> inFlight = ConcurrentHashMap.newKeySet();
+    private final Set<Integer> superseded = ConcurrentHashMap.newKeySet();
+    // consecutive failed flushes per user, only touched by the flush holding the semaphore
+    private final Map<Integer, Integer> attempts = new ConcurrentHashMap<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final Semaphore flushing = new Semaphore(1);
+    private Disposable ticker;
+
+    public WriteBehindQueue(ValueAttributeService valueAttributeService,
+                            Shards shards,
+                            ObjectMapper objectMapper,
+                            MeterRegistry meterRegistry,
+                            @Value("${nexo.write-behind.enabled:false}") boolean enabled,
+                            @Value("${nexo.write-behind.attributes:}") List<String> attributes,
+                            @Value("${nexo.write-behind.journal:write-behind}") String journal,
+                            @Value("${nexo.write-behind.fsync:true}") boolean fsync,
+                            @Value("${nexo.write-behind.max-batch:500}") int maxBatch,
+                            @Value("${nexo.write-behind.flush-interval:1s}") Duration flushInterval,
+                            @Value("${nexo.write-behind.shutdown-timeout:30s}") Duration shutdownTimeout,
+                            @Value("${nexo.write-behind.max-attempts:3}") int maxAttempts) {
+        this.valueAttributeService = valueAttributeService;
+        this.shards = shards;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.attributes = attributes.stream().map(String::trim).filter(name -> !name.isEmpty()).collect(Collectors.toSet());
+        this.journal = new WriteBehindJournal(Path.of(journal), objectMapper, fsync);
+        this.maxBatch = Math.max(1, maxBatch);
+        this.flushInterval = flushInterval;
+        this.shutdownTimeout = shutdownTimeout;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.queued = meterRegistry.counter("nexo.writebehind.updates", "result", "queued");
+        this.coalesced = meterRegistry.counter("nexo.writebehind.updates", "result", "coalesced");
+        this.parked = meterRegistry.counter("nexo.writebehind.parked");
+        meterRegistry.gauge("nexo.writebehind.queue.depth", depth);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!isEnabled()) {
+            return;
+        }
+        List<QueuedUpdate> replayed = journal.replay();
+        synchronized (this) {
+            replayed.forEach(this::apply);
+        }
+        if (!replayed.isEmpty()) {
+            log.info("Write-behind: {} journaled updates replayed, {} pending", replayed.size(), depth.get());
+        }
+        ticker = Flux.interval(flushInterval).subscribe(tick -> trigger());
+    }
+
+    /**
+     * Stops the timer and writes everything still queued, waiting for a flush already running.
+     */
+    @PreDestroy
+    public void stop() {
+        if (ticker == null) {
+            return;
+        }
+        ticker.dispose();
+        try {
+            if (!flushing.tryAcquire(shutdownTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                log.warn("Write-behind: a flush is still running at shutdown; {} updates stay in the journal", depth.get());
+                return;
+            }
+            try {
+                flushBatch().block(shutdownTimeout);
+            } finally {
+                flushing.release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            log.error("Write-behind: final flush failed; {} updates stay in the journal", depth.get(), e);
+        } finally {
+            synchronized (this) {
+                journal.close();
+            }
+        }
+    }
+
+    /**
+     * True when the write-behind is enabled and has at least one attribute.
+     */
+    public boolean isEnabled() {
+        return enabled && !attributes.isEmpty();
+    }
+
+    /**
+     * The requested attributes that go through the queue; empty when disabled.
+     */
+    public Map<String, List<String>> select(Map<String, List<String>> requested) {
+        if (!isEnabled() || requested == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, List<String>> selected = new LinkedHashMap<>();
+        requested.forEach((name, values) -> {
+            if (attributes.contains(name)) {
+                selected.put(name, values == null ? Collections.emptyList() : values);
+            }
+        });
+        return selected;
+    }
+
+    /**
+     * Journals the new values of the user's attributes; completes once they are durable.
+     */
+    public Mono<Void> enqueue(Integer userId, Map<String, List<String>> values) {
+        if (values.isEmpty()) {
+            return Mono.empty();
+        }
+        List<QueuedUpdate> updates = new ArrayList<>();
+        values.forEach((name, list) -> updates.add(new QueuedUpdate(userId, name, new ArrayList<>(list))));
+        return journaled(updates);
+    }
+
+    /**
+     * Drops whatever is queued for the user, e.g. after a full replace wrote its attributes directly. The caller must
+     * hold the user's row lock, so a flush of the user either committed before or skips it.
+     */
+    public Mono<Void> discard(Integer userId) {
+        if (!isEnabled()) {
+            return Mono.empty();
+        }
+        return Mono.defer(() -> {
+            synchronized (this) {
+                if (!pending.containsKey(userId) && !inFlight.contains(userId)) {
+                    return Mono.<Void>empty();
+                }
+            }
+            return journaled(Collections.singletonList(QueuedUpdate.discard(userId)));
+        });
+    }
+
+    /**
+     * Writes the pending updates now; emits the number of updates written.
+     */
+    public Mono<Integer> flush() {
+        return Mono.fromCallable(() -> {
+                    flushing.acquire();
+                    return true;
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(acquired -> flushBatch().doFinally(signal -> flushing.release()));
+    }
+
+    public int getDepth() {
+        return depth.get();
+    }
+
+    private Mono<Void> journaled(List<QueuedUpdate> updates) {
+        return Mono.fromRunnable(() -> {
+                    synchronized (this) {
+                        journal.append(updates);
+                        updates.forEach(this::apply);
+                    }
+                    if (depth.get() >= maxBatch) {
+                        trigger();
+                    }
+                })
+                // the append may fsync
+                .subscribeOn(Schedulers.boundedElastic())
+                .then();
+    }
+
+    // must hold the monitor
+    private void apply(QueuedUpdate update) {
+        if (update.isDiscard()) {
+            Map<String, List<String>> dropped = pending.remove(update.getUserId());
+            if (dropped != null) {
+                depth.addAndGet(-dropped.size());
+            }
+            if (inFlight.contains(update.getUserId())) {
+                superseded.add(update.getUserId());
+            }
+            return;
+        }
+        List<String> previous = pending.computeIfAbsent(update.getUserId(), id -> new LinkedHashMap<>())
+                .put(update.getAttribute(), update.getValues());
+        if (previous == null) {
+            depth.incrementAndGet();
+        } else {
+            coalesced.increment();
+        }
+        queued.increment();
+    }
+
+    // timer and size trigger: skipped while another flush runs, which re-checks the size when it ends
+    private void trigger() {
+        if (depth.get() == 0 || !flushing.tryAcquire()) {
+            return;
+        }
+        // the batch swap rolls the journal file: off the timer thread
+        Mono.defer(this::flushBatch)
+                .subscribeOn(Schedulers.boundedElastic())
+                .doFinally(signal -> {
+                    flushing.release();
+                    if (depth.get() >= maxBatch) {
+                        trigger();
+                    }
+                })
+                .subscribe(written -> { }, e -> { });
+    }
+
+    // takes everything pending and writes it, one transaction per shard and max-batch users
+    private Mono<Integer> flushBatch() {
+        Map<Integer, Map<String, List<String>>> batch;
+        long sealed;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return Mono.just(0);
+            }
+            batch = pending;
+            pending = new LinkedHashMap<>();
+            depth.set(0);
+            sealed = journal.roll();
+            inFlight.addAll(batch.keySet());
+        }
+        Failures failures = new Failures();
+        Timer.Sample sample = Timer.start(meterRegistry);
+        return Flux.fromIterable(groups(batch))
+                .concatMap(group -> write(group.getKey(), group.getValue())
+                        .onErrorResume(e -> isolate(group.getKey(), group.getValue(), e, failures)))
+                .then(Mono.defer(() -> finish(sealed, count(batch), failures, sample)))
+                .doFinally(signal -> {
+                    inFlight.clear();
+                    superseded.clear();
+                });
+    }
+
+    private Mono<Long> write(int shard, Map<Integer, Map<String, List<String>>> group) {
+        return valueAttributeService.writeQueued(group, superseded::contains)
+                .contextWrite(ShardKey.shard(shard))
+                .doOnSuccess(rows -> group.keySet().forEach(attempts::remove));
+    }
+
+    // a failed transaction: retried user by user so one bad update does not hold back the others
+    private Mono<Long> isolate(int shard, Map<Integer, Map<String, List<String>>> group, Throwable error, Failures failures) {
+        if (group.size() == 1 || isUnavailable(error)) {
+            group.forEach((userId, values) -> failed(userId, values, error, failures));
+            return Mono.empty();
+        }
+        log.warn("Write-behind: transaction of {} users failed, writing them one by one: {}", group.size(), error.toString());
+        return Flux.fromIterable(group.entrySet())
+                .concatMap(user -> write(shard, Collections.singletonMap(user.getKey(), user.getValue()))
+                        .onErrorResume(e -> {
+                            failed(user.getKey(), user.getValue(), e, failures);
+                            return Mono.empty();
+                        }))
+                .reduce(0L, Long::sum);
+    }
+
+    private void failed(Integer userId, Map<String, List<String>> values, Throwable error, Failures failures) {
+        int attempt = isUnavailable(error) ? 0 : attempts.merge(userId, 1, Integer::sum);
+        if (attempt < maxAttempts) {
+            failures.retry.put(userId, values);
+            if (failures.error == null) {
+                failures.error = error;
+            }
+            return;
+        }
+        attempts.remove(userId);
+        values.forEach((name, list) -> failures.parked.add(new QueuedUpdate(userId, name, list)));
+        log.error("Write-behind: updates of user {} failed {} flushes in a row, parked: {}", userId, attempt, values, error);
+    }
+
+    private Mono<Integer> finish(long sealed, int size, Failures failures, Timer.Sample sample) {
+        int retried = count(failures.retry);
+        sample.stop(meterRegistry.timer("nexo.writebehind.flush", "result", failures.retry.isEmpty() ? "ok" : "error"));
+        synchronized (this) {
+            if (requeue(failures.retry) && park(failures.parked)) {
+                journal.deleteThrough(sealed);
+            }
+            inFlight.clear();
+            superseded.clear();
+        }
+        parked.increment(failures.parked.size());
+        if (failures.error != null) {
+            log.error("Write-behind: {} of {} updates failed, retrying on the next flush", retried, size, failures.error);
+            return Mono.error(failures.error);
+        }
+        return Mono.just(size - failures.parked.size());
+    }
+
+    // must hold the monitor: puts failed updates back unless newer ones arrived or a replace superseded them, and
+    // journals them again so the batch's segments can go; false when the journal could not take them
+    private boolean requeue(Map<Integer, Map<String, List<String>>> failed) {
+        List<QueuedUpdate> requeued = new ArrayList<>();
+        failed.forEach((userId, values) -> {
+            if (superseded.contains(userId)) {
+                return;
+            }
+            Map<String, List<String>> newer = pending.computeIfAbsent(userId, id -> new LinkedHashMap<>());
+            values.forEach((name, list) -> {
+                if (newer.putIfAbsent(name, list) == null) {
+                    depth.incrementAndGet();
+                    requeued.add(new QueuedUpdate(userId, name, list));
+                }
+            });
+        });
+        if (requeued.isEmpty()) {
+            return true;
+        }
+        try {
+            journal.append(requeued);
+            return true;
+        } catch (UncheckedIOException e) {
+            log.error("Write-behind: cannot journal the failed updates again, keeping the flushed segments", e);
+            return false;
+        }
+    }
+
+    // must hold the monitor
+    private boolean park(List<QueuedUpdate> updates) {
+        if (updates.isEmpty()) {
+            return true;
+        }
+        try {
+            journal.park(updates);
+            return true;
+        } catch (UncheckedIOException e) {
+            log.error("Write-behind: cannot write the parked updates, keeping the flushed segments", e);
+            return false;
+        }
+    }
+
+    // the database or the connection to it is down: the updates are not at fault, retried without counting
+    private static boolean isUnavailable(Throwable error) {
+        for (Throwable e = error; e != null; e = e.getCause()) {
+            if (e instanceof DataAccessResourceFailureException || e instanceof TransientDataAccessException
+                    || e instanceof R2dbcTransientException || e instanceof R2dbcNonTransientResourceException
+                    || e instanceof TimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int count(Map<Integer, Map<String, List<String>>> updates) {
+        return updates.values().stream().mapToInt(Map::size).sum();
+    }
+
+    private List<Map.Entry<Integer, Map<Integer, Map<String, List<String>>>>> groups(Map<Integer, Map<String, List<String>>> batch) {
+        Map<Integer, List<Integer>> byShard = new TreeMap<>();
+        batch.keySet().forEach(userId -> byShard.computeIfAbsent(shards.isSharded() ? shards.shardOfUser(userId) : 0,
+                shard -> new ArrayList<>()).add(userId));
+        List<Map.Entry<Integer, Map<Integer, Map<String, List<String>>>>> groups = new ArrayList<>();
+        byShard.forEach((shard, userIds) -> {
+            for (int from = 0; from < userIds.size(); from += maxBatch) {
+                Map<Integer, Map<String, List<String>>> group = new LinkedHashMap<>();
+                userIds.subList(from, Math.min(from + maxBatch, userIds.size())).forEach(id -> group.put(id, batch.get(id)));
+                groups.add(Map.entry(shard, group));
+            }
+        });
+        return groups;
+    }
+
+    // what a flush could not write
+    private static final class Failures {
+        final Map<Integer, Map<String, List<String>>> retry = new LinkedHashMap<>();
+        final List<QueuedUpdate> parked = new ArrayList<>();
+        Throwable error;
+    }
+}
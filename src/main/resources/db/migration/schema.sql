@@ -5,15 +5,53 @@ CREATE TABLE users (
 	lastnames VARCHAR(100) NOT NULL,
 	identification_type VARCHAR(2) NOT NULL,
 	identification_number VARCHAR(15) NOT NULL,
+	-- transacción que escribió por última vez el usuario o sus atributos (sincronización incremental)
+	change_xid xid8 NOT NULL DEFAULT pg_current_xact_id(),
 	CONSTRAINT uq_users_identification UNIQUE (identification_type, identification_number)
 );
+CREATE INDEX idx_users_change ON users (change_xid, id);
+-- usuarios eliminados, para que /changes también informe las bajas
+DROP TABLE IF EXISTS user_tombstone ;
+CREATE TABLE user_tombstone (
+	user_id integer PRIMARY KEY,
+	change_xid xid8 NOT NULL DEFAULT pg_current_xact_id(),
+	deleted_at TIMESTAMP NOT NULL DEFAULT now()
+);
+CREATE INDEX idx_user_tombstone_change ON user_tombstone (change_xid, user_id);
 DROP TABLE IF EXISTS attribute_user ;
-CREATE TABLE attribute_user ( 
+DROP TABLE IF EXISTS attribute_definition ;
+-- catálogo de atributos: cada nombre se guarda una sola vez
+CREATE TABLE attribute_definition (
 	id INT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
-	user_id integer,
-	name_attribute VARCHAR(100) NOT NULL,
+	name VARCHAR(100) NOT NULL,
 	multiple BOOLEAN DEFAULT FALSE,
-	CONSTRAINT uq_users_attribute UNIQUE (user_id, name_attribute)
+	CONSTRAINT uq_attribute_definition_name UNIQUE (name)
 );
+CREATE TABLE attribute_user (
+	id INT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+	user_id integer,
+	definition_id integer NOT NULL REFERENCES attribute_definition (id),
+	CONSTRAINT uq_users_attribute UNIQUE (user_id, definition_id)
+);
+CREATE INDEX idx_attribute_user_definition ON attribute_user (definition_id, user_id);
 DROP TABLE IF EXISTS value_attribute_user ;
-CREATE TABLE value_attribute_user ( id INT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,attribute_id integer, value_attribute VARCHAR(100) NOT NULL);
\ No newline at end of file
+CREATE TABLE value_attribute_user (
+	id INT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+	attribute_id integer,
+	value_attribute VARCHAR(100) NOT NULL,
+	value_number NUMERIC(24,6),
+	value_date DATE,
+	value_timestamp TIMESTAMP
+);
+CREATE INDEX idx_value_attribute_user_attribute ON value_attribute_user (attribute_id);
+CREATE INDEX idx_value_attribute_user_number ON value_attribute_user (value_number, attribute_id) WHERE value_number IS NOT NULL;
+-- los rangos de fecha y de fecha-hora comparan ambas columnas temporales (ver UserRepository.TEMPORAL_AS_*)
+CREATE INDEX idx_value_attribute_user_date ON value_attribute_user ((COALESCE(value_date, CAST(value_timestamp AS DATE))), attribute_id) WHERE value_date IS NOT NULL OR value_timestamp IS NOT NULL;
+CREATE INDEX idx_value_attribute_user_timestamp ON value_attribute_user ((COALESCE(value_timestamp, CAST(value_date AS TIMESTAMP))), attribute_id) WHERE value_date IS NOT NULL OR value_timestamp IS NOT NULL;
+-- perfil desnormalizado (opcional, nexo.profile-document.enabled): atributos y valores del usuario en un solo documento
+DROP TABLE IF EXISTS user_profile ;
+CREATE TABLE user_profile (
+	user_id integer PRIMARY KEY,
+	document JSONB NOT NULL,
+	updated_at TIMESTAMP NOT NULL DEFAULT now()
+);
\ No newline at end of file
@@ -0,0 +1,121 @@
+package com.reactive.nexo.test.admission;
+
+import com.reactive.nexo.admission.AdaptiveLimiter;
+import com.reactive.nexo.admission.AdmissionProperties;
+import com.reactive.nexo.admission.AdmissionRejectedException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AdaptiveLimiterTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private AdaptiveLimiter limiter(int initial, int min, int max, Duration target, int maxQueue, Duration maxWait) {
+        AdmissionProperties.Limit settings = new AdmissionProperties.Limit();
+        settings.setInitialLimit(initial);
+        settings.setMinLimit(min);
+        settings.setMaxLimit(max);
+        settings.setTargetLatency(target);
+        settings.setMaxQueue(maxQueue);
+        settings.setMaxWait(maxWait);
+        return new AdaptiveLimiter("test", settings, Duration.ofSeconds(2), registry);
+    }
+
+    @Test
+    public void acquire_RejectsBeyondLimitWithoutQueue() {
+        AdaptiveLimiter limiter = limiter(2, 1, 2, Duration.ofSeconds(1), 0, Duration.ZERO);
+        AdaptiveLimiter.Permit first = limiter.acquire().block();
+        limiter.acquire().block();
+
+        AdmissionRejectedException rejected = assertThrows(AdmissionRejectedException.class, () -> limiter.acquire().block());
+        assertEquals(2, rejected.getRetryAfterSeconds());
+        assertEquals("2", rejected.getHeaders().getFirst("Retry-After"));
+        assertEquals(1.0, registry.get("nexo.admission.rejected").tag("reason", "queue_full").counter().count());
+
+        first.release(false);
+        first.release(false);
+        assertEquals(1, limiter.getInFlight());
+        limiter.acquire().block();
+        assertEquals(2, limiter.getInFlight());
+    }
+
+    @Test
+    public void acquire_QueuedCallerGetsReleasedPermitOrTimesOut() {
+        AdaptiveLimiter limiter = limiter(1, 1, 1, Duration.ofSeconds(1), 1, Duration.ofMillis(200));
+        AdaptiveLimiter.Permit held = limiter.acquire().block();
+
+        StepVerifier.create(limiter.acquire())
+                .then(() -> {
+                    assertEquals(1, limiter.getQueued());
+                    held.release(false);
+                })
+                .expectNextCount(1)
+                .verifyComplete();
+        assertEquals(0, limiter.getQueued());
+
+        // the permit is still held by the queued caller above: a second waiter times out
+        StepVerifier.create(limiter.acquire())
+                .expectError(AdmissionRejectedException.class)
+                .verify(Duration.ofSeconds(2));
+        assertEquals(1.0, registry.get("nexo.admission.rejected").tag("reason", "timeout").counter().count());
+        assertEquals(0, limiter.getQueued());
+    }
+
+    @Test
+    public void release_SlowSamplesShrinkAndFastSaturatedSamplesGrowTheLimit() {
+        AdaptiveLimiter limiter = limiter(10, 2, 20, Duration.ofMillis(20), 0, Duration.ZERO);
+        for (int i = 0; i < 3; i++) {
+            AdaptiveLimiter.Permit permit = limiter.acquire().block();
+            sleep(40);
+            permit.release(false);
+        }
+        // 10 * 0.9^3
+        assertEquals(7, limiter.getLimit());
+
+        AdaptiveLimiter.Permit dropped = limiter.acquire().block();
+        dropped.release(true);
+        assertEquals(6, limiter.getLimit());
+
+        // fast completions with the limit saturated grow it back, about one permit per round
+        for (int round = 0; round < 20; round++) {
+            int limit = limiter.getLimit();
+            AdaptiveLimiter.Permit[] permits = new AdaptiveLimiter.Permit[limit];
+            for (int i = 0; i < limit; i++) {
+                permits[i] = limiter.acquire().block();
+            }
+            for (AdaptiveLimiter.Permit permit : permits) {
+                permit.release(false);
+            }
+        }
+        assertTrue(limiter.getLimit() > 15, "limit " + limiter.getLimit());
+        assertTrue(limiter.getLimit() <= 20);
+    }
+
+    @Test
+    public void run_ReleasesPermitOnErrorAndCancel() {
+        AdaptiveLimiter limiter = limiter(1, 1, 1, Duration.ofSeconds(1), 0, Duration.ZERO);
+        StepVerifier.create(limiter.run(() -> Mono.error(new IllegalStateException("boom"))))
+                .expectErrorMessage("boom")
+                .verify();
+        assertEquals(0, limiter.getInFlight());
+
+        limiter.run(Mono::never).subscribe().dispose();
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.reactive.nexo.test.admission;
+
+import com.reactive.nexo.admission.AdmissionControlFilter;
+import com.reactive.nexo.admission.AdmissionLimits;
+import com.reactive.nexo.admission.AdmissionProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class AdmissionControlFilterTest {
+
+    @Test
+    public void classify_MapsEndpointsToClasses() {
+        assertEquals(AdmissionLimits.READ, AdmissionControlFilter.classify(HttpMethod.GET, "/api/v1/users/42"));
+        assertEquals(AdmissionLimits.QUERY, AdmissionControlFilter.classify(HttpMethod.GET, "/api/v1/users"));
+        assertEquals(AdmissionLimits.QUERY, AdmissionControlFilter.classify(HttpMethod.GET, "/api/v1/users/by/email/x"));
+        assertEquals(AdmissionLimits.QUERY, AdmissionControlFilter.classify(HttpMethod.POST, "/api/v1/users/search"));
+        assertEquals(AdmissionLimits.QUERY, AdmissionControlFilter.classify(HttpMethod.GET, "/api/v1/users/changes"));
+        assertEquals(AdmissionLimits.BULK, AdmissionControlFilter.classify(HttpMethod.GET, "/api/v1/users/export"));
+        assertEquals(AdmissionLimits.BULK, AdmissionControlFilter.classify(HttpMethod.POST, "/api/v1/users/import"));
+        assertEquals(AdmissionLimits.WRITE, AdmissionControlFilter.classify(HttpMethod.POST, "/api/v1/users"));
+        assertEquals(AdmissionLimits.WRITE, AdmissionControlFilter.classify(HttpMethod.DELETE, "/api/v1/users/42"));
+        assertNull(AdmissionControlFilter.classify(HttpMethod.GET, "/api/v1/users/events"));
+        assertNull(AdmissionControlFilter.classify(HttpMethod.GET, "/actuator/health"));
+        assertNull(AdmissionControlFilter.classify(HttpMethod.GET, "/api/v1/usersx"));
+    }
+
+    @Test
+    public void filter_RejectsWith503AndRetryAfterWhenClassIsFull() {
+        AdmissionProperties properties = new AdmissionProperties();
+        properties.setRetryAfter(Duration.ofSeconds(3));
+        AdmissionProperties.Limit bulk = new AdmissionProperties.Limit();
+        bulk.setInitialLimit(1);
+        bulk.setMinLimit(1);
+        bulk.setMaxLimit(1);
+        properties.getLimits().put(AdmissionLimits.BULK, bulk);
+        AdmissionLimits limits = new AdmissionLimits(properties, new SimpleMeterRegistry());
+        AdmissionControlFilter filter = new AdmissionControlFilter(limits);
+
+        MockServerWebExchange first = MockServerWebExchange.from(MockServerHttpRequest.get("/api/v1/users/export"));
+        Disposable running = filter.filter(first, exchange -> Mono.never()).subscribe();
+        assertEquals(1, limits.get(AdmissionLimits.BULK).getInFlight());
+
+        MockServerWebExchange second = MockServerWebExchange.from(MockServerHttpRequest.get("/api/v1/users/export"));
+        StepVerifier.create(filter.filter(second, exchange -> Mono.error(new IllegalStateException("not reached"))))
+                .verifyComplete();
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, second.getResponse().getStatusCode());
+        assertEquals("3", second.getResponse().getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+
+        // other classes are unaffected, and the permit comes back when the request goes away
+        MockServerWebExchange read = MockServerWebExchange.from(MockServerHttpRequest.get("/api/v1/users/7"));
+        StepVerifier.create(filter.filter(read, exchange -> Mono.empty())).verifyComplete();
+        assertNull(read.getResponse().getStatusCode());
+        running.dispose();
+        assertEquals(0, limits.get(AdmissionLimits.BULK).getInFlight());
+    }
+}
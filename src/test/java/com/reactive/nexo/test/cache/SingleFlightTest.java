@@ -0,0 +1,95 @@
+package com.reactive.nexo.test.cache;
+
+import com.reactive.nexo.cache.SingleFlight;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SingleFlightTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final SingleFlight<Integer, String> singleFlight = new SingleFlight<>("test", registry);
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private Mono<String> slowLoad(int key) {
+        return Mono.fromCallable(() -> "user-" + key + "-load-" + loads.incrementAndGet())
+                .delayElement(Duration.ofMillis(100));
+    }
+
+    @Test
+    public void concurrentCalls_ShareOneLoad() {
+        List<String> results = Flux.range(0, 20)
+                .flatMap(i -> singleFlight.execute(7, () -> slowLoad(7)))
+                .collectList()
+                .block(Duration.ofSeconds(5));
+
+        assertEquals(20, results.size());
+        results.forEach(result -> assertEquals("user-7-load-1", result));
+        assertEquals(1.0, registry.get("nexo.singleflight.loads").tag("name", "test").counter().count());
+        assertEquals(19.0, registry.get("nexo.singleflight.coalesced").tag("name", "test").counter().count());
+        assertEquals(0, singleFlight.inFlight());
+    }
+
+    @Test
+    public void completedLoad_IsNotReused() {
+        assertEquals("user-7-load-1", singleFlight.execute(7, () -> slowLoad(7)).block());
+        assertEquals("user-7-load-2", singleFlight.execute(7, () -> slowLoad(7)).block());
+    }
+
+    @Test
+    public void errorAndEmpty_AreSharedWithWaiters() {
+        Mono<String> failing = Mono.<String>error(new IllegalStateException("boom")).delaySubscription(Duration.ofMillis(50));
+        StepVerifier.create(Flux.merge(singleFlight.execute(1, () -> failing), singleFlight.execute(1, () -> failing)))
+                .expectErrorMessage("boom")
+                .verify(Duration.ofSeconds(5));
+
+        Mono<String> empty = Mono.<String>empty().delaySubscription(Duration.ofMillis(50));
+        StepVerifier.create(Flux.merge(singleFlight.execute(2, () -> empty), singleFlight.execute(2, () -> empty)))
+                .verifyComplete();
+        assertEquals(2.0, registry.get("nexo.singleflight.coalesced").tag("name", "test").counter().count());
+    }
+
+    @Test
+    public void forget_LaterCallersStartANewLoad() {
+        Mono<String> first = singleFlight.execute(7, () -> slowLoad(7));
+        StepVerifier.create(first)
+                .then(() -> {
+                    // a write committed while load 1 runs
+                    singleFlight.forget(7);
+                    assertEquals("user-7-load-2", singleFlight.execute(7, () -> slowLoad(7)).block(Duration.ofSeconds(5)));
+                })
+                .expectNext("user-7-load-1")
+                .verifyComplete();
+        assertEquals(0, singleFlight.inFlight());
+    }
+
+    @Test
+    public void throwingLoader_FailsAndReleasesTheKey() {
+        StepVerifier.create(singleFlight.execute(3, () -> {
+                    throw new IllegalStateException("no connection");
+                }))
+                .expectErrorMessage("no connection")
+                .verify(Duration.ofSeconds(5));
+        assertEquals(0, singleFlight.inFlight());
+        assertEquals("user-3-load-1", singleFlight.execute(3, () -> slowLoad(3)).block(Duration.ofSeconds(5)));
+    }
+
+    @Test
+    public void cancelledCaller_DoesNotCancelTheSharedLoad() {
+        Disposable first = singleFlight.execute(7, () -> slowLoad(7)).subscribe();
+        Mono<String> second = singleFlight.execute(7, () -> slowLoad(7));
+        first.dispose();
+
+        assertEquals("user-7-load-1", second.block(Duration.ofSeconds(5)));
+        assertEquals(1, loads.get());
+    }
+}
@@ -0,0 +1,99 @@
+package com.reactive.nexo.test.cache;
+
+import com.reactive.nexo.cache.UserProfileCache;
+import com.reactive.nexo.dto.UserWithAttributesDTO;
+import com.reactive.nexo.event.UserChangeEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class UserProfileCacheTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final UserProfileCache cache = new UserProfileCache(registry, true, 100, Duration.ofMinutes(5));
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private final Function<Integer, Mono<UserWithAttributesDTO>> loader = id -> Mono.fromCallable(() -> {
+        loads.incrementAndGet();
+        return new UserWithAttributesDTO(id, "Ana", "Diaz", "CC", String.valueOf(id), Collections.emptyList());
+    }).delayElement(Duration.ofMillis(50));
+
+    @Test
+    public void concurrentMisses_ShareOneLoad() {
+        List<UserWithAttributesDTO> profiles = Flux.range(0, 20)
+                .flatMap(i -> cache.getById(7, loader))
+                .collectList()
+                .block();
+
+        assertEquals(20, profiles.size());
+        assertEquals(1, loads.get());
+        assertEquals(19.0, registry.get("cache.gets").tag("cache", "userProfiles").tag("result", "hit").functionCounter().count());
+    }
+
+    @Test
+    public void changeEvent_InvalidatesProfile() {
+        cache.getById(7, loader).block();
+        cache.getById(7, loader).block();
+        assertEquals(1, loads.get());
+
+        cache.onUserChange(new UserChangeEvent(UserChangeEvent.Type.UPDATED, 7, null, null, "CC", "7", null));
+        cache.getById(7, loader).block();
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void changeEvent_DropsLoadInFlight() {
+        Mono<UserWithAttributesDTO> before = cache.getById(7, loader);
+        StepVerifier.create(before)
+                .then(() -> {
+                    cache.onUserChange(new UserChangeEvent(UserChangeEvent.Type.UPDATED, 7, null, null, "CC", "7", null));
+                    cache.getById(7, loader).block();
+                })
+                .expectNextCount(1)
+                .verifyComplete();
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void disabled_SharesLoadsUntilAChangeCommits() {
+        UserProfileCache uncached = new UserProfileCache(registry, false, 100, Duration.ofMinutes(5));
+        List<UserWithAttributesDTO> profiles = Flux.range(0, 10)
+                .flatMap(i -> uncached.getById(7, loader))
+                .collectList()
+                .block();
+        assertEquals(10, profiles.size());
+        assertEquals(1, loads.get());
+
+        StepVerifier.create(uncached.getById(7, loader))
+                .then(() -> {
+                    uncached.onUserChange(new UserChangeEvent(UserChangeEvent.Type.UPDATED, 7, null, null, "CC", "7", null));
+                    uncached.getById(7, loader).block();
+                })
+                .expectNextCount(1)
+                .verifyComplete();
+        assertEquals(3, loads.get());
+    }
+
+    @Test
+    public void identification_ResolvesThroughIdAndDropsStaleMapping() {
+        UserWithAttributesDTO profile = cache.getByIdentification("CC", "7", () -> loader.apply(7), loader).block();
+        assertEquals(7, profile.getId());
+
+        // identification of user 7 changed: the cached mapping no longer matches and is resolved again
+        cache.onUserChange(new UserChangeEvent(UserChangeEvent.Type.UPDATED, 7, null, null, "CC", "8", null));
+        Function<Integer, Mono<UserWithAttributesDTO>> renamed = id ->
+                Mono.just(new UserWithAttributesDTO(id, "Ana", "Diaz", "CC", "8", Collections.emptyList()));
+        assertNull(cache.getByIdentification("CC", "7", Mono::empty, renamed).block());
+    }
+}
@@ -0,0 +1,109 @@
+package com.reactive.nexo.test.client;
+
+import com.reactive.nexo.client.UserClient;
+import com.reactive.nexo.dto.UserWithAttributesDTO;
+import com.reactive.nexo.service.AttributeCatalog;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@DirtiesContext
+@ActiveProfiles("test")
+public class UserClientTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private DatabaseClient databaseClient;
+
+    @Autowired
+    private AttributeCatalog attributeCatalog;
+
+    private SimpleMeterRegistry meterRegistry;
+    private UserClient userClient;
+
+    @BeforeEach
+    public void setup() {
+        execute("TRUNCATE value_attribute_user, attribute_user, attribute_definition, users RESTART IDENTITY");
+        attributeCatalog.invalidateAll();
+        execute("INSERT INTO users (names, lastnames, identification_type, identification_number) VALUES " +
+                "('Ana', 'Rojas', 'CC', '1'), ('Luis', 'Mora', 'CC', '2'), ('Eva', 'Paz', 'TI', '3')");
+        execute("INSERT INTO attribute_definition (name, multiple) VALUES ('regimen', false)");
+        execute("INSERT INTO attribute_user (user_id, definition_id) VALUES (1, 1)");
+        execute("INSERT INTO value_attribute_user (attribute_id, value_attribute) VALUES (1, 'subsidiado')");
+        meterRegistry = new SimpleMeterRegistry();
+        // a long window so that the concurrent calls of a test always land in one batch
+        userClient = new UserClient(WebClient.builder(), meterRegistry, "http://localhost:" + port, 4,
+                Duration.ofSeconds(2), Duration.ofSeconds(5), 1, Duration.ofMillis(200), 100,
+                true, 100, Duration.ZERO);
+    }
+
+    @AfterEach
+    public void close() {
+        userClient.close();
+    }
+
+    @Test
+    public void getUser_BatchesAndCoalescesConcurrentCalls() {
+        List<Optional<UserWithAttributesDTO>> results = Flux.just(1, 2, 3, 1, 99)
+                .flatMapSequential(id -> userClient.getUser(id).map(Optional::of).defaultIfEmpty(Optional.empty()))
+                .collectList()
+                .block(Duration.ofSeconds(10));
+
+        assertEquals(Arrays.asList("Ana", "Luis", "Eva", "Ana"), results.subList(0, 4).stream()
+                .map(profile -> profile.get().getNames()).collect(Collectors.toList()));
+        assertEquals("subsidiado", results.get(0).get().getAttributes().get(0).getValues().get(0));
+        assertFalse(results.get(4).isPresent());
+        // one bulk request for the four distinct ids; the second call for user 1 shared the first one
+        assertEquals(1, meterRegistry.get("nexo.client.batch.size").summary().count());
+        assertEquals(4, (long) meterRegistry.get("nexo.client.batch.size").summary().totalAmount());
+        assertEquals(1, (long) meterRegistry.get("nexo.singleflight.coalesced").tag("name", "client.user").counter().count());
+    }
+
+    @Test
+    public void getUser_RevalidatesCachedProfileWithEtag() {
+        assertEquals("Ana", userClient.getUser(1).block(Duration.ofSeconds(10)).getNames());
+
+        // unchanged: the server answers 304 and the cached profile is reused
+        assertEquals("Ana", userClient.getUser(1).block(Duration.ofSeconds(10)).getNames());
+        assertEquals(1, (long) meterRegistry.get("nexo.client.cache").tag("result", "not_modified").counter().count());
+
+        execute("UPDATE users SET names = 'Ana Maria' WHERE id = 1");
+        assertEquals("Ana Maria", userClient.getUser(1).block(Duration.ofSeconds(10)).getNames());
+        assertEquals(1, (long) meterRegistry.get("nexo.client.cache").tag("result", "modified").counter().count());
+
+        execute("DELETE FROM users WHERE id = 1");
+        assertEquals(null, userClient.getUser(1).block(Duration.ofSeconds(10)));
+    }
+
+    @Test
+    public void getUserByIdentification_ReturnsEmptyForUnknownIdentification() {
+        assertEquals(3, userClient.getUserByIdentification("TI", "3").block(Duration.ofSeconds(10)).getId());
+        assertEquals(null, userClient.getUserByIdentification("TI", "404").block(Duration.ofSeconds(10)));
+    }
+
+    private void execute(String sql) {
+        databaseClient.sql(sql).fetch().rowsUpdated().block();
+    }
+}
@@ -1,7 +1,16 @@
 package com.reactive.nexo.test.controller;
 
+import com.reactive.nexo.dto.ChangesResponse;
+import com.reactive.nexo.dto.PagedResponse;
+import com.reactive.nexo.dto.UserWithAttributesDTO;
+import com.reactive.nexo.event.UserChangeEvent;
+import com.reactive.nexo.event.UserChangeNotification;
+import com.reactive.nexo.event.UserChangeStream;
 import com.reactive.nexo.model.User;
 import com.reactive.nexo.repository.UserRepository;
+import com.reactive.nexo.service.AttributeCatalog;
+import com.reactive.nexo.service.PageCursor;
+import com.reactive.nexo.service.ValueAttributeService;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -16,10 +25,17 @@ import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 import reactor.test.StepVerifier;
 
+import java.time.Duration;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -44,6 +60,15 @@ public class UserControllerTest {
     @Autowired
     private DatabaseClient databaseClient;
 
+    @Autowired
+    private AttributeCatalog attributeCatalog;
+
+    @Autowired
+    private UserChangeStream changeStream;
+
+    @Autowired
+    private ValueAttributeService valueAttributeService;
+
 
     private List<User> getData(){
     return Arrays.asList(new User(null,"Suman", "Das","CC","0"),
@@ -56,10 +81,14 @@ public class UserControllerTest {
     List<String> statements = Arrays.asList(
     "DROP TABLE IF EXISTS value_attribute_user ;",
     "DROP TABLE IF EXISTS attribute_user ;",
+    "DROP TABLE IF EXISTS attribute_definition ;",
     "DROP TABLE IF EXISTS users ;",
-    "CREATE TABLE users ( id INT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, names VARCHAR(100) NOT NULL, lastnames VARCHAR(100) NOT NULL, identification_type VARCHAR(2) NOT NULL,identification_number VARCHAR(15) NOT NULL, CONSTRAINT uq_users_identification UNIQUE (identification_type, identification_number));",
-    "CREATE TABLE attribute_user ( id INT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, name_attribute VARCHAR(200) NOT NULL, user_id INT NOT NULL,multiple BOOLEAN DEFAULT FALSE, CONSTRAINT uq_users_attribute UNIQUE (user_id, name_attribute));",
-    "CREATE TABLE value_attribute_user ( id INT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, attribute_id INT NOT NULL, value_attribute VARCHAR(500) NOT NULL);"
+    "DROP TABLE IF EXISTS user_tombstone ;",
+    "CREATE TABLE users ( id INT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, names VARCHAR(100) NOT NULL, lastnames VARCHAR(100) NOT NULL, identification_type VARCHAR(2) NOT NULL,identification_number VARCHAR(15) NOT NULL, change_xid xid8 NOT NULL DEFAULT pg_current_xact_id(), CONSTRAINT uq_users_identification UNIQUE (identification_type, identification_number));",
+    "CREATE TABLE user_tombstone ( user_id INT PRIMARY KEY, change_xid xid8 NOT NULL DEFAULT pg_current_xact_id(), deleted_at TIMESTAMP NOT NULL DEFAULT now());",
+    "CREATE TABLE attribute_definition ( id INT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, name VARCHAR(100) NOT NULL, multiple BOOLEAN DEFAULT FALSE, CONSTRAINT uq_attribute_definition_name UNIQUE (name));",
+    "CREATE TABLE attribute_user ( id INT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, user_id INT NOT NULL, definition_id INT NOT NULL REFERENCES attribute_definition (id), CONSTRAINT uq_users_attribute UNIQUE (user_id, definition_id));",
+    "CREATE TABLE value_attribute_user ( id INT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, attribute_id INT NOT NULL, value_attribute VARCHAR(500) NOT NULL, value_number NUMERIC(24,6), value_date DATE, value_timestamp TIMESTAMP);"
     );
 
     statements.forEach(it -> databaseClient.sql(it)
@@ -69,22 +98,16 @@ public class UserControllerTest {
 
     userRepository.deleteAll()
         .thenMany(Flux.fromIterable(getData()))
-        .flatMap(userRepository::save)
+        .concatMap(userRepository::save)
         .doOnNext(user ->{
             System.out.println("User Inserted from UserControllerTest: " + user);
         })
         .blockLast();
+    // the catalog cache must not outlive the tables it points to
+    attributeCatalog.invalidateAll();
 
     // insert one attribute and one value for user id 1 (to validate /by-identification endpoint)
-    databaseClient.sql("INSERT INTO attribute_user (name_attribute, user_id) VALUES ('fecha de nacimiento', 1)")
-        .fetch().rowsUpdated().block();
-
-    Integer attrId = databaseClient.sql("SELECT id FROM attribute_user WHERE user_id = 1 AND name_attribute = 'fecha de nacimiento'")
-        .map((row, metadata) -> {
-            Number n = row.get("id", Number.class);
-            return (n == null) ? null : n.intValue();
-        })
-        .one().block();
+    Integer attrId = insertAttribute(1, "fecha de nacimiento");
 
     if(attrId != null){
         databaseClient.sql("INSERT INTO value_attribute_user (attribute_id, value_attribute) VALUES (" + attrId + ", '1992-05-06')")
@@ -93,6 +116,20 @@ public class UserControllerTest {
 
     }
 
+    private Integer insertAttribute(int userId, String name){
+        databaseClient.sql("INSERT INTO attribute_definition (name) VALUES ($1) ON CONFLICT (name) DO NOTHING")
+            .bind(0, name)
+            .fetch().rowsUpdated().block();
+        return databaseClient.sql("INSERT INTO attribute_user (user_id, definition_id) SELECT $1, id FROM attribute_definition WHERE name = $2 RETURNING id")
+            .bind(0, userId)
+            .bind(1, name)
+            .map((row, metadata) -> {
+                Number n = row.get("id", Number.class);
+                return (n == null) ? null : n.intValue();
+            })
+            .one().block();
+    }
+
     @Test
     public void getAllUsersValidateCount(){
         webTestClient.get().uri("/api/v1/users").exchange()
@@ -132,6 +169,25 @@ public class UserControllerTest {
                 .exchange().expectStatus().isNotFound();
     }
     @Test
+    public void getUserById_NotModifiedWhenEtagMatches(){
+        String etag = webTestClient.get().uri("/api/v1/users/{userId}", 1)
+                .exchange().expectStatus().isOk()
+                .returnResult(UserWithAttributesDTO.class)
+                .getResponseHeaders().getETag();
+        assertNotNull(etag);
+
+        webTestClient.get().uri("/api/v1/users/{userId}", 1)
+                .header("If-None-Match", etag)
+                .exchange().expectStatus().isNotModified()
+                .expectBody().isEmpty();
+
+        databaseClient.sql("UPDATE users SET names = 'Sumanta' WHERE id = 1").fetch().rowsUpdated().block();
+        webTestClient.get().uri("/api/v1/users/{userId}", 1)
+                .header("If-None-Match", etag)
+                .exchange().expectStatus().isOk()
+                .expectBody().jsonPath("$.names").isEqualTo("Sumanta");
+    }
+    @Test
     public void createUser(){
         User user = new User(null,"Rahul", "Dravid","CC","10");
         webTestClient.post().uri("/api/v1/users").contentType(MediaType.valueOf(MediaType.APPLICATION_JSON_VALUE))
@@ -162,6 +218,520 @@ public class UserControllerTest {
                 .jsonPath("$.attributes[0].values[0]").isEqualTo("1992-05-06");
     }
 
+    @Test
+    public void getUserById_FoldsAttributesAndValues(){
+        String json = """
+            {
+                "names": "Ana",
+                "lastnames": "Mina",
+                "identification_type": "CC",
+                "identification_number": "4040",
+                "attributes": {
+                    "alergias": ["polen", "penicilina"],
+                    "regimen": ["contributivo"]
+                }
+            }
+        """;
+
+        User created = webTestClient.post().uri("/api/v1/users")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(json)
+                .exchange()
+                .expectStatus().isCreated()
+                .expectBody(User.class)
+                .returnResult().getResponseBody();
+        assertNotNull(created);
+
+        webTestClient.get().uri("/api/v1/users/{userId}", created.getId())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.names").isEqualTo("Ana")
+                .jsonPath("$.attributes.length()").isEqualTo(2)
+                .jsonPath("$.attributes[?(@.attribute_name == 'alergias')].values[*]").value(values ->
+                        assertEquals(List.of("polen", "penicilina"), values))
+                .jsonPath("$.attributes[?(@.attribute_name == 'regimen')].values[0]").isEqualTo("contributivo");
+    }
+
+    @Test
+    public void getUserById_WithoutAttributes_ReturnsEmptyList(){
+        webTestClient.get().uri("/api/v1/users/{userId}", 2)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.id").isEqualTo(2)
+                .jsonPath("$.attributes").isArray()
+                .jsonPath("$.attributes.length()").isEqualTo(0);
+    }
+
+    @Test
+    public void fetchUsersByIds_KeepsRequestOrderAndReportsMissing(){
+        webTestClient.post().uri("/api/v1/users/search/id")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(Arrays.asList(3, 99, 1, 3))
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals("X-Missing-Ids", "99")
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(2)
+                .jsonPath("$[0].id").isEqualTo(3)
+                .jsonPath("$[1].id").isEqualTo(1);
+    }
+
+    @Test
+    public void fetchUsersByIds_WithAttributes(){
+        webTestClient.post().uri("/api/v1/users/search/id?attributes=true")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(Arrays.asList(2, 1))
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals("X-Missing-Ids", "")
+                .expectBody()
+                .jsonPath("$[0].id").isEqualTo(2)
+                .jsonPath("$[0].attributes.length()").isEqualTo(0)
+                .jsonPath("$[1].attributes[0].attribute_name").isEqualTo("fecha de nacimiento")
+                .jsonPath("$[1].attributes[0].values[0]").isEqualTo("1992-05-06");
+    }
+
+    @Test
+    public void importUsers_InsertsBatchAndReportsConflicts(){
+        String ndjson = String.join("\n",
+                "{\"names\":\"Ana\",\"lastnames\":\"Rojas\",\"identification_type\":\"CC\",\"identification_number\":\"500\",\"attributes\":{\"regimen\":[\"contributivo\"],\"alergias\":[\"polen\",\"nueces\"]}}",
+                "{\"names\":\"Otro\",\"lastnames\":\"Arjun\",\"identification_type\":\"CC\",\"identification_number\":\"1\"}",
+                "{\"names\":\"Luis\",\"lastnames\":\"Mora\",\"identification_type\":\"TI\",\"identification_number\":\"501\",\"attributes\":{\"regimen\":[\"subsidiado\"]}}",
+                "{\"names\":\"Ana\",\"lastnames\":\"Rojas\",\"identification_type\":\"CC\",\"identification_number\":\"500\"}",
+                "{\"names\":\"Sin\",\"identification_type\":\"CC\",\"identification_number\":\"502\"}") + "\n";
+
+        webTestClient.post().uri("/api/v1/users/import")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .accept(MediaType.APPLICATION_NDJSON)
+                .bodyValue(ndjson)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.batch").isEqualTo(0)
+                .jsonPath("$.received").isEqualTo(5)
+                .jsonPath("$.inserted").isEqualTo(2)
+                .jsonPath("$.rejected.length()").isEqualTo(3)
+                .jsonPath("$.rejected[0].line").isEqualTo(1)
+                .jsonPath("$.rejected[0].reason").isEqualTo("CONFLICT")
+                .jsonPath("$.rejected[1].line").isEqualTo(3)
+                .jsonPath("$.rejected[1].reason").isEqualTo("CONFLICT")
+                .jsonPath("$.rejected[2].line").isEqualTo(4)
+                .jsonPath("$.rejected[2].reason").isEqualTo("INVALID");
+
+        webTestClient.get().uri("/api/v1/users/by-identification/{type}/{number}", "CC", "500")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.names").isEqualTo("Ana")
+                .jsonPath("$.attributes.length()").isEqualTo(2)
+                .jsonPath("$.attributes[1].attribute_name").isEqualTo("alergias")
+                .jsonPath("$.attributes[1].values.length()").isEqualTo(2);
+
+        webTestClient.get().uri("/api/v1/users/by/{name}/{value}", "regimen", "subsidiado")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(1)
+                .jsonPath("$[0].identification_number").isEqualTo("501");
+    }
+
+    @Test
+    public void exportUsers_StreamsProfilesInIdOrder(){
+        insertAttribute(1, "regimen");
+        List<UserWithAttributesDTO> all = webTestClient.get().uri("/api/v1/users/export")
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON)
+                .returnResult(UserWithAttributesDTO.class)
+                .getResponseBody().collectList().block();
+
+        assertEquals(3, all.size());
+        assertEquals(Arrays.asList(1, 2, 3), all.stream().map(UserWithAttributesDTO::getId).toList());
+        assertEquals(2, all.get(0).getAttributes().size());
+        assertEquals("1992-05-06", all.get(0).getAttributes().get(0).getValues().get(0));
+        assertTrue(all.get(0).getAttributes().get(1).getValues().isEmpty());
+        assertTrue(all.get(1).getAttributes().isEmpty());
+    }
+
+    @Test
+    public void exportUsers_ProjectsAttributesAndResumesAfterId(){
+        insertAttribute(1, "regimen");
+        List<UserWithAttributesDTO> projected = webTestClient.get()
+                .uri("/api/v1/users/export?attributes={names}", "regimen")
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(UserWithAttributesDTO.class)
+                .getResponseBody().collectList().block();
+        assertEquals(3, projected.size());
+        assertEquals(1, projected.get(0).getAttributes().size());
+        assertEquals("regimen", projected.get(0).getAttributes().get(0).getAttribute_name());
+
+        List<UserWithAttributesDTO> resumed = webTestClient.get().uri("/api/v1/users/export?afterId=2")
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(UserWithAttributesDTO.class)
+                .getResponseBody().collectList().block();
+        assertEquals(1, resumed.size());
+        assertEquals(3, resumed.get(0).getId());
+    }
+
+    @Test
+    public void patchUser_ReplacesAllValuesOfMultipleAttribute(){
+        String create = """
+            { "names": "Multi", "lastnames": "Valor", "identification_type": "CC", "identification_number": "903",
+              "attributes": { "alergias": ["polen", "nueces", "penicilina"], "peso": ["70.5"] } }
+        """;
+        Integer id = webTestClient.post().uri("/api/v1/users")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(create)
+                .exchange()
+                .expectStatus().isCreated()
+                .expectBody(User.class)
+                .returnResult().getResponseBody().getId();
+
+        webTestClient.patch().uri("/api/v1/users/{id}", id)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{ \"attributes\": { \"alergias\": [\"polen\"] } }")
+                .exchange()
+                .expectStatus().isOk();
+
+        webTestClient.get().uri("/api/v1/users/{id}", id)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.attributes.length()").isEqualTo(2)
+                .jsonPath("$.attributes[0].attribute_name").isEqualTo("alergias")
+                .jsonPath("$.attributes[0].values.length()").isEqualTo(1)
+                .jsonPath("$.attributes[0].values[0]").isEqualTo("polen")
+                .jsonPath("$.attributes[1].values[0]").isEqualTo("70.5");
+    }
+
+    @Test
+    public void streamChanges_DeliversCommittedChangeWithDiffedAttributes() throws Exception{
+        webTestClient.patch().uri("/api/v1/users/{id}", 2)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{ \"attributes\": { \"regimen\": [\"contributivo\"], \"peso\": [\"80\"] } }")
+                .exchange()
+                .expectStatus().isOk();
+
+        // the response only starts with the first change: subscribe in the background
+        CompletableFuture<List<UserChangeNotification>> received = Mono.fromCallable(() -> webTestClient.get().uri("/api/v1/users/events")
+                        .accept(MediaType.APPLICATION_NDJSON)
+                        .exchange()
+                        .expectStatus().isOk()
+                        .returnResult(UserChangeNotification.class)
+                        .getResponseBody()
+                        .take(2)
+                        .collectList()
+                        .block(Duration.ofSeconds(10)))
+                .subscribeOn(Schedulers.boundedElastic())
+                .toFuture();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (changeStream.subscriberCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        webTestClient.patch().uri("/api/v1/users/{id}", 2)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{ \"names\": \"Arjun K\", \"attributes\": { \"regimen\": [\"subsidiado\"], \"peso\": [\"80\"] } }")
+                .exchange()
+                .expectStatus().isOk();
+        webTestClient.delete().uri("/api/v1/users/{id}", 3)
+                .exchange()
+                .expectStatus().isOk();
+
+        List<UserChangeNotification> changes = received.get(10, TimeUnit.SECONDS);
+        UserChangeNotification updated = changes.get(0);
+        assertEquals(UserChangeEvent.Type.UPDATED, updated.getChange().getType());
+        assertEquals(2, updated.getChange().getUserId());
+        assertEquals("Arjun K", updated.getChange().getNames());
+        assertEquals("CC", updated.getChange().getIdentificationType());
+        // only the attribute whose values changed
+        assertEquals(Collections.singletonMap("regimen", Collections.singletonList("subsidiado")), updated.getChange().getAttributes());
+        assertEquals(0, updated.getMissed());
+
+        UserChangeNotification deleted = changes.get(1);
+        assertEquals(UserChangeEvent.Type.DELETED, deleted.getChange().getType());
+        assertEquals(3, deleted.getChange().getUserId());
+        assertEquals(updated.getSequence() + 1, deleted.getSequence());
+    }
+
+    @Test
+    public void getChanges_ReturnsOnlyUsersWrittenOrDeletedSinceToken(){
+        ChangesResponse initial = webTestClient.get().uri("/api/v1/users/changes?limit=2")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(ChangesResponse.class)
+                .returnResult().getResponseBody();
+        assertNotNull(initial);
+        assertEquals(2, initial.getContent().size());
+        assertTrue(initial.isHasMore());
+        ChangesResponse rest = webTestClient.get().uri("/api/v1/users/changes?since={token}", initial.getNext())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(ChangesResponse.class)
+                .returnResult().getResponseBody();
+        assertEquals(1, rest.getContent().size());
+        assertEquals(false, rest.isHasMore());
+
+        // an attribute-only change, a deletion and an untouched user
+        webTestClient.patch().uri("/api/v1/users/{id}", 1)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{ \"attributes\": { \"regimen\": [\"subsidiado\"] } }")
+                .exchange()
+                .expectStatus().isOk();
+        webTestClient.delete().uri("/api/v1/users/{id}", 3)
+                .exchange()
+                .expectStatus().isOk();
+
+        ChangesResponse delta = webTestClient.get().uri("/api/v1/users/changes?since={token}", rest.getNext())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(ChangesResponse.class)
+                .returnResult().getResponseBody();
+        assertEquals(1, delta.getContent().size());
+        assertEquals(1, delta.getContent().get(0).getId());
+        // current state, all attributes included
+        assertTrue(delta.getContent().get(0).getAttributes().stream().anyMatch(a -> a.getAttribute_name().equals("regimen")));
+        assertTrue(delta.getContent().get(0).getAttributes().size() > 1);
+        assertEquals(List.of(3), delta.getDeleted());
+
+        // nothing new: same token back
+        webTestClient.get().uri("/api/v1/users/changes?since={token}", delta.getNext())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.content.length()").isEqualTo(0)
+                .jsonPath("$.deleted.length()").isEqualTo(0)
+                .jsonPath("$.next").isEqualTo(delta.getNext());
+
+        webTestClient.get().uri("/api/v1/users/changes?since=bogus")
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    public void updateUser_NoChanges_TouchesNoRows(){
+        String json = """
+            { "names": "Suman", "lastnames": "Das", "identification_type": "CC", "identification_number": "0",
+              "attributes": { "fecha de nacimiento": ["1992-05-06"] } }
+        """;
+        webTestClient.put().uri("/api/v1/users/{id}", 1)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(json)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals("X-Rows-Touched", "0")
+                .expectBody()
+                .jsonPath("$.names").isEqualTo("Suman");
+    }
+
+    @Test
+    public void updateUser_OnlyChangedRowsAreWritten(){
+        // one value replaced (1 delete + 1 insert), one attribute added (1 attribute row + 1 value), user row untouched
+        String json = """
+            { "names": "Suman", "lastnames": "Das", "identification_type": "CC", "identification_number": "0",
+              "attributes": { "fecha de nacimiento": ["1992-05-07"], "regimen": ["subsidiado"] } }
+        """;
+        webTestClient.put().uri("/api/v1/users/{id}", 1)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(json)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals("X-Rows-Touched", "4");
+
+        // PATCH of a single field writes only the users row
+        webTestClient.patch().uri("/api/v1/users/{id}", 1)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{ \"names\": \"Suman K\" }")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals("X-Rows-Touched", "1");
+
+        // PUT without attributes removes both (2 values + 2 attribute rows)
+        webTestClient.put().uri("/api/v1/users/{id}", 1)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{ \"names\": \"Suman K\", \"lastnames\": \"Das\", \"identification_type\": \"CC\", \"identification_number\": \"0\" }")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals("X-Rows-Touched", "4");
+
+        webTestClient.get().uri("/api/v1/users/{id}", 1)
+                .exchange()
+                .expectBody()
+                .jsonPath("$.names").isEqualTo("Suman K")
+                .jsonPath("$.attributes.length()").isEqualTo(0);
+    }
+
+    @Test
+    public void findUsersByAttribute_RangeUsesTypedValues(){
+        String young = """
+            { "names": "Nino", "lastnames": "Uno", "identification_type": "TI", "identification_number": "901",
+              "attributes": { "edad": ["9"], "ultima consulta": ["2023-12-31"] } }
+        """;
+        String adult = """
+            { "names": "Adulto", "lastnames": "Dos", "identification_type": "CC", "identification_number": "902",
+              "attributes": { "edad": ["30"], "ultima consulta": ["2024-06-06"] } }
+        """;
+        for(String json : List.of(young, adult)){
+            webTestClient.post().uri("/api/v1/users")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue(json)
+                    .exchange()
+                    .expectStatus().isCreated();
+        }
+
+        // como texto "9" > "10"; como número no
+        webTestClient.get().uri("/api/v1/users/by/{name}/{value}?relation=gt", "edad", "10")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(1)
+                .jsonPath("$[0].names").isEqualTo("Adulto");
+
+        webTestClient.get().uri("/api/v1/users/by/{name}/{value}?relation=lt", "ultima consulta", "2024-01-01")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(1)
+                .jsonPath("$[0].names").isEqualTo("Nino");
+    }
+
+    @Test
+    public void findUsersByAttribute_RangeMixesDatesAndTimestamps(){
+        String[] patients = {
+            """
+            { "names": "Fecha", "lastnames": "A", "identification_type": "CC", "identification_number": "911",
+              "attributes": { "ultima consulta": ["2024-03-01"] } }
+            """,
+            """
+            { "names": "FechaHora", "lastnames": "B", "identification_type": "CC", "identification_number": "912",
+              "attributes": { "ultima consulta": ["2024-03-01T10:00"] } }
+            """,
+            """
+            { "names": "Antigua", "lastnames": "C", "identification_type": "CC", "identification_number": "913",
+              "attributes": { "ultima consulta": ["2024-02-01T08:00"] } }
+            """
+        };
+        for(String json : patients){
+            webTestClient.post().uri("/api/v1/users")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue(json)
+                    .exchange()
+                    .expectStatus().isCreated();
+        }
+
+        // límite de fecha: también alcanza los valores guardados como fecha-hora
+        webTestClient.get().uri("/api/v1/users/by/{name}/{value}?relation=gt", "ultima consulta", "2024-02-15")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(2)
+                .jsonPath("$[0].names").isEqualTo("Fecha")
+                .jsonPath("$[1].names").isEqualTo("FechaHora");
+
+        // límite de fecha-hora: una fecha cuenta como su medianoche
+        webTestClient.get().uri("/api/v1/users/by/{name}/{value}?relation=lt", "ultima consulta", "2024-03-01T09:00")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(2)
+                .jsonPath("$[0].names").isEqualTo("Fecha")
+                .jsonPath("$[1].names").isEqualTo("Antigua");
+
+        webTestClient.post().uri("/api/v1/users/search")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{ \"filter\": { \"attribute\": \"ultima consulta\", \"relation\": \"gt\", \"value\": \"2024-02-15\" } }")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.content.length()").isEqualTo(2)
+                .jsonPath("$.content[0].names").isEqualTo("Fecha")
+                .jsonPath("$.content[1].names").isEqualTo("FechaHora");
+    }
+
+    @Test
+    public void searchUsers_CompositePredicateWithProjectionAndCursor(){
+        String[] patients = {
+            """
+            { "names": "P1", "lastnames": "A", "identification_type": "CC", "identification_number": "7001",
+              "attributes": { "regimen": ["subsidiado"], "entidad de salud": ["sura"], "ultima consulta": ["2024-03-01"] } }
+            """,
+            """
+            { "names": "P2", "lastnames": "B", "identification_type": "CC", "identification_number": "7002",
+              "attributes": { "regimen": ["subsidiado"], "entidad de salud": ["sura"], "ultima consulta": ["2023-03-01"] } }
+            """,
+            """
+            { "names": "P3", "lastnames": "C", "identification_type": "CC", "identification_number": "7003",
+              "attributes": { "regimen": ["subsidiado"], "entidad de salud": ["nueva eps"], "ultima consulta": ["2024-05-01"] } }
+            """,
+            """
+            { "names": "P4", "lastnames": "D", "identification_type": "CC", "identification_number": "7004",
+              "attributes": { "regimen": ["contributivo"], "entidad de salud": ["sura"], "ultima consulta": ["2024-05-01"] } }
+            """
+        };
+        for(String json : patients){
+            webTestClient.post().uri("/api/v1/users")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue(json)
+                    .exchange()
+                    .expectStatus().isCreated();
+        }
+
+        // regimen = subsidiado AND (entidad = sura OR entidad = nueva eps) AND ultima consulta > 2024-01-01
+        String search = """
+            {
+              "filter": { "and": [
+                { "attribute": "regimen", "relation": "eq", "value": "subsidiado" },
+                { "or": [
+                  { "attribute": "entidad de salud", "value": "sura" },
+                  { "attribute": "entidad de salud", "value": "nueva eps" }
+                ] },
+                { "attribute": "ultima consulta", "relation": "gt", "value": "2024-01-01" }
+              ] },
+              "limit": 1,
+              "attributes": ["entidad de salud"]
+            }
+        """;
+
+        PagedResponse<?> first = webTestClient.post().uri("/api/v1/users/search")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(search)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(PagedResponse.class)
+                .returnResult().getResponseBody();
+        assertNotNull(first);
+        assertEquals(1, first.getContent().size());
+        assertNotNull(first.getNext());
+
+        webTestClient.post().uri("/api/v1/users/search")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(search.replace("\"limit\": 1,", "\"limit\": 1, \"cursor\": \"" + first.getNext() + "\","))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.content.length()").isEqualTo(1)
+                .jsonPath("$.content[0].names").isEqualTo("P3")
+                .jsonPath("$.content[0].attributes[0].attribute_name").isEqualTo("entidad de salud")
+                .jsonPath("$.content[0].attributes[0].values[0]").isEqualTo("nueva eps")
+                .jsonPath("$.isLast").isEqualTo(true);
+    }
+
+    @Test
+    public void searchUsers_InvalidRelation_ReturnsBadRequest(){
+        webTestClient.post().uri("/api/v1/users/search")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{ \"filter\": { \"attribute\": \"edad\", \"relation\": \"between\", \"value\": \"1\" } }")
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
     @Test
     public void createUserWithAttributes() throws Exception{
     String json = "{\n" +
@@ -232,7 +802,7 @@ public class UserControllerTest {
         .jsonPath("$.id").isEqualTo(1);
 
     // verify fecha de nacimiento updated
-    Integer attrId = databaseClient.sql("SELECT id FROM attribute_user WHERE user_id = $1 AND name_attribute = $2")
+    Integer attrId = databaseClient.sql("SELECT au.id FROM attribute_user au JOIN attribute_definition ad ON ad.id = au.definition_id WHERE au.user_id = $1 AND ad.name = $2")
         .bind(0, 1)
         .bind(1, "fecha de nacimiento")
         .map((r,m) -> {
@@ -257,7 +827,7 @@ public class UserControllerTest {
     assertEquals("2000-01-01", val);
 
     // verify new attribute exists
-    Integer newAttrId = databaseClient.sql("SELECT id FROM attribute_user WHERE user_id = $1 AND name_attribute = $2")
+    Integer newAttrId = databaseClient.sql("SELECT au.id FROM attribute_user au JOIN attribute_definition ad ON ad.id = au.definition_id WHERE au.user_id = $1 AND ad.name = $2")
         .bind(0, 1)
         .bind(1, "nuevo atributo")
         .map((r,m) -> {
@@ -296,6 +866,82 @@ public class UserControllerTest {
                 .jsonPath("$.isLast").isEqualTo(true);
     }
 
+    @Test
+    public void getAllUsersWithCursor_WalksAllPages(){
+        webTestClient.get().uri("/api/v1/users?cursor=&size=2").exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.content.length()").isEqualTo(2)
+                .jsonPath("$.content[0].id").isEqualTo(1)
+                .jsonPath("$.content[1].id").isEqualTo(2)
+                .jsonPath("$.totalElements").doesNotExist()
+                .jsonPath("$.page").doesNotExist()
+                .jsonPath("$.isLast").isEqualTo(false)
+                .jsonPath("$.next").isNotEmpty();
+
+        String next = nextCursor("/api/v1/users?cursor=&size=2");
+
+        webTestClient.get().uri("/api/v1/users?cursor={cursor}&size=2&count=true", next).exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.content.length()").isEqualTo(1)
+                .jsonPath("$.content[0].id").isEqualTo(3)
+                .jsonPath("$.totalElements").isEqualTo(3)
+                .jsonPath("$.isLast").isEqualTo(true)
+                .jsonPath("$.next").doesNotExist();
+    }
+
+    @Test
+    public void getAllUsersWithCursor_InvalidCursor_ReturnsBadRequest(){
+        webTestClient.get().uri("/api/v1/users?cursor=not-a-cursor").exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    public void getAllUsersWithCursor_OutOfRangeCursor_ReturnsBadRequest(){
+        // 2^32 + 1 would wrap to id 1
+        webTestClient.get().uri("/api/v1/users?cursor={cursor}", PageCursor.encode(4294967297L)).exchange()
+                .expectStatus().isBadRequest();
+        webTestClient.get().uri("/api/v1/users?cursor={cursor}", PageCursor.encode(-5)).exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    public void getAllUsers_MaxIntSize_IsClamped(){
+        // size + 1 y page * size desbordaban con Integer.MAX_VALUE
+        webTestClient.get().uri("/api/v1/users?cursor=&size=2147483647").exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.content.length()").isEqualTo(3)
+                .jsonPath("$.size").isEqualTo(1000)
+                .jsonPath("$.isLast").isEqualTo(true);
+        webTestClient.get().uri("/api/v1/users?page=0&size=2147483647&count=false").exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.content.length()").isEqualTo(3)
+                .jsonPath("$.size").isEqualTo(1000)
+                .jsonPath("$.isLast").isEqualTo(true);
+        webTestClient.get().uri("/api/v1/users?page=2147483647&size=1000").exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    public void getAllUsersWithPagination_WithoutCount(){
+        webTestClient.get().uri("/api/v1/users?page=0&size=2&count=false").exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.content.length()").isEqualTo(2)
+                .jsonPath("$.totalElements").doesNotExist()
+                .jsonPath("$.isLast").isEqualTo(false);
+    }
+
+    private String nextCursor(String uri){
+        return webTestClient.get().uri(uri).exchange()
+                .expectStatus().isOk()
+                .returnResult(PagedResponse.class)
+                .getResponseBody().blockFirst().getNext();
+    }
+
     @Test
     public void getAllUsersWithAttributes_FilterSpecificAttribute(){
         webTestClient.get().uri("/api/v1/users?attributes=fecha%20de%20nacimiento").exchange()
@@ -305,6 +951,22 @@ public class UserControllerTest {
                 .jsonPath("$.content").isArray();
     }
 
+    @Test
+    public void getAllUsersWithAttributes_KeepsPageOrderAndFiltersByName(){
+        insertAttribute(1, "regimen");
+
+        webTestClient.get().uri("/api/v1/users?attributes={attributes}", "fecha de nacimiento").exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.content[0].id").isEqualTo(1)
+                .jsonPath("$.content[1].id").isEqualTo(2)
+                .jsonPath("$.content[2].id").isEqualTo(3)
+                .jsonPath("$.content[0].attributes.length()").isEqualTo(1)
+                .jsonPath("$.content[0].attributes[0].attribute_name").isEqualTo("fecha de nacimiento")
+                .jsonPath("$.content[0].attributes[0].values[0]").isEqualTo("1992-05-06")
+                .jsonPath("$.content[1].attributes.length()").isEqualTo(0);
+    }
+
     @Test
     public void patchUser_PartialUpdate_Success(){
         String requestBody = """
@@ -412,4 +1074,41 @@ public class UserControllerTest {
                 .exchange()
                 .expectStatus().isNotFound();
     }
+
+    @Test
+    public void writeQueued_WritesBatchAndSkipsDeletedAndSupersededUsers(){
+        Map<Integer, Map<String, List<String>>> batch = new LinkedHashMap<>();
+        Map<String, List<String>> first = new LinkedHashMap<>();
+        first.put("fecha de nacimiento", Collections.singletonList("1990-01-01"));
+        first.put("ultima consulta", Collections.singletonList("2024-05-02"));
+        batch.put(1, first);
+        batch.put(2, Collections.singletonMap("ultima consulta", Arrays.asList("2024-05-01", "2024-05-03")));
+        batch.put(3, Collections.singletonMap("ultima consulta", Collections.singletonList("2024-05-01")));
+        batch.put(999, Collections.singletonMap("ultima consulta", Collections.singletonList("2024-05-01")));
+
+        // 1 value replaced (delete + insert) plus 3 new values; user 3 was replaced after the update was queued
+        assertEquals(5L, valueAttributeService.writeQueued(batch, userId -> userId == 3).block());
+
+        webTestClient.get().uri("/api/v1/users/1")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.attributes.length()").isEqualTo(2)
+                .jsonPath("$.attributes[0].values[0]").isEqualTo("1990-01-01")
+                .jsonPath("$.attributes[1].attribute_name").isEqualTo("ultima consulta")
+                .jsonPath("$.attributes[1].values[0]").isEqualTo("2024-05-02");
+        webTestClient.get().uri("/api/v1/users/2")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.attributes[0].values.length()").isEqualTo(2);
+        webTestClient.get().uri("/api/v1/users/3")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.attributes.length()").isEqualTo(0);
+        webTestClient.get().uri("/api/v1/users/999")
+                .exchange()
+                .expectStatus().isNotFound();
+    }
 }
@@ -0,0 +1,120 @@
+package com.reactive.nexo.test.event;
+
+import com.reactive.nexo.event.UserChangeEvent;
+import com.reactive.nexo.event.UserChangeNotification;
+import com.reactive.nexo.event.UserChangeStream;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.Disposable;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class UserChangeStreamTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private static UserChangeEvent updated(int userId) {
+        return new UserChangeEvent(UserChangeEvent.Type.UPDATED, userId, null, null, null, null, null);
+    }
+
+    @Test
+    public void onUserChange_DropPolicyReportsMissedChangesOnNextDelivery() {
+        UserChangeStream stream = new UserChangeStream(registry, 2, 10, "drop");
+
+        StepVerifier.create(stream.subscribe(), 0)
+                .then(() -> {
+                    for (int userId = 1; userId <= 4; userId++) {
+                        stream.onUserChange(updated(userId));
+                    }
+                })
+                // two fit in the buffer, 3 and 4 were dropped
+                .thenRequest(2)
+                .expectNextMatches(n -> n.getChange().getUserId() == 1 && n.getMissed() == 0)
+                .expectNextMatches(n -> n.getChange().getUserId() == 2 && n.getMissed() == 0)
+                .then(() -> stream.onUserChange(updated(5)))
+                .thenRequest(1)
+                .expectNextMatches(n -> n.getChange().getUserId() == 5 && n.getMissed() == 2 && n.getSequence() == 5)
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+
+        assertEquals(0, stream.subscriberCount());
+        assertEquals(5.0, registry.get("nexo.events.published").counter().count());
+    }
+
+    @Test
+    public void onUserChange_DisconnectPolicyEndsSlowSubscriberAfterItsBuffer() {
+        UserChangeStream stream = new UserChangeStream(registry, 2, 10, "disconnect");
+
+        StepVerifier.create(stream.subscribe().map(UserChangeNotification::getSequence), 0)
+                .then(() -> {
+                    for (int userId = 1; userId <= 5; userId++) {
+                        stream.onUserChange(updated(userId));
+                    }
+                })
+                .thenRequest(10)
+                .expectNextCount(2)
+                .expectComplete()
+                .verify(Duration.ofSeconds(5));
+
+        assertEquals(0, stream.subscriberCount());
+        assertEquals(1.0, registry.get("nexo.events.disconnected").counter().count());
+    }
+
+    @Test
+    public void subscribe_RejectsBeyondMaxSubscribers() {
+        UserChangeStream stream = new UserChangeStream(registry, 2, 1, "drop");
+        stream.subscribe().subscribe();
+
+        StepVerifier.create(stream.subscribe())
+                .expectError(ResponseStatusException.class)
+                .verify();
+        assertEquals(1, stream.subscriberCount());
+    }
+
+    @Test
+    public void subscribe_ConcurrentSubscriptionsNeverExceedMax() throws Exception {
+        UserChangeStream stream = new UserChangeStream(registry, 2, 3, "drop");
+        int attempts = 32;
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger rejected = new AtomicInteger();
+        List<Disposable> streams = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Disposable>> futures = new ArrayList<>();
+            for (int i = 0; i < attempts; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return stream.subscribe().subscribe(n -> { }, e -> rejected.incrementAndGet());
+                }));
+            }
+            start.countDown();
+            for (Future<Disposable> future : futures) {
+                streams.add(future.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(3, stream.subscriberCount());
+        assertEquals(attempts - 3, rejected.get());
+
+        // a closed stream frees its slot
+        streams.forEach(Disposable::dispose);
+        assertEquals(0, stream.subscriberCount());
+        StepVerifier.create(stream.subscribe())
+                .thenCancel()
+                .verify();
+    }
+}
@@ -0,0 +1,77 @@
+package com.reactive.nexo.test.index;
+
+import com.reactive.nexo.index.UserIdSet;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class UserIdSetTest {
+
+    @Test
+    public void addRemoveContains_AcrossChunks() {
+        UserIdSet set = UserIdSet.of(5, 1, 70000, 5);
+        assertEquals(3, set.cardinality());
+        assertTrue(set.contains(70000));
+        assertFalse(set.contains(2));
+        assertArrayEquals(new int[]{1, 5, 70000}, set.toArray());
+
+        assertTrue(set.remove(70000));
+        assertFalse(set.remove(70000));
+        assertArrayEquals(new int[]{1, 5}, set.toArray());
+    }
+
+    @Test
+    public void denseChunk_SwitchesToBitmapAndBack() {
+        UserIdSet set = new UserIdSet();
+        for (int id = 0; id < 10000; id++) {
+            set.add(id);
+        }
+        assertEquals(10000, set.cardinality());
+        // bitmap: 8 KiB instead of 2 bytes per id
+        assertTrue(set.sizeInBytes() < 10000 * 2);
+        for (int id = 0; id < 9000; id++) {
+            set.remove(id);
+        }
+        assertEquals(1000, set.cardinality());
+        assertTrue(set.contains(9999));
+        assertFalse(set.contains(10));
+    }
+
+    @Test
+    public void andOr_MatchTreeSet() {
+        Random random = new Random(42);
+        UserIdSet a = new UserIdSet();
+        UserIdSet b = new UserIdSet();
+        TreeSet<Integer> expectedA = new TreeSet<>();
+        TreeSet<Integer> expectedB = new TreeSet<>();
+        for (int i = 0; i < 20000; i++) {
+            int x = random.nextInt(200000);
+            int y = random.nextInt(200000);
+            a.add(x);
+            expectedA.add(x);
+            b.add(y);
+            expectedB.add(y);
+        }
+        TreeSet<Integer> intersection = new TreeSet<>(expectedA);
+        intersection.retainAll(expectedB);
+        TreeSet<Integer> union = new TreeSet<>(expectedA);
+        union.addAll(expectedB);
+
+        assertArrayEquals(intersection.stream().mapToInt(Integer::intValue).toArray(), a.and(b).toArray());
+        assertArrayEquals(union.stream().mapToInt(Integer::intValue).toArray(), a.or(b).toArray());
+    }
+
+    @Test
+    public void page_ReturnsIdsAfterCursor() {
+        UserIdSet set = UserIdSet.of(1, 3, 5, 70000, 70001);
+        assertArrayEquals(new int[]{5, 70000}, set.page(3, 2));
+        assertArrayEquals(new int[]{70001}, set.page(70000, 10));
+        assertArrayEquals(new int[0], set.page(70001, 10));
+    }
+}
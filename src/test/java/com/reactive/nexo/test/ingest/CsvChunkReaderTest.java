@@ -0,0 +1,80 @@
+package com.reactive.nexo.test.ingest;
+
+import com.reactive.nexo.ingest.CsvChunkReader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class CsvChunkReaderTest {
+
+    @TempDir
+    Path dir;
+
+    private static final String CSV = "﻿names,lastnames,alergias\r\n"
+            + "Ana,\"Rojas, Pérez\",polen|nueces\r\n"
+            + "\r\n"
+            + "\"Luis \"\"el\"\" \",Mora,\"dos\nlíneas\"\n"
+            + "Eva,,";
+
+    @Test
+    public void next_ParsesQuotesLineBreaksAndBomAcrossTinyChunks() throws Exception {
+        Path file = write(CSV);
+        try (CsvChunkReader reader = new CsvChunkReader(file, 0, 16, ',')) {
+            List<List<String>> records = readAll(reader);
+            assertEquals(Arrays.asList(
+                    Arrays.asList("names", "lastnames", "alergias"),
+                    Arrays.asList("Ana", "Rojas, Pérez", "polen|nueces"),
+                    Arrays.asList("Luis \"el\" ", "Mora", "dos\nlíneas"),
+                    Arrays.asList("Eva", "", "")), records);
+            assertEquals(reader.size(), reader.offset());
+        }
+    }
+
+    @Test
+    public void offset_ResumesAfterLastRecordReturned() throws Exception {
+        Path file = write(CSV);
+        long afterSecond;
+        try (CsvChunkReader reader = new CsvChunkReader(file, 0, 16, ',')) {
+            reader.next();
+            reader.next();
+            afterSecond = reader.offset();
+        }
+        try (CsvChunkReader reader = new CsvChunkReader(file, afterSecond, 1024, ',')) {
+            List<List<String>> rest = readAll(reader);
+            assertEquals(2, rest.size());
+            assertEquals("Mora", rest.get(0).get(1));
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    public void next_UsesConfiguredDelimiter() throws Exception {
+        Path file = write("a;b\n1;\"x;y\"\n");
+        try (CsvChunkReader reader = new CsvChunkReader(file, 0, 1024, ';')) {
+            assertEquals(Arrays.asList(Arrays.asList("a", "b"), Arrays.asList("1", "x;y")), readAll(reader));
+        }
+    }
+
+    private Path write(String content) throws Exception {
+        Path file = dir.resolve("users.csv");
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static List<List<String>> readAll(CsvChunkReader reader) throws Exception {
+        List<List<String>> records = new ArrayList<>();
+        for (List<String> record = reader.next(); record != null; record = reader.next()) {
+            records.add(record);
+        }
+        return records;
+    }
+}
@@ -0,0 +1,113 @@
+package com.reactive.nexo.test.ingest;
+
+import com.reactive.nexo.dto.CreateUserRequest;
+import com.reactive.nexo.dto.ImportBatchResult;
+import com.reactive.nexo.dto.ImportRecordError;
+import com.reactive.nexo.ingest.CsvFileImporter;
+import com.reactive.nexo.ingest.CsvImportSummary;
+import com.reactive.nexo.ingest.ImportCheckpoint;
+import com.reactive.nexo.service.BulkImportService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CsvFileImporterTest {
+
+    private static final String CSV = "names,lastnames,identification_type,identification_number,regimen\n"
+            + "Ana,Rojas,CC,1,contributivo\n"
+            + "Luis,Mora,CC,2,\n"
+            + "Eva,Ruiz,CC,3,subsidiado\n"
+            + "Juan,Diaz,CC,4,\n"
+            + "Sara,Gil,CC,5,\n";
+
+    @TempDir
+    Path dir;
+
+    // records the imported record numbers instead of writing them; batch failBatch rolls back
+    private static final class RecordingImport extends BulkImportService {
+        final List<Long> imported = new ArrayList<>();
+        final List<String> names = new ArrayList<>();
+        int failBatch = -1;
+
+        RecordingImport() {
+            super(null, null, null, null, null, null, null, null, 2);
+        }
+
+        @Override
+        public Mono<ImportBatchResult> importBatch(int batchNumber, List<Tuple2<Long, CreateUserRequest>> records) {
+            if (batchNumber == failBatch) {
+                List<ImportRecordError> errors = records.stream()
+                        .map(record -> new ImportRecordError(record.getT1(), record.getT2().getIdentification_type(),
+                                record.getT2().getIdentification_number(), BulkImportService.ERROR, "connection refused"))
+                        .collect(Collectors.toList());
+                return Mono.just(new ImportBatchResult(batchNumber, records.size(), 0, errors, true));
+            }
+            records.forEach(record -> {
+                imported.add(record.getT1());
+                names.add(record.getT2().getNames());
+            });
+            return Mono.just(new ImportBatchResult(batchNumber, records.size(), records.size(), new ArrayList<>(), false));
+        }
+    }
+
+    private Path write() throws Exception {
+        Path file = dir.resolve("users.csv");
+        Files.write(file, CSV.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    public void importFile_FailedBatchStopsAndKeepsThePreviousCheckpoint() throws Exception {
+        Path file = write();
+        ImportCheckpoint checkpoint = new ImportCheckpoint(dir.resolve("users.checkpoint"));
+        RecordingImport bulk = new RecordingImport();
+        bulk.failBatch = 1;
+        CsvFileImporter importer = new CsvFileImporter(bulk, 1, Duration.ofMinutes(1), 64);
+
+        IllegalStateException error = assertThrows(IllegalStateException.class,
+                () -> importer.importFile(file, checkpoint, ',').block());
+        assertTrue(error.getMessage().contains("connection refused"));
+        // batches already in flight behind the failed one may still commit; the resume reports them as conflicts
+        assertEquals(Arrays.asList(0L, 1L), bulk.imported.subList(0, 2));
+        assertFalse(bulk.imported.contains(2L));
+        // resume point: right after the second record, the last one of the committed batch
+        long[] saved = checkpoint.load(file, Files.size(file));
+        assertEquals(2, saved[1]);
+        assertEquals(CSV.indexOf("Eva"), saved[0]);
+    }
+
+    @Test
+    public void importFile_ResumesAfterTheLastCommittedBatch() throws Exception {
+        Path file = write();
+        ImportCheckpoint checkpoint = new ImportCheckpoint(dir.resolve("users.checkpoint"));
+        RecordingImport failing = new RecordingImport();
+        failing.failBatch = 1;
+        assertThrows(IllegalStateException.class,
+                () -> new CsvFileImporter(failing, 1, Duration.ofMinutes(1), 64).importFile(file, checkpoint, ',').block());
+
+        RecordingImport bulk = new RecordingImport();
+        CsvImportSummary summary = new CsvFileImporter(bulk, 2, Duration.ofMinutes(1), 64)
+                .importFile(file, checkpoint, ',').block();
+
+        assertEquals(Arrays.asList(2L, 3L, 4L), bulk.imported);
+        assertEquals(Arrays.asList("Eva", "Juan", "Sara"), bulk.names);
+        assertEquals(3, summary.getRecords());
+        assertEquals(3, summary.getInserted());
+        assertFalse(Files.exists(checkpoint.getPath()));
+    }
+}
@@ -0,0 +1,141 @@
+package com.reactive.nexo.test.routing;
+
+import com.reactive.nexo.event.UserChangeEvent;
+import com.reactive.nexo.routing.ReadRouting;
+import com.reactive.nexo.routing.RecentWrites;
+import com.reactive.nexo.routing.ReplicaRoutingConnectionFactory;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryMetadata;
+import io.r2dbc.spi.R2dbcNonTransientResourceException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Publisher;
+import org.springframework.r2dbc.connection.R2dbcTransactionManager;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Primary and replicas are separate in-memory H2 databases whose single row names the database.
+ */
+public class ReplicaRoutingConnectionFactoryTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final RecentWrites recentWrites = new RecentWrites(Duration.ofSeconds(5));
+    private ReplicaRoutingConnectionFactory routing;
+
+    private static ConnectionFactory database(String name) {
+        ConnectionFactory connectionFactory = ConnectionFactories.get("r2dbc:h2:mem:///routing_" + name + "?options=DB_CLOSE_DELAY=-1");
+        DatabaseClient client = DatabaseClient.create(connectionFactory);
+        client.sql("CREATE TABLE IF NOT EXISTS node (name VARCHAR(20))").then()
+                .then(client.sql("DELETE FROM node").then())
+                .then(client.sql("INSERT INTO node VALUES ('" + name + "')").then())
+                .block();
+        return connectionFactory;
+    }
+
+    private Mono<String> node(DatabaseClient client) {
+        return client.sql("SELECT name FROM node").map(row -> row.get(0, String.class)).one();
+    }
+
+    private TransactionalOperator transactional(ConnectionFactory connectionFactory, int propagation, boolean readOnly) {
+        DefaultTransactionDefinition definition = new DefaultTransactionDefinition(propagation);
+        definition.setReadOnly(readOnly);
+        return TransactionalOperator.create(new R2dbcTransactionManager(connectionFactory), definition);
+    }
+
+    @AfterEach
+    public void close() {
+        if (routing != null) {
+            routing.close();
+        }
+    }
+
+    @Test
+    public void create_ReadOnlyReadsGoRoundRobinToReplicasAndEverythingElseToPrimary() {
+        routing = new ReplicaRoutingConnectionFactory(database("primary"), List.of(database("replica1"), database("replica2")),
+                recentWrites, Duration.ofSeconds(10), registry);
+        DatabaseClient client = DatabaseClient.create(routing);
+        TransactionalOperator readOnly = transactional(routing, TransactionDefinition.PROPAGATION_SUPPORTS, true);
+        TransactionalOperator readWrite = transactional(routing, TransactionDefinition.PROPAGATION_REQUIRED, false);
+        TransactionalOperator readOnlyTransaction = transactional(routing, TransactionDefinition.PROPAGATION_REQUIRED, true);
+
+        assertEquals("primary", node(client).block());
+        assertEquals("replica1", readOnly.transactional(node(client)).block());
+        assertEquals("replica2", readOnly.transactional(node(client)).block());
+        assertEquals("replica1", node(client).contextWrite(ReadRouting.users(List.of(1))).block());
+        assertEquals("primary", readWrite.transactional(node(client)).block());
+        // a real transaction takes its connection before the read-only flag is set
+        assertEquals("primary", readOnlyTransaction.transactional(node(client)).block());
+
+        assertEquals(3.0, registry.get("nexo.routing.connections").tag("target", "primary").counter().count());
+        assertEquals(3.0, registry.get("nexo.routing.connections").tag("target", "replica").counter().count());
+    }
+
+    @Test
+    public void create_RecentlyWrittenUsersAreReadFromPrimary() {
+        routing = new ReplicaRoutingConnectionFactory(database("primary"), List.of(database("replica1")),
+                recentWrites, Duration.ofSeconds(10), registry);
+        DatabaseClient client = DatabaseClient.create(routing);
+        recentWrites.onUserChange(new UserChangeEvent(UserChangeEvent.Type.UPDATED, 1, "n", "l", "CC", "100", null));
+
+        assertEquals("primary", node(client).contextWrite(ReadRouting.users(List.of(2, 1))).block());
+        assertEquals("primary", node(client).contextWrite(ReadRouting.identification("CC", "100")).block());
+        assertEquals("replica1", node(client).contextWrite(ReadRouting.users(List.of(2))).block());
+        assertEquals("replica1", node(client).contextWrite(ReadRouting.identification("CC", "200")).block());
+
+        RecentWrites disabled = new RecentWrites(Duration.ZERO);
+        disabled.recordUsers(List.of(2));
+        assertFalse(disabled.anyRecent(Collections.singletonList(2)));
+    }
+
+    @Test
+    public void create_FailingReplicaIsSkippedAndReadsFallBackToPrimary() {
+        AtomicInteger attempts = new AtomicInteger();
+        ConnectionFactory down = new ConnectionFactory() {
+            @Override
+            public Publisher<? extends Connection> create() {
+                return Mono.defer(() -> {
+                    attempts.incrementAndGet();
+                    return Mono.error(new R2dbcNonTransientResourceException("replica down"));
+                });
+            }
+
+            @Override
+            public ConnectionFactoryMetadata getMetadata() {
+                return () -> "down";
+            }
+        };
+        routing = new ReplicaRoutingConnectionFactory(database("primary"), List.of(down, database("replica2")),
+                recentWrites, Duration.ofSeconds(10), registry);
+        DatabaseClient client = DatabaseClient.create(routing);
+
+        // replica-0 fails and is marked down: every read lands on replica-1 while it stays down
+        for (int i = 0; i < 4; i++) {
+            assertEquals("replica2", node(client).contextWrite(ReadRouting.users(List.of(1))).block());
+        }
+        assertEquals(1, attempts.get());
+
+        ReplicaRoutingConnectionFactory onlyDown = new ReplicaRoutingConnectionFactory(database("primary"), List.of(down),
+                recentWrites, Duration.ZERO, registry);
+        try {
+            assertEquals("primary", node(DatabaseClient.create(onlyDown)).contextWrite(ReadRouting.users(List.of(1))).block());
+            assertEquals(1.0, registry.get("nexo.routing.fallbacks").counter().count());
+        } finally {
+            onlyDown.close();
+        }
+    }
+}
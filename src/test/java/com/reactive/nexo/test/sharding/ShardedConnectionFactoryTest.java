@@ -0,0 +1,165 @@
+package com.reactive.nexo.test.sharding;
+
+import com.reactive.nexo.sharding.ShardKey;
+import com.reactive.nexo.sharding.ShardedConnectionFactory;
+import com.reactive.nexo.sharding.Shards;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.r2dbc.connection.R2dbcTransactionManager;
+import org.springframework.r2dbc.connection.init.ResourceDatabasePopulator;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Three in-memory H2 databases as shards, with the users table of schema.sql reduced to what H2 accepts.
+ */
+public class ShardedConnectionFactoryTest {
+
+    private static final int SHARDS = 3;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final List<ConnectionFactory> databases = new ArrayList<>();
+    private ShardedConnectionFactory sharded;
+    private DatabaseClient client;
+    private Shards shards;
+
+    @BeforeEach
+    public void setUp() {
+        for (int i = 0; i < SHARDS; i++) {
+            databases.add(ConnectionFactories.get("r2dbc:h2:mem:///sharding_" + i + "?options=DB_CLOSE_DELAY=-1"));
+        }
+        sharded = new ShardedConnectionFactory(databases, registry);
+        ResourceDatabasePopulator schema = new ResourceDatabasePopulator();
+        schema.addScript(new ByteArrayResource((
+                "DROP TABLE IF EXISTS users;" +
+                "CREATE TABLE users (id INT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, names VARCHAR(100) NOT NULL," +
+                " identification_type VARCHAR(2) NOT NULL, identification_number VARCHAR(15) NOT NULL," +
+                " CONSTRAINT uq_users_identification UNIQUE (identification_type, identification_number));").getBytes()));
+        sharded.eachShard(schema).populate(sharded).block();
+        client = DatabaseClient.create(sharded);
+        shards = new Shards(sharded, registry);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        sharded.close();
+    }
+
+    private Mono<Integer> insert(String names, String number) {
+        return client.sql("INSERT INTO users (names, identification_type, identification_number) VALUES (:names, 'CC', :number)")
+                .bind("names", names)
+                .bind("number", number)
+                .filter(statement -> statement.returnGeneratedValues("id"))
+                .map(row -> row.get("id", Integer.class))
+                .one()
+                .contextWrite(ShardKey.identification("CC", number));
+    }
+
+    private Mono<String> namesOnShard(int shard, int id) {
+        return DatabaseClient.create(databases.get(shard)).sql("SELECT names FROM users WHERE id = :id")
+                .bind("id", id)
+                .map(row -> row.get(0, String.class))
+                .one();
+    }
+
+    private TransactionalOperator transactional(boolean readOnly) {
+        DefaultTransactionDefinition definition = new DefaultTransactionDefinition(TransactionDefinition.PROPAGATION_REQUIRED);
+        definition.setReadOnly(readOnly);
+        return TransactionalOperator.create(new R2dbcTransactionManager(sharded), definition);
+    }
+
+    @Test
+    public void insert_LandsOnIdentificationShardWithIdThatPointsBackToIt() {
+        for (int i = 1; i <= 30; i++) {
+            String number = String.valueOf(1000 + i);
+            int id = insert("user " + i, number).block();
+            int shard = ShardKey.shardOfIdentification("CC", number, SHARDS);
+            assertEquals(shard, ShardKey.shardOfUser(id, SHARDS), "id " + id);
+            assertEquals("user " + i, namesOnShard(shard, id).block());
+            assertEquals("user " + i, client.sql("SELECT names FROM users WHERE id = :id").bind("id", id)
+                    .map(row -> row.get(0, String.class)).one().contextWrite(ShardKey.user(id)).block());
+        }
+        // every shard got some of the 30 users
+        for (int shard = 0; shard < SHARDS; shard++) {
+            assertTrue(registry.get("nexo.sharding.statements").tag("shard", String.valueOf(shard)).counter().count() > 0);
+        }
+    }
+
+    @Test
+    public void execute_WithoutShardKeyFails() {
+        StepVerifier.create(client.sql("SELECT count(*) FROM users").map(row -> row.get(0, Long.class)).one())
+                .expectErrorMatches(e -> e instanceof IllegalStateException && e.getMessage().startsWith("No shard key"))
+                .verify();
+    }
+
+    @Test
+    public void transaction_StaysOnOneShardAndRollsBackThere() {
+        String number = "2001";
+        int shard = ShardKey.shardOfIdentification("CC", number, SHARDS);
+        Mono<Integer> failing = insert("rolled back", number)
+                .then(Mono.<Integer>error(new IllegalStateException("boom")));
+        StepVerifier.create(transactional(false).transactional(failing)).expectErrorMessage("boom").verify();
+        assertEquals(0L, DatabaseClient.create(databases.get(shard)).sql("SELECT count(*) FROM users")
+                .map(row -> row.get(0, Long.class)).one().block());
+
+        int id = transactional(false).transactional(insert("committed", number)).block();
+        assertEquals("committed", namesOnShard(shard, id).block());
+
+        // a second shard inside the same read-write transaction is refused
+        int other = (shard + 1) % SHARDS;
+        Mono<Long> spanning = insert("first", number + "0")
+                .then(client.sql("SELECT count(*) FROM users").map(row -> row.get(0, Long.class)).one()
+                        .contextWrite(ShardKey.shard(other)))
+                .contextWrite(ShardKey.shard(ShardKey.shardOfIdentification("CC", number + "0", SHARDS)));
+        StepVerifier.create(transactional(false).transactional(spanning))
+                .expectErrorMatches(e -> e instanceof IllegalStateException && e.getMessage().contains("cannot span shards"))
+                .verify();
+    }
+
+    @Test
+    public void mergeOrdered_PagesAcrossShardsInIdOrder() {
+        List<Integer> ids = Flux.range(1, 40).concatMap(i -> insert("user " + i, String.valueOf(5000 + i))).collectList().block();
+        List<Integer> sorted = ids.stream().sorted().collect(Collectors.toList());
+
+        // keyset page after the 10th id, in a read-only transaction that reads every shard
+        Flux<Integer> page = shards.mergeOrdered(Comparator.<Integer>naturalOrder(),
+                        () -> client.sql("SELECT id FROM users WHERE id > :after ORDER BY id LIMIT :limit")
+                                .bind("after", sorted.get(9)).bind("limit", 7)
+                                .map(row -> row.get(0, Integer.class)).all())
+                .take(7);
+        assertEquals(sorted.subList(10, 17), transactional(true).transactional(page).collectList().block());
+
+        Flux<Integer> offsetPage = shards.mergeOrderedPage(Comparator.<Integer>naturalOrder(), 20, 5,
+                (limit, offset) -> client.sql("SELECT id FROM users ORDER BY id LIMIT :limit OFFSET :offset")
+                        .bind("limit", limit).bind("offset", offset)
+                        .map(row -> row.get(0, Integer.class)).all());
+        assertEquals(sorted.subList(20, 25), offsetPage.collectList().block());
+
+        assertEquals(40L, shards.sum(() -> client.sql("SELECT count(*) FROM users").map(row -> row.get(0, Long.class)).one()).block());
+
+        List<Integer> wanted = IntStream.of(3, 17, 29, 38).mapToObj(sorted::get).collect(Collectors.toList());
+        List<Integer> found = shards.byUserIds(wanted, group -> client.sql("SELECT id FROM users WHERE id IN (:ids)")
+                        .bind("ids", group).map(row -> row.get(0, Integer.class)).all())
+                .sort().collectList().block();
+        assertEquals(wanted.stream().sorted().collect(Collectors.toList()), found);
+    }
+}
@@ -0,0 +1,42 @@
+package com.reactive.nexo.test.snapshot;
+
+import com.reactive.nexo.ingest.CsvChunkReader;
+import com.reactive.nexo.snapshot.CsvChunkWriter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class CsvChunkWriterTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void writeRecord_QuotesOnlyWhenNeededAcrossBufferFlushes() throws Exception {
+        Path file = dir.resolve("out.csv");
+        String[] tricky = {"1", "Rojas, Pérez", "dice \"hola\"", null, "dos\nlíneas", "ñandú"};
+        try (CsvChunkWriter writer = new CsvChunkWriter(file, 64, ',')) {
+            for (int i = 0; i < 50; i++) {
+                writer.writeRecord(tricky);
+            }
+            writer.writeRecord(new String[]{"plain", "x"});
+        }
+        String content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        assertEquals("plain,x\n", content.substring(content.lastIndexOf("plain")));
+
+        try (CsvChunkReader reader = new CsvChunkReader(file, 0, 32, ',')) {
+            for (int i = 0; i < 50; i++) {
+                assertEquals(Arrays.asList("1", "Rojas, Pérez", "dice \"hola\"", "", "dos\nlíneas", "ñandú"), reader.next());
+            }
+            assertEquals(Arrays.asList("plain", "x"), reader.next());
+            assertNull(reader.next());
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.reactive.nexo.test.snapshot;
+
+import com.reactive.nexo.ingest.CsvChunkReader;
+import com.reactive.nexo.service.AttributeCatalog;
+import com.reactive.nexo.snapshot.SnapshotExporter;
+import com.reactive.nexo.snapshot.SnapshotResult;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = "nexo.snapshot.directory=target/snapshots")
+@DirtiesContext
+@ActiveProfiles("test")
+@Slf4j
+public class SnapshotExporterTest {
+
+    @Autowired
+    private SnapshotExporter snapshotExporter;
+
+    @Autowired
+    private DatabaseClient databaseClient;
+
+    @Autowired
+    private AttributeCatalog attributeCatalog;
+
+    @BeforeEach
+    public void setup() {
+        execute("TRUNCATE value_attribute_user, attribute_user, attribute_definition, users RESTART IDENTITY");
+        attributeCatalog.invalidateAll();
+    }
+
+    @Test
+    public void export_WritesOneColumnPerAttribute() throws Exception {
+        execute("INSERT INTO users (names, lastnames, identification_type, identification_number) VALUES " +
+                "('Ana', 'Rojas', 'CC', '1'), ('Luis', 'Mora, Jr', 'CC', '2')");
+        execute("INSERT INTO attribute_definition (name, multiple) VALUES ('regimen', false), ('alergias', true)");
+        execute("INSERT INTO attribute_user (user_id, definition_id) VALUES (1, 1), (1, 2), (2, 1)");
+        execute("INSERT INTO value_attribute_user (attribute_id, value_attribute) VALUES " +
+                "(1, 'subsidiado'), (2, 'polen'), (2, 'nueces'), (3, 'contributivo')");
+
+        SnapshotResult result = snapshotExporter.export().block(Duration.ofSeconds(30));
+
+        assertEquals(2, result.getUsers());
+        try (CsvChunkReader reader = new CsvChunkReader(result.getFile(), 0, 1024, ',')) {
+            assertEquals(Arrays.asList("id", "names", "lastnames", "identification_type", "identification_number", "alergias", "regimen"), reader.next());
+            assertEquals(Arrays.asList("1", "Ana", "Rojas", "CC", "1", "polen|nueces", "subsidiado"), reader.next());
+            assertEquals(Arrays.asList("2", "Luis", "Mora, Jr", "CC", "2", "", "contributivo"), reader.next());
+            assertEquals(null, reader.next());
+        }
+        Files.delete(result.getFile());
+    }
+
+    /**
+     * Throughput at 1M users with 5 attributes each; run with {@code mvn test -Dnexo.benchmark=true
+     * -Dtest=SnapshotExporterTest}.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "nexo.benchmark", matches = "true")
+    public void benchmark_OneMillionUsers() throws Exception {
+        int users = Integer.getInteger("nexo.benchmark.users", 1_000_000);
+        List<String> names = Arrays.asList("regimen", "entidad de salud", "ubicacion ciudad", "peso", "fecha de nacimiento");
+        long seedStart = System.nanoTime();
+        execute("INSERT INTO users (names, lastnames, identification_type, identification_number) " +
+                "SELECT 'Nombre ' || g, 'Apellido ' || g, 'CC', g::text FROM generate_series(1, " + users + ") g");
+        for (String name : names) {
+            execute("INSERT INTO attribute_definition (name) VALUES ('" + name + "')");
+        }
+        execute("INSERT INTO attribute_user (user_id, definition_id) " +
+                "SELECT u.id, d.id FROM users u CROSS JOIN attribute_definition d ORDER BY u.id, d.id");
+        execute("INSERT INTO value_attribute_user (attribute_id, value_attribute) " +
+                "SELECT au.id, 'valor ' || (au.user_id % 97) FROM attribute_user au");
+        execute("ANALYZE");
+        log.info("Seeded {} users in {} ms", users, (System.nanoTime() - seedStart) / 1_000_000);
+
+        SnapshotResult result = snapshotExporter.export().block(Duration.ofMinutes(30));
+
+        assertEquals(users, result.getUsers());
+        assertEquals(5 + names.size(), result.getColumns());
+        assertTrue(result.getBytes() > 0);
+        log.info("Snapshot: {} users, {} columns, {} MiB in {} ms -> {} users/s, {} MiB/s",
+                result.getUsers(), result.getColumns(), result.getBytes() >> 20, result.getElapsedMillis(),
+                String.format("%.0f", result.usersPerSecond()),
+                String.format("%.1f", result.getBytes() / 1048576.0 / Math.max(1, result.getElapsedMillis()) * 1000));
+        Files.delete(result.getFile());
+    }
+
+    private void execute(String sql) {
+        databaseClient.sql(sql).fetch().rowsUpdated().block();
+    }
+}
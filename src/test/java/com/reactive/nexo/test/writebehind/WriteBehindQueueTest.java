@@ -0,0 +1,262 @@
+package com.reactive.nexo.test.writebehind;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.reactive.nexo.service.ValueAttributeService;
+import com.reactive.nexo.sharding.Shards;
+import com.reactive.nexo.writebehind.WriteBehindQueue;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.dao.DataAccessResourceFailureException;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class WriteBehindQueueTest {
+
+    private static final String LAST_VISIT = "ultima consulta";
+
+    @TempDir
+    Path dir;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    // records the flushed batches instead of writing them; fails with failing while set, and for batches with a poison user
+    private static final class RecordingWriter extends ValueAttributeService {
+        final List<Map<Integer, Map<String, List<String>>>> batches = new ArrayList<>();
+        final Set<Integer> poison = new HashSet<>();
+        RuntimeException failing;
+        // set: each write signals entered and waits for held, like a transaction waiting for the row locks
+        CountDownLatch entered;
+        CountDownLatch held;
+
+        RecordingWriter() {
+            super(null, null, null, null, null, null);
+        }
+
+        @Override
+        public Mono<Long> writeQueued(Map<Integer, Map<String, List<String>>> updates, Predicate<Integer> superseded) {
+            return Mono.fromCallable(() -> {
+                if (held != null) {
+                    entered.countDown();
+                    held.await(5, TimeUnit.SECONDS);
+                }
+                if (failing != null) {
+                    throw failing;
+                }
+                if (updates.keySet().stream().anyMatch(poison::contains)) {
+                    throw new IllegalArgumentException("value too long");
+                }
+                Map<Integer, Map<String, List<String>>> written = new LinkedHashMap<>(updates);
+                written.keySet().removeIf(superseded);
+                batches.add(written);
+                return (long) written.size();
+            });
+        }
+    }
+
+    private WriteBehindQueue queue(RecordingWriter writer, int maxBatch) {
+        WriteBehindQueue queue = new WriteBehindQueue(writer, new Shards(null, registry), new ObjectMapper(), registry,
+                true, Collections.singletonList(LAST_VISIT), dir.toString(), false, maxBatch, Duration.ofHours(1), Duration.ofSeconds(5), 3);
+        queue.start();
+        return queue;
+    }
+
+    private static Map<String, List<String>> visit(String day) {
+        return Collections.singletonMap(LAST_VISIT, Collections.singletonList(day));
+    }
+
+    private long segments() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    public void select_OnlyDesignatedAttributes() {
+        WriteBehindQueue queue = queue(new RecordingWriter(), 10);
+        Map<String, List<String>> requested = new LinkedHashMap<>();
+        requested.put("telefono", Collections.singletonList("315"));
+        requested.put(LAST_VISIT, Collections.singletonList("2024-05-01"));
+        assertEquals(visit("2024-05-01"), queue.select(requested));
+    }
+
+    @Test
+    public void flush_CoalescesPerUserAndAttribute() {
+        RecordingWriter writer = new RecordingWriter();
+        WriteBehindQueue queue = queue(writer, 10);
+        queue.enqueue(1, visit("2024-05-01")).block();
+        queue.enqueue(2, visit("2024-05-01")).block();
+        queue.enqueue(1, visit("2024-05-02")).block();
+        assertEquals(2, queue.getDepth());
+        assertEquals(2.0, registry.get("nexo.writebehind.queue.depth").gauge().value());
+
+        assertEquals(2, queue.flush().block());
+        assertEquals(1, writer.batches.size());
+        assertEquals(visit("2024-05-02"), writer.batches.get(0).get(1));
+        assertEquals(visit("2024-05-01"), writer.batches.get(0).get(2));
+        assertEquals(1.0, registry.get("nexo.writebehind.updates").tag("result", "coalesced").counter().count());
+        assertEquals(1, registry.get("nexo.writebehind.flush").tag("result", "ok").timer().count());
+        assertEquals(0, queue.getDepth());
+        assertEquals(0, queue.flush().block());
+    }
+
+    @Test
+    public void enqueue_SizeTriggerFlushesInMaxBatchTransactions() throws InterruptedException {
+        RecordingWriter writer = new RecordingWriter();
+        WriteBehindQueue queue = queue(writer, 2);
+        queue.enqueue(1, visit("2024-05-01")).block();
+        queue.enqueue(2, visit("2024-05-01")).block();
+        for (int i = 0; i < 50 && queue.getDepth() > 0; i++) {
+            Thread.sleep(20);
+        }
+        // waits for the triggered flush to finish
+        queue.stop();
+        assertEquals(0, queue.getDepth());
+        assertEquals(Arrays.asList(1, 2), new ArrayList<>(writer.batches.get(0).keySet()));
+    }
+
+    @Test
+    public void flush_FailureKeepsUpdatesWithoutOverwritingNewerOnes() {
+        RecordingWriter writer = new RecordingWriter();
+        WriteBehindQueue queue = queue(writer, 10);
+        queue.enqueue(1, visit("2024-05-01")).block();
+        queue.enqueue(2, visit("2024-05-01")).block();
+        writer.failing = new IllegalStateException("database down");
+        assertThrows(IllegalStateException.class, () -> queue.flush().block());
+        assertEquals(2, queue.getDepth());
+
+        queue.enqueue(1, visit("2024-05-03")).block();
+        writer.failing = null;
+        queue.flush().block();
+        assertEquals(visit("2024-05-03"), writer.batches.get(0).get(1));
+        assertEquals(visit("2024-05-01"), writer.batches.get(0).get(2));
+    }
+
+    @Test
+    public void flush_FailingTransactionIsRetriedPerUserAndOnlyTheFailedUpdatesAreKept() {
+        RecordingWriter writer = new RecordingWriter();
+        writer.poison.add(2);
+        WriteBehindQueue queue = queue(writer, 10);
+        queue.enqueue(1, visit("2024-05-01")).block();
+        queue.enqueue(2, visit("2024-05-01")).block();
+        queue.enqueue(3, visit("2024-05-01")).block();
+
+        assertThrows(IllegalArgumentException.class, () -> queue.flush().block());
+        assertEquals(Arrays.asList(Collections.singletonMap(1, visit("2024-05-01")), Collections.singletonMap(3, visit("2024-05-01"))),
+                writer.batches);
+        assertEquals(1, queue.getDepth());
+
+        // the restarted queue only replays the update that was not written
+        RecordingWriter next = new RecordingWriter();
+        WriteBehindQueue restarted = queue(next, 10);
+        assertEquals(1, restarted.getDepth());
+        restarted.flush().block();
+        assertEquals(Collections.singletonList(Collections.singletonMap(2, visit("2024-05-01"))), next.batches);
+    }
+
+    @Test
+    public void flush_PoisonUpdateIsParkedAfterMaxAttempts() throws IOException {
+        RecordingWriter writer = new RecordingWriter();
+        writer.poison.add(2);
+        WriteBehindQueue queue = queue(writer, 10);
+        queue.enqueue(2, visit("2024-05-01")).block();
+        assertThrows(IllegalArgumentException.class, () -> queue.flush().block());
+        assertThrows(IllegalArgumentException.class, () -> queue.flush().block());
+        assertEquals(1, queue.getDepth());
+
+        assertEquals(0, queue.flush().block());
+        assertEquals(0, queue.getDepth());
+        assertEquals(1.0, registry.get("nexo.writebehind.parked").counter().count());
+        assertTrue(Files.readString(dir.resolve("write-behind-parked.log")).contains("2024-05-01"));
+        assertEquals(0, queue(new RecordingWriter(), 10).getDepth());
+    }
+
+    @Test
+    public void flush_UnavailableDatabaseNeverParks() {
+        RecordingWriter writer = new RecordingWriter();
+        writer.failing = new DataAccessResourceFailureException("connection refused");
+        WriteBehindQueue queue = queue(writer, 10);
+        queue.enqueue(1, visit("2024-05-01")).block();
+        queue.enqueue(2, visit("2024-05-01")).block();
+        for (int i = 0; i < 5; i++) {
+            assertThrows(DataAccessResourceFailureException.class, () -> queue.flush().block());
+        }
+        assertEquals(2, queue.getDepth());
+        assertEquals(0.0, registry.get("nexo.writebehind.parked").counter().count());
+
+        writer.failing = null;
+        assertEquals(2, queue.flush().block());
+    }
+
+    @Test
+    public void discard_SkipsTheUserInTheBatchBeingWritten() throws Exception {
+        RecordingWriter writer = new RecordingWriter();
+        WriteBehindQueue queue = queue(writer, 10);
+        queue.enqueue(1, visit("2024-05-01")).block();
+        queue.enqueue(2, visit("2024-05-01")).block();
+        writer.entered = new CountDownLatch(1);
+        writer.held = new CountDownLatch(1);
+        CompletableFuture<Integer> flush = queue.flush().toFuture();
+        assertTrue(writer.entered.await(5, TimeUnit.SECONDS));
+
+        // a full replace of user 1 holds its row while the flush waits for it
+        queue.discard(1).block();
+        writer.held.countDown();
+        flush.get(5, TimeUnit.SECONDS);
+
+        assertEquals(Collections.singletonList(Collections.singletonMap(2, visit("2024-05-01"))), writer.batches);
+        assertEquals(0, queue(new RecordingWriter(), 10).getDepth());
+    }
+
+    @Test
+    public void start_ReplaysJournalLeftByACrash() throws IOException {
+        WriteBehindQueue crashed = queue(new RecordingWriter(), 10);
+        crashed.enqueue(1, visit("2024-05-01")).block();
+        crashed.enqueue(1, visit("2024-05-02")).block();
+        crashed.enqueue(2, visit("2024-05-01")).block();
+        crashed.discard(2).block();
+        // no stop(): the process died with everything still queued
+
+        RecordingWriter writer = new RecordingWriter();
+        WriteBehindQueue restarted = queue(writer, 10);
+        assertEquals(1, restarted.getDepth());
+        restarted.flush().block();
+        assertEquals(Collections.singletonMap(1, visit("2024-05-02")), writer.batches.get(0));
+        // only the segment opened after the flush is left
+        assertEquals(1, segments());
+    }
+
+    @Test
+    public void stop_FlushesWhatIsLeft() throws IOException {
+        RecordingWriter writer = new RecordingWriter();
+        WriteBehindQueue queue = queue(writer, 10);
+        queue.enqueue(7, visit("2024-05-01")).block();
+        queue.stop();
+        assertEquals(1, writer.batches.size());
+
+        RecordingWriter next = new RecordingWriter();
+        assertEquals(0, queue(next, 10).getDepth());
+        assertTrue(segments() <= 2);
+    }
+}